@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
+import org.eclipse.milo.opcua.stack.core.types.structured.AddNodesItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AddNodes requests of the IoTDB sink: each request creates a new device, i.e. a chain of {@code
+ * depth} folders, and {@code batchSize} measurement variables in the last folder. The batches stay
+ * below the 250 nodes per request that the server accepts. Every benchmark thread adds its devices
+ * through a session of its own under a prefix of its own, e.g. run with {@code -t 8} to measure how
+ * 8 concurrent sinks contend on the namespace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OpcUaAddNodesBenchmark {
+
+  @Param({"1", "50", "200"})
+  public int batchSize;
+
+  @Param({"1", "4"})
+  public int depth;
+
+  private OpcUaBenchmarkServer server;
+  private final AtomicInteger sessionCount = new AtomicInteger();
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server = new OpcUaBenchmarkServer();
+    OpcUaBenchmarkServer.addNodes(
+        server.connect(),
+        Collections.singletonList(
+            server.folder(Identifiers.ObjectsFolder.expanded(), "root", "root")));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  @State(Scope.Thread)
+  public static class Session {
+    private OpcUaClient client;
+    private String prefix;
+    private long deviceCount;
+    private List<AddNodesItem> items;
+
+    @Setup(Level.Trial)
+    public void setUp(final OpcUaAddNodesBenchmark benchmark) throws Exception {
+      client = benchmark.server.connect();
+      prefix = "t" + benchmark.sessionCount.getAndIncrement() + "d";
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareDevice(final OpcUaAddNodesBenchmark benchmark) {
+      final OpcUaBenchmarkServer server = benchmark.server;
+      items = new ArrayList<>(benchmark.depth + benchmark.batchSize);
+      ExpandedNodeId parentId = server.nodeId("root").expanded();
+      String path = "root";
+      for (int level = 0; level < benchmark.depth; ++level) {
+        final String name = level == 0 ? prefix + deviceCount++ : "l" + level;
+        path = path + "." + name;
+        items.add(server.folder(parentId, path, name));
+        parentId = server.nodeId(path).expanded();
+      }
+      for (int i = 0; i < benchmark.batchSize; ++i) {
+        items.add(server.variable(parentId, path + ".s" + i, "s" + i));
+      }
+    }
+  }
+
+  @Benchmark
+  public void addNodes(final Session session) throws Exception {
+    OpcUaBenchmarkServer.addNodes(session.client, session.items);
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.openjdk.jmh.Main;
+
+import java.util.Arrays;
+
+/**
+ * Entry of benchmarks.jar. It takes the options of JMH's own {@link Main}, and writes the results
+ * as JSON unless a result format is given, so that the runs of two versions can be compared.
+ */
+public class OpcUaBenchmarkRunner {
+
+  private static final String RESULT_FORMAT_OPTION = "-rf";
+
+  private OpcUaBenchmarkRunner() {
+    // Utility class
+  }
+
+  public static void main(final String[] args) throws Exception {
+    if (Arrays.asList(args).contains(RESULT_FORMAT_OPTION)) {
+      Main.main(args);
+      return;
+    }
+    final String[] jsonArgs = new String[args.length + 2];
+    jsonArgs[0] = RESULT_FORMAT_OPTION;
+    jsonArgs[1] = "json";
+    System.arraycopy(args, 0, jsonArgs, 2, args.length);
+    Main.main(jsonArgs);
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import ch.qos.logback.classic.Level;
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.serialization.SerializationContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.structured.AddNodesItem;
+import org.eclipse.milo.opcua.stack.core.types.structured.AddNodesResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.ObjectAttributes;
+import org.eclipse.milo.opcua.stack.core.types.structured.VariableAttributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * An in-process server for the benchmarks: the namespace of {@link OpcUaServerRunner} on ephemeral
+ * ports, with its security and data dirs in a temporary dir, and the clients to drive it through
+ * the loopback interface like the IoTDB sinks do.
+ */
+class OpcUaBenchmarkServer implements Closeable {
+
+  static final String USER = "root";
+  static final String PASSWORD = "root";
+
+  // Milo's default limit of the nodes per AddNodes request
+  private static final int MAX_NODES_PER_ADD_NODES = 250;
+
+  private final Path baseDir;
+  private final OpcUaNameSpace nameSpace;
+  private final int namespaceIndex;
+  private final SerializationContext serializationContext;
+  private final String endpointUrl;
+  private final List<OpcUaClient> clients = Collections.synchronizedList(new ArrayList<>());
+
+  OpcUaBenchmarkServer() throws Exception {
+    this(false);
+  }
+
+  OpcUaBenchmarkServer(final boolean enableColumnarValueStore) throws Exception {
+    this(builder -> builder.setEnableColumnarValueStore(enableColumnarValueStore));
+  }
+
+  /** Starts the server with the given changes to the benchmark configuration. */
+  OpcUaBenchmarkServer(final Consumer<OpcUaServerBuilder> configuration) throws Exception {
+    // Milo logs every request at debug level, which would be measured as well
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME))
+        .setLevel(Level.WARN);
+
+    baseDir = Files.createTempDirectory("iotdb_opc_server_benchmark");
+    final int tcpBindPort = getEphemeralPort();
+    final OpcUaServerBuilder builder =
+        new OpcUaServerBuilder()
+            .setTcpBindPort(tcpBindPort)
+            .setHttpsBindPort(getEphemeralPort())
+            .setUser(USER)
+            .setPassword(PASSWORD)
+            .setSecurityDir(baseDir.resolve("security").toString())
+            .setDataDir(baseDir.resolve("data").toString())
+            .setSnapshotIntervalSeconds(0)
+            .setEnableAnonymousAccess(true)
+            .setSecurityPolicies(new HashSet<>(Collections.singleton(SecurityPolicy.None)));
+    configuration.accept(builder);
+    final OpcUaServer server = builder.build();
+    nameSpace = new OpcUaNameSpace(server, builder);
+    nameSpace.startup();
+    server.startup().get();
+
+    namespaceIndex = nameSpace.getNamespaceIndex().intValue();
+    serializationContext = server.getSerializationContext();
+    endpointUrl = "opc.tcp://localhost:" + tcpBindPort + "/iotdb";
+  }
+
+  /** Connects a new anonymous client without security, closed along with the server. */
+  OpcUaClient connect() throws UaException, ExecutionException, InterruptedException {
+    final OpcUaClient client =
+        OpcUaClient.create(
+            endpointUrl,
+            endpoints ->
+                endpoints.stream()
+                    .filter(
+                        endpoint ->
+                            SecurityPolicy.None.getUri().equals(endpoint.getSecurityPolicyUri()))
+                    .findFirst(),
+            configBuilder -> configBuilder.setRequestTimeout(uint(60_000)).build());
+    client.connect().get();
+    clients.add(client);
+    return client;
+  }
+
+  NodeId nodeId(final String path) {
+    return new NodeId(namespaceIndex, path);
+  }
+
+  /** An AddNodes item of a folder, the way the IoTDB sink creates the devices. */
+  AddNodesItem folder(final ExpandedNodeId parentId, final String path, final String name) {
+    final ObjectAttributes attributes =
+        new ObjectAttributes(
+            uint(0xFFFF),
+            LocalizedText.english(name),
+            LocalizedText.NULL_VALUE,
+            uint(0),
+            uint(0),
+            null);
+    return new AddNodesItem(
+        parentId,
+        Identifiers.Organizes,
+        nodeId(path).expanded(),
+        new QualifiedName(namespaceIndex, name),
+        NodeClass.Object,
+        ExtensionObject.encode(serializationContext, attributes),
+        Identifiers.FolderType.expanded());
+  }
+
+  /**
+   * An AddNodes item of a writable double variable, the way the IoTDB sink creates measurements.
+   */
+  AddNodesItem variable(final ExpandedNodeId parentId, final String path, final String name) {
+    final VariableAttributes attributes =
+        new VariableAttributes(
+            uint(0xFFFF),
+            LocalizedText.english(name),
+            LocalizedText.NULL_VALUE,
+            uint(0),
+            uint(0),
+            new Variant(0.0),
+            Identifiers.Double,
+            -1,
+            null,
+            AccessLevel.toValue(AccessLevel.READ_WRITE),
+            AccessLevel.toValue(AccessLevel.READ_WRITE),
+            0.0,
+            false);
+    return new AddNodesItem(
+        parentId,
+        Identifiers.HasComponent,
+        nodeId(path).expanded(),
+        new QualifiedName(namespaceIndex, name),
+        NodeClass.Variable,
+        ExtensionObject.encode(serializationContext, attributes),
+        Identifiers.BaseDataVariableType.expanded());
+  }
+
+  /** Adds the given nodes, failing on the first bad result. */
+  static void addNodes(final OpcUaClient client, final List<AddNodesItem> items)
+      throws UaException, ExecutionException, InterruptedException {
+    for (final AddNodesResult result : client.addNodes(items).get().getResults()) {
+      if (!result.getStatusCode().isGood()) {
+        throw new UaException(result.getStatusCode(), "Failed to add the benchmark nodes");
+      }
+    }
+  }
+
+  /** Adds the folder "root.<device>" with the variables "root.<device>.s<i>". */
+  List<NodeId> addDevice(final OpcUaClient client, final String device, final int measurements)
+      throws UaException, ExecutionException, InterruptedException {
+    final String devicePath = "root." + device;
+    final List<AddNodesItem> items = new ArrayList<>(measurements + 2);
+    items.add(folder(Identifiers.ObjectsFolder.expanded(), "root", "root"));
+    items.add(folder(nodeId("root").expanded(), devicePath, device));
+    final List<NodeId> variables = new ArrayList<>(measurements);
+    for (int i = 0; i < measurements; ++i) {
+      items.add(variable(nodeId(devicePath).expanded(), devicePath + ".s" + i, "s" + i));
+      variables.add(nodeId(devicePath + ".s" + i));
+    }
+    for (int from = 0; from < items.size(); from += MAX_NODES_PER_ADD_NODES) {
+      final List<AddNodesItem> batch =
+          items.subList(from, Math.min(items.size(), from + MAX_NODES_PER_ADD_NODES));
+      for (final AddNodesResult result : client.addNodes(batch).get().getResults()) {
+        // The root folder is shared by the devices
+        if (!result.getStatusCode().isGood()
+            && result.getStatusCode().getValue() != StatusCodes.Bad_NodeIdExists) {
+          throw new UaException(result.getStatusCode(), "Failed to add the benchmark device");
+        }
+      }
+    }
+    return variables;
+  }
+
+  static void checkGood(final StatusCode statusCode, final String action) throws UaException {
+    if (!statusCode.isGood()) {
+      throw new UaException(statusCode, "Failed to " + action);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (clients) {
+      for (final OpcUaClient client : clients) {
+        try {
+          client.disconnect().get();
+        } catch (final ExecutionException e) {
+          // The server is going down anyway
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      clients.clear();
+    }
+    nameSpace.shutdown();
+    try (final Stream<Path> paths = Files.walk(baseDir)) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  static int getEphemeralPort() throws IOException {
+    try (final ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
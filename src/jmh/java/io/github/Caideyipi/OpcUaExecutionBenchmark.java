@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write requests of {@code 16} concurrent sinks, each writing a device of its own through a session
+ * of its own, with the I/O threads and the service executor of the server configured as given. The
+ * benchmark clients share the event loop of the server, as they run in the same JVM. Run with
+ * {@code -t} to vary the number of sessions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class OpcUaExecutionBenchmark {
+
+  private static final int VALUES_PER_REQUEST = 10;
+
+  // 0 for Netty's default of twice the cores
+  @Param({"0", "2"})
+  public int ioThreads;
+
+  // The name of an OpcUaServerBuilder.ServiceExecutorType
+  @Param({"SHARED", "BOUNDED", "WORK_STEALING", "VIRTUAL"})
+  public String serviceExecutor;
+
+  private OpcUaBenchmarkServer server;
+  private final AtomicInteger devices = new AtomicInteger();
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server =
+        new OpcUaBenchmarkServer(
+            builder ->
+                builder
+                    .setIoThreads(ioThreads)
+                    .setServiceExecutorType(
+                        OpcUaServerBuilder.ServiceExecutorType.valueOf(serviceExecutor)));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  @State(Scope.Thread)
+  public static class Session {
+    private OpcUaClient client;
+    private List<NodeId> nodeIds;
+    private double value;
+
+    @Setup(Level.Trial)
+    public void setUp(final OpcUaExecutionBenchmark benchmark) throws Exception {
+      client = benchmark.server.connect();
+      nodeIds =
+          benchmark.server.addDevice(
+              client, "d" + benchmark.devices.getAndIncrement(), VALUES_PER_REQUEST);
+    }
+  }
+
+  @Benchmark
+  public void write(final Session session) throws Exception {
+    final List<DataValue> values = new ArrayList<>(VALUES_PER_REQUEST);
+    final DateTime sourceTime = DateTime.now();
+    for (int i = 0; i < VALUES_PER_REQUEST; ++i) {
+      values.add(new DataValue(new Variant(session.value++), StatusCode.GOOD, sourceTime));
+    }
+    for (final StatusCode statusCode : session.client.writeValues(session.nodeIds, values).get()) {
+      OpcUaBenchmarkServer.checkGood(statusCode, "write the benchmark values");
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lines of {@code valuesPerLine} values of a device sent to the ingest listener, {@code
+ * linesPerSync} of them per operation followed by a SYNC, so that one operation with one line per
+ * sync compares to one Write request of {@link OpcUaWriteBenchmark}. Every benchmark thread sends
+ * through a connection of its own, e.g. run with {@code -t 8} to measure 8 concurrent feeds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OpcUaIngestListenerBenchmark {
+
+  private static final String DEVICE = "root.d";
+
+  @Param({"1", "100"})
+  public int valuesPerLine;
+
+  @Param({"1", "100"})
+  public int linesPerSync;
+
+  private OpcUaBenchmarkServer server;
+  private int ingestPort;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    ingestPort = OpcUaBenchmarkServer.getEphemeralPort();
+    server = new OpcUaBenchmarkServer(builder -> builder.setIngestPort(ingestPort));
+    // The first line creates the variables, which are then only written
+    try (final Session session = new Session()) {
+      session.connect(this);
+      session.sync(this);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  @State(Scope.Thread)
+  public static class Session implements AutoCloseable {
+    private SocketChannel channel;
+    private final ByteBuffer answer = ByteBuffer.allocate(256);
+    private final StringBuilder lines = new StringBuilder();
+    private double value;
+
+    @Setup(Level.Trial)
+    public void connect(final OpcUaIngestListenerBenchmark benchmark) throws IOException {
+      channel = SocketChannel.open(new InetSocketAddress("localhost", benchmark.ingestPort));
+      lines
+          .append("AUTH ")
+          .append(OpcUaBenchmarkServer.USER)
+          .append(' ')
+          .append(OpcUaBenchmarkServer.PASSWORD)
+          .append('\n');
+      send();
+      if (!readAnswer().equals("OK")) {
+        throw new IOException("Failed to authenticate to the ingest listener");
+      }
+    }
+
+    /** Sends the lines of an operation, and waits for them to be written. */
+    private void sync(final OpcUaIngestListenerBenchmark benchmark) throws IOException {
+      final long sourceTime = System.currentTimeMillis();
+      for (int line = 0; line < benchmark.linesPerSync; ++line) {
+        lines.append(DEVICE).append(' ');
+        for (int i = 0; i < benchmark.valuesPerLine; ++i) {
+          if (i > 0) {
+            lines.append(',');
+          }
+          lines.append('s').append(i).append('=').append(value++);
+        }
+        lines.append(' ').append(sourceTime).append('\n');
+      }
+      lines.append("SYNC\n");
+      send();
+      final String answer = readAnswer();
+      if (!answer.startsWith("OK ") || !answer.endsWith(" 0")) {
+        throw new IOException("Failed to ingest the benchmark values: " + answer);
+      }
+    }
+
+    private void send() throws IOException {
+      final ByteBuffer bytes = StandardCharsets.UTF_8.encode(lines.toString());
+      lines.setLength(0);
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+    }
+
+    private String readAnswer() throws IOException {
+      answer.clear();
+      while (answer.position() == 0 || answer.get(answer.position() - 1) != '\n') {
+        if (channel.read(answer) < 0) {
+          throw new IOException("The ingest listener closed the connection");
+        }
+      }
+      return new String(answer.array(), 0, answer.position() - 1, StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  @Benchmark
+  public void ingest(final Session session) throws IOException {
+    session.sync(this);
+  }
+}
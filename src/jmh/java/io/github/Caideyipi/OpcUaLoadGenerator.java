@@ -0,0 +1,756 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.config.OpcUaClientConfig;
+import org.eclipse.milo.opcua.sdk.client.api.config.OpcUaClientConfigBuilder;
+import org.eclipse.milo.opcua.sdk.client.api.identity.UsernameProvider;
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.UaServiceFaultException;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.structured.AddNodesItem;
+import org.eclipse.milo.opcua.stack.core.types.structured.AddNodesResponse;
+import org.eclipse.milo.opcua.stack.core.types.structured.AddNodesResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.ObjectAttributes;
+import org.eclipse.milo.opcua.stack.core.types.structured.VariableAttributes;
+import org.eclipse.milo.opcua.stack.core.util.CertificateUtil;
+import org.eclipse.milo.opcua.stack.core.util.EndpointUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Load generator simulating the IoTDB opc-ua-sinks: each session creates its device and measurement
+ * tree through AddNodes, then writes one row of values of a device per request, at a total rate of
+ * values per second shared by the sessions, or with {@code -ingest} one call of the Ingest Method
+ * of {@link OpcUaIngestMethod} per row instead. The throughput and the HdrHistogram percentiles of
+ * the write latencies are reported periodically and at the end.
+ *
+ * <p>The latencies of a throttled run are measured from the time a write was due rather than sent,
+ * so that a stalled server is not hidden by the writes it delayed.
+ */
+public class OpcUaLoadGenerator {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaLoadGenerator.class);
+
+  private static final String SCRIPT_HINT =
+      "java -cp benchmarks.jar " + OpcUaLoadGenerator.class.getName();
+
+  private static final int CODE_ERROR = 1;
+  private static final int MAX_HELP_CONSOLE_WIDTH = 88;
+
+  // Milo's default limit of the nodes per AddNodes request
+  private static final int MAX_NODES_PER_ADD_NODES = 250;
+  private static final int SIGNIFICANT_DIGITS = 3;
+  // The pause before retrying an AddNodes rejected by the admission control of the server
+  private static final long OVERLOAD_RETRY_MILLIS = 100;
+
+  private static final String ENDPOINT_URL_KEY = "endpoint_url";
+  private static final String ENDPOINT_URL_DEFAULT_VALUE = "opc.tcp://127.0.0.1:12686/iotdb";
+
+  private static final String SECURITY_POLICY_KEY = "security_policy";
+  private static final String SECURITY_POLICY_DEFAULT_VALUE =
+      OpcUaArgumentsChecker.SECURITY_POLICY_NONE_VALUE;
+
+  private static final String USERNAME_ARGS = "u";
+  private static final String USER_KEY = "user";
+  private static final String USER_DEFAULT_VALUE = "root";
+
+  private static final String PASSWORD_ARGS = "pw";
+  private static final String PASSWORD_KEY = "password";
+  private static final String PASSWORD_DEFAULT_VALUE = "root";
+
+  private static final String SECURITY_DIR_KEY = "security_dir";
+  private static final String SECURITY_DIR_DEFAULT_VALUE =
+      System.getProperty("user.home") + File.separatorChar + "iotdb_opc_load_generator_security";
+
+  private static final String SESSIONS_KEY = "sessions";
+  private static final int SESSIONS_DEFAULT_VALUE = 4;
+
+  private static final String DATABASE_KEY = "database";
+  private static final String DATABASE_DEFAULT_VALUE = "root.load";
+
+  private static final String DEVICES_KEY = "devices";
+  private static final int DEVICES_DEFAULT_VALUE = 10;
+
+  private static final String MEASUREMENTS_KEY = "measurements";
+  private static final int MEASUREMENTS_DEFAULT_VALUE = 10;
+
+  private static final String RATE_KEY = "rate";
+  private static final int RATE_DEFAULT_VALUE = 10000;
+
+  private static final String DURATION_KEY = "duration";
+  private static final int DURATION_DEFAULT_VALUE = 60;
+
+  private static final String REPORT_INTERVAL_KEY = "report_interval";
+  private static final int REPORT_INTERVAL_DEFAULT_VALUE = 10;
+
+  private static final String INGEST_ARGS = "ingest";
+
+  private static final String HELP_ARGS = "help";
+
+  private final String endpointUrl;
+  private final SecurityPolicy securityPolicy;
+  private final String user;
+  private final String password;
+  private final String securityDir;
+  private final int sessionCount;
+  private final String database;
+  private final int devices;
+  private final int measurements;
+  private final int rate;
+  private final int durationSeconds;
+  private final int reportIntervalSeconds;
+  private final boolean ingest;
+
+  private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+  private final LongAdder writtenValues = new LongAdder();
+  private final LongAdder failedWrites = new LongAdder();
+  private volatile boolean running = true;
+
+  private OpcUaLoadGenerator(final CommandLine commandLine) {
+    endpointUrl =
+        getStringOptionOrDefault(commandLine, ENDPOINT_URL_KEY, ENDPOINT_URL_DEFAULT_VALUE);
+    securityPolicy =
+        OpcUaArgumentsChecker.getSecurityPolicy(
+            getStringOptionOrDefault(
+                commandLine, SECURITY_POLICY_KEY, SECURITY_POLICY_DEFAULT_VALUE));
+    user = getStringOptionOrDefault(commandLine, USER_KEY, USER_DEFAULT_VALUE);
+    password = getStringOptionOrDefault(commandLine, PASSWORD_KEY, PASSWORD_DEFAULT_VALUE);
+    securityDir =
+        getStringOptionOrDefault(commandLine, SECURITY_DIR_KEY, SECURITY_DIR_DEFAULT_VALUE);
+    sessionCount = getIntOptionOrDefault(commandLine, SESSIONS_KEY, SESSIONS_DEFAULT_VALUE);
+    database = getStringOptionOrDefault(commandLine, DATABASE_KEY, DATABASE_DEFAULT_VALUE);
+    devices = getIntOptionOrDefault(commandLine, DEVICES_KEY, DEVICES_DEFAULT_VALUE);
+    measurements = getIntOptionOrDefault(commandLine, MEASUREMENTS_KEY, MEASUREMENTS_DEFAULT_VALUE);
+    rate = getIntOptionOrDefault(commandLine, RATE_KEY, RATE_DEFAULT_VALUE);
+    durationSeconds = getIntOptionOrDefault(commandLine, DURATION_KEY, DURATION_DEFAULT_VALUE);
+    reportIntervalSeconds =
+        getIntOptionOrDefault(commandLine, REPORT_INTERVAL_KEY, REPORT_INTERVAL_DEFAULT_VALUE);
+    ingest = commandLine.hasOption(INGEST_ARGS);
+    if (sessionCount <= 0 || devices <= 0 || measurements <= 0 || reportIntervalSeconds <= 0) {
+      throw new IllegalArgumentException(
+          "The sessions, devices, measurements and report interval must be positive.");
+    }
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final Options options = createOptions();
+    final HelpFormatter hf = new HelpFormatter();
+    hf.setWidth(MAX_HELP_CONSOLE_WIDTH);
+    final CommandLine commandLine;
+    try {
+      commandLine = new DefaultParser().parse(options, args);
+    } catch (final ParseException e) {
+      System.out.println(e.getMessage());
+      System.out.println("For more information, please check the following hint.");
+      hf.printHelp(SCRIPT_HINT, options, true);
+      System.exit(CODE_ERROR);
+      return;
+    }
+    if (commandLine.hasOption(HELP_ARGS)) {
+      hf.printHelp(SCRIPT_HINT, options, true);
+      return;
+    }
+    new OpcUaLoadGenerator(commandLine).run();
+    System.exit(0);
+  }
+
+  private void run() throws Exception {
+    final List<OpcUaClient> clients = new ArrayList<>(sessionCount);
+    try {
+      for (int i = 0; i < sessionCount; ++i) {
+        clients.add(connect());
+      }
+      System.out.printf(
+          "Connected %d sessions to %s with security policy %s%n",
+          sessionCount, endpointUrl, securityPolicy);
+
+      // The shared folders first, so that the sessions only create their own nodes concurrently
+      addNodes(clients.get(0), createDatabaseItems(clients.get(0)));
+      final List<List<List<NodeId>>> sessionDevices = createTrees(clients);
+
+      final List<Thread> writers = new ArrayList<>(sessionCount);
+      for (int i = 0; i < sessionCount; ++i) {
+        final OpcUaClient client = clients.get(i);
+        final List<List<NodeId>> nodeIds = sessionDevices.get(i);
+        final Thread writer = new Thread(() -> write(client, nodeIds), "load-session-" + i);
+        writer.setDaemon(true);
+        writers.add(writer);
+      }
+      final long start = System.nanoTime();
+      writers.forEach(Thread::start);
+      report(start);
+
+      running = false;
+      for (final Thread writer : writers) {
+        writer.join();
+      }
+    } finally {
+      for (final OpcUaClient client : clients) {
+        try {
+          client.disconnect().get();
+        } catch (final ExecutionException e) {
+          LOGGER.warn("Failed to disconnect a session, because {}.", e.getMessage());
+        }
+      }
+    }
+  }
+
+  private OpcUaClient connect() throws Exception {
+    final String host = EndpointUtil.getHost(endpointUrl);
+    final OpcUaClient client =
+        OpcUaClient.create(
+            endpointUrl,
+            endpoints ->
+                endpoints.stream()
+                    .filter(
+                        endpoint -> securityPolicy.getUri().equals(endpoint.getSecurityPolicyUri()))
+                    .max(
+                        Comparator.comparingInt(endpoint -> endpoint.getSecurityLevel().intValue()))
+                    // The server may advertise a hostname that only resolves on its own side
+                    .map(endpoint -> EndpointUtil.updateUrl(endpoint, host)),
+            this::buildConfig);
+    client.connect().get();
+    return client;
+  }
+
+  private OpcUaClientConfig buildConfig(final OpcUaClientConfigBuilder builder) {
+    builder
+        .setApplicationName(LocalizedText.english("Apache IoTDB OPC UA load generator"))
+        .setIdentityProvider(new UsernameProvider(user, password))
+        .setRequestTimeout(uint(60_000));
+    if (securityPolicy != SecurityPolicy.None) {
+      // The server rejects the certificate at first, like the one of a new sink
+      try {
+        final Path dir = Paths.get(securityDir);
+        Files.createDirectories(dir);
+        final OpcUaKeyStoreLoader loader =
+            new OpcUaKeyStoreLoader()
+                .load(dir, password.toCharArray(), new OpcUaHostnames(Collections.emptyList()));
+        builder
+            .setKeyPair(loader.getServerKeyPair())
+            .setCertificate(loader.getServerCertificate())
+            .setApplicationUri(
+                CertificateUtil.getSanUri(loader.getServerCertificate()).orElse(null));
+      } catch (final Exception e) {
+        throw new IllegalStateException("Failed to load the certificate of the load generator", e);
+      }
+    }
+    return builder.build();
+  }
+
+  private List<AddNodesItem> createDatabaseItems(final OpcUaClient client) {
+    final List<AddNodesItem> items = new ArrayList<>();
+    ExpandedNodeId parentId = Identifiers.ObjectsFolder.expanded();
+    String path = null;
+    for (final String name : database.split("\\.")) {
+      path = Objects.isNull(path) ? name : path + "." + name;
+      items.add(folder(client, parentId, path, name));
+      parentId = nodeId(client, path).expanded();
+    }
+    return items;
+  }
+
+  /** Creates the devices of every session concurrently, returning their measurements per device. */
+  private List<List<List<NodeId>>> createTrees(final List<OpcUaClient> clients) throws Exception {
+    final List<List<List<NodeId>>> sessionDevices = new ArrayList<>(sessionCount);
+    final List<List<AddNodesItem>> sessionItems = new ArrayList<>(sessionCount);
+    for (int i = 0; i < sessionCount; ++i) {
+      final OpcUaClient client = clients.get(i);
+      final String groupPath = database + ".g" + i;
+      final List<AddNodesItem> items = new ArrayList<>();
+      items.add(folder(client, nodeId(client, database).expanded(), groupPath, "g" + i));
+      final List<List<NodeId>> deviceNodeIds = new ArrayList<>(devices);
+      for (int d = 0; d < devices; ++d) {
+        final String devicePath = groupPath + ".d" + d;
+        items.add(folder(client, nodeId(client, groupPath).expanded(), devicePath, "d" + d));
+        final List<NodeId> nodeIds = new ArrayList<>(measurements);
+        for (int m = 0; m < measurements; ++m) {
+          final String measurementPath = devicePath + ".s" + m;
+          items.add(
+              variable(client, nodeId(client, devicePath).expanded(), measurementPath, "s" + m));
+          nodeIds.add(nodeId(client, measurementPath));
+        }
+        deviceNodeIds.add(nodeIds);
+      }
+      sessionDevices.add(deviceNodeIds);
+      sessionItems.add(items);
+    }
+
+    final long start = System.nanoTime();
+    final Exception[] failure = new Exception[1];
+    final List<Thread> creators = new ArrayList<>(sessionCount);
+    for (int i = 0; i < sessionCount; ++i) {
+      final OpcUaClient client = clients.get(i);
+      final List<AddNodesItem> items = sessionItems.get(i);
+      final Thread creator =
+          new Thread(
+              () -> {
+                try {
+                  addNodes(client, items);
+                } catch (final Exception e) {
+                  synchronized (failure) {
+                    failure[0] = e;
+                  }
+                }
+              },
+              "load-creator-" + i);
+      creators.add(creator);
+      creator.start();
+    }
+    for (final Thread creator : creators) {
+      creator.join();
+    }
+    synchronized (failure) {
+      if (Objects.nonNull(failure[0])) {
+        throw failure[0];
+      }
+    }
+
+    final long nodes = sessionItems.stream().mapToLong(List::size).sum();
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf(
+        "Added %d nodes in %.3f s, %.0f nodes/s%n",
+        nodes, seconds, nodes / Math.max(seconds, 1e-9));
+    return sessionDevices;
+  }
+
+  private static void addNodes(final OpcUaClient client, final List<AddNodesItem> items)
+      throws UaException, ExecutionException, InterruptedException {
+    for (int from = 0; from < items.size(); from += MAX_NODES_PER_ADD_NODES) {
+      final List<AddNodesItem> batch =
+          items.subList(from, Math.min(items.size(), from + MAX_NODES_PER_ADD_NODES));
+      final AddNodesResponse response;
+      try {
+        response = client.addNodes(batch).get();
+      } catch (final ExecutionException e) {
+        // Retried like a sink once the server has room again
+        if (e.getCause() instanceof UaServiceFaultException
+            && isOverloaded(((UaServiceFaultException) e.getCause()).getStatusCode())) {
+          Thread.sleep(OVERLOAD_RETRY_MILLIS);
+          from -= MAX_NODES_PER_ADD_NODES;
+          continue;
+        }
+        throw e;
+      }
+      for (final AddNodesResult result : response.getResults()) {
+        // The nodes of a previous run are reused
+        if (!result.getStatusCode().isGood()
+            && result.getStatusCode().getValue() != StatusCodes.Bad_NodeIdExists) {
+          throw new UaException(result.getStatusCode(), "Failed to add the nodes");
+        }
+      }
+    }
+  }
+
+  /** Writes the rows of the devices in turn until the end of the run. */
+  private void write(final OpcUaClient client, final List<List<NodeId>> deviceNodeIds) {
+    // Each session writes its share of the rate, 0 writes as fast as the server answers
+    final long intervalNanos =
+        rate > 0 ? TimeUnit.SECONDS.toNanos(1) * measurements * sessionCount / rate : 0;
+    final List<DataValue> values = new ArrayList<>(measurements);
+    final Variant[] rowValues = new Variant[measurements];
+    final DateTime[] rowTimes = new DateTime[measurements];
+    final String[] names = new String[measurements];
+    for (int i = 0; i < measurements; ++i) {
+      names[i] = "s" + i;
+    }
+    final NodeId objectId =
+        new NodeId(
+            client.getNamespaceTable().getIndex(OpcUaNameSpace.NAMESPACE_URI),
+            uint(OpcUaIngestMethod.OBJECT_ID));
+    final NodeId methodId =
+        new NodeId(
+            client.getNamespaceTable().getIndex(OpcUaNameSpace.NAMESPACE_URI),
+            uint(OpcUaIngestMethod.METHOD_ID));
+    long dueTime = System.nanoTime();
+    int device = 0;
+    while (running) {
+      long waitNanos;
+      while (intervalNanos > 0 && (waitNanos = dueTime - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(waitNanos);
+      }
+      final long start = intervalNanos > 0 ? dueTime : System.nanoTime();
+
+      values.clear();
+      final DateTime sourceTime = DateTime.now();
+      for (int i = 0; i < measurements; ++i) {
+        rowValues[i] = new Variant(ThreadLocalRandom.current().nextDouble());
+        rowTimes[i] = sourceTime;
+        if (!ingest) {
+          values.add(new DataValue(rowValues[i], StatusCode.GOOD, sourceTime));
+        }
+      }
+      try {
+        final List<NodeId> nodeIds = deviceNodeIds.get(device);
+        final StatusCode[] results;
+        if (ingest) {
+          final String path = (String) nodeIds.get(0).getIdentifier();
+          final CallMethodResult result =
+              client
+                  .call(
+                      new CallMethodRequest(
+                          objectId,
+                          methodId,
+                          new Variant[] {
+                            new Variant(path.substring(0, path.lastIndexOf('.'))),
+                            new Variant(names),
+                            new Variant(rowTimes),
+                            new Variant(rowValues)
+                          }))
+                  .get();
+          results =
+              result.getStatusCode().isGood()
+                  ? (StatusCode[]) result.getOutputArguments()[0].getValue()
+                  : new StatusCode[] {result.getStatusCode()};
+        } else {
+          results = client.writeValues(nodeIds, values).get().toArray(new StatusCode[0]);
+        }
+        int written = 0;
+        for (final StatusCode statusCode : results) {
+          if (statusCode.isGood()) {
+            ++written;
+          }
+        }
+        writtenValues.add(written);
+        if (written < measurements) {
+          failedWrites.increment();
+        }
+      } catch (final ExecutionException e) {
+        failedWrites.increment();
+        LOGGER.debug("Failed to write the values, because {}.", e.getMessage());
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      recorder.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)));
+
+      dueTime += intervalNanos;
+      device = (device + 1) % deviceNodeIds.size();
+    }
+  }
+
+  /** Whether the server rejected a request for its admission limits. */
+  private static boolean isOverloaded(final StatusCode statusCode) {
+    final long value = statusCode.getValue();
+    return value == StatusCodes.Bad_TooManyOperations
+        || value == StatusCodes.Bad_ResourceUnavailable
+        || value == StatusCodes.Bad_Timeout;
+  }
+
+  /** Prints the interval reports until the end of the run, then the summary. */
+  private void report(final long start) throws InterruptedException {
+    final long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+    final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+    Histogram interval = null;
+    long lastTime = start;
+    long lastValues = 0;
+    long lastFailures = 0;
+    while (true) {
+      final long now = System.nanoTime();
+      if (now >= end) {
+        break;
+      }
+      TimeUnit.NANOSECONDS.sleep(
+          Math.min(end - now, TimeUnit.SECONDS.toNanos(reportIntervalSeconds)));
+
+      final long time = System.nanoTime();
+      interval = recorder.getIntervalHistogram(interval);
+      total.add(interval);
+      final long values = writtenValues.sum();
+      final long failures = failedWrites.sum();
+      System.out.println(
+          format(
+              String.format("[%5.0f s]", (time - start) / 1e9),
+              interval,
+              values - lastValues,
+              failures - lastFailures,
+              time - lastTime));
+      lastTime = time;
+      lastValues = values;
+      lastFailures = failures;
+    }
+    System.out.println(
+        format("[ total ]", total, writtenValues.sum(), failedWrites.sum(), lastTime - start));
+  }
+
+  private static String format(
+      final String prefix,
+      final Histogram latencies,
+      final long values,
+      final long failures,
+      final long elapsedNanos) {
+    final double seconds = Math.max(elapsedNanos, 1) / 1e9;
+    return String.format(
+        "%s %.0f values/s, %.0f writes/s, %d failed, latency ms p50 %.3f p90 %.3f p99 %.3f"
+            + " p99.9 %.3f max %.3f",
+        prefix,
+        values / seconds,
+        latencies.getTotalCount() / seconds,
+        failures,
+        latencies.getValueAtPercentile(50) / 1e3,
+        latencies.getValueAtPercentile(90) / 1e3,
+        latencies.getValueAtPercentile(99) / 1e3,
+        latencies.getValueAtPercentile(99.9) / 1e3,
+        latencies.getMaxValue() / 1e3);
+  }
+
+  private static NodeId nodeId(final OpcUaClient client, final String path) {
+    return new NodeId(client.getNamespaceTable().getIndex(OpcUaNameSpace.NAMESPACE_URI), path);
+  }
+
+  /** An AddNodes item of a folder, as the sink creates for the path segments of a device. */
+  private static AddNodesItem folder(
+      final OpcUaClient client,
+      final ExpandedNodeId parentId,
+      final String path,
+      final String name) {
+    final NodeId nodeId = nodeId(client, path);
+    return new AddNodesItem(
+        parentId,
+        Identifiers.Organizes,
+        nodeId.expanded(),
+        new QualifiedName(nodeId.getNamespaceIndex(), name),
+        NodeClass.Object,
+        ExtensionObject.encode(
+            client.getStaticSerializationContext(),
+            new ObjectAttributes(
+                uint(0xFFFF),
+                LocalizedText.english(name),
+                LocalizedText.NULL_VALUE,
+                uint(0),
+                uint(0),
+                null)),
+        Identifiers.FolderType.expanded());
+  }
+
+  /** An AddNodes item of a double variable, as the sink creates for the measurements. */
+  private static AddNodesItem variable(
+      final OpcUaClient client,
+      final ExpandedNodeId parentId,
+      final String path,
+      final String name) {
+    final NodeId nodeId = nodeId(client, path);
+    return new AddNodesItem(
+        parentId,
+        Identifiers.HasComponent,
+        nodeId.expanded(),
+        new QualifiedName(nodeId.getNamespaceIndex(), name),
+        NodeClass.Variable,
+        ExtensionObject.encode(
+            client.getStaticSerializationContext(),
+            new VariableAttributes(
+                uint(0xFFFF),
+                LocalizedText.english(name),
+                LocalizedText.NULL_VALUE,
+                uint(0),
+                uint(0),
+                new Variant(0.0),
+                Identifiers.Double,
+                -1,
+                null,
+                AccessLevel.toValue(AccessLevel.READ_WRITE),
+                AccessLevel.toValue(AccessLevel.READ_WRITE),
+                0.0,
+                false)),
+        Identifiers.BaseDataVariableType.expanded());
+  }
+
+  private static Options createOptions() {
+    final Options options = new Options();
+    final Option help = new Option(HELP_ARGS, false, "Display help information. (optional)");
+    help.setRequired(false);
+    options.addOption(help);
+
+    return options
+        .addOption(
+            Option.builder(ENDPOINT_URL_KEY)
+                .argName(ENDPOINT_URL_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Endpoint url of the server. Default is %s. (optional)",
+                        ENDPOINT_URL_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(SECURITY_POLICY_KEY)
+                .argName(SECURITY_POLICY_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Security policy of the sessions. Default is %s. (optional)",
+                        SECURITY_POLICY_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(USERNAME_ARGS)
+                .longOpt(USER_KEY)
+                .argName(USER_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(String.format("User name, default is %s. (optional)", USER_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(PASSWORD_ARGS)
+                .longOpt(PASSWORD_KEY)
+                .argName(PASSWORD_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(String.format("Password. Default is %s. (optional)", PASSWORD_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(SECURITY_DIR_KEY)
+                .argName(SECURITY_DIR_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Directory of the certificate of the load generator, used if the security policy is not None. Default is %s. (optional)",
+                        SECURITY_DIR_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(SESSIONS_KEY)
+                .argName(SESSIONS_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Number of concurrent sessions, i.e. sinks. Default is %s. (optional)",
+                        SESSIONS_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(DATABASE_KEY)
+                .argName(DATABASE_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Path under which the sessions create their devices. Default is %s. (optional)",
+                        DATABASE_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(DEVICES_KEY)
+                .argName(DEVICES_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Number of devices per session. Default is %s. (optional)",
+                        DEVICES_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(MEASUREMENTS_KEY)
+                .argName(MEASUREMENTS_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Number of measurements per device, i.e. values per write. Default is %s. (optional)",
+                        MEASUREMENTS_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(RATE_KEY)
+                .argName(RATE_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Total values written per second by the sessions, 0 writes as fast as possible. Default is %s. (optional)",
+                        RATE_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(DURATION_KEY)
+                .argName(DURATION_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Seconds of writes. Default is %s. (optional)", DURATION_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(REPORT_INTERVAL_KEY)
+                .argName(REPORT_INTERVAL_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Seconds between two reports. Default is %s. (optional)",
+                        REPORT_INTERVAL_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(INGEST_ARGS)
+                .desc(
+                    "Writes each row through one call of the Ingest Method instead of a Write request. (optional)")
+                .build());
+  }
+
+  private static String getStringOptionOrDefault(
+      final CommandLine commandLine, final String arg, final String defaultValue) {
+    final String str = commandLine.getOptionValue(arg);
+    return Objects.nonNull(str) ? str : defaultValue;
+  }
+
+  private static int getIntOptionOrDefault(
+      final CommandLine commandLine, final String arg, final int defaultValue) {
+    final String str = commandLine.getOptionValue(arg);
+    return Objects.nonNull(str) ? Integer.parseInt(str) : defaultValue;
+  }
+}
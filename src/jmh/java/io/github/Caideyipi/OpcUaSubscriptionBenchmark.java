@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * The latency from a write of the IoTDB sink to the notification of all the {@code subscribers},
+ * each a session monitoring the written variable with the shortest publishing interval the server
+ * allows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OpcUaSubscriptionBenchmark {
+
+  private static final long NOTIFICATION_TIMEOUT_SECONDS = 10;
+  // Milo's minimum publishing interval, shorter requests are revised to the default 250 ms
+  private static final double PUBLISHING_INTERVAL = 10.0;
+
+  @Param({"1", "10", "50"})
+  public int subscribers;
+
+  private OpcUaBenchmarkServer server;
+  private OpcUaClient writer;
+  private NodeId nodeId;
+  private volatile double expectedValue;
+  private volatile CountDownLatch notified;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server = new OpcUaBenchmarkServer();
+    writer = server.connect();
+    nodeId = server.addDevice(writer, "d", 1).get(0);
+
+    for (int i = 0; i < subscribers; ++i) {
+      final UaSubscription subscription =
+          server.connect().getSubscriptionManager().createSubscription(PUBLISHING_INTERVAL).get();
+      final MonitoredItemCreateRequest request =
+          new MonitoredItemCreateRequest(
+              new ReadValueId(nodeId, AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE),
+              MonitoringMode.Reporting,
+              new MonitoringParameters(uint(i), 0.0, null, uint(1), true));
+      final List<UaMonitoredItem> items =
+          subscription
+              .createMonitoredItems(
+                  TimestampsToReturn.Both,
+                  Collections.singletonList(request),
+                  (item, index) -> item.setValueConsumer(this::onValue))
+              .get();
+      OpcUaBenchmarkServer.checkGood(items.get(0).getStatusCode(), "monitor the benchmark node");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Benchmark
+  public void writeAndNotify() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(subscribers);
+    notified = latch;
+    expectedValue = expectedValue + 1;
+    OpcUaBenchmarkServer.checkGood(
+        writer.writeValue(nodeId, new DataValue(new Variant(expectedValue))).get(),
+        "write the benchmark value");
+    if (!latch.await(NOTIFICATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      throw new TimeoutException(latch.getCount() + " subscribers were not notified");
+    }
+  }
+
+  private void onValue(final UaMonitoredItem item, final DataValue value) {
+    final CountDownLatch latch = notified;
+    final Object object = value.getValue().getValue();
+    if (Objects.nonNull(latch) && object instanceof Double && (Double) object == expectedValue) {
+      latch.countDown();
+    }
+  }
+}
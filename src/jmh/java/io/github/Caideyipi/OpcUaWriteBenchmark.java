@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write requests of the IoTDB sink, each setting the values of {@code valuesPerRequest} variables
+ * of a device. Every benchmark thread writes through a session of its own, e.g. run with {@code -t
+ * 8} to measure the throughput of 8 concurrent sinks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OpcUaWriteBenchmark {
+
+  @Param({"1", "100"})
+  public int valuesPerRequest;
+
+  @Param({"false", "true"})
+  public boolean columnarValueStore;
+
+  // False to write through Milo's attribute writer, the baseline of the fast path
+  @Param({"true", "false"})
+  public boolean writeFastPath;
+
+  private OpcUaBenchmarkServer server;
+  private List<NodeId> nodeIds;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server =
+        new OpcUaBenchmarkServer(
+            builder ->
+                builder
+                    .setEnableColumnarValueStore(columnarValueStore)
+                    .setEnableWriteFastPath(writeFastPath));
+    nodeIds = server.addDevice(server.connect(), "d", valuesPerRequest);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  @State(Scope.Thread)
+  public static class Session {
+    private OpcUaClient client;
+    private double value;
+
+    @Setup(Level.Trial)
+    public void setUp(final OpcUaWriteBenchmark benchmark) throws Exception {
+      client = benchmark.server.connect();
+    }
+  }
+
+  @Benchmark
+  public void write(final Session session) throws Exception {
+    final List<DataValue> values = new ArrayList<>(valuesPerRequest);
+    final DateTime sourceTime = DateTime.now();
+    for (int i = 0; i < valuesPerRequest; ++i) {
+      values.add(new DataValue(new Variant(session.value++), StatusCode.GOOD, sourceTime));
+    }
+    for (final StatusCode statusCode : session.client.writeValues(nodeIds, values).get()) {
+      OpcUaBenchmarkServer.checkGood(statusCode, "write the benchmark values");
+    }
+  }
+}
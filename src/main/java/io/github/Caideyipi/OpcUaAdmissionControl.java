@@ -0,0 +1,449 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.server.AbstractLifecycle;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.structured.AddNodesRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.RequestHeader;
+import org.eclipse.milo.opcua.stack.core.types.structured.WriteRequest;
+import org.eclipse.milo.opcua.stack.core.util.EndpointUtil;
+import org.eclipse.milo.opcua.stack.server.UaStackServer;
+import org.eclipse.milo.opcua.stack.server.services.ServiceRequest;
+import org.eclipse.milo.opcua.stack.server.services.ServiceRequestHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Limits the AddNodes, Write and Call requests served at once, so that a pipe replaying its backlog
+ * as fast as the network allows slows down instead of filling the heap until the GC stalls every
+ * session.
+ *
+ * <p>A session with {@code -max_session_inflight_requests} requests being served or queued has the
+ * next ones rejected with {@code Bad_TooManyOperations}. Beyond {@code -max_inflight_requests}
+ * requests being served, the next ones wait in a queue of {@code -request_queue_size}, and are
+ * rejected with {@code Bad_ResourceUnavailable} once it is full, or with {@code Bad_Timeout} once
+ * their timeout hint passes in it. The sinks retry the rejected requests later. The queued requests
+ * are served by the server's executor as the others complete.
+ *
+ * <p>With the bounded service executor, these requests are rejected with {@code
+ * Bad_TooManyOperations} while its queue holds more tasks than its capacity, before being counted
+ * against the limits. The executor itself queues every task, so that the I/O threads submitting
+ * them never run them.
+ *
+ * <p>The lines of values read at once from a connection of {@link OpcUaIngestListener} count as one
+ * request against {@code -max_inflight_requests}, and are rejected instead of queued when it is
+ * reached. A connection has one such request at a time, so the limit per session does not apply to
+ * it.
+ *
+ * <p>The limits and the queue size are halved once the heap used after GC exceeds {@value
+ * #HIGH_HEAP_RATIO} of the max heap, and cut to a tenth beyond {@value #CRITICAL_HEAP_RATIO}, as
+ * checked every second.
+ */
+class OpcUaAdmissionControl extends AbstractLifecycle {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaAdmissionControl.class);
+
+  private static final ExpandedNodeId[] LIMITED_REQUESTS = {
+    AddNodesRequest.TYPE_ID, WriteRequest.TYPE_ID, CallRequest.TYPE_ID
+  };
+
+  private static final double HIGH_HEAP_RATIO = 0.75;
+  private static final double CRITICAL_HEAP_RATIO = 0.9;
+  private static final long HEAP_CHECK_INTERVAL_SECONDS = 1;
+
+  private final OpcUaServer server;
+  private final int maxInFlightRequests;
+  private final int maxSessionInFlightRequests;
+  private final int requestQueueSize;
+  private final int serviceQueueCapacity;
+  private final IntSupplier serviceQueueSize;
+  private final List<WrappedHandler> wrappedHandlers = new ArrayList<>();
+
+  // The requests of every session being served or queued, keyed by its authentication token
+  private final ConcurrentMap<NodeId, AtomicInteger> sessionRequests = new ConcurrentHashMap<>();
+  // Both guarded by the queue
+  private final Queue<QueuedRequest> queue = new ArrayDeque<>();
+  private int inFlightRequests;
+
+  private volatile double limitFactor = 1;
+  private ScheduledFuture<?> scheduledHeapCheck;
+  private boolean heapCheckCancelled;
+
+  private final LongAdder queuedRequests = new LongAdder();
+  // Keyed by the status code value of the rejection
+  private final ConcurrentMap<Long, LongAdder> rejectedRequests = new ConcurrentHashMap<>();
+
+  OpcUaAdmissionControl(final OpcUaServer server, final OpcUaServerBuilder builder) {
+    this.server = server;
+    this.maxInFlightRequests = builder.getMaxInFlightRequests();
+    this.maxSessionInFlightRequests = builder.getMaxSessionInFlightRequests();
+    this.requestQueueSize = builder.getRequestQueueSize();
+    this.serviceQueueCapacity = builder.getServiceQueueCapacity();
+    this.serviceQueueSize = builder::getServiceQueueSize;
+  }
+
+  private boolean isEnabled() {
+    return maxInFlightRequests > 0 || maxSessionInFlightRequests > 0 || serviceQueueCapacity > 0;
+  }
+
+  @Override
+  protected void onStartup() {
+    if (!isEnabled()) {
+      return;
+    }
+    final UaStackServer stackServer = server.getStackServer();
+    final Set<String> paths =
+        server.getConfig().getEndpoints().stream()
+            .map(endpoint -> EndpointUtil.getPath(endpoint.getEndpointUrl()))
+            .collect(Collectors.toSet());
+    for (final String path : paths) {
+      for (final ExpandedNodeId typeId : LIMITED_REQUESTS) {
+        final ServiceRequestHandler handler = stackServer.getServiceHandler(path, typeId);
+        if (Objects.nonNull(handler)) {
+          wrappedHandlers.add(new WrappedHandler(path, typeId, handler));
+          stackServer.addServiceHandler(path, typeId, service -> admit(handler, service));
+        }
+      }
+    }
+    synchronized (this) {
+      heapCheckCancelled = false;
+    }
+    scheduleHeapCheck();
+  }
+
+  @Override
+  protected void onShutdown() {
+    synchronized (this) {
+      heapCheckCancelled = true;
+      if (Objects.nonNull(scheduledHeapCheck)) {
+        scheduledHeapCheck.cancel(false);
+      }
+    }
+    final UaStackServer stackServer = server.getStackServer();
+    for (final WrappedHandler wrapped : wrappedHandlers) {
+      stackServer.addServiceHandler(wrapped.path, wrapped.typeId, wrapped.handler);
+    }
+    wrappedHandlers.clear();
+
+    final List<QueuedRequest> halted;
+    synchronized (queue) {
+      halted = new ArrayList<>(queue);
+      queue.clear();
+    }
+    for (final QueuedRequest request : halted) {
+      reject(request.service, StatusCodes.Bad_ServerHalted);
+    }
+  }
+
+  private void admit(final ServiceRequestHandler handler, final ServiceRequest service)
+      throws UaException {
+    final RequestHeader header = service.getRequest().getRequestHeader();
+    final NodeId token = Objects.nonNull(header) ? header.getAuthenticationToken() : null;
+    // Left to Milo to be rejected for the missing session
+    if (Objects.isNull(token) || token.isNull()) {
+      handler.handle(service);
+      return;
+    }
+
+    if (serviceQueueCapacity > 0 && serviceQueueSize.getAsInt() >= serviceQueueCapacity) {
+      reject(service, StatusCodes.Bad_TooManyOperations);
+      return;
+    }
+
+    final int sessionLimit = scale(maxSessionInFlightRequests);
+    if (sessionLimit > 0) {
+      final int count =
+          sessionRequests
+              .compute(
+                  token,
+                  (key, requests) -> {
+                    final AtomicInteger counter =
+                        Objects.nonNull(requests) ? requests : new AtomicInteger();
+                    counter.incrementAndGet();
+                    return counter;
+                  })
+              .get();
+      if (count > sessionLimit) {
+        releaseSession(token);
+        reject(service, StatusCodes.Bad_TooManyOperations);
+        return;
+      }
+    }
+
+    final int limit = scale(maxInFlightRequests);
+    if (limit > 0) {
+      synchronized (queue) {
+        if (inFlightRequests >= limit) {
+          if (queue.size() >= scale(requestQueueSize)) {
+            if (sessionLimit > 0) {
+              releaseSession(token);
+            }
+            reject(service, StatusCodes.Bad_ResourceUnavailable);
+          } else {
+            queue.add(new QueuedRequest(handler, service, token, sessionLimit > 0));
+            queuedRequests.increment();
+          }
+          return;
+        }
+        ++inFlightRequests;
+      }
+    }
+    serve(handler, service, token, sessionLimit > 0, limit > 0);
+  }
+
+  private void serve(
+      final ServiceRequestHandler handler,
+      final ServiceRequest service,
+      final NodeId token,
+      final boolean sessionCounted,
+      final boolean inFlightCounted)
+      throws UaException {
+    service
+        .getFuture()
+        .whenComplete(
+            (response, throwable) -> {
+              if (sessionCounted) {
+                releaseSession(token);
+              }
+              if (inFlightCounted) {
+                onRequestCompleted();
+              }
+            });
+    handler.handle(service);
+  }
+
+  /** Frees the slot of a completed request, and serves the queued requests it makes room for. */
+  private void onRequestCompleted() {
+    final List<QueuedRequest> admitted = new ArrayList<>();
+    final List<QueuedRequest> expired = new ArrayList<>();
+    synchronized (queue) {
+      --inFlightRequests;
+      final int limit = scale(maxInFlightRequests);
+      final long now = System.nanoTime();
+      while (inFlightRequests < limit && !queue.isEmpty()) {
+        final QueuedRequest request = queue.poll();
+        if (request.isExpired(now)) {
+          expired.add(request);
+          continue;
+        }
+        ++inFlightRequests;
+        admitted.add(request);
+      }
+    }
+    for (final QueuedRequest request : expired) {
+      if (request.sessionCounted) {
+        releaseSession(request.token);
+      }
+      reject(request.service, StatusCodes.Bad_Timeout);
+    }
+    for (final QueuedRequest request : admitted) {
+      // Not on the thread completing the request, which may be serving another one
+      server
+          .getExecutorService()
+          .execute(
+              () -> {
+                try {
+                  serve(
+                      request.handler,
+                      request.service,
+                      request.token,
+                      request.sessionCounted,
+                      true);
+                } catch (final UaException e) {
+                  request.service.setServiceFault(e);
+                }
+              });
+    }
+  }
+
+  /**
+   * Takes a slot for the lines read from an ingest connection, or returns false and counts them as
+   * rejected with {@code Bad_ResourceUnavailable}. A taken slot is freed by {@link
+   * #releaseIngest()}.
+   */
+  boolean tryAdmitIngest() {
+    if (maxInFlightRequests <= 0) {
+      return true;
+    }
+    synchronized (queue) {
+      // The queued requests come first, and are only left behind while all the slots are taken
+      if (inFlightRequests < scale(maxInFlightRequests)) {
+        ++inFlightRequests;
+        return true;
+      }
+    }
+    rejectedRequests
+        .computeIfAbsent(StatusCodes.Bad_ResourceUnavailable, value -> new LongAdder())
+        .increment();
+    return false;
+  }
+
+  void releaseIngest() {
+    if (maxInFlightRequests > 0) {
+      onRequestCompleted();
+    }
+  }
+
+  private void releaseSession(final NodeId token) {
+    sessionRequests.computeIfPresent(
+        token, (key, requests) -> requests.decrementAndGet() > 0 ? requests : null);
+  }
+
+  private void reject(final ServiceRequest service, final long statusCode) {
+    rejectedRequests.computeIfAbsent(statusCode, value -> new LongAdder()).increment();
+    service.setServiceFault(statusCode);
+  }
+
+  /** Returns the limit lowered for the heap pressure, at least 1 unless unlimited. */
+  private int scale(final int limit) {
+    return limit > 0 ? Math.max(1, (int) (limit * limitFactor)) : 0;
+  }
+
+  // Reschedules itself instead of a fixed rate, like the metrics
+  private synchronized void scheduleHeapCheck() {
+    if (heapCheckCancelled) {
+      return;
+    }
+    scheduledHeapCheck =
+        server
+            .getScheduledExecutorService()
+            .schedule(
+                () -> {
+                  checkHeap();
+                  scheduleHeapCheck();
+                },
+                HEAP_CHECK_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+  }
+
+  private void checkHeap() {
+    final double heapRatio =
+        (double) OpcUaMetrics.getHeapUsageAfterGc() / Runtime.getRuntime().maxMemory();
+    final double factor =
+        heapRatio >= CRITICAL_HEAP_RATIO ? 0.1 : heapRatio >= HIGH_HEAP_RATIO ? 0.5 : 1;
+    if (factor == limitFactor) {
+      return;
+    }
+    if (factor < limitFactor) {
+      LOGGER.warn(
+          "Lowered the request limits to {}% of the configured ones, because {}% of the heap is used after GC.",
+          Math.round(factor * 100), Math.round(heapRatio * 100));
+    } else {
+      LOGGER.info(
+          "Raised the request limits to {}% of the configured ones, as {}% of the heap is used after GC",
+          Math.round(factor * 100), Math.round(heapRatio * 100));
+    }
+    limitFactor = factor;
+  }
+
+  int getInFlightRequestCount() {
+    synchronized (queue) {
+      return inFlightRequests;
+    }
+  }
+
+  int getQueuedRequestCount() {
+    synchronized (queue) {
+      return queue.size();
+    }
+  }
+
+  long getTotalQueuedRequestCount() {
+    return queuedRequests.sum();
+  }
+
+  /** The number of rejected requests per status, e.g. "Bad_TooManyOperations". */
+  Map<String, Long> getRejectedRequestCounts() {
+    final Map<String, Long> counts = new TreeMap<>();
+    rejectedRequests.forEach(
+        (value, count) -> counts.put(OpcUaMetrics.getStatusName(value), count.sum()));
+    return counts;
+  }
+
+  double getLimitFactor() {
+    return limitFactor;
+  }
+
+  private static final class WrappedHandler {
+    private final String path;
+    private final ExpandedNodeId typeId;
+    private final ServiceRequestHandler handler;
+
+    private WrappedHandler(
+        final String path, final ExpandedNodeId typeId, final ServiceRequestHandler handler) {
+      this.path = path;
+      this.typeId = typeId;
+      this.handler = handler;
+    }
+  }
+
+  private static final class QueuedRequest {
+    private final ServiceRequestHandler handler;
+    private final ServiceRequest service;
+    private final NodeId token;
+    private final boolean sessionCounted;
+    // Long.MAX_VALUE if the client gave no timeout hint
+    private final long deadlineNanos;
+
+    private QueuedRequest(
+        final ServiceRequestHandler handler,
+        final ServiceRequest service,
+        final NodeId token,
+        final boolean sessionCounted) {
+      this.handler = handler;
+      this.service = service;
+      this.token = token;
+      this.sessionCounted = sessionCounted;
+      final RequestHeader header = service.getRequest().getRequestHeader();
+      final long timeoutHint =
+          Objects.nonNull(header.getTimeoutHint()) ? header.getTimeoutHint().longValue() : 0;
+      this.deadlineNanos =
+          timeoutHint > 0
+              ? service.getReceivedAtNanos() + TimeUnit.MILLISECONDS.toNanos(timeoutHint)
+              : Long.MAX_VALUE;
+    }
+
+    private boolean isExpired(final long now) {
+      return deadlineNanos != Long.MAX_VALUE && now - deadlineNanos > 0;
+    }
+  }
+}
@@ -36,7 +36,9 @@ import org.jline.terminal.TerminalBuilder;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.logging.Level;
@@ -70,9 +72,78 @@ public class OpcUaArgumentsChecker {
   private static final String SECURITY_DIR_DEFAULT_VALUE =
       System.getProperty("user.home") + File.separatorChar + "iotdb_opc_server_security";
 
+  private static final String DATA_DIR_KEY = "data_dir";
+  private static final String DATA_DIR_DEFAULT_VALUE =
+      System.getProperty("user.home") + File.separatorChar + "iotdb_opc_server_data";
+
+  private static final String SNAPSHOT_INTERVAL_KEY = "snapshot_interval";
+  private static final int SNAPSHOT_INTERVAL_DEFAULT_VALUE = 300;
+
   private static final String ENABLE_ANONYMOUS_ACCESS_KEY = "enable_anonymous_access";
   private static final boolean ENABLE_ANONYMOUS_ACCESS_DEFAULT_VALUE = true;
 
+  private static final String ENABLE_COLUMNAR_VALUE_STORE_KEY = "enable_columnar_value_store";
+  private static final boolean ENABLE_COLUMNAR_VALUE_STORE_DEFAULT_VALUE = false;
+
+  private static final String ENABLE_LAZY_NODES_KEY = "enable_lazy_nodes";
+  private static final boolean ENABLE_LAZY_NODES_DEFAULT_VALUE = false;
+
+  private static final String LAZY_NODE_CACHE_SIZE_KEY = "lazy_node_cache_size";
+  private static final int LAZY_NODE_CACHE_SIZE_DEFAULT_VALUE = 10000;
+
+  private static final String HISTORY_DEPTH_KEY = "history_depth";
+  private static final int HISTORY_DEPTH_DEFAULT_VALUE = 0;
+
+  private static final String HISTORY_MEMORY_BUDGET_KEY = "history_memory_budget";
+  private static final int HISTORY_MEMORY_BUDGET_DEFAULT_VALUE = 256;
+
+  private static final String HISTORY_RETENTION_KEY = "history_retention";
+  private static final int HISTORY_RETENTION_DEFAULT_VALUE = 0;
+
+  private static final String METRICS_PORT_KEY = "metrics_port";
+  private static final int METRICS_PORT_DEFAULT_VALUE = 0;
+
+  private static final String METRICS_ADDRESS_KEY = "metrics_address";
+  private static final String METRICS_ADDRESS_DEFAULT_VALUE = "127.0.0.1";
+
+  private static final String INGEST_PORT_KEY = "ingest_port";
+  private static final int INGEST_PORT_DEFAULT_VALUE = 0;
+
+  private static final String INGEST_ADDRESS_KEY = "ingest_address";
+  private static final String INGEST_ADDRESS_DEFAULT_VALUE = "127.0.0.1";
+
+  private static final String NODE_BUDGET_KEY = "node_budget";
+  private static final int NODE_BUDGET_DEFAULT_VALUE = 0;
+
+  private static final String NODE_IDLE_TIME_KEY = "node_idle_time";
+  private static final int NODE_IDLE_TIME_DEFAULT_VALUE = 3600;
+
+  private static final String HOSTNAMES_KEY = "hostnames";
+
+  private static final String IO_THREADS_KEY = "io_threads";
+  private static final int IO_THREADS_DEFAULT_VALUE = 0;
+
+  private static final String SERVICE_EXECUTOR_KEY = "service_executor";
+  private static final String SERVICE_EXECUTOR_SHARED_VALUE = "SHARED";
+  private static final String SERVICE_EXECUTOR_BOUNDED_VALUE = "BOUNDED";
+  private static final String SERVICE_EXECUTOR_WORK_STEALING_VALUE = "WORK_STEALING";
+  private static final String SERVICE_EXECUTOR_VIRTUAL_VALUE = "VIRTUAL";
+
+  private static final String SERVICE_THREADS_KEY = "service_threads";
+  private static final int SERVICE_THREADS_DEFAULT_VALUE = 0;
+
+  private static final String CERTIFICATE_CACHE_TIME_KEY = "certificate_cache_time";
+  private static final int CERTIFICATE_CACHE_TIME_DEFAULT_VALUE = 300;
+
+  private static final String MAX_INFLIGHT_REQUESTS_KEY = "max_inflight_requests";
+  private static final int MAX_INFLIGHT_REQUESTS_DEFAULT_VALUE = 0;
+
+  private static final String MAX_SESSION_INFLIGHT_REQUESTS_KEY = "max_session_inflight_requests";
+  private static final int MAX_SESSION_INFLIGHT_REQUESTS_DEFAULT_VALUE = 0;
+
+  private static final String REQUEST_QUEUE_SIZE_KEY = "request_queue_size";
+  private static final int REQUEST_QUEUE_SIZE_DEFAULT_VALUE = 1000;
+
   private static final String SECURITY_POLICY_KEY = "security_policy";
   public static final String SECURITY_POLICY_NONE_VALUE = "NONE";
   public static final String SECURITY_POLICY_BASIC_128_RSA_15_VALUE = "BASIC128RSA15";
@@ -97,7 +168,29 @@ public class OpcUaArgumentsChecker {
               "-" + TCP_BIND_PORT_KEY,
               "-" + HTTPS_BIND_PORT_KEY,
               "-" + SECURITY_DIR_KEY,
+              "-" + DATA_DIR_KEY,
+              "-" + SNAPSHOT_INTERVAL_KEY,
               "-" + ENABLE_ANONYMOUS_ACCESS_KEY,
+              "-" + ENABLE_COLUMNAR_VALUE_STORE_KEY,
+              "-" + ENABLE_LAZY_NODES_KEY,
+              "-" + LAZY_NODE_CACHE_SIZE_KEY,
+              "-" + HISTORY_DEPTH_KEY,
+              "-" + HISTORY_MEMORY_BUDGET_KEY,
+              "-" + HISTORY_RETENTION_KEY,
+              "-" + METRICS_PORT_KEY,
+              "-" + METRICS_ADDRESS_KEY,
+              "-" + INGEST_PORT_KEY,
+              "-" + INGEST_ADDRESS_KEY,
+              "-" + NODE_BUDGET_KEY,
+              "-" + NODE_IDLE_TIME_KEY,
+              "-" + HOSTNAMES_KEY,
+              "-" + IO_THREADS_KEY,
+              "-" + SERVICE_EXECUTOR_KEY,
+              "-" + SERVICE_THREADS_KEY,
+              "-" + CERTIFICATE_CACHE_TIME_KEY,
+              "-" + MAX_INFLIGHT_REQUESTS_KEY,
+              "-" + MAX_SESSION_INFLIGHT_REQUESTS_KEY,
+              "-" + REQUEST_QUEUE_SIZE_KEY,
               "-" + SECURITY_POLICY_KEY));
 
   private static CommandLine commandLine;
@@ -115,7 +208,25 @@ public class OpcUaArgumentsChecker {
           .setUser(USER_DEFAULT_VALUE)
           .setPassword(PASSWORD_VALUE)
           .setSecurityDir(SECURITY_DIR_DEFAULT_VALUE)
+          .setDataDir(DATA_DIR_DEFAULT_VALUE)
+          .setSnapshotIntervalSeconds(SNAPSHOT_INTERVAL_DEFAULT_VALUE)
           .setEnableAnonymousAccess(ENABLE_ANONYMOUS_ACCESS_DEFAULT_VALUE)
+          .setEnableColumnarValueStore(ENABLE_COLUMNAR_VALUE_STORE_DEFAULT_VALUE)
+          .setEnableLazyNodes(ENABLE_LAZY_NODES_DEFAULT_VALUE)
+          .setLazyNodeCacheSize(LAZY_NODE_CACHE_SIZE_DEFAULT_VALUE)
+          .setHistoryDepth(HISTORY_DEPTH_DEFAULT_VALUE)
+          .setHistoryMemoryBudget(HISTORY_MEMORY_BUDGET_DEFAULT_VALUE * 1024L * 1024L)
+          .setHistoryRetentionHours(HISTORY_RETENTION_DEFAULT_VALUE)
+          .setMetricsPort(METRICS_PORT_DEFAULT_VALUE)
+          .setMetricsAddress(METRICS_ADDRESS_DEFAULT_VALUE)
+          .setIngestPort(INGEST_PORT_DEFAULT_VALUE)
+          .setIngestAddress(INGEST_ADDRESS_DEFAULT_VALUE)
+          .setNodeBudget(NODE_BUDGET_DEFAULT_VALUE)
+          .setNodeIdleSeconds(NODE_IDLE_TIME_DEFAULT_VALUE)
+          .setCertificateCacheSeconds(CERTIFICATE_CACHE_TIME_DEFAULT_VALUE)
+          .setMaxInFlightRequests(MAX_INFLIGHT_REQUESTS_DEFAULT_VALUE)
+          .setMaxSessionInFlightRequests(MAX_SESSION_INFLIGHT_REQUESTS_DEFAULT_VALUE)
+          .setRequestQueueSize(REQUEST_QUEUE_SIZE_DEFAULT_VALUE)
           .setSecurityPolicies(SECURITY_POLICY_DEFAULT_VALUE);
     }
     processPasswordArgs(args);
@@ -128,9 +239,48 @@ public class OpcUaArgumentsChecker {
         .setUser(getStringOptionsOrDefault(USER_KEY, USER_DEFAULT_VALUE))
         .setPassword(getStringOptionsOrDefault(PASSWORD_KEY, PASSWORD_VALUE))
         .setSecurityDir(getStringOptionsOrDefault(SECURITY_DIR_KEY, SECURITY_DIR_DEFAULT_VALUE))
+        .setDataDir(getStringOptionsOrDefault(DATA_DIR_KEY, DATA_DIR_DEFAULT_VALUE))
+        .setSnapshotIntervalSeconds(
+            getIntOptionOrDefault(SNAPSHOT_INTERVAL_KEY, SNAPSHOT_INTERVAL_DEFAULT_VALUE))
         .setTcpBindPort(getIntOptionOrDefault(TCP_BIND_PORT_KEY, TCP_BIND_PORT_DEFAULT_VALUE))
         .setHttpsBindPort(getIntOptionOrDefault(HTTPS_BIND_PORT_KEY, HTTPS_BIND_PORT_DEFAULT_VALUE))
         .setEnableAnonymousAccess(getEnableAnonymousAccessOrDefault())
+        .setEnableColumnarValueStore(
+            getBooleanOptionOrDefault(
+                ENABLE_COLUMNAR_VALUE_STORE_KEY, ENABLE_COLUMNAR_VALUE_STORE_DEFAULT_VALUE))
+        .setEnableLazyNodes(
+            getBooleanOptionOrDefault(ENABLE_LAZY_NODES_KEY, ENABLE_LAZY_NODES_DEFAULT_VALUE))
+        .setLazyNodeCacheSize(
+            getIntOptionOrDefault(LAZY_NODE_CACHE_SIZE_KEY, LAZY_NODE_CACHE_SIZE_DEFAULT_VALUE))
+        .setHistoryDepth(getIntOptionOrDefault(HISTORY_DEPTH_KEY, HISTORY_DEPTH_DEFAULT_VALUE))
+        .setHistoryMemoryBudget(
+            getIntOptionOrDefault(HISTORY_MEMORY_BUDGET_KEY, HISTORY_MEMORY_BUDGET_DEFAULT_VALUE)
+                * 1024L
+                * 1024L)
+        .setHistoryRetentionHours(
+            getIntOptionOrDefault(HISTORY_RETENTION_KEY, HISTORY_RETENTION_DEFAULT_VALUE))
+        .setMetricsPort(getIntOptionOrDefault(METRICS_PORT_KEY, METRICS_PORT_DEFAULT_VALUE))
+        .setMetricsAddress(
+            getStringOptionsOrDefault(METRICS_ADDRESS_KEY, METRICS_ADDRESS_DEFAULT_VALUE))
+        .setIngestPort(getIntOptionOrDefault(INGEST_PORT_KEY, INGEST_PORT_DEFAULT_VALUE))
+        .setIngestAddress(
+            getStringOptionsOrDefault(INGEST_ADDRESS_KEY, INGEST_ADDRESS_DEFAULT_VALUE))
+        .setNodeBudget(getIntOptionOrDefault(NODE_BUDGET_KEY, NODE_BUDGET_DEFAULT_VALUE))
+        .setNodeIdleSeconds(getIntOptionOrDefault(NODE_IDLE_TIME_KEY, NODE_IDLE_TIME_DEFAULT_VALUE))
+        .setAdvertisedHostnames(parseHostnames())
+        .setIoThreads(getIntOptionOrDefault(IO_THREADS_KEY, IO_THREADS_DEFAULT_VALUE))
+        .setServiceExecutorType(parseServiceExecutorType())
+        .setServiceThreads(
+            getIntOptionOrDefault(SERVICE_THREADS_KEY, SERVICE_THREADS_DEFAULT_VALUE))
+        .setCertificateCacheSeconds(
+            getIntOptionOrDefault(CERTIFICATE_CACHE_TIME_KEY, CERTIFICATE_CACHE_TIME_DEFAULT_VALUE))
+        .setMaxInFlightRequests(
+            getIntOptionOrDefault(MAX_INFLIGHT_REQUESTS_KEY, MAX_INFLIGHT_REQUESTS_DEFAULT_VALUE))
+        .setMaxSessionInFlightRequests(
+            getIntOptionOrDefault(
+                MAX_SESSION_INFLIGHT_REQUESTS_KEY, MAX_SESSION_INFLIGHT_REQUESTS_DEFAULT_VALUE))
+        .setRequestQueueSize(
+            getIntOptionOrDefault(REQUEST_QUEUE_SIZE_KEY, REQUEST_QUEUE_SIZE_DEFAULT_VALUE))
         .setSecurityPolicies(parseSecurityPolicies());
   }
 
@@ -185,6 +335,26 @@ public class OpcUaArgumentsChecker {
                         "Security directory of OPC Server. Default is %s. (optional)",
                         SECURITY_DIR_DEFAULT_VALUE))
                 .build())
+        .addOption(
+            Option.builder(DATA_DIR_KEY)
+                .argName(DATA_DIR_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Data directory of OPC Server, holding the snapshot of the address space. Default is %s. (optional)",
+                        DATA_DIR_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(SNAPSHOT_INTERVAL_KEY)
+                .argName(SNAPSHOT_INTERVAL_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Interval in seconds between two snapshots of the address space, non-positive values only snapshot on shutdown. Default is %s. (optional)",
+                        SNAPSHOT_INTERVAL_DEFAULT_VALUE))
+                .build())
         .addOption(
             Option.builder(ENABLE_ANONYMOUS_ACCESS_KEY)
                 .argName(ENABLE_ANONYMOUS_ACCESS_KEY)
@@ -195,6 +365,202 @@ public class OpcUaArgumentsChecker {
                         "Whether to enable anonymous access of this server. Default is %s. (optional)",
                         ENABLE_ANONYMOUS_ACCESS_DEFAULT_VALUE))
                 .build())
+        .addOption(
+            Option.builder(ENABLE_COLUMNAR_VALUE_STORE_KEY)
+                .argName(ENABLE_COLUMNAR_VALUE_STORE_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Whether to keep the values of the variables in a columnar store instead of the nodes, which saves memory for large address spaces. Default is %s. (optional)",
+                        ENABLE_COLUMNAR_VALUE_STORE_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(ENABLE_LAZY_NODES_KEY)
+                .argName(ENABLE_LAZY_NODES_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "Whether to keep the IoTDB paths as compact records and only create their nodes while browsed, read or monitored, which implies the columnar value store. Default is %s. (optional)",
+                        ENABLE_LAZY_NODES_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(LAZY_NODE_CACHE_SIZE_KEY)
+                .argName(LAZY_NODE_CACHE_SIZE_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The number of nodes created from the records of the lazy nodes that are cached until they get cold. Default is %s. (optional)",
+                        LAZY_NODE_CACHE_SIZE_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(HISTORY_DEPTH_KEY)
+                .argName(HISTORY_DEPTH_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The number of written values kept in memory per variable for HistoryRead, 0 disables the history. Default is %s. (optional)",
+                        HISTORY_DEPTH_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(HISTORY_MEMORY_BUDGET_KEY)
+                .argName(HISTORY_MEMORY_BUDGET_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The memory in MB that the history of all variables may use. Default is %s. (optional)",
+                        HISTORY_MEMORY_BUDGET_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(HISTORY_RETENTION_KEY)
+                .argName(HISTORY_RETENTION_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The hours for which the history beyond the in-memory depth is kept in segment files under the data dir, 0 keeps the history in memory only. Default is %s. (optional)",
+                        HISTORY_RETENTION_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(METRICS_PORT_KEY)
+                .argName(METRICS_PORT_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The port serving the metrics in the Prometheus text format at /metrics, 0 exposes them through JMX only. Default is %s. (optional)",
+                        METRICS_PORT_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(METRICS_ADDRESS_KEY)
+                .argName(METRICS_ADDRESS_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The address the unauthenticated metrics endpoint binds to, 0.0.0.0 for all the interfaces. Default is %s. (optional)",
+                        METRICS_ADDRESS_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(INGEST_PORT_KEY)
+                .argName(INGEST_PORT_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The port of the line protocol ingest listener, authenticated with the user and password, 0 disables it. Default is %s. (optional)",
+                        INGEST_PORT_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(INGEST_ADDRESS_KEY)
+                .argName(INGEST_ADDRESS_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The address the ingest listener binds to, whose user and password travel unencrypted, 0.0.0.0 for all the interfaces. Default is %s. (optional)",
+                        INGEST_ADDRESS_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(NODE_BUDGET_KEY)
+                .argName(NODE_BUDGET_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The number of nodes above which the idle variables are evicted, 0 never evicts. Default is %s. (optional)",
+                        NODE_BUDGET_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(NODE_IDLE_TIME_KEY)
+                .argName(NODE_IDLE_TIME_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The seconds for which a variable must be neither written, read nor monitored before it can be evicted. Default is %s. (optional)",
+                        NODE_IDLE_TIME_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(HOSTNAMES_KEY)
+                .argName(HOSTNAMES_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    "The comma-separated hostnames and IP addresses to advertise in the endpoints and certificates, instead of the resolved ones of the local interfaces. (optional)")
+                .build())
+        .addOption(
+            Option.builder(IO_THREADS_KEY)
+                .argName(IO_THREADS_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The Netty threads doing the socket I/O, 0 for twice the cores. Default is %s. (optional)",
+                        IO_THREADS_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(SERVICE_EXECUTOR_KEY)
+                .argName(SERVICE_EXECUTOR_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    "The executor decoding the requests and running the services: 'Shared' for Milo's unbounded one, 'Bounded' for a fixed number of threads with a bounded queue, 'Work_Stealing', or 'Virtual' for a virtual thread per task on Java 21 and above. Default is Shared. (optional)")
+                .build())
+        .addOption(
+            Option.builder(SERVICE_THREADS_KEY)
+                .argName(SERVICE_THREADS_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The threads of the bounded or work-stealing service executor, 0 for the number of cores. Default is %s. (optional)",
+                        SERVICE_THREADS_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(CERTIFICATE_CACHE_TIME_KEY)
+                .argName(CERTIFICATE_CACHE_TIME_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The seconds for which the validation of a client certificate chain is reused by the next secure channels, 0 validates every time. Changes of the pki dir take effect within a second. Default is %s. (optional)",
+                        CERTIFICATE_CACHE_TIME_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(MAX_INFLIGHT_REQUESTS_KEY)
+                .argName(MAX_INFLIGHT_REQUESTS_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The AddNodes, Write and Call requests served at once by the server, beyond which they wait in the request queue, 0 for no limit. Lowered under heap pressure. Default is %s. (optional)",
+                        MAX_INFLIGHT_REQUESTS_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(MAX_SESSION_INFLIGHT_REQUESTS_KEY)
+                .argName(MAX_SESSION_INFLIGHT_REQUESTS_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The AddNodes, Write and Call requests of a session served or queued at once, beyond which they are rejected with Bad_TooManyOperations, 0 for no limit. Default is %s. (optional)",
+                        MAX_SESSION_INFLIGHT_REQUESTS_DEFAULT_VALUE))
+                .build())
+        .addOption(
+            Option.builder(REQUEST_QUEUE_SIZE_KEY)
+                .argName(REQUEST_QUEUE_SIZE_KEY)
+                .hasArg()
+                .optionalArg(true)
+                .desc(
+                    String.format(
+                        "The requests waiting for the limit of -max_inflight_requests, beyond which they are rejected with Bad_ResourceUnavailable. Default is %s. (optional)",
+                        REQUEST_QUEUE_SIZE_DEFAULT_VALUE))
+                .build())
         .addOption(
             Option.builder(SECURITY_POLICY_KEY)
                 .argName(SECURITY_POLICY_KEY)
@@ -275,6 +641,11 @@ public class OpcUaArgumentsChecker {
     return Objects.nonNull(str) ? Integer.parseInt(str) : defaultValue;
   }
 
+  private static boolean getBooleanOptionOrDefault(final String arg, final boolean defaultValue) {
+    final String str = commandLine.getOptionValue(arg);
+    return Objects.nonNull(str) ? Boolean.parseBoolean(str) : defaultValue;
+  }
+
   private static boolean getEnableAnonymousAccessOrDefault() {
     final String str =
         commandLine.getOptionValue(OpcUaArgumentsChecker.ENABLE_ANONYMOUS_ACCESS_KEY);
@@ -283,6 +654,35 @@ public class OpcUaArgumentsChecker {
         : OpcUaArgumentsChecker.ENABLE_ANONYMOUS_ACCESS_DEFAULT_VALUE;
   }
 
+  private static List<String> parseHostnames() {
+    final String str = commandLine.getOptionValue(OpcUaArgumentsChecker.HOSTNAMES_KEY);
+    return Objects.nonNull(str)
+        ? Arrays.stream(str.replace(" ", "").split(","))
+            .filter(hostname -> !hostname.isEmpty())
+            .collect(Collectors.toList())
+        : Collections.emptyList();
+  }
+
+  private static OpcUaServerBuilder.ServiceExecutorType parseServiceExecutorType() {
+    final String str = commandLine.getOptionValue(OpcUaArgumentsChecker.SERVICE_EXECUTOR_KEY);
+    if (Objects.isNull(str)) {
+      return OpcUaServerBuilder.ServiceExecutorType.SHARED;
+    }
+    switch (str.toUpperCase()) {
+      case SERVICE_EXECUTOR_SHARED_VALUE:
+        return OpcUaServerBuilder.ServiceExecutorType.SHARED;
+      case SERVICE_EXECUTOR_BOUNDED_VALUE:
+        return OpcUaServerBuilder.ServiceExecutorType.BOUNDED;
+      case SERVICE_EXECUTOR_WORK_STEALING_VALUE:
+        return OpcUaServerBuilder.ServiceExecutorType.WORK_STEALING;
+      case SERVICE_EXECUTOR_VIRTUAL_VALUE:
+        return OpcUaServerBuilder.ServiceExecutorType.VIRTUAL;
+      default:
+        throw new UnsupportedOperationException(
+            "The service executor can only be 'Shared', 'Bounded', 'Work_Stealing' or 'Virtual'.");
+    }
+  }
+
   private static Set<SecurityPolicy> parseSecurityPolicies() {
     final String str = commandLine.getOptionValue(OpcUaArgumentsChecker.SECURITY_POLICY_KEY);
     return Objects.nonNull(str)
@@ -292,7 +692,7 @@ public class OpcUaArgumentsChecker {
         : SECURITY_POLICY_DEFAULT_VALUE;
   }
 
-  private static SecurityPolicy getSecurityPolicy(final String securityPolicy) {
+  static SecurityPolicy getSecurityPolicy(final String securityPolicy) {
     switch (securityPolicy.toUpperCase()) {
       case SECURITY_POLICY_NONE_VALUE:
         return SecurityPolicy.None;
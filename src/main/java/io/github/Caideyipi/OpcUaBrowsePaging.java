@@ -0,0 +1,573 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.server.AbstractLifecycle;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.Session;
+import org.eclipse.milo.opcua.sdk.server.SessionListener;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+import org.eclipse.milo.opcua.sdk.server.services.ServiceAttributes;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.serialization.UaRequestMessage;
+import org.eclipse.milo.opcua.stack.core.serialization.UaResponseMessage;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DiagnosticInfo;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseDirection;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseResultMask;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseNextRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseNextResponse;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResponse;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReferenceDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.ViewDescription;
+import org.eclipse.milo.opcua.stack.core.util.EndpointUtil;
+import org.eclipse.milo.opcua.stack.server.UaStackServer;
+import org.eclipse.milo.opcua.stack.server.services.ServiceRequest;
+import org.eclipse.milo.opcua.stack.server.services.ServiceRequestHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+
+/**
+ * Serves Browse and BrowseNext page by page for the nodes of {@link OpcUaNameSpace}.
+ *
+ * <p>Milo lists all the references of a browsed node, describes every one of them from the
+ * attributes of its target, and only then cuts off the first page, keeping the rest in the
+ * continuation point. Browsing a folder of a million variables costs a million descriptions, even
+ * for a page of a hundred. Here the Browse and BrowseNext requests are intercepted, the references
+ * of the namespace's nodes are read from the index of {@link OpcUaNodeManager} one page at a time,
+ * starting from the position kept by the continuation point, and only the references of the page
+ * are described. The positions stay valid while references are added or removed. With the lazy
+ * nodes, whose references to their children are derived from the {@link OpcUaNodeTrie}, the
+ * references are listed once by the Browse and only described page by page.
+ *
+ * <p>The other nodes, and the browses through a view, are left to Milo with the rest of the
+ * request. Milo's handlers also check the session, and the nodes of the namespace are only browsed
+ * once they have. The continuation points count towards the limit of each session along with Milo's
+ * ones, and are released with the session.
+ */
+class OpcUaBrowsePaging extends AbstractLifecycle {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaBrowsePaging.class);
+
+  private static final ReferenceDescription[] NO_REFERENCES = new ReferenceDescription[0];
+  private static final BrowseResult NODE_ID_UNKNOWN_RESULT =
+      new BrowseResult(new StatusCode(StatusCodes.Bad_NodeIdUnknown), null, NO_REFERENCES);
+  private static final BrowseResult REFERENCE_TYPE_ID_INVALID_RESULT =
+      new BrowseResult(new StatusCode(StatusCodes.Bad_ReferenceTypeIdInvalid), null, NO_REFERENCES);
+  private static final BrowseResult NO_CONTINUATION_POINTS_RESULT =
+      new BrowseResult(new StatusCode(StatusCodes.Bad_NoContinuationPoints), null, NO_REFERENCES);
+  private static final BrowseResult CONTINUATION_POINT_INVALID_RESULT =
+      new BrowseResult(
+          new StatusCode(StatusCodes.Bad_ContinuationPointInvalid), null, NO_REFERENCES);
+  private static final BrowseResult RELEASED_RESULT =
+      new BrowseResult(StatusCode.GOOD, null, NO_REFERENCES);
+
+  private static final int CONTINUATION_POINT_LENGTH = 16;
+
+  private final OpcUaServer server;
+  private final OpcUaNameSpace namespace;
+  private final Map<String, ServiceRequestHandler> browseHandlers = new HashMap<>();
+  private final Map<String, ServiceRequestHandler> browseNextHandlers = new HashMap<>();
+
+  private final ConcurrentMap<ByteString, ContinuationPoint> continuationPoints =
+      new ConcurrentHashMap<>();
+  // The ids of the continuation points of every session, keyed by the session's id
+  private final ConcurrentMap<NodeId, Set<ByteString>> sessionContinuationPoints =
+      new ConcurrentHashMap<>();
+  private final SessionListener sessionListener =
+      new SessionListener() {
+        @Override
+        public void onSessionClosed(final Session session) {
+          final Set<ByteString> ids = sessionContinuationPoints.remove(session.getSessionId());
+          if (Objects.nonNull(ids)) {
+            ids.forEach(continuationPoints::remove);
+          }
+        }
+      };
+
+  OpcUaBrowsePaging(final OpcUaServer server, final OpcUaNameSpace namespace) {
+    this.server = server;
+    this.namespace = namespace;
+  }
+
+  @Override
+  protected void onStartup() {
+    final UaStackServer stackServer = server.getStackServer();
+    final Set<String> paths =
+        server.getConfig().getEndpoints().stream()
+            .map(endpoint -> EndpointUtil.getPath(endpoint.getEndpointUrl()))
+            .collect(Collectors.toSet());
+    for (final String path : paths) {
+      wrap(stackServer, path, BrowseRequest.TYPE_ID, browseHandlers, this::onBrowse);
+      wrap(stackServer, path, BrowseNextRequest.TYPE_ID, browseNextHandlers, this::onBrowseNext);
+    }
+    server.getSessionManager().addSessionListener(sessionListener);
+  }
+
+  @Override
+  protected void onShutdown() {
+    final UaStackServer stackServer = server.getStackServer();
+    browseHandlers.forEach(
+        (path, handler) -> stackServer.addServiceHandler(path, BrowseRequest.TYPE_ID, handler));
+    browseNextHandlers.forEach(
+        (path, handler) -> stackServer.addServiceHandler(path, BrowseNextRequest.TYPE_ID, handler));
+    browseHandlers.clear();
+    browseNextHandlers.clear();
+    server.getSessionManager().removeSessionListener(sessionListener);
+    continuationPoints.clear();
+    sessionContinuationPoints.clear();
+  }
+
+  private void wrap(
+      final UaStackServer stackServer,
+      final String path,
+      final ExpandedNodeId typeId,
+      final Map<String, ServiceRequestHandler> handlers,
+      final Interceptor interceptor) {
+    final ServiceRequestHandler handler = stackServer.getServiceHandler(path, typeId);
+    if (Objects.isNull(handler)) {
+      return;
+    }
+    handlers.put(path, handler);
+    stackServer.addServiceHandler(path, typeId, service -> interceptor.intercept(handler, service));
+  }
+
+  private void onBrowse(final ServiceRequestHandler handler, final ServiceRequest service)
+      throws UaException {
+    final BrowseRequest request = (BrowseRequest) service.getRequest();
+    final BrowseDescription[] nodesToBrowse = request.getNodesToBrowse();
+    // Left to Milo to be rejected
+    if (Objects.isNull(nodesToBrowse)
+        || nodesToBrowse.length == 0
+        || nodesToBrowse.length > server.getConfig().getLimits().getMaxNodesPerBrowse().intValue()
+        || !isDefaultView(request.getView())) {
+      handler.handle(service);
+      return;
+    }
+
+    final boolean[] paged = new boolean[nodesToBrowse.length];
+    int pagedCount = 0;
+    for (int i = 0; i < nodesToBrowse.length; ++i) {
+      final BrowseDescription description = nodesToBrowse[i];
+      paged[i] =
+          Objects.nonNull(description)
+              && Objects.nonNull(description.getNodeId())
+              && namespace.containsNode(description.getNodeId());
+      if (paged[i]) {
+        ++pagedCount;
+      }
+    }
+    if (pagedCount == 0) {
+      handler.handle(service);
+      return;
+    }
+
+    final BrowseDescription[] others = new BrowseDescription[nodesToBrowse.length - pagedCount];
+    for (int i = 0, j = 0; i < nodesToBrowse.length; ++i) {
+      if (!paged[i]) {
+        others[j++] = nodesToBrowse[i];
+      }
+    }
+    final int maxReferences =
+        Objects.nonNull(request.getRequestedMaxReferencesPerNode())
+            ? (int)
+                Math.min(Integer.MAX_VALUE, request.getRequestedMaxReferencesPerNode().longValue())
+            : 0;
+    delegate(
+        handler,
+        service,
+        new BrowseRequest(
+            request.getRequestHeader(),
+            request.getView(),
+            request.getRequestedMaxReferencesPerNode(),
+            others),
+        others.length,
+        BrowseResponse.class,
+        (session, response) -> {
+          final BrowseResult[] otherResults =
+              Objects.nonNull(response) ? ((BrowseResponse) response).getResults() : null;
+          final BrowseResult[] results = new BrowseResult[nodesToBrowse.length];
+          for (int i = 0, j = 0; i < nodesToBrowse.length; ++i) {
+            results[i] =
+                paged[i] ? browse(session, nodesToBrowse[i], maxReferences) : otherResults[j++];
+          }
+          return new BrowseResponse(service.createResponseHeader(), results, new DiagnosticInfo[0]);
+        });
+  }
+
+  private void onBrowseNext(final ServiceRequestHandler handler, final ServiceRequest service)
+      throws UaException {
+    final BrowseNextRequest request = (BrowseNextRequest) service.getRequest();
+    final ByteString[] ids = request.getContinuationPoints();
+    if (Objects.isNull(ids) || ids.length == 0) {
+      handler.handle(service);
+      return;
+    }
+
+    final boolean[] paged = new boolean[ids.length];
+    int pagedCount = 0;
+    for (int i = 0; i < ids.length; ++i) {
+      paged[i] = Objects.nonNull(ids[i]) && continuationPoints.containsKey(ids[i]);
+      if (paged[i]) {
+        ++pagedCount;
+      }
+    }
+    if (pagedCount == 0) {
+      handler.handle(service);
+      return;
+    }
+
+    final ByteString[] others = new ByteString[ids.length - pagedCount];
+    for (int i = 0, j = 0; i < ids.length; ++i) {
+      if (!paged[i]) {
+        others[j++] = ids[i];
+      }
+    }
+    final boolean release = Boolean.TRUE.equals(request.getReleaseContinuationPoints());
+    delegate(
+        handler,
+        service,
+        new BrowseNextRequest(request.getRequestHeader(), release, others),
+        others.length,
+        BrowseNextResponse.class,
+        (session, response) -> {
+          final BrowseResult[] otherResults =
+              Objects.nonNull(response) ? ((BrowseNextResponse) response).getResults() : null;
+          final BrowseResult[] results = new BrowseResult[ids.length];
+          for (int i = 0, j = 0; i < ids.length; ++i) {
+            results[i] = paged[i] ? browseNext(session, ids[i], release) : otherResults[j++];
+          }
+          return new BrowseNextResponse(
+              service.createResponseHeader(), results, new DiagnosticInfo[0]);
+        });
+  }
+
+  private BrowseResult browse(
+      final Session session, final BrowseDescription description, final int maxReferences) {
+    final NodeId referenceTypeId = description.getReferenceTypeId();
+    final boolean anyReferenceType = Objects.isNull(referenceTypeId) || referenceTypeId.isNull();
+    if (!anyReferenceType && !server.getReferenceTypes().containsKey(referenceTypeId)) {
+      return REFERENCE_TYPE_ID_INVALID_RESULT;
+    }
+    final NodeId nodeId = description.getNodeId();
+    if (!namespace.containsNode(nodeId)) {
+      return NODE_ID_UNKNOWN_RESULT;
+    }
+
+    final BrowseDirection direction = description.getBrowseDirection();
+    final boolean includeSubtypes = Boolean.TRUE.equals(description.getIncludeSubtypes());
+    final BiPredicate<NodeId, Boolean> groupFilter =
+        (typeId, forward) ->
+            (direction != BrowseDirection.Forward || forward)
+                && (direction != BrowseDirection.Inverse || !forward)
+                && (anyReferenceType
+                    || typeId.equals(referenceTypeId)
+                    || includeSubtypes
+                        && new Reference(nodeId, typeId, ExpandedNodeId.NULL_VALUE, forward)
+                            .subtypeOf(referenceTypeId, server.getReferenceTypes()));
+    final ContinuationPoint continuationPoint =
+        new ContinuationPoint(session.getSessionId(), description, groupFilter, maxReferences);
+    if (!namespace.isReferenceIndexed()) {
+      continuationPoint.remaining =
+          namespace.getNodeReferences(nodeId).stream()
+              .filter(
+                  reference ->
+                      groupFilter.test(reference.getReferenceTypeId(), reference.isForward()))
+              .collect(Collectors.toList())
+              .iterator();
+    }
+    return nextPage(session, continuationPoint);
+  }
+
+  private BrowseResult browseNext(
+      final Session session, final ByteString id, final boolean release) {
+    final ContinuationPoint continuationPoint = continuationPoints.get(id);
+    if (Objects.isNull(continuationPoint)
+        || !continuationPoint.sessionId.equals(session.getSessionId())) {
+      return CONTINUATION_POINT_INVALID_RESULT;
+    }
+    if (release) {
+      remove(continuationPoint);
+      return RELEASED_RESULT;
+    }
+    return nextPage(session, continuationPoint);
+  }
+
+  /**
+   * Describes the next page of references, and stores the continuation point if more follow or
+   * removes it otherwise.
+   */
+  private BrowseResult nextPage(final Session session, final ContinuationPoint continuationPoint) {
+    synchronized (continuationPoint) {
+      // Released or served to its end by a concurrent BrowseNext
+      if (Objects.nonNull(continuationPoint.id)
+          && continuationPoints.get(continuationPoint.id) != continuationPoint) {
+        return CONTINUATION_POINT_INVALID_RESULT;
+      }
+
+      final int limit =
+          continuationPoint.maxReferences > 0 ? continuationPoint.maxReferences : Integer.MAX_VALUE;
+      final List<ReferenceDescription> page = new ArrayList<>();
+      boolean more;
+      if (Objects.nonNull(continuationPoint.remaining)) {
+        while (page.size() < limit && continuationPoint.remaining.hasNext()) {
+          addDescription(continuationPoint, continuationPoint.remaining.next(), page);
+        }
+        more = continuationPoint.remaining.hasNext();
+      } else {
+        more = true;
+        while (more && page.size() < limit) {
+          final List<Reference> references = new ArrayList<>();
+          final OpcUaNodeManager.Position next =
+              namespace
+                  .getNodeManager()
+                  .getReferences(
+                      continuationPoint.nodeId,
+                      continuationPoint.position,
+                      continuationPoint.groupFilter,
+                      continuationPoint.maxReferences > 0 ? limit - page.size() : 0,
+                      references);
+          references.forEach(reference -> addDescription(continuationPoint, reference, page));
+          more = Objects.nonNull(next);
+          if (more) {
+            continuationPoint.position = next;
+          }
+        }
+      }
+
+      final ReferenceDescription[] descriptions = page.toArray(NO_REFERENCES);
+      if (!more) {
+        if (Objects.nonNull(continuationPoint.id)) {
+          remove(continuationPoint);
+        }
+        return new BrowseResult(StatusCode.GOOD, null, descriptions);
+      }
+      if (Objects.isNull(continuationPoint.id)) {
+        final Set<ByteString> ids =
+            sessionContinuationPoints.computeIfAbsent(
+                session.getSessionId(), sessionId -> ConcurrentHashMap.newKeySet());
+        if (ids.size() + session.getBrowseContinuationPoints().size()
+            >= server.getConfig().getLimits().getMaxBrowseContinuationPoints().intValue()) {
+          return NO_CONTINUATION_POINTS_RESULT;
+        }
+        final byte[] bytes = new byte[CONTINUATION_POINT_LENGTH];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        continuationPoint.id = ByteString.of(bytes);
+        continuationPoints.put(continuationPoint.id, continuationPoint);
+        ids.add(continuationPoint.id);
+      }
+      return new BrowseResult(StatusCode.GOOD, continuationPoint.id, descriptions);
+    }
+  }
+
+  /** Describes the target of the reference, unless its node class is not browsed. */
+  private void addDescription(
+      final ContinuationPoint continuationPoint,
+      final Reference reference,
+      final List<ReferenceDescription> page) {
+    final NodeId targetId =
+        reference.getTargetNodeId().toNodeId(server.getNamespaceTable()).orElse(null);
+    UaNode target = null;
+    boolean ownTarget = false;
+    if (Objects.nonNull(targetId)) {
+      target = namespace.getNode(targetId);
+      ownTarget = Objects.nonNull(target);
+      if (!ownTarget) {
+        target = server.getAddressSpaceManager().getManagedNode(targetId).orElse(null);
+      }
+    }
+    final NodeClass nodeClass =
+        Objects.nonNull(target) ? target.getNodeClass() : NodeClass.Unspecified;
+    if (continuationPoint.nodeClassMask != 0
+        && (continuationPoint.nodeClassMask & nodeClass.getValue()) == 0) {
+      return;
+    }
+
+    final long resultMask = continuationPoint.resultMask;
+    ExpandedNodeId typeDefinition = null;
+    if (isRequested(resultMask, BrowseResultMask.TypeDefinition)
+        && (nodeClass == NodeClass.Object || nodeClass == NodeClass.Variable)) {
+      typeDefinition =
+          ownTarget
+              ? namespace.getTypeDefinition(targetId)
+              : server
+                  .getAddressSpaceManager()
+                  .getManagedReferences(
+                      targetId,
+                      candidate ->
+                          candidate.isForward()
+                              && Identifiers.HasTypeDefinition.equals(
+                                  candidate.getReferenceTypeId()))
+                  .stream()
+                  .findFirst()
+                  .map(Reference::getTargetNodeId)
+                  .orElse(null);
+    }
+    page.add(
+        new ReferenceDescription(
+            isRequested(resultMask, BrowseResultMask.ReferenceTypeId)
+                ? reference.getReferenceTypeId()
+                : NodeId.NULL_VALUE,
+            isRequested(resultMask, BrowseResultMask.IsForward) && reference.isForward(),
+            reference.getTargetNodeId(),
+            isRequested(resultMask, BrowseResultMask.BrowseName) && Objects.nonNull(target)
+                ? target.getBrowseName()
+                : QualifiedName.NULL_VALUE,
+            isRequested(resultMask, BrowseResultMask.DisplayName) && Objects.nonNull(target)
+                ? target.getDisplayName()
+                : LocalizedText.NULL_VALUE,
+            isRequested(resultMask, BrowseResultMask.NodeClass) ? nodeClass : NodeClass.Unspecified,
+            Objects.nonNull(typeDefinition) ? typeDefinition : ExpandedNodeId.NULL_VALUE));
+  }
+
+  private void remove(final ContinuationPoint continuationPoint) {
+    continuationPoints.remove(continuationPoint.id);
+    final Set<ByteString> ids = sessionContinuationPoints.get(continuationPoint.sessionId);
+    if (Objects.nonNull(ids)) {
+      ids.remove(continuationPoint.id);
+    }
+  }
+
+  /**
+   * Lets the original handler serve the rest of the request, then answers the original request once
+   * the session has been checked.
+   */
+  private static void delegate(
+      final ServiceRequestHandler handler,
+      final ServiceRequest service,
+      final UaRequestMessage request,
+      final int delegatedCount,
+      final Class<? extends UaResponseMessage> responseType,
+      final Merger merger)
+      throws UaException {
+    final ServiceRequest rewritten =
+        new ServiceRequest(
+            service.getServer(),
+            request,
+            service.getEndpoint(),
+            service.getSecureChannelId(),
+            service.getClientAddress(),
+            service.getClientCertificateBytes());
+    rewritten
+        .getFuture()
+        .whenComplete(
+            (response, throwable) -> {
+              final Session session = rewritten.attr(ServiceAttributes.SESSION_KEY).get();
+              final boolean served = Objects.isNull(throwable) && responseType.isInstance(response);
+              // Rejected before being served, or failed to serve the rest, while an empty rest is
+              // rejected by Milo once the session is checked
+              if (Objects.isNull(session) || delegatedCount > 0 && !served) {
+                if (Objects.nonNull(throwable)) {
+                  service.getFuture().completeExceptionally(throwable);
+                } else {
+                  service.setResponse(response);
+                }
+                return;
+              }
+              try {
+                service.setResponse(merger.merge(session, served ? response : null));
+              } catch (final RuntimeException e) {
+                LOGGER.warn("Failed to browse the nodes, because {}.", e.getMessage());
+                service.setServiceFault(StatusCodes.Bad_InternalError);
+              }
+            });
+    handler.handle(rewritten);
+  }
+
+  private static boolean isDefaultView(final ViewDescription view) {
+    return Objects.isNull(view) || Objects.isNull(view.getViewId()) || view.getViewId().isNull();
+  }
+
+  private static boolean isRequested(final long resultMask, final BrowseResultMask field) {
+    return (resultMask & field.getValue()) != 0;
+  }
+
+  /** The state of a Browse of a node of the namespace, kept between its pages. */
+  private static final class ContinuationPoint {
+    private final NodeId sessionId;
+    private final NodeId nodeId;
+    private final BiPredicate<NodeId, Boolean> groupFilter;
+    private final long nodeClassMask;
+    private final long resultMask;
+    // 0 for no limit
+    private final int maxReferences;
+
+    // Null until stored, i.e. once a first page did not hold all the references
+    private ByteString id;
+    // Where the next page starts in the reference index
+    private OpcUaNodeManager.Position position = OpcUaNodeManager.Position.START;
+    // The references left for the next pages if not indexed, null otherwise
+    private Iterator<Reference> remaining;
+
+    private ContinuationPoint(
+        final NodeId sessionId,
+        final BrowseDescription description,
+        final BiPredicate<NodeId, Boolean> groupFilter,
+        final int maxReferences) {
+      this.sessionId = sessionId;
+      this.nodeId = description.getNodeId();
+      this.groupFilter = groupFilter;
+      this.nodeClassMask =
+          Objects.nonNull(description.getNodeClassMask())
+              ? description.getNodeClassMask().longValue()
+              : 0;
+      this.resultMask =
+          Objects.nonNull(description.getResultMask())
+              ? description.getResultMask().longValue()
+              : 0;
+      this.maxReferences = maxReferences;
+    }
+  }
+
+  @FunctionalInterface
+  private interface Interceptor {
+    void intercept(final ServiceRequestHandler handler, final ServiceRequest service)
+        throws UaException;
+  }
+
+  @FunctionalInterface
+  private interface Merger {
+    UaResponseMessage merge(final Session session, final UaResponseMessage response);
+  }
+}
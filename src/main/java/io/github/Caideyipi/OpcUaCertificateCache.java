@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.security.TrustListManager;
+import org.eclipse.milo.opcua.stack.core.util.DigestUtil;
+import org.eclipse.milo.opcua.stack.server.security.ServerCertificateValidator;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memoizes the validations of the client certificate chains by their thumbprints, so that a fleet
+ * of sinks reconnecting at once validates each chain once instead of once per secure channel.
+ *
+ * <p>The handshakes of the same chain arriving during its validation wait for its result instead of
+ * validating it again. Both the accepted and the rejected chains are remembered for the time to
+ * live, an accepted one at most until the first of its certificates expires. They are all forgotten
+ * within {@value #TRUST_LIST_CHECK_INTERVAL_MILLIS} ms after the trust list changes, which Milo's
+ * {@link TrustListManager} keeps in memory and reloads by itself when the files of the pki dir
+ * change. A single handshake per interval checks it, so that the others take no lock for it.
+ */
+class OpcUaCertificateCache implements ServerCertificateValidator {
+  // Forgets everything beyond this number of chains, which only a scan of random clients reaches
+  private static final int MAX_CACHED_CHAINS = 10_000;
+  private static final long TRUST_LIST_CHECK_INTERVAL_MILLIS = 1_000;
+
+  private final ServerCertificateValidator delegate;
+  private final TrustListManager trustListManager;
+  private final long timeToLiveMillis;
+  private final LongAdder hits;
+
+  private final ConcurrentMap<Key, Validation> validations = new ConcurrentHashMap<>();
+  // Incremented by invalidate(), so that the validations running meanwhile are not reused
+  private final AtomicLong generation = new AtomicLong();
+  // Claimed by the handshake checking the trust list for the next interval
+  private final AtomicLong nextTrustListCheck = new AtomicLong();
+  // The certificates and CRLs of the trust list when it was last checked
+  private volatile List<Object> trustList = Collections.emptyList();
+
+  OpcUaCertificateCache(
+      final ServerCertificateValidator delegate,
+      final TrustListManager trustListManager,
+      final long timeToLiveSeconds,
+      final LongAdder hits) {
+    this.delegate = delegate;
+    this.trustListManager = trustListManager;
+    this.timeToLiveMillis = TimeUnit.SECONDS.toMillis(timeToLiveSeconds);
+    this.hits = hits;
+  }
+
+  @Override
+  public void validateCertificateChain(final List<X509Certificate> certificateChain)
+      throws UaException {
+    validate(
+        new Key(certificateChain, null),
+        certificateChain,
+        () -> delegate.validateCertificateChain(certificateChain));
+  }
+
+  @Override
+  public void validateCertificateChain(
+      final List<X509Certificate> certificateChain, final String applicationUri)
+      throws UaException {
+    validate(
+        new Key(certificateChain, applicationUri),
+        certificateChain,
+        () -> delegate.validateCertificateChain(certificateChain, applicationUri));
+  }
+
+  private void invalidate() {
+    generation.incrementAndGet();
+    validations.clear();
+  }
+
+  // Milo replaces the instances of a list whenever it reloads it, and adds to it or shrinks it on
+  // the changes made through the manager, so comparing the instances is enough to notice a change
+  private void invalidateIfTrustListChanged(final long now) {
+    final long nextCheck = nextTrustListCheck.get();
+    if (now < nextCheck
+        || !nextTrustListCheck.compareAndSet(nextCheck, now + TRUST_LIST_CHECK_INTERVAL_MILLIS)) {
+      return;
+    }
+    final List<Object> trustList = this.trustList;
+    final List<Object> current = new ArrayList<>(trustList.size());
+    current.addAll(trustListManager.getTrustedCertificates());
+    current.addAll(trustListManager.getTrustedCrls());
+    current.addAll(trustListManager.getIssuerCertificates());
+    current.addAll(trustListManager.getIssuerCrls());
+    boolean isChanged = current.size() != trustList.size();
+    for (int i = 0; !isChanged && i < current.size(); ++i) {
+      isChanged = current.get(i) != trustList.get(i);
+    }
+    if (isChanged) {
+      this.trustList = current;
+      invalidate();
+    }
+  }
+
+  private void validate(
+      final Key key, final List<X509Certificate> certificateChain, final ChainValidation validation)
+      throws UaException {
+    final long now = System.currentTimeMillis();
+    invalidateIfTrustListChanged(now);
+    final long currentGeneration = generation.get();
+    Validation cached = validations.get(key);
+    if (Objects.nonNull(cached) && !cached.isValid(now, currentGeneration)) {
+      validations.remove(key, cached);
+      cached = null;
+    }
+    if (Objects.isNull(cached)) {
+      if (validations.size() >= MAX_CACHED_CHAINS) {
+        validations.clear();
+      }
+      final Validation created = new Validation(currentGeneration, now + timeToLiveMillis);
+      cached = validations.putIfAbsent(key, created);
+      if (Objects.isNull(cached)) {
+        created.run(validation, certificateChain);
+        if (created.uncached) {
+          validations.remove(key, created);
+        }
+        created.await();
+        return;
+      }
+    }
+    hits.increment();
+    cached.await();
+  }
+
+  @FunctionalInterface
+  private interface ChainValidation {
+    void validate() throws UaException;
+  }
+
+  private static class Validation {
+    private final long generation;
+    private volatile long expiryTime;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    // Set if the delegate failed unexpectedly, which is retried by the next handshake
+    private boolean uncached;
+
+    private Validation(final long generation, final long expiryTime) {
+      this.generation = generation;
+      this.expiryTime = expiryTime;
+    }
+
+    private void run(
+        final ChainValidation validation, final List<X509Certificate> certificateChain) {
+      try {
+        validation.validate();
+        for (final X509Certificate certificate : certificateChain) {
+          expiryTime = Math.min(expiryTime, certificate.getNotAfter().getTime());
+        }
+        result.complete(null);
+      } catch (final UaException e) {
+        result.completeExceptionally(e);
+      } catch (final RuntimeException e) {
+        uncached = true;
+        result.completeExceptionally(e);
+      }
+    }
+
+    private boolean isValid(final long now, final long currentGeneration) {
+      return generation == currentGeneration && now < expiryTime;
+    }
+
+    private void await() throws UaException {
+      try {
+        result.join();
+      } catch (final CompletionException e) {
+        if (e.getCause() instanceof UaException) {
+          throw (UaException) e.getCause();
+        }
+        throw new UaException(StatusCodes.Bad_SecurityChecksFailed, e.getCause());
+      }
+    }
+  }
+
+  /** The thumbprints of a chain, with the application URI it was validated against if any. */
+  private static class Key {
+    private final byte[][] thumbprints;
+    private final String applicationUri;
+    private final int hashCode;
+
+    private Key(final List<X509Certificate> certificateChain, final String applicationUri)
+        throws UaException {
+      this.thumbprints = new byte[certificateChain.size()][];
+      for (int i = 0; i < thumbprints.length; ++i) {
+        try {
+          thumbprints[i] = DigestUtil.sha1(certificateChain.get(i).getEncoded());
+        } catch (final CertificateEncodingException e) {
+          throw new UaException(StatusCodes.Bad_CertificateInvalid, e);
+        }
+      }
+      this.applicationUri = applicationUri;
+      this.hashCode = 31 * Arrays.deepHashCode(thumbprints) + Objects.hashCode(applicationUri);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key key = (Key) o;
+      return Arrays.deepEquals(thumbprints, key.thumbprints)
+          && Objects.equals(applicationUri, key.applicationUri);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
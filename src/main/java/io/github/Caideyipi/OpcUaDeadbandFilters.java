@@ -0,0 +1,588 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.server.AbstractLifecycle;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.DataItem;
+import org.eclipse.milo.opcua.sdk.server.items.BaseMonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.items.MonitoredDataItem;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeObserver;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.sdk.server.subscriptions.Subscription;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.UaSerializationException;
+import org.eclipse.milo.opcua.stack.core.serialization.UaRequestMessage;
+import org.eclipse.milo.opcua.stack.core.serialization.UaResponseMessage;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.DataChangeTrigger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.DeadbandType;
+import org.eclipse.milo.opcua.stack.core.types.structured.CreateMonitoredItemsRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.CreateMonitoredItemsResponse;
+import org.eclipse.milo.opcua.stack.core.types.structured.DataChangeFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.ModifyMonitoredItemsRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.ModifyMonitoredItemsResponse;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemModifyRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemModifyResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.Range;
+import org.eclipse.milo.opcua.stack.core.util.EndpointUtil;
+import org.eclipse.milo.opcua.stack.server.UaStackServer;
+import org.eclipse.milo.opcua.stack.server.services.ServiceRequest;
+import org.eclipse.milo.opcua.stack.server.services.ServiceRequestHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Adds the Percent deadband to the data change filters of {@link OpcUaNameSpace}'s variables.
+ *
+ * <p>Milo evaluates the Absolute deadband of an item when a value is queued, which for the pushed
+ * items of {@link OpcUaSubscriptionModel} is at write time, so a filtered write costs a comparison
+ * and no notification. Milo rejects the Percent deadband though, so the CreateMonitoredItems and
+ * ModifyMonitoredItems requests are intercepted and their Percent filters on the Value of a
+ * variable with an EURange property are turned into the equivalent Absolute ones, i.e. the given
+ * percentage of the range. The other filters are left to Milo, which still rejects the Percent
+ * filters without an EURange.
+ *
+ * <p>The items created or modified with a Percent deadband are remembered until deleted, and the
+ * EURange properties they depend on are observed, so that a write of a range installs the new
+ * Absolute deadband on their items at once.
+ *
+ * <p>The variables created by the IoTDB sink have no EURange: a client adds one through AddNodes,
+ * as a Variable of the Range data type named {@value #EU_RANGE} with a HasProperty reference from
+ * the variable, and changes it by writing its value.
+ */
+class OpcUaDeadbandFilters extends AbstractLifecycle implements AttributeObserver {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaDeadbandFilters.class);
+
+  private static final String EU_RANGE = "EURange";
+
+  private final OpcUaServer server;
+  // Resolves the nodes of the namespace, created from their records for the lazy nodes
+  private final Function<NodeId, UaNode> nodeResolver;
+  private final Map<String, ServiceRequestHandler> createHandlers = new HashMap<>();
+  private final Map<String, ServiceRequestHandler> modifyHandlers = new HashMap<>();
+
+  // The items with a Percent deadband, and the EURange properties observed for them
+  private final ConcurrentMap<ItemKey, PercentDeadband> percentItems = new ConcurrentHashMap<>();
+  private final Set<NodeId> observedRanges = ConcurrentHashMap.newKeySet();
+
+  OpcUaDeadbandFilters(final OpcUaServer server, final Function<NodeId, UaNode> nodeResolver) {
+    this.server = server;
+    this.nodeResolver = nodeResolver;
+  }
+
+  @Override
+  protected void onStartup() {
+    final UaStackServer stackServer = server.getStackServer();
+    final Set<String> paths =
+        server.getConfig().getEndpoints().stream()
+            .map(endpoint -> EndpointUtil.getPath(endpoint.getEndpointUrl()))
+            .collect(Collectors.toSet());
+    for (final String path : paths) {
+      wrap(
+          stackServer,
+          path,
+          CreateMonitoredItemsRequest.TYPE_ID,
+          createHandlers,
+          this::onCreate,
+          this::onCreated);
+      wrap(
+          stackServer,
+          path,
+          ModifyMonitoredItemsRequest.TYPE_ID,
+          modifyHandlers,
+          this::onModify,
+          this::onModified);
+    }
+  }
+
+  @Override
+  protected void onShutdown() {
+    final UaStackServer stackServer = server.getStackServer();
+    createHandlers.forEach(
+        (path, handler) ->
+            stackServer.addServiceHandler(path, CreateMonitoredItemsRequest.TYPE_ID, handler));
+    modifyHandlers.forEach(
+        (path, handler) ->
+            stackServer.addServiceHandler(path, ModifyMonitoredItemsRequest.TYPE_ID, handler));
+    createHandlers.clear();
+    modifyHandlers.clear();
+
+    for (final NodeId rangeNodeId : observedRanges) {
+      final UaNode range = nodeResolver.apply(rangeNodeId);
+      if (Objects.nonNull(range)) {
+        range.removeAttributeObserver(this);
+      }
+    }
+    observedRanges.clear();
+    percentItems.clear();
+  }
+
+  /** Forgets the Percent deadbands of the deleted items. */
+  void onDataItemsDeleted(final List<DataItem> dataItems) {
+    if (percentItems.isEmpty()) {
+      return;
+    }
+    for (final DataItem item : dataItems) {
+      percentItems.remove(new ItemKey(item.getSubscriptionId(), item.getId()));
+    }
+  }
+
+  @Override
+  public void attributeChanged(
+      final UaNode node, final AttributeId attributeId, final Object attributeValue) {
+    if (attributeId != AttributeId.Value) {
+      return;
+    }
+    final Range range = decodeRange(node.getNodeId(), (DataValue) attributeValue);
+    if (Objects.isNull(range)) {
+      return;
+    }
+    percentItems.forEach(
+        (key, deadband) -> {
+          if (deadband.rangeNodeId.equals(node.getNodeId())) {
+            install(key, deadband, range);
+          }
+        });
+  }
+
+  private void wrap(
+      final UaStackServer stackServer,
+      final String path,
+      final ExpandedNodeId typeId,
+      final Map<String, ServiceRequestHandler> handlers,
+      final Rewriter rewriter,
+      final BiConsumer<UaRequestMessage, UaResponseMessage> onResponse) {
+    final ServiceRequestHandler handler = stackServer.getServiceHandler(path, typeId);
+    if (Objects.isNull(handler)) {
+      return;
+    }
+    handlers.put(path, handler);
+    stackServer.addServiceHandler(
+        path,
+        typeId,
+        service -> {
+          final UaRequestMessage request = rewriter.rewrite(service.getRequest());
+          service
+              .getFuture()
+              .thenAccept(response -> onResponse.accept(service.getRequest(), response));
+          if (request == service.getRequest()) {
+            handler.handle(service);
+          } else {
+            delegate(handler, service, request);
+          }
+        });
+  }
+
+  private UaRequestMessage onCreate(final UaRequestMessage message) {
+    final CreateMonitoredItemsRequest request = (CreateMonitoredItemsRequest) message;
+    final MonitoredItemCreateRequest[] items = request.getItemsToCreate();
+    if (Objects.isNull(items)) {
+      return request;
+    }
+    MonitoredItemCreateRequest[] rewritten = null;
+    for (int i = 0; i < items.length; ++i) {
+      final MonitoredItemCreateRequest item = items[i];
+      if (Objects.isNull(item) || Objects.isNull(item.getItemToMonitor())) {
+        continue;
+      }
+      final MonitoringParameters parameters =
+          toAbsolute(
+              item.getItemToMonitor().getNodeId(),
+              item.getItemToMonitor().getAttributeId(),
+              item.getRequestedParameters());
+      if (parameters != item.getRequestedParameters()) {
+        if (Objects.isNull(rewritten)) {
+          rewritten = items.clone();
+        }
+        rewritten[i] =
+            new MonitoredItemCreateRequest(
+                item.getItemToMonitor(), item.getMonitoringMode(), parameters);
+      }
+    }
+    return Objects.isNull(rewritten)
+        ? request
+        : new CreateMonitoredItemsRequest(
+            request.getRequestHeader(),
+            request.getSubscriptionId(),
+            request.getTimestampsToReturn(),
+            rewritten);
+  }
+
+  private UaRequestMessage onModify(final UaRequestMessage message) {
+    final ModifyMonitoredItemsRequest request = (ModifyMonitoredItemsRequest) message;
+    final MonitoredItemModifyRequest[] items = request.getItemsToModify();
+    final Subscription subscription =
+        Objects.nonNull(request.getSubscriptionId())
+            ? server.getSubscriptions().get(request.getSubscriptionId())
+            : null;
+    if (Objects.isNull(items) || Objects.isNull(subscription)) {
+      return request;
+    }
+    final Map<UInteger, BaseMonitoredItem<?>> monitoredItems = subscription.getMonitoredItems();
+    MonitoredItemModifyRequest[] rewritten = null;
+    for (int i = 0; i < items.length; ++i) {
+      final MonitoredItemModifyRequest item = items[i];
+      final BaseMonitoredItem<?> monitoredItem =
+          Objects.nonNull(item) ? monitoredItems.get(item.getMonitoredItemId()) : null;
+      if (Objects.isNull(monitoredItem)) {
+        continue;
+      }
+      final MonitoringParameters parameters =
+          toAbsolute(
+              monitoredItem.getReadValueId().getNodeId(),
+              monitoredItem.getReadValueId().getAttributeId(),
+              item.getRequestedParameters());
+      if (parameters != item.getRequestedParameters()) {
+        if (Objects.isNull(rewritten)) {
+          rewritten = items.clone();
+        }
+        rewritten[i] = new MonitoredItemModifyRequest(item.getMonitoredItemId(), parameters);
+      }
+    }
+    return Objects.isNull(rewritten)
+        ? request
+        : new ModifyMonitoredItemsRequest(
+            request.getRequestHeader(),
+            request.getSubscriptionId(),
+            request.getTimestampsToReturn(),
+            rewritten);
+  }
+
+  /** Remembers the items created with a Percent deadband. */
+  private void onCreated(final UaRequestMessage message, final UaResponseMessage response) {
+    final CreateMonitoredItemsRequest request = (CreateMonitoredItemsRequest) message;
+    final MonitoredItemCreateRequest[] items = request.getItemsToCreate();
+    final MonitoredItemCreateResult[] results =
+        ((CreateMonitoredItemsResponse) response).getResults();
+    if (Objects.isNull(items) || Objects.isNull(results)) {
+      return;
+    }
+    for (int i = 0; i < Math.min(items.length, results.length); ++i) {
+      final MonitoredItemCreateRequest item = items[i];
+      if (Objects.isNull(item)
+          || Objects.isNull(item.getItemToMonitor())
+          || !results[i].getStatusCode().isGood()) {
+        continue;
+      }
+      final PercentDeadband deadband =
+          getPercentDeadband(
+              item.getItemToMonitor().getNodeId(),
+              item.getItemToMonitor().getAttributeId(),
+              item.getRequestedParameters());
+      if (Objects.nonNull(deadband)) {
+        track(new ItemKey(request.getSubscriptionId(), results[i].getMonitoredItemId()), deadband);
+      }
+    }
+  }
+
+  /** Remembers the items modified to a Percent deadband, and forgets the others. */
+  private void onModified(final UaRequestMessage message, final UaResponseMessage response) {
+    final ModifyMonitoredItemsRequest request = (ModifyMonitoredItemsRequest) message;
+    final MonitoredItemModifyRequest[] items = request.getItemsToModify();
+    final MonitoredItemModifyResult[] results =
+        ((ModifyMonitoredItemsResponse) response).getResults();
+    final Subscription subscription =
+        Objects.nonNull(request.getSubscriptionId())
+            ? server.getSubscriptions().get(request.getSubscriptionId())
+            : null;
+    if (Objects.isNull(items) || Objects.isNull(results) || Objects.isNull(subscription)) {
+      return;
+    }
+    for (int i = 0; i < Math.min(items.length, results.length); ++i) {
+      final MonitoredItemModifyRequest item = items[i];
+      if (Objects.isNull(item) || !results[i].getStatusCode().isGood()) {
+        continue;
+      }
+      final ItemKey key = new ItemKey(request.getSubscriptionId(), item.getMonitoredItemId());
+      final BaseMonitoredItem<?> monitoredItem =
+          subscription.getMonitoredItems().get(item.getMonitoredItemId());
+      final PercentDeadband deadband =
+          Objects.nonNull(monitoredItem)
+              ? getPercentDeadband(
+                  monitoredItem.getReadValueId().getNodeId(),
+                  monitoredItem.getReadValueId().getAttributeId(),
+                  item.getRequestedParameters())
+              : null;
+      if (Objects.nonNull(deadband)) {
+        track(key, deadband);
+      } else {
+        percentItems.remove(key);
+      }
+    }
+  }
+
+  private void track(final ItemKey key, final PercentDeadband deadband) {
+    percentItems.put(key, deadband);
+    if (observedRanges.add(deadband.rangeNodeId)) {
+      final UaNode range = nodeResolver.apply(deadband.rangeNodeId);
+      if (Objects.nonNull(range)) {
+        range.addAttributeObserver(this);
+      }
+    }
+    // In case the range changed since the request was rewritten
+    final UaNode range = nodeResolver.apply(deadband.rangeNodeId);
+    if (range instanceof UaVariableNode) {
+      final Range current = decodeRange(deadband.rangeNodeId, ((UaVariableNode) range).getValue());
+      if (Objects.nonNull(current)) {
+        install(key, deadband, current);
+      }
+    }
+  }
+
+  /** Installs the Absolute deadband of the given range on the item, forgotten if deleted. */
+  private void install(final ItemKey key, final PercentDeadband deadband, final Range range) {
+    final Subscription subscription = server.getSubscriptions().get(key.subscriptionId);
+    final BaseMonitoredItem<?> item =
+        Objects.nonNull(subscription)
+            ? subscription.getMonitoredItems().get(key.monitoredItemId)
+            : null;
+    if (!(item instanceof MonitoredDataItem)) {
+      percentItems.remove(key, deadband);
+      return;
+    }
+    final DataChangeFilter filter =
+        new DataChangeFilter(
+            deadband.trigger, uint(DeadbandType.Absolute.getValue()), deadband.toAbsolute(range));
+    // Under the monitor of the item, which its values are queued under
+    synchronized (item) {
+      try {
+        ((MonitoredDataItem) item).installFilter(filter);
+      } catch (final UaException e) {
+        LOGGER.warn(
+            "Failed to update the deadband of the item {}, because {}.",
+            key.monitoredItemId,
+            e.getMessage());
+      }
+    }
+  }
+
+  /** Returns the parameters with an Absolute deadband, or the same ones if there is none. */
+  private MonitoringParameters toAbsolute(
+      final NodeId nodeId, final UInteger attributeId, final MonitoringParameters parameters) {
+    final PercentDeadband deadband = getPercentDeadband(nodeId, attributeId, parameters);
+    if (Objects.isNull(deadband)) {
+      return parameters;
+    }
+    final UaNode rangeNode = nodeResolver.apply(deadband.rangeNodeId);
+    final Range range =
+        rangeNode instanceof UaVariableNode
+            ? decodeRange(deadband.rangeNodeId, ((UaVariableNode) rangeNode).getValue())
+            : null;
+    if (Objects.isNull(range)) {
+      return parameters;
+    }
+    return new MonitoringParameters(
+        parameters.getClientHandle(),
+        parameters.getSamplingInterval(),
+        ExtensionObject.encode(
+            server.getSerializationContext(),
+            new DataChangeFilter(
+                deadband.trigger,
+                uint(DeadbandType.Absolute.getValue()),
+                deadband.toAbsolute(range))),
+        parameters.getQueueSize(),
+        parameters.getDiscardOldest());
+  }
+
+  /**
+   * Returns the Percent deadband of the parameters if they have one on the Value of a variable with
+   * an EURange property, otherwise null.
+   */
+  private PercentDeadband getPercentDeadband(
+      final NodeId nodeId, final UInteger attributeId, final MonitoringParameters parameters) {
+    if (Objects.isNull(parameters)
+        || Objects.isNull(parameters.getFilter())
+        || !AttributeId.Value.isEqual(attributeId)) {
+      return null;
+    }
+
+    final Object filter;
+    try {
+      filter = parameters.getFilter().decode(server.getSerializationContext());
+    } catch (final UaSerializationException e) {
+      // Left to Milo to report
+      return null;
+    }
+    if (!(filter instanceof DataChangeFilter)) {
+      return null;
+    }
+    final DataChangeFilter dataChangeFilter = (DataChangeFilter) filter;
+    final Double percent = dataChangeFilter.getDeadbandValue();
+    if (!uint(DeadbandType.Percent.getValue()).equals(dataChangeFilter.getDeadbandType())
+        || Objects.isNull(percent)
+        || percent < 0
+        || percent > 100) {
+      return null;
+    }
+    final NodeId rangeNodeId = getEuRangeNodeId(nodeId);
+    return Objects.nonNull(rangeNodeId)
+        ? new PercentDeadband(rangeNodeId, percent, dataChangeFilter.getTrigger())
+        : null;
+  }
+
+  private NodeId getEuRangeNodeId(final NodeId nodeId) {
+    final UaNode node = nodeResolver.apply(nodeId);
+    if (!(node instanceof UaVariableNode)) {
+      return null;
+    }
+    for (final Reference reference : node.getReferences()) {
+      if (!reference.isForward()
+          || !Identifiers.HasProperty.equals(reference.getReferenceTypeId())) {
+        continue;
+      }
+      final UaNode property =
+          reference
+              .getTargetNodeId()
+              .toNodeId(server.getNamespaceTable())
+              .map(nodeResolver)
+              .orElse(null);
+      if (property instanceof UaVariableNode
+          && EU_RANGE.equals(property.getBrowseName().getName())) {
+        return property.getNodeId();
+      }
+    }
+    return null;
+  }
+
+  /** Returns the range of the value of an EURange property, or null if it has none. */
+  private Range decodeRange(final NodeId rangeNodeId, final DataValue value) {
+    final Object range =
+        Objects.nonNull(value) && Objects.nonNull(value.getValue())
+            ? value.getValue().getValue()
+            : null;
+    Object decoded = range;
+    if (range instanceof ExtensionObject) {
+      try {
+        decoded = ((ExtensionObject) range).decode(server.getSerializationContext());
+      } catch (final UaSerializationException e) {
+        LOGGER.warn("Failed to decode the EURange {}, because {}.", rangeNodeId, e.getMessage());
+        return null;
+      }
+    }
+    return decoded instanceof Range
+            && Objects.nonNull(((Range) decoded).getLow())
+            && Objects.nonNull(((Range) decoded).getHigh())
+        ? (Range) decoded
+        : null;
+  }
+
+  /** Lets the original handler serve the rewritten request and answers the original one. */
+  private static void delegate(
+      final ServiceRequestHandler handler,
+      final ServiceRequest service,
+      final UaRequestMessage request)
+      throws UaException {
+    final ServiceRequest rewritten =
+        new ServiceRequest(
+            service.getServer(),
+            request,
+            service.getEndpoint(),
+            service.getSecureChannelId(),
+            service.getClientAddress(),
+            service.getClientCertificateBytes());
+    rewritten
+        .getFuture()
+        .whenComplete(
+            (response, throwable) -> {
+              if (Objects.nonNull(throwable)) {
+                service.getFuture().completeExceptionally(throwable);
+              } else {
+                service.setResponse(response);
+              }
+            });
+    handler.handle(rewritten);
+  }
+
+  @FunctionalInterface
+  private interface Rewriter {
+    UaRequestMessage rewrite(final UaRequestMessage request);
+  }
+
+  /** A Percent deadband, and the EURange property it is a percentage of. */
+  private static final class PercentDeadband {
+    private final NodeId rangeNodeId;
+    private final double percent;
+    private final DataChangeTrigger trigger;
+
+    private PercentDeadband(
+        final NodeId rangeNodeId, final double percent, final DataChangeTrigger trigger) {
+      this.rangeNodeId = rangeNodeId;
+      this.percent = percent;
+      this.trigger = trigger;
+    }
+
+    private double toAbsolute(final Range range) {
+      return percent / 100 * Math.abs(range.getHigh() - range.getLow());
+    }
+  }
+
+  private static final class ItemKey {
+    private final UInteger subscriptionId;
+    private final UInteger monitoredItemId;
+
+    private ItemKey(final UInteger subscriptionId, final UInteger monitoredItemId) {
+      this.subscriptionId = subscriptionId;
+      this.monitoredItemId = monitoredItemId;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ItemKey)) {
+        return false;
+      }
+      final ItemKey key = (ItemKey) o;
+      return Objects.equals(subscriptionId, key.subscriptionId)
+          && Objects.equals(monitoredItemId, key.monitoredItemId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(subscriptionId, monitoredItemId);
+    }
+  }
+}
@@ -0,0 +1,956 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.eclipse.milo.opcua.sdk.server.AbstractLifecycle;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.Session;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryData;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadRawModifiedDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * History of the values written to the variables of {@link OpcUaNameSpace}, serving the raw
+ * HistoryRead of OPC UA Part 11.
+ *
+ * <p>Each variable gets a time-ordered ring buffer of primitive columns, which grows on demand up
+ * to the configured depth. The buffers of all variables share a memory budget: once it is spent,
+ * the buffers stop growing and the variables without one are not historized.
+ *
+ * <p>A full buffer overwrites its oldest samples, unless {@link OpcUaHistorySegments} are
+ * configured: the oldest quarter of the buffer is then spilled to disk, and the reads merge the
+ * spilled blocks with the samples in memory.
+ */
+class OpcUaHistory extends AbstractLifecycle {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaHistory.class);
+
+  private static final StatusCode NODE_ID_UNKNOWN = new StatusCode(StatusCodes.Bad_NodeIdUnknown);
+  private static final StatusCode HISTORY_OPERATION_INVALID =
+      new StatusCode(StatusCodes.Bad_HistoryOperationInvalid);
+  private static final StatusCode HISTORY_OPERATION_UNSUPPORTED =
+      new StatusCode(StatusCodes.Bad_HistoryOperationUnsupported);
+  private static final StatusCode CONTINUATION_POINT_INVALID =
+      new StatusCode(StatusCodes.Bad_ContinuationPointInvalid);
+  private static final StatusCode TIMESTAMPS_TO_RETURN_INVALID =
+      new StatusCode(StatusCodes.Bad_TimestampsToReturnInvalid);
+  private static final StatusCode BOUND_NOT_FOUND = new StatusCode(StatusCodes.Bad_BoundNotFound);
+  private static final StatusCode INTERNAL_ERROR = new StatusCode(StatusCodes.Bad_InternalError);
+
+  private static final int INITIAL_CAPACITY = 16;
+  // The part of a full buffer which is spilled at once
+  private static final int SPILL_DIVISOR = 4;
+  // The values returned at once when the client does not limit them
+  private static final int MAX_VALUES_PER_READ = 10_000;
+  private static final int MAX_CONTINUATION_POINTS = 1_000;
+  private static final long CONTINUATION_POINT_TIMEOUT_MINUTES = 5;
+
+  private final OpcUaServer server;
+  private final int depth;
+  private final long memoryBudget;
+  // Null if the history is only kept in memory
+  private final OpcUaHistorySegments segments;
+  private volatile boolean spilling;
+
+  private final ConcurrentMap<NodeId, RingBuffer> buffers = new ConcurrentHashMap<>();
+  private final AtomicLong usedMemory = new AtomicLong();
+  private final AtomicBoolean budgetExceededLogged = new AtomicBoolean();
+  private final AtomicBoolean spillFailureLogged = new AtomicBoolean();
+
+  private final SecureRandom random = new SecureRandom();
+  private final Cache<ByteString, ContinuationPoint> continuationPoints =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_CONTINUATION_POINTS)
+          .expireAfterAccess(CONTINUATION_POINT_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+          .build();
+
+  OpcUaHistory(
+      final OpcUaServer server,
+      final int depth,
+      final long memoryBudget,
+      final OpcUaHistorySegments segments) {
+    this.server = server;
+    this.depth = depth;
+    this.memoryBudget = memoryBudget;
+    this.segments = segments;
+  }
+
+  @Override
+  protected void onStartup() {
+    if (Objects.isNull(segments)) {
+      return;
+    }
+    try {
+      segments.open();
+      spilling = true;
+    } catch (final IOException e) {
+      LOGGER.warn(
+          "Failed to open the history segments, the history will only be kept in memory, because {}.",
+          e.getMessage());
+    }
+  }
+
+  @Override
+  protected void onShutdown() {
+    if (!spilling) {
+      return;
+    }
+    // Keep the samples in memory across the restart as well
+    buffers.values().forEach(RingBuffer::spillAll);
+    spilling = false;
+    segments.close();
+  }
+
+  /** Appends a written value to the history of the variable. */
+  void record(final NodeId nodeId, final DataValue value) {
+    RingBuffer buffer = buffers.get(nodeId);
+    if (Objects.isNull(buffer)) {
+      final int capacity = Math.min(INITIAL_CAPACITY, depth);
+      if (usedMemory.get() + sizeOf(capacity) > memoryBudget) {
+        logBudgetExceeded();
+        return;
+      }
+      buffer =
+          buffers.computeIfAbsent(
+              nodeId, id -> reserve(sizeOf(capacity)) ? new RingBuffer(nodeId, capacity) : null);
+      if (Objects.isNull(buffer)) {
+        return;
+      }
+    }
+    buffer.add(value);
+  }
+
+  /**
+   * Drops the in-memory history of a removed variable, spilling it first if the history is kept in
+   * segments, so that it can still be read until the retention expires.
+   */
+  void release(final NodeId nodeId) {
+    final RingBuffer buffer = buffers.remove(nodeId);
+    if (Objects.nonNull(buffer)) {
+      usedMemory.addAndGet(-sizeOf(buffer.release()));
+    }
+  }
+
+  void read(
+      final Session session,
+      final HistoryReadDetails details,
+      final TimestampsToReturn timestamps,
+      final List<HistoryReadValueId> readValueIds,
+      final List<HistoryReadResult> results) {
+    for (final HistoryReadValueId readValueId : readValueIds) {
+      if (!(details instanceof ReadRawModifiedDetails)
+          || Boolean.TRUE.equals(((ReadRawModifiedDetails) details).getIsReadModified())) {
+        // Only the raw values are kept, neither the modifications nor the aggregates
+        results.add(new HistoryReadResult(HISTORY_OPERATION_UNSUPPORTED, null, null));
+        continue;
+      }
+      if (timestamps == TimestampsToReturn.Neither) {
+        results.add(new HistoryReadResult(TIMESTAMPS_TO_RETURN_INVALID, null, null));
+        continue;
+      }
+      results.add(readRaw(session, (ReadRawModifiedDetails) details, timestamps, readValueId));
+    }
+  }
+
+  private HistoryReadResult readRaw(
+      final Session session,
+      final ReadRawModifiedDetails details,
+      final TimestampsToReturn timestamps,
+      final HistoryReadValueId readValueId) {
+    final NodeId nodeId = readValueId.getNodeId();
+    final ByteString continuationPointId = readValueId.getContinuationPoint();
+
+    final ContinuationPoint resumed;
+    if (Objects.nonNull(continuationPointId) && !continuationPointId.isNull()) {
+      resumed = continuationPoints.getIfPresent(continuationPointId);
+      continuationPoints.invalidate(continuationPointId);
+      if (Objects.isNull(resumed)
+          || !resumed.nodeId.equals(nodeId)
+          || !Objects.equals(resumed.sessionId, getSessionId(session))) {
+        return new HistoryReadResult(CONTINUATION_POINT_INVALID, null, null);
+      }
+    } else {
+      resumed = null;
+    }
+
+    final long startTime = toTime(details.getStartTime());
+    final long endTime = toTime(details.getEndTime());
+    final long numValues =
+        Objects.nonNull(details.getNumValuesPerNode())
+            ? details.getNumValuesPerNode().longValue()
+            : 0;
+    final boolean startSpecified = startTime != Long.MIN_VALUE;
+    final boolean endSpecified = endTime != Long.MIN_VALUE;
+    if (!startSpecified && !endSpecified || (!startSpecified || !endSpecified) && numValues == 0) {
+      return new HistoryReadResult(HISTORY_OPERATION_INVALID, null, null);
+    }
+
+    final RingBuffer buffer = buffers.get(nodeId);
+    if (Objects.isNull(buffer) && getBlocks(nodeId).length == 0) {
+      return new HistoryReadResult(
+          server.getAddressSpaceManager().getManagedNode(nodeId).isPresent()
+              ? StatusCode.GOOD
+              : NODE_ID_UNKNOWN,
+          null,
+          encode(new DataValue[0]));
+    }
+
+    // Part 11: reversed times or only an end time read backward
+    final boolean forward = startSpecified && (!endSpecified || startTime <= endTime);
+    final long from = forward ? startTime : endSpecified ? endTime : Long.MIN_VALUE;
+    final long to = forward ? endSpecified ? endTime : Long.MAX_VALUE : startTime;
+    final int limit =
+        (int) Math.min(numValues > 0 ? numValues : Long.MAX_VALUE, MAX_VALUES_PER_READ);
+
+    final Page page;
+    try {
+      page =
+          read(
+              nodeId,
+              buffer,
+              forward ? from : Math.min(from, to),
+              forward ? to : Math.max(from, to),
+              forward,
+              limit,
+              Boolean.TRUE.equals(details.getReturnBounds()),
+              Objects.nonNull(resumed) ? resumed.resumeTime : Long.MIN_VALUE,
+              Objects.nonNull(resumed) ? resumed.resumeSkip : 0,
+              timestamps);
+    } catch (final IOException e) {
+      LOGGER.warn("Failed to read the history of {}, because {}.", nodeId, e.getMessage());
+      return new HistoryReadResult(INTERNAL_ERROR, null, null);
+    }
+
+    ByteString nextContinuationPoint = null;
+    if (page.hasMore) {
+      nextContinuationPoint = newContinuationPointId();
+      continuationPoints.put(
+          nextContinuationPoint,
+          new ContinuationPoint(nodeId, getSessionId(session), page.resumeTime, page.resumeSkip));
+    }
+    return new HistoryReadResult(StatusCode.GOOD, nextContinuationPoint, encode(page.values));
+  }
+
+  /**
+   * Reads a page from the buffer alone when nothing was spilled, otherwise from a window of the
+   * spilled blocks and the buffer which holds enough samples around the page.
+   */
+  private Page read(
+      final NodeId nodeId,
+      final RingBuffer buffer,
+      final long lower,
+      final long upper,
+      final boolean forward,
+      final int limit,
+      final boolean returnBounds,
+      final long resumeTime,
+      final int resumeSkip,
+      final TimestampsToReturn timestamps)
+      throws IOException {
+    final long anchor = resumeTime != Long.MIN_VALUE ? resumeTime : forward ? lower : upper;
+    // The samples past the anchor the page may visit, plus the one beyond them
+    final int needed = resumeSkip + limit + 2;
+
+    final Window window;
+    if (Objects.isNull(buffer)) {
+      window = new Window(getBlocks(nodeId), null, forward, anchor, lower, upper, needed);
+    } else {
+      // The spills happen under the buffer's lock, so the blocks and the buffer are consistent
+      synchronized (buffer) {
+        final OpcUaHistorySegments.Block[] blocks = getBlocks(nodeId);
+        if (blocks.length == 0) {
+          return readPage(
+              buffer,
+              lower,
+              upper,
+              forward,
+              limit,
+              returnBounds,
+              resumeTime,
+              resumeSkip,
+              timestamps);
+        }
+        window = new Window(blocks, buffer, forward, anchor, lower, upper, needed);
+      }
+    }
+    return readPage(
+        new ColumnSamples(window.load()),
+        lower,
+        upper,
+        forward,
+        limit,
+        returnBounds,
+        resumeTime,
+        resumeSkip,
+        timestamps);
+  }
+
+  private static Page readPage(
+      final Samples samples,
+      final long lower,
+      final long upper,
+      final boolean forward,
+      final int limit,
+      final boolean returnBounds,
+      final long resumeTime,
+      final int resumeSkip,
+      final TimestampsToReturn timestamps) {
+    final boolean resumed = resumeTime != Long.MIN_VALUE;
+    // [begin, end) are the indexes within the time range
+    int begin = lowerBound(samples, forward && resumed ? resumeTime : lower);
+    int end = upperBound(samples, !forward && resumed ? resumeTime : upper);
+    if (resumed) {
+      if (forward) {
+        begin += resumeSkip;
+      } else {
+        end -= resumeSkip;
+      }
+    }
+
+    final List<DataValue> result = new ArrayList<>(Math.max(0, Math.min(limit, end - begin)));
+    // Part 11: the bounds count as values of the page as well
+    if (returnBounds && !resumed) {
+      addBound(samples, result, forward ? lower : upper, forward ? begin - 1 : end, timestamps);
+    }
+
+    int index = forward ? begin : end - 1;
+    while (result.size() < limit && (forward ? index < end : index >= begin)) {
+      result.add(samples.toDataValue(index, timestamps));
+      index += forward ? 1 : -1;
+    }
+
+    if (!(forward ? index < end : index >= begin)) {
+      final List<DataValue> endBound = new ArrayList<>(1);
+      if (returnBounds) {
+        addBound(samples, endBound, forward ? upper : lower, forward ? end : begin - 1, timestamps);
+      }
+      if (result.size() + endBound.size() <= limit) {
+        result.addAll(endBound);
+        return new Page(result.toArray(new DataValue[0]), false, 0, 0);
+      }
+    }
+
+    final int last = index + (forward ? -1 : 1);
+    if (forward ? last < begin : last >= end) {
+      // Only the start bound fit, resume at the start of the range
+      return new Page(result.toArray(new DataValue[0]), true, forward ? lower : upper, 0);
+    }
+    // Resume after the last returned sample, counting the returned samples of the same time
+    final long lastTime = samples.timeAt(last);
+    int skip = 0;
+    for (int i = last;
+        (forward ? i >= 0 : i < samples.size()) && samples.timeAt(i) == lastTime;
+        i += forward ? -1 : 1) {
+      ++skip;
+    }
+    return new Page(result.toArray(new DataValue[0]), true, lastTime, skip);
+  }
+
+  /** Adds the bounding value, i.e. the sample at the bound time or the one beyond it. */
+  private static void addBound(
+      final Samples samples,
+      final List<DataValue> result,
+      final long boundTime,
+      final int beyond,
+      final TimestampsToReturn timestamps) {
+    if (boundTime == Long.MIN_VALUE || boundTime == Long.MAX_VALUE) {
+      return;
+    }
+    final int first = lowerBound(samples, boundTime);
+    if (first < samples.size() && samples.timeAt(first) == boundTime) {
+      // The sample at the bound time is already part of the range
+      return;
+    }
+    if (beyond >= 0 && beyond < samples.size()) {
+      result.add(samples.toDataValue(beyond, timestamps));
+    } else {
+      final DateTime time = new DateTime(boundTime);
+      result.add(
+          new DataValue(
+              Variant.NULL_VALUE,
+              BOUND_NOT_FOUND,
+              timestamps != TimestampsToReturn.Server ? time : null,
+              timestamps != TimestampsToReturn.Source ? time : null));
+    }
+  }
+
+  private static DataValue toDataValue(
+      final long time,
+      final long serverTime,
+      final byte type,
+      final long bits,
+      final Object object,
+      final int statusCode,
+      final TimestampsToReturn timestamps) {
+    final Object value = OpcUaValueStore.decode(type, bits, object);
+    return new DataValue(
+        Objects.nonNull(value) ? new Variant(value) : Variant.NULL_VALUE,
+        OpcUaValueStore.decodeStatusCode(statusCode),
+        timestamps != TimestampsToReturn.Server ? new DateTime(time) : null,
+        timestamps != TimestampsToReturn.Source && serverTime != OpcUaValueStore.NULL_TIME
+            ? new DateTime(serverTime)
+            : null);
+  }
+
+  /** Returns the first index whose time is not less than {@code time}. */
+  private static int lowerBound(final Samples samples, final long time) {
+    int low = 0;
+    int high = samples.size();
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (samples.timeAt(mid) < time) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /** Returns the first index whose time is greater than {@code time}. */
+  private static int upperBound(final Samples samples, final long time) {
+    int low = 0;
+    int high = samples.size();
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (samples.timeAt(mid) <= time) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private OpcUaHistorySegments.Block[] getBlocks(final NodeId nodeId) {
+    return spilling ? segments.getBlocks(nodeId) : OpcUaHistorySegments.NO_BLOCKS;
+  }
+
+  private boolean reserve(final long bytes) {
+    final long used = usedMemory.addAndGet(bytes);
+    if (used <= memoryBudget) {
+      return true;
+    }
+    usedMemory.addAndGet(-bytes);
+    logBudgetExceeded();
+    return false;
+  }
+
+  private void logBudgetExceeded() {
+    if (budgetExceededLogged.compareAndSet(false, true)) {
+      LOGGER.warn(
+          "The history memory budget of {} bytes is spent, the history of some variables will be shorter than {} samples.",
+          memoryBudget,
+          depth);
+    }
+  }
+
+  /** Returns the bytes of the primitive columns of {@code capacity} samples. */
+  static long sizeOf(final int capacity) {
+    return (long) capacity * (Long.BYTES * 3 + 1 + Integer.BYTES);
+  }
+
+  private ExtensionObject encode(final DataValue[] values) {
+    return ExtensionObject.encode(server.getSerializationContext(), new HistoryData(values));
+  }
+
+  private ByteString newContinuationPointId() {
+    final byte[] bytes = new byte[16];
+    random.nextBytes(bytes);
+    return ByteString.of(bytes);
+  }
+
+  private static NodeId getSessionId(final Session session) {
+    return Objects.nonNull(session) ? session.getSessionId() : null;
+  }
+
+  private static long toTime(final DateTime dateTime) {
+    return Objects.isNull(dateTime) || dateTime.isNull() ? Long.MIN_VALUE : dateTime.getUtcTime();
+  }
+
+  private static final class ContinuationPoint {
+    private final NodeId nodeId;
+    private final NodeId sessionId;
+    // The time of the last returned sample, and how many samples of that time were returned
+    private final long resumeTime;
+    private final int resumeSkip;
+
+    private ContinuationPoint(
+        final NodeId nodeId, final NodeId sessionId, final long resumeTime, final int resumeSkip) {
+      this.nodeId = nodeId;
+      this.sessionId = sessionId;
+      this.resumeTime = resumeTime;
+      this.resumeSkip = resumeSkip;
+    }
+  }
+
+  private static final class Page {
+    private final DataValue[] values;
+    private final boolean hasMore;
+    private final long resumeTime;
+    private final int resumeSkip;
+
+    private Page(
+        final DataValue[] values,
+        final boolean hasMore,
+        final long resumeTime,
+        final int resumeSkip) {
+      this.values = values;
+      this.hasMore = hasMore;
+      this.resumeTime = resumeTime;
+      this.resumeSkip = resumeSkip;
+    }
+  }
+
+  /** Time-ordered samples a page is read from. */
+  private interface Samples {
+    int size();
+
+    long timeAt(int index);
+
+    DataValue toDataValue(int index, TimestampsToReturn timestamps);
+  }
+
+  private static final class ColumnSamples implements Samples {
+    private final OpcUaHistoryColumns columns;
+
+    private ColumnSamples(final OpcUaHistoryColumns columns) {
+      this.columns = columns;
+    }
+
+    @Override
+    public int size() {
+      return columns.size;
+    }
+
+    @Override
+    public long timeAt(final int index) {
+      return columns.times[index];
+    }
+
+    @Override
+    public DataValue toDataValue(final int index, final TimestampsToReturn timestamps) {
+      return OpcUaHistory.toDataValue(
+          columns.times[index],
+          columns.serverTimes[index],
+          columns.types[index],
+          columns.values[index],
+          columns.getObject(index),
+          columns.statusCodes[index],
+          timestamps);
+    }
+  }
+
+  /**
+   * The spilled blocks followed by the samples of the buffer, as far as a page may need them. The
+   * window is contiguous, so that the page reads it like a buffer: it starts with one sample before
+   * the anchor of a forward read and ends with one sample after the anchor of a backward read, for
+   * the bounds. The blocks are picked and the buffer is copied under the buffer's lock, the blocks
+   * are decoded outside of it.
+   */
+  private final class Window {
+    private final OpcUaHistorySegments.Block[] blocks;
+    private final boolean forward;
+    private final long anchor;
+    private final long lower;
+    private final long upper;
+    private final int needed;
+    // The blocks to decode, backward reads decode them from the end and stop once they are enough
+    private final int blockStart;
+    private final int blockEnd;
+    // Only part of the window if the blocks reach the end
+    private final OpcUaHistoryColumns memory;
+
+    private Window(
+        final OpcUaHistorySegments.Block[] blocks,
+        final RingBuffer buffer,
+        final boolean forward,
+        final long anchor,
+        final long lower,
+        final long upper,
+        final int needed) {
+      this.blocks = blocks;
+      this.forward = forward;
+      this.anchor = anchor;
+      this.lower = lower;
+      this.upper = upper;
+      this.needed = needed;
+
+      final int blockCount = blocks.length;
+      final int memorySize = Objects.nonNull(buffer) ? buffer.size : 0;
+      int memoryStart = 0;
+      final int memoryEnd;
+      if (forward) {
+        final int first = firstBlockEndingFrom(blocks, anchor);
+        if (first < blockCount) {
+          blockStart = Math.max(0, first - 1);
+          blockEnd = blockCount;
+        } else {
+          final int lowerIndex = memorySize > 0 ? lowerBound(buffer, anchor) : 0;
+          if (lowerIndex > 0 || blockCount == 0) {
+            // The window starts within the buffer
+            blockStart = blockCount;
+            memoryStart = Math.max(0, lowerIndex - 1);
+          } else {
+            // The sample before the anchor is the last spilled one
+            blockStart = blockCount - 1;
+          }
+          blockEnd = blockCount;
+        }
+        memoryEnd = Math.min(memorySize, memoryStart + needed + 1);
+      } else {
+        final int upperIndex = memorySize > 0 ? upperBound(buffer, anchor) : 0;
+        if (upperIndex > 0) {
+          memoryEnd = Math.min(memorySize, upperIndex + 1);
+          memoryStart = Math.max(0, memoryEnd - needed - 1);
+          blockStart = memoryStart == 0 && buffer.timeAt(0) >= lower ? 0 : blockCount;
+          blockEnd = blockCount;
+        } else {
+          // The anchor is in the blocks, which end with the block after it for the bound
+          memoryEnd = Math.min(memorySize, 1);
+          blockStart = 0;
+          blockEnd = Math.min(blockCount, lastBlockStartingUntil(blocks, anchor) + 2);
+        }
+      }
+
+      memory = new OpcUaHistoryColumns(memoryEnd - memoryStart);
+      if (Objects.nonNull(buffer)) {
+        buffer.copyTo(memory, memoryStart, memoryEnd);
+      }
+    }
+
+    private OpcUaHistoryColumns load() throws IOException {
+      final OpcUaHistoryColumns samples = new OpcUaHistoryColumns(memory.size + needed);
+      if (forward) {
+        for (int i = blockStart; i < blockEnd; ++i) {
+          segments.decode(blocks[i], samples);
+          if (samples.size - lowerBound(new ColumnSamples(samples), anchor) >= needed
+              || samples.times[samples.size - 1] > upper) {
+            return samples;
+          }
+        }
+        samples.addAll(memory);
+        return samples;
+      }
+
+      final boolean withMemory = blockEnd == blocks.length;
+      int count = withMemory ? upperBound(new ColumnSamples(memory), anchor) : 0;
+      boolean enough = count >= needed || withMemory && memory.size > 0 && memory.times[0] < lower;
+      final List<OpcUaHistoryColumns> decoded = new ArrayList<>();
+      for (int i = blockEnd - 1; i >= blockStart && !enough; --i) {
+        final OpcUaHistoryColumns block = new OpcUaHistoryColumns(blocks[i].count);
+        segments.decode(blocks[i], block);
+        decoded.add(block);
+        count += upperBound(new ColumnSamples(block), anchor);
+        enough = count >= needed || block.size > 0 && block.times[0] < lower;
+      }
+      for (int i = decoded.size() - 1; i >= 0; --i) {
+        samples.addAll(decoded.get(i));
+      }
+      if (withMemory) {
+        samples.addAll(memory);
+      }
+      return samples;
+    }
+  }
+
+  /** Returns the first block whose samples are not all older than {@code time}. */
+  private static int firstBlockEndingFrom(
+      final OpcUaHistorySegments.Block[] blocks, final long time) {
+    int low = 0;
+    int high = blocks.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (blocks[mid].maxTime < time) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /** Returns the last block whose first sample is not newer than {@code time}, or -1. */
+  private static int lastBlockStartingUntil(
+      final OpcUaHistorySegments.Block[] blocks, final long time) {
+    int low = 0;
+    int high = blocks.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (blocks[mid].minTime <= time) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low - 1;
+  }
+
+  /**
+   * Samples of one variable ordered by their source time, or server time when the source time is
+   * missing. The logical index 0 is the oldest sample, stored at {@code head}.
+   */
+  private final class RingBuffer implements Samples {
+    private final NodeId nodeId;
+
+    private long[] times;
+    private long[] serverTimes;
+    private long[] values;
+    private byte[] types;
+    private int[] statusCodes;
+    // Only allocated for the values that are not stored as bits, e.g. strings
+    private Object[] objects;
+
+    private int head;
+    private int size;
+    // The time of the newest spilled sample, the older samples can no longer be inserted
+    private long spilledTime;
+    // Set once removed from the buffers, the concurrent records are dropped
+    private boolean released;
+
+    private RingBuffer(final NodeId nodeId, final int capacity) {
+      this.nodeId = nodeId;
+      times = new long[capacity];
+      serverTimes = new long[capacity];
+      values = new long[capacity];
+      types = new byte[capacity];
+      statusCodes = new int[capacity];
+      spilledTime = spilling ? segments.getLastTime(nodeId) : Long.MIN_VALUE;
+    }
+
+    private synchronized void add(final DataValue value) {
+      final DateTime sourceTime = value.getSourceTime();
+      final DateTime serverTime = value.getServerTime();
+      final long serverMillis =
+          Objects.nonNull(serverTime) ? serverTime.getUtcTime() : OpcUaValueStore.NULL_TIME;
+      final long time =
+          Objects.nonNull(sourceTime) && !sourceTime.isNull()
+              ? sourceTime.getUtcTime()
+              : serverMillis;
+      if (time < spilledTime || released) {
+        return;
+      }
+
+      if (size == times.length) {
+        grow();
+      }
+      if (size == times.length && spilling) {
+        spill(Math.max(1, size / SPILL_DIVISOR));
+      }
+
+      // Usually appended, out-of-order samples are inserted at their place
+      int index = size;
+      if (size > 0 && time < times[physical(size - 1)]) {
+        index = upperBound(this, time);
+        if (index == 0 && size == times.length) {
+          // Older than all samples of a full buffer
+          return;
+        }
+      }
+      if (size == times.length) {
+        // Overwrite the oldest sample
+        head = physical(1);
+        --size;
+        --index;
+      }
+      for (int i = size; i > index; --i) {
+        copy(physical(i - 1), physical(i));
+      }
+
+      final int slot = physical(index);
+      final Variant variant = value.getValue();
+      final Object object = Objects.nonNull(variant) ? variant.getValue() : null;
+      final byte type = OpcUaValueStore.encodeType(object);
+      times[slot] = time;
+      serverTimes[slot] = serverMillis;
+      types[slot] = type;
+      values[slot] = OpcUaValueStore.encodeBits(type, object);
+      final StatusCode statusCode = value.getStatusCode();
+      statusCodes[slot] = Objects.nonNull(statusCode) ? (int) statusCode.getValue() : 0;
+      if (type == OpcUaValueStore.TYPE_OBJECT) {
+        if (Objects.isNull(objects)) {
+          objects = new Object[times.length];
+        }
+        objects[slot] = object;
+      } else if (Objects.nonNull(objects)) {
+        objects[slot] = null;
+      }
+      ++size;
+    }
+
+    private synchronized void spillAll() {
+      if (size > 0) {
+        spill(size);
+      }
+    }
+
+    /** Spills the samples if possible and returns the capacity reserved by this buffer. */
+    private synchronized int release() {
+      if (spilling) {
+        spillAll();
+      }
+      released = true;
+      return times.length;
+    }
+
+    /** Moves the oldest samples to the segments, keeping them in memory if that fails. */
+    private void spill(final int count) {
+      final OpcUaHistoryColumns samples = new OpcUaHistoryColumns(count);
+      copyTo(samples, 0, count);
+      try {
+        if (!segments.append(nodeId, samples)) {
+          return;
+        }
+      } catch (final IOException e) {
+        if (spillFailureLogged.compareAndSet(false, true)) {
+          LOGGER.warn(
+              "Failed to spill the history of {}, the oldest samples will be overwritten, because {}.",
+              nodeId,
+              e.getMessage());
+        }
+        return;
+      }
+      if (Objects.nonNull(objects)) {
+        for (int i = 0; i < count; ++i) {
+          objects[physical(i)] = null;
+        }
+      }
+      head = physical(count);
+      size -= count;
+      spilledTime = samples.times[count - 1];
+    }
+
+    /** Appends the samples of the logical indexes [from, to) to {@code target}. */
+    private void copyTo(final OpcUaHistoryColumns target, final int from, final int to) {
+      for (int i = from; i < to; ++i) {
+        final int slot = physical(i);
+        target.add(
+            times[slot],
+            serverTimes[slot],
+            types[slot],
+            values[slot],
+            Objects.nonNull(objects) ? objects[slot] : null,
+            statusCodes[slot]);
+      }
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public long timeAt(final int index) {
+      return times[physical(index)];
+    }
+
+    @Override
+    public DataValue toDataValue(final int index, final TimestampsToReturn timestamps) {
+      final int slot = physical(index);
+      return OpcUaHistory.toDataValue(
+          times[slot],
+          serverTimes[slot],
+          types[slot],
+          values[slot],
+          Objects.nonNull(objects) ? objects[slot] : null,
+          statusCodes[slot],
+          timestamps);
+    }
+
+    private int physical(final int index) {
+      final int slot = head + index;
+      return slot < times.length ? slot : slot - times.length;
+    }
+
+    private void copy(final int from, final int to) {
+      times[to] = times[from];
+      serverTimes[to] = serverTimes[from];
+      values[to] = values[from];
+      types[to] = types[from];
+      statusCodes[to] = statusCodes[from];
+      if (Objects.nonNull(objects)) {
+        objects[to] = objects[from];
+      }
+    }
+
+    private void grow() {
+      final int capacity = times.length;
+      final int newCapacity = Math.min(depth, capacity * 2);
+      if (newCapacity == capacity || !reserve(sizeOf(newCapacity) - sizeOf(capacity))) {
+        return;
+      }
+      // Unroll the ring while growing, so that the oldest sample is at 0 again
+      final byte[] newTypes = new byte[newCapacity];
+      final int[] newStatusCodes = new int[newCapacity];
+      final Object[] newObjects = Objects.nonNull(objects) ? new Object[newCapacity] : null;
+      for (int i = 0; i < size; ++i) {
+        final int slot = physical(i);
+        newTypes[i] = types[slot];
+        newStatusCodes[i] = statusCodes[slot];
+        if (Objects.nonNull(newObjects)) {
+          newObjects[i] = objects[slot];
+        }
+      }
+      types = newTypes;
+      statusCodes = newStatusCodes;
+      objects = newObjects;
+      times = unroll(times, newCapacity);
+      serverTimes = unroll(serverTimes, newCapacity);
+      values = unroll(values, newCapacity);
+      head = 0;
+    }
+
+    private long[] unroll(final long[] column, final int newCapacity) {
+      final long[] result = Arrays.copyOf(column, newCapacity);
+      if (head > 0) {
+        final int firstPart = column.length - head;
+        System.arraycopy(column, head, result, 0, firstPart);
+        System.arraycopy(column, 0, result, firstPart, head);
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,322 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import io.netty.buffer.ByteBuf;
+import org.eclipse.milo.opcua.stack.core.serialization.OpcUaBinaryStreamDecoder;
+import org.eclipse.milo.opcua.stack.core.serialization.OpcUaBinaryStreamEncoder;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Compresses {@link OpcUaHistoryColumns} in the manner of Facebook's Gorilla: the times are stored
+ * as delta-of-deltas and the raw value bits as the XOR with the previous value, so that regular
+ * samples of slowly changing values take a few bits each. The server times are stored as their
+ * offset to the times, the type tags and status codes only when they change. The values that are
+ * not stored as bits follow the bit stream as OPC UA binary encoded variants.
+ */
+final class OpcUaHistoryCodec {
+
+  private OpcUaHistoryCodec() {
+    // Utility class
+  }
+
+  static void encode(
+      final OpcUaHistoryColumns columns,
+      final ByteBuf buffer,
+      final OpcUaBinaryStreamEncoder encoder) {
+    buffer.writeInt(columns.size);
+    final int lengthIndex = buffer.writerIndex();
+    buffer.writeInt(0);
+
+    final BitWriter writer = new BitWriter(buffer);
+    long previousTime = 0;
+    long previousDelta = 0;
+    long previousOffset = 0;
+    byte previousType = OpcUaValueStore.TYPE_NULL;
+    int previousStatusCode = 0;
+    long previousValue = 0;
+    int previousLeading = -1;
+    int previousTrailing = 0;
+
+    for (int i = 0; i < columns.size; ++i) {
+      final long time = columns.times[i];
+      if (i == 0) {
+        writer.write(time, 64);
+      } else {
+        final long delta = time - previousTime;
+        writeSigned(writer, delta - previousDelta);
+        previousDelta = delta;
+      }
+      previousTime = time;
+
+      final long offset = columns.serverTimes[i] - time;
+      if (offset == previousOffset) {
+        writer.write(0, 1);
+      } else {
+        writer.write(1, 1);
+        writeSigned(writer, offset);
+        previousOffset = offset;
+      }
+
+      final byte type = columns.types[i];
+      if (type == previousType) {
+        writer.write(0, 1);
+      } else {
+        writer.write(1, 1);
+        writer.write(type, 8);
+        previousType = type;
+      }
+
+      final int statusCode = columns.statusCodes[i];
+      if (statusCode == previousStatusCode) {
+        writer.write(0, 1);
+      } else {
+        writer.write(1, 1);
+        writer.write(statusCode, 32);
+        previousStatusCode = statusCode;
+      }
+
+      if (type == OpcUaValueStore.TYPE_NULL || type == OpcUaValueStore.TYPE_OBJECT) {
+        continue;
+      }
+      final long value = columns.values[i];
+      final long xor = value ^ previousValue;
+      previousValue = value;
+      if (xor == 0) {
+        writer.write(0, 1);
+        continue;
+      }
+      final int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+      final int trailing = Long.numberOfTrailingZeros(xor);
+      if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+        // The changed bits fit in the window of the previous value
+        writer.write(0b10, 2);
+        writer.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+      } else {
+        final int length = 64 - leading - trailing;
+        writer.write(0b11, 2);
+        writer.write(leading, 5);
+        writer.write(length - 1, 6);
+        writer.write(xor >>> trailing, length);
+        previousLeading = leading;
+        previousTrailing = trailing;
+      }
+    }
+    writer.flush();
+    buffer.setInt(lengthIndex, buffer.writerIndex() - lengthIndex - Integer.BYTES);
+
+    for (int i = 0; i < columns.size; ++i) {
+      if (columns.types[i] == OpcUaValueStore.TYPE_OBJECT) {
+        encoder.writeVariant(new Variant(columns.objects[i]));
+      }
+    }
+  }
+
+  static void decode(
+      final ByteBuf buffer,
+      final OpcUaBinaryStreamDecoder decoder,
+      final OpcUaHistoryColumns columns)
+      throws IOException {
+    final int count = buffer.readInt();
+    final int length = buffer.readInt();
+    if (count < 0 || length < 0 || length > buffer.readableBytes()) {
+      throw new IOException("Corrupted history block of " + count + " samples");
+    }
+    final BitReader reader = new BitReader(buffer.readSlice(length));
+    final int first = columns.size;
+
+    long previousTime = 0;
+    long previousDelta = 0;
+    long previousOffset = 0;
+    byte previousType = OpcUaValueStore.TYPE_NULL;
+    int previousStatusCode = 0;
+    long previousValue = 0;
+    int previousLeading = 0;
+    int previousTrailing = 0;
+
+    for (int i = 0; i < count; ++i) {
+      final long time;
+      if (i == 0) {
+        time = reader.read(64);
+      } else {
+        previousDelta += readSigned(reader);
+        time = previousTime + previousDelta;
+      }
+      previousTime = time;
+
+      if (reader.read(1) != 0) {
+        previousOffset = readSigned(reader);
+      }
+      if (reader.read(1) != 0) {
+        previousType = (byte) reader.read(8);
+      }
+      if (reader.read(1) != 0) {
+        previousStatusCode = (int) reader.read(32);
+      }
+
+      final byte type = previousType;
+      if (type != OpcUaValueStore.TYPE_NULL && type != OpcUaValueStore.TYPE_OBJECT) {
+        if (reader.read(1) != 0) {
+          if (reader.read(1) == 0) {
+            previousValue ^=
+                reader.read(64 - previousLeading - previousTrailing) << previousTrailing;
+          } else {
+            previousLeading = (int) reader.read(5);
+            final int valueLength = (int) reader.read(6) + 1;
+            previousTrailing = 64 - previousLeading - valueLength;
+            previousValue ^= reader.read(valueLength) << previousTrailing;
+          }
+        }
+      }
+      columns.add(
+          time,
+          time + previousOffset,
+          type,
+          type == OpcUaValueStore.TYPE_OBJECT ? 0 : previousValue,
+          null,
+          previousStatusCode);
+    }
+
+    decoder.setBuffer(buffer);
+    for (int i = first; i < columns.size; ++i) {
+      if (columns.types[i] == OpcUaValueStore.TYPE_OBJECT) {
+        final Object object = decoder.readVariant().getValue();
+        if (Objects.isNull(columns.objects)) {
+          columns.objects = new Object[columns.times.length];
+        }
+        columns.objects[i] = object;
+      }
+    }
+  }
+
+  /**
+   * Writes a small signed number in buckets like Gorilla's delta-of-deltas, widened since the times
+   * are 100 ns ticks: a jitter of up to a millisecond fits the 15 bits bucket, of a second the 25
+   * bits one.
+   */
+  private static void writeSigned(final BitWriter writer, final long value) {
+    if (value == 0) {
+      writer.write(0, 1);
+    } else if (fits(value, 7)) {
+      writer.write(0b10, 2);
+      writer.write(value, 7);
+    } else if (fits(value, 15)) {
+      writer.write(0b110, 3);
+      writer.write(value, 15);
+    } else if (fits(value, 25)) {
+      writer.write(0b1110, 4);
+      writer.write(value, 25);
+    } else {
+      writer.write(0b1111, 4);
+      writer.write(value, 64);
+    }
+  }
+
+  private static long readSigned(final BitReader reader) throws IOException {
+    if (reader.read(1) == 0) {
+      return 0;
+    } else if (reader.read(1) == 0) {
+      return signExtend(reader.read(7), 7);
+    } else if (reader.read(1) == 0) {
+      return signExtend(reader.read(15), 15);
+    } else if (reader.read(1) == 0) {
+      return signExtend(reader.read(25), 25);
+    }
+    return reader.read(64);
+  }
+
+  private static boolean fits(final long value, final int bits) {
+    return value >= -(1L << (bits - 1)) && value < (1L << (bits - 1));
+  }
+
+  private static long signExtend(final long value, final int bits) {
+    return value << (64 - bits) >> (64 - bits);
+  }
+
+  private static final class BitWriter {
+    private final ByteBuf buffer;
+    private long bits;
+    private int bitCount;
+
+    private BitWriter(final ByteBuf buffer) {
+      this.buffer = buffer;
+    }
+
+    /** Writes the lowest {@code length} bits of {@code value}, most significant first. */
+    private void write(final long value, final int length) {
+      if (length == 0) {
+        return;
+      }
+      final long masked = length == 64 ? value : value & ((1L << length) - 1);
+      final int free = 64 - bitCount;
+      if (length < free) {
+        bits |= masked << (free - length);
+        bitCount += length;
+        return;
+      }
+      final int rest = length - free;
+      bits |= masked >>> rest;
+      buffer.writeLong(bits);
+      bits = rest == 0 ? 0 : masked << (64 - rest);
+      bitCount = rest;
+    }
+
+    private void flush() {
+      for (int i = 0; i < bitCount; i += 8) {
+        buffer.writeByte((int) (bits >>> (56 - i)));
+      }
+      bits = 0;
+      bitCount = 0;
+    }
+  }
+
+  private static final class BitReader {
+    private final ByteBuf buffer;
+    private long bits;
+    private int bitCount;
+
+    private BitReader(final ByteBuf buffer) {
+      this.buffer = buffer;
+    }
+
+    private long read(final int length) throws IOException {
+      if (length > 56) {
+        return read(length - 32) << 32 | read(32);
+      }
+      while (bitCount <= 56 && buffer.isReadable()) {
+        bits |= (buffer.readByte() & 0xFFL) << (56 - bitCount);
+        bitCount += 8;
+      }
+      if (bitCount < length) {
+        throw new IOException("Truncated history block");
+      }
+      if (length == 0) {
+        return 0;
+      }
+      final long value = bits >>> (64 - length);
+      bits <<= length;
+      bitCount -= length;
+      return value;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Growable, time-ordered columns of history samples, in the layout of {@link OpcUaHistory}'s ring
+ * buffers. They carry the samples spilled to {@link OpcUaHistorySegments} and the samples decoded
+ * back for a HistoryRead.
+ */
+class OpcUaHistoryColumns {
+
+  long[] times;
+  long[] serverTimes;
+  long[] values;
+  byte[] types;
+  int[] statusCodes;
+  // Only allocated for the values that are not stored as bits, e.g. strings
+  Object[] objects;
+  int size;
+
+  OpcUaHistoryColumns(final int capacity) {
+    final int initialCapacity = Math.max(1, capacity);
+    times = new long[initialCapacity];
+    serverTimes = new long[initialCapacity];
+    values = new long[initialCapacity];
+    types = new byte[initialCapacity];
+    statusCodes = new int[initialCapacity];
+  }
+
+  void add(
+      final long time,
+      final long serverTime,
+      final byte type,
+      final long value,
+      final Object object,
+      final int statusCode) {
+    if (size == times.length) {
+      grow(size * 2);
+    }
+    times[size] = time;
+    serverTimes[size] = serverTime;
+    types[size] = type;
+    values[size] = value;
+    statusCodes[size] = statusCode;
+    if (Objects.nonNull(object)) {
+      if (Objects.isNull(objects)) {
+        objects = new Object[times.length];
+      }
+      objects[size] = object;
+    }
+    ++size;
+  }
+
+  void addAll(final OpcUaHistoryColumns columns) {
+    for (int i = 0; i < columns.size; ++i) {
+      add(
+          columns.times[i],
+          columns.serverTimes[i],
+          columns.types[i],
+          columns.values[i],
+          columns.getObject(i),
+          columns.statusCodes[i]);
+    }
+  }
+
+  Object getObject(final int index) {
+    return Objects.nonNull(objects) ? objects[index] : null;
+  }
+
+  private void grow(final int capacity) {
+    times = Arrays.copyOf(times, capacity);
+    serverTimes = Arrays.copyOf(serverTimes, capacity);
+    values = Arrays.copyOf(values, capacity);
+    types = Arrays.copyOf(types, capacity);
+    statusCodes = Arrays.copyOf(statusCodes, capacity);
+    if (Objects.nonNull(objects)) {
+      objects = Arrays.copyOf(objects, capacity);
+    }
+  }
+}
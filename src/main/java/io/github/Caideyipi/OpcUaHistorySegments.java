@@ -0,0 +1,610 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.eclipse.milo.opcua.stack.core.serialization.OpcUaBinaryStreamDecoder;
+import org.eclipse.milo.opcua.stack.core.serialization.OpcUaBinaryStreamEncoder;
+import org.eclipse.milo.opcua.stack.core.serialization.SerializationContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only segment files holding the history samples spilled out of {@link OpcUaHistory}'s ring
+ * buffers, so that the history covers hours of data at a few bytes per sample outside of the heap.
+ *
+ * <p>Each spill appends one block of consecutive samples of a variable, compressed by {@link
+ * OpcUaHistoryCodec}, to the active segment. A block is a record {@code [int length][int
+ * crc][payload]} whose payload is the node id, the time range and the encoded samples. The blocks
+ * of every variable are indexed in time order and read through memory mappings of the segments.
+ *
+ * <p>A background thread drops the blocks older than the retention, deletes the segments without
+ * live blocks and rewrites the sparse segments into the active one. The index is rebuilt from the
+ * segments on startup, discarding a torn tail left by a crash.
+ */
+class OpcUaHistorySegments {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaHistorySegments.class);
+
+  static final String DIR_NAME = "history";
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  private static final int MAGIC = 0x494f5048;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  private static final long SEGMENT_SIZE = 64L << 20;
+  // Segments with fewer live bytes are rewritten into the active segment
+  private static final long COMPACTION_THRESHOLD = SEGMENT_SIZE / 2;
+  private static final long COMPACTION_INTERVAL_SECONDS = 60;
+
+  static final Block[] NO_BLOCKS = new Block[0];
+
+  private final SerializationContext context;
+  private final Path dir;
+  private final long retentionMillis;
+
+  private final ConcurrentMap<NodeId, NodeBlocks> index = new ConcurrentHashMap<>();
+  // Guarded by this
+  private final List<Segment> segments = new ArrayList<>();
+  private Segment activeSegment;
+  private ScheduledExecutorService executor;
+  private boolean closed = true;
+
+  // Raw bytes of the spilled samples, the bytes of their blocks, and all bytes written to the files
+  private final AtomicLong spilledSamples = new AtomicLong();
+  private final AtomicLong spilledBytes = new AtomicLong();
+  private final AtomicLong encodedBytes = new AtomicLong();
+  private final AtomicLong writtenBytes = new AtomicLong();
+
+  OpcUaHistorySegments(
+      final SerializationContext context, final Path dataDir, final long retentionMillis) {
+    this.context = context;
+    this.dir = dataDir.resolve(DIR_NAME);
+    this.retentionMillis = retentionMillis;
+  }
+
+  /** Recovers the blocks of the existing segments and starts the compaction thread. */
+  synchronized void open() throws IOException {
+    Files.createDirectories(dir);
+    final List<Path> files = new ArrayList<>();
+    try (final DirectoryStream<Path> stream =
+        Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      stream.forEach(files::add);
+    }
+    files.sort(Comparator.comparing(Path::toString));
+
+    long lastSequence = 0;
+    final Map<NodeId, List<Block>> recovered = new HashMap<>();
+    for (final Path file : files) {
+      final long sequence = parseSequence(file);
+      if (sequence < 0) {
+        continue;
+      }
+      lastSequence = Math.max(lastSequence, sequence);
+      try {
+        segments.add(recover(file, sequence, recovered));
+      } catch (final IOException e) {
+        LOGGER.warn("Skipped history segment {}, because {}.", file, e.getMessage());
+      }
+    }
+    recovered.forEach((nodeId, blocks) -> index.put(nodeId, new NodeBlocks(dedup(blocks))));
+
+    activeSegment = newSegment(lastSequence + 1);
+    closed = false;
+
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("history-compaction").setDaemon(true).build());
+    scheduleCompaction();
+    LOGGER.info(
+        "Recovered the history of {} variables from {} segments in {}",
+        index.size(),
+        segments.size() - 1,
+        dir);
+  }
+
+  synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    executor.shutdownNow();
+    for (final Segment segment : segments) {
+      try {
+        segment.channel.force(false);
+        segment.channel.close();
+      } catch (final IOException e) {
+        LOGGER.warn(
+            "Failed to close history segment {}, because {}.", segment.file, e.getMessage());
+      }
+    }
+  }
+
+  /** Returns the blocks of the variable in time order. */
+  Block[] getBlocks(final NodeId nodeId) {
+    final NodeBlocks blocks = index.get(nodeId);
+    return Objects.nonNull(blocks) ? blocks.blocks : NO_BLOCKS;
+  }
+
+  /** Returns the time of the newest spilled sample of the variable. */
+  long getLastTime(final NodeId nodeId) {
+    final Block[] blocks = getBlocks(nodeId);
+    return blocks.length > 0 ? blocks[blocks.length - 1].maxTime : Long.MIN_VALUE;
+  }
+
+  /**
+   * Appends the samples as one block of the variable. They must not be older than the ones appended
+   * before, which the caller guarantees by spilling from the head of its ring buffer.
+   *
+   * @return {@code false} if the segments are closed
+   */
+  boolean append(final NodeId nodeId, final OpcUaHistoryColumns samples) throws IOException {
+    final Block block;
+    final ByteBuf buffer = PooledByteBufAllocator.DEFAULT.buffer();
+    try {
+      final OpcUaBinaryStreamEncoder encoder =
+          new OpcUaBinaryStreamEncoder(context).setBuffer(buffer);
+      buffer.writeInt(0).writeInt(0);
+      encoder.writeNodeId(nodeId);
+      final long minTime = samples.times[0];
+      final long maxTime = samples.times[samples.size - 1];
+      buffer.writeLong(minTime).writeLong(maxTime);
+      final int dataOffset = buffer.writerIndex();
+      OpcUaHistoryCodec.encode(samples, buffer, encoder);
+      finishRecord(buffer);
+
+      synchronized (this) {
+        if (closed) {
+          return false;
+        }
+        final Segment segment = getWritableSegment();
+        final long position = segment.write(buffer);
+        block =
+            new Block(
+                segment,
+                position,
+                buffer.writerIndex(),
+                position + dataOffset,
+                samples.size,
+                minTime,
+                maxTime);
+      }
+    } finally {
+      buffer.release();
+    }
+
+    block.segment.liveBytes.addAndGet(block.length);
+    index.computeIfAbsent(nodeId, id -> new NodeBlocks(NO_BLOCKS)).add(block);
+    spilledSamples.addAndGet(samples.size);
+    spilledBytes.addAndGet(OpcUaHistory.sizeOf(samples.size));
+    encodedBytes.addAndGet(block.length);
+    return true;
+  }
+
+  /** Decodes the samples of the block and appends them to {@code samples}. */
+  void decode(final Block block, final OpcUaHistoryColumns samples) throws IOException {
+    final ByteBuf data =
+        block.segment.slice(
+            block.dataOffset, (int) (block.offset + block.length - block.dataOffset));
+    OpcUaHistoryCodec.decode(data, new OpcUaBinaryStreamDecoder(context), samples);
+  }
+
+  private void scheduleCompaction() {
+    executor.schedule(
+        () -> {
+          try {
+            compact();
+          } catch (final Exception e) {
+            LOGGER.warn("Failed to compact the history segments, because {}.", e.getMessage());
+          }
+          synchronized (this) {
+            if (!closed) {
+              scheduleCompaction();
+            }
+          }
+        },
+        COMPACTION_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
+  }
+
+  /** Drops the expired blocks, then deletes or rewrites the segments with few live bytes. */
+  void compact() throws IOException {
+    // The sample times are 100 ns ticks of DateTime
+    final long cutoff = DateTime.now().getUtcTime() - retentionMillis * 10_000;
+    long expiredBlocks = 0;
+    for (final NodeBlocks blocks : index.values()) {
+      for (final Block block : blocks.removeBefore(cutoff)) {
+        block.segment.liveBytes.addAndGet(-block.length);
+        ++expiredBlocks;
+      }
+    }
+
+    final List<Segment> sparseSegments = new ArrayList<>();
+    synchronized (this) {
+      for (final Segment segment : segments) {
+        if (segment != activeSegment && segment.liveBytes.get() < COMPACTION_THRESHOLD) {
+          sparseSegments.add(segment);
+        }
+      }
+    }
+    if (sparseSegments.isEmpty() && expiredBlocks == 0) {
+      return;
+    }
+
+    long rewrittenBytes = 0;
+    for (final Segment segment : sparseSegments) {
+      if (segment.liveBytes.get() > 0) {
+        rewrittenBytes += rewrite(segment);
+      }
+      delete(segment);
+    }
+    LOGGER.info(
+        "Compacted the history segments: dropped {} expired blocks, rewrote {} bytes of {} segments.",
+        expiredBlocks,
+        rewrittenBytes,
+        sparseSegments.size());
+    if (spilledSamples.get() > 0) {
+      LOGGER.info(
+          "Spilled {} history samples at {} bytes per sample, the write amplification is {}.",
+          spilledSamples.get(),
+          String.format("%.2f", (double) encodedBytes.get() / spilledSamples.get()),
+          String.format("%.2f", getWriteAmplification()));
+    }
+  }
+
+  /** Returns the bytes written to the segments per byte of block spilled. */
+  double getWriteAmplification() {
+    return (double) writtenBytes.get() / Math.max(1, encodedBytes.get());
+  }
+
+  /** Returns the bytes spilled samples would take in memory per byte of block. */
+  double getCompressionRatio() {
+    return (double) spilledBytes.get() / Math.max(1, encodedBytes.get());
+  }
+
+  /** Copies the live blocks of the segment into the active one, as they are. */
+  private long rewrite(final Segment segment) throws IOException {
+    long rewrittenBytes = 0;
+    for (final NodeBlocks blocks : index.values()) {
+      for (final Block block : blocks.blocks) {
+        if (block.segment != segment) {
+          continue;
+        }
+        final ByteBuf record = segment.slice(block.offset, block.length);
+        final Block moved;
+        synchronized (this) {
+          if (closed) {
+            return rewrittenBytes;
+          }
+          final Segment target = getWritableSegment();
+          final long position = target.write(record);
+          moved =
+              new Block(
+                  target,
+                  position,
+                  block.length,
+                  position + block.dataOffset - block.offset,
+                  block.count,
+                  block.minTime,
+                  block.maxTime);
+        }
+        rewrittenBytes += block.length;
+        if (blocks.replace(block, moved)) {
+          moved.segment.liveBytes.addAndGet(moved.length);
+          segment.liveBytes.addAndGet(-block.length);
+        }
+      }
+    }
+    return rewrittenBytes;
+  }
+
+  private void delete(final Segment segment) throws IOException {
+    final long size;
+    synchronized (this) {
+      segments.remove(segment);
+      size = segment.size;
+    }
+    // Readers may still hold blocks of the segment, the mapping stays valid once the file is gone
+    segment.slice(0, (int) size);
+    segment.channel.close();
+    Files.deleteIfExists(segment.file);
+  }
+
+  // Guarded by this
+  private Segment getWritableSegment() throws IOException {
+    if (activeSegment.size >= SEGMENT_SIZE) {
+      activeSegment.channel.force(false);
+      activeSegment = newSegment(activeSegment.sequence + 1);
+    }
+    return activeSegment;
+  }
+
+  // Guarded by this
+  private Segment newSegment(final long sequence) throws IOException {
+    final Path file =
+        dir.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    final FileChannel channel =
+        FileChannel.open(
+            file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    final Segment segment = new Segment(sequence, file, channel, 0);
+    final ByteBuf header = Unpooled.buffer(HEADER_SIZE).writeInt(MAGIC).writeInt(VERSION);
+    segment.write(header);
+    writtenBytes.addAndGet(-HEADER_SIZE);
+    segments.add(segment);
+    return segment;
+  }
+
+  private Segment recover(
+      final Path file, final long sequence, final Map<NodeId, List<Block>> recovered)
+      throws IOException {
+    final FileChannel channel =
+        FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      final long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        throw new IOException("Unexpected size " + size);
+      }
+      final ByteBuf content =
+          Unpooled.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+      if (content.readInt() != MAGIC || content.readInt() != VERSION) {
+        throw new IOException("Unrecognized history segment");
+      }
+
+      final Segment segment = new Segment(sequence, file, channel, size);
+      final OpcUaBinaryStreamDecoder decoder = new OpcUaBinaryStreamDecoder(context);
+      final CRC32 crc = new CRC32();
+      while (content.readableBytes() >= RECORD_HEADER_SIZE) {
+        final int offset = content.readerIndex();
+        final int length = content.getInt(offset);
+        if (length < RECORD_HEADER_SIZE || length > content.readableBytes()) {
+          break;
+        }
+        final ByteBuf payload =
+            content.slice(offset + RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE);
+        crc.reset();
+        crc.update(payload.nioBuffer());
+        if ((int) crc.getValue() != content.getInt(offset + Integer.BYTES)) {
+          break;
+        }
+        decoder.setBuffer(payload);
+        final NodeId nodeId = decoder.readNodeId();
+        final long minTime = payload.readLong();
+        final long maxTime = payload.readLong();
+        final int count = payload.getInt(payload.readerIndex());
+        recovered
+            .computeIfAbsent(nodeId, id -> new ArrayList<>())
+            .add(
+                new Block(
+                    segment,
+                    offset,
+                    length,
+                    offset + RECORD_HEADER_SIZE + payload.readerIndex(),
+                    count,
+                    minTime,
+                    maxTime));
+        content.skipBytes(length);
+      }
+
+      if (content.readerIndex() < size) {
+        LOGGER.warn(
+            "Truncated the history segment {} from {} to {} bytes, because its tail is torn.",
+            file,
+            size,
+            content.readerIndex());
+        channel.truncate(content.readerIndex());
+        segment.size = content.readerIndex();
+      }
+      return segment;
+    } catch (final IOException | RuntimeException e) {
+      channel.close();
+      throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Orders the recovered blocks of a variable, dropping the copies left by a compaction which was
+   * interrupted before deleting the rewritten segment.
+   */
+  private static Block[] dedup(final List<Block> blocks) {
+    blocks.sort(Comparator.comparingLong((Block block) -> block.minTime));
+    final List<Block> result = new ArrayList<>(blocks.size());
+    for (final Block block : blocks) {
+      if (!result.isEmpty() && result.get(result.size() - 1).maxTime > block.minTime) {
+        continue;
+      }
+      if (!result.isEmpty() && result.get(result.size() - 1).isCopyOf(block)) {
+        continue;
+      }
+      result.add(block);
+      block.segment.liveBytes.addAndGet(block.length);
+    }
+    return result.toArray(NO_BLOCKS);
+  }
+
+  private static long parseSequence(final Path file) {
+    final String name = file.getFileName().toString();
+    try {
+      return Long.parseLong(
+          name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    } catch (final NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static void finishRecord(final ByteBuf buffer) {
+    final int length = buffer.writerIndex();
+    final CRC32 crc = new CRC32();
+    crc.update(buffer.nioBuffer(RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE));
+    buffer.setInt(0, length).setInt(Integer.BYTES, (int) crc.getValue());
+  }
+
+  /** A block of consecutive samples of a variable, immutable once appended. */
+  static final class Block {
+    private final Segment segment;
+    private final long offset;
+    private final int length;
+    private final long dataOffset;
+    final int count;
+    final long minTime;
+    final long maxTime;
+
+    private Block(
+        final Segment segment,
+        final long offset,
+        final int length,
+        final long dataOffset,
+        final int count,
+        final long minTime,
+        final long maxTime) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.dataOffset = dataOffset;
+      this.count = count;
+      this.minTime = minTime;
+      this.maxTime = maxTime;
+    }
+
+    private boolean isCopyOf(final Block block) {
+      return count == block.count
+          && minTime == block.minTime
+          && maxTime == block.maxTime
+          && length == block.length;
+    }
+  }
+
+  /** The blocks of a variable in time order, replaced as a whole on every change. */
+  private static final class NodeBlocks {
+    private volatile Block[] blocks;
+
+    private NodeBlocks(final Block[] blocks) {
+      this.blocks = blocks;
+    }
+
+    private synchronized void add(final Block block) {
+      final Block[] newBlocks = Arrays.copyOf(blocks, blocks.length + 1);
+      newBlocks[blocks.length] = block;
+      blocks = newBlocks;
+    }
+
+    private synchronized List<Block> removeBefore(final long cutoff) {
+      int expired = 0;
+      while (expired < blocks.length && blocks[expired].maxTime < cutoff) {
+        ++expired;
+      }
+      if (expired == 0) {
+        return new ArrayList<>(0);
+      }
+      final List<Block> removed = Arrays.asList(Arrays.copyOf(blocks, expired));
+      blocks = Arrays.copyOfRange(blocks, expired, blocks.length);
+      return removed;
+    }
+
+    private synchronized boolean replace(final Block block, final Block replacement) {
+      for (int i = 0; i < blocks.length; ++i) {
+        if (blocks[i] == block) {
+          final Block[] newBlocks = blocks.clone();
+          newBlocks[i] = replacement;
+          blocks = newBlocks;
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private final class Segment {
+    private final long sequence;
+    private final Path file;
+    private final FileChannel channel;
+    private final AtomicLong liveBytes = new AtomicLong();
+    // Guarded by OpcUaHistorySegments.this
+    private long size;
+    private volatile MappedByteBuffer mapped;
+
+    private Segment(
+        final long sequence, final Path file, final FileChannel channel, final long size) {
+      this.sequence = sequence;
+      this.file = file;
+      this.channel = channel;
+      this.size = size;
+    }
+
+    /** Appends the readable bytes of the buffer, returning their position. */
+    private long write(final ByteBuf buffer) throws IOException {
+      final long position = size;
+      final int length = buffer.readableBytes();
+      int written = 0;
+      while (written < length) {
+        written +=
+            buffer.getBytes(
+                buffer.readerIndex() + written, channel, position + written, length - written);
+      }
+      size += length;
+      writtenBytes.addAndGet(length);
+      return position;
+    }
+
+    /** Returns a view of the mapped bytes, mapping the segment again if it grew since. */
+    private ByteBuf slice(final long offset, final int length) throws IOException {
+      MappedByteBuffer current = mapped;
+      if (Objects.isNull(current) || current.capacity() < offset + length) {
+        synchronized (this) {
+          current = mapped;
+          if (Objects.isNull(current) || current.capacity() < offset + length) {
+            current = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped = current;
+          }
+        }
+      }
+      return Unpooled.wrappedBuffer(current).slice((int) offset, length);
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.server.util.HostnameUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The hostnames and IP addresses that the server advertises in its endpoints and lists in its
+ * certificates, resolved once for all of them. {@link HostnameUtil} resolves the names of every
+ * local address one after the other on each call, which takes seconds on hosts with many interfaces
+ * or a slow resolver: here the reverse lookups run in parallel, and an address whose name is not
+ * resolved within the timeout is advertised by its IP address only. The names are deduplicated
+ * ignoring their case, in the order of the local hostname and then of the interfaces. With an
+ * explicit list, nothing is resolved and only that list is advertised.
+ */
+final class OpcUaHostnames {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaHostnames.class);
+
+  private static final long LOOKUP_TIMEOUT_MILLIS = 2000;
+
+  private final List<String> advertisedHostnames;
+
+  // Guarded by this, null until resolved
+  private Set<String> hostnames;
+  private Set<String> nonLoopbackHostnames;
+
+  OpcUaHostnames(final List<String> advertisedHostnames) {
+    this.advertisedHostnames = advertisedHostnames;
+  }
+
+  /** Returns the hostname to use as common name, the first advertised one if listed. */
+  String getHostname() {
+    return getHostnames(true).iterator().next();
+  }
+
+  /**
+   * Returns the hostnames and IP addresses of the server, the loopback ones included if asked. The
+   * explicitly advertised hostnames are always returned as they are.
+   */
+  synchronized Set<String> getHostnames(final boolean includeLoopback) {
+    if (Objects.isNull(hostnames)) {
+      if (!advertisedHostnames.isEmpty()) {
+        hostnames = deduplicate(advertisedHostnames);
+        nonLoopbackHostnames = hostnames;
+      } else {
+        resolve();
+      }
+    }
+    return includeLoopback ? hostnames : nonLoopbackHostnames;
+  }
+
+  private void resolve() {
+    final long startTime = System.currentTimeMillis();
+
+    final List<InetAddress> addresses = new ArrayList<>();
+    try {
+      for (final NetworkInterface networkInterface :
+          Collections.list(NetworkInterface.getNetworkInterfaces())) {
+        for (final InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+          if (address instanceof Inet4Address) {
+            addresses.add(address);
+          }
+        }
+      }
+    } catch (final SocketException e) {
+      LOGGER.warn("Failed to list the network interfaces, because {}.", e.getMessage());
+    }
+
+    final ExecutorService executor =
+        Executors.newCachedThreadPool(
+            runnable -> {
+              final Thread thread = new Thread(runnable, "OpcUaHostnames-lookup");
+              thread.setDaemon(true);
+              return thread;
+            });
+    try {
+      final Future<String> localHostname = executor.submit(HostnameUtil::getHostname);
+      final Map<InetAddress, Future<List<String>>> names = new LinkedHashMap<>();
+      for (final InetAddress address : addresses) {
+        names.put(
+            address,
+            executor.submit(
+                () -> {
+                  final List<String> result = new ArrayList<>(2);
+                  result.add(address.getHostName());
+                  result.add(address.getCanonicalHostName());
+                  return result;
+                }));
+      }
+
+      final long deadline = startTime + LOOKUP_TIMEOUT_MILLIS;
+      final List<String> all = new ArrayList<>();
+      final List<String> nonLoopback = new ArrayList<>();
+
+      final String hostname = await(localHostname, deadline, "the local host");
+      all.add(Objects.nonNull(hostname) ? hostname : "localhost");
+      if (Objects.nonNull(hostname)) {
+        nonLoopback.add(hostname);
+      }
+
+      for (final Map.Entry<InetAddress, Future<List<String>>> entry : names.entrySet()) {
+        final InetAddress address = entry.getKey();
+        final List<String> addressNames = new ArrayList<>(3);
+        addressNames.add(address.getHostAddress());
+        final List<String> resolved = await(entry.getValue(), deadline, address.getHostAddress());
+        if (Objects.nonNull(resolved)) {
+          addressNames.addAll(resolved);
+        }
+        all.addAll(addressNames);
+        if (!address.isLoopbackAddress()) {
+          nonLoopback.addAll(addressNames);
+        }
+      }
+
+      hostnames = deduplicate(all);
+      nonLoopbackHostnames = deduplicate(nonLoopback);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    LOGGER.info("Resolved hostnames {} in {}ms", hostnames, System.currentTimeMillis() - startTime);
+  }
+
+  private static <T> T await(final Future<T> future, final long deadline, final String name) {
+    try {
+      return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    } catch (final TimeoutException e) {
+      LOGGER.warn(
+          "Failed to resolve the hostname of {} within {}ms, advertising it by address only.",
+          name,
+          LOOKUP_TIMEOUT_MILLIS);
+    } catch (final ExecutionException e) {
+      LOGGER.warn("Failed to resolve the hostname of {}, because {}.", name, e.getMessage());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return null;
+  }
+
+  private static Set<String> deduplicate(final List<String> names) {
+    final Map<String, String> deduplicated = new LinkedHashMap<>();
+    for (final String name : names) {
+      deduplicated.putIfAbsent(name.toLowerCase(Locale.ROOT), name);
+    }
+    return Collections.unmodifiableSet(new LinkedHashSet<>(deduplicated.values()));
+  }
+}
@@ -0,0 +1,647 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.server.AbstractLifecycle;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A line protocol listener on the ingest port, for the internal feeds whose rates the secure
+ * channels and the encoding of the services cannot follow. The values are written to the nodes of
+ * {@link OpcUaNameSpace} by {@link OpcUaIngestMethod}, which creates the missing ones, so the OPC
+ * UA clients see them through Read and their subscriptions as usual.
+ *
+ * <p>The protocol is UTF-8 text, one command per line:
+ *
+ * <pre>
+ * AUTH &lt;user&gt; &lt;password&gt;
+ * &lt;device path&gt; &lt;measurement&gt;=&lt;value&gt;[,&lt;measurement&gt;=&lt;value&gt;...] [&lt;epoch millis&gt;]
+ * SYNC
+ * </pre>
+ *
+ * A connection starts with AUTH, answered by {@code OK}, unless the anonymous access is enabled.
+ * The values are Java literals: {@code true} for Boolean, {@code 1} for Int32, {@code 1L} for
+ * Int64, {@code 1.5f} for Float, {@code 1.5} for Double and {@code "text"} for String. An integer
+ * beyond the range of Int32 is an Int64 without the suffix. The lines of values are only answered
+ * when they fail, by {@code ERR <line number> <status> [<measurement>]}, and SYNC by {@code OK
+ * <lines> <failed lines>} once the lines before it are written, so that a client can send many
+ * lines before waiting.
+ *
+ * <p>The listener binds to {@code -ingest_address}, the loopback one by default, since the user and
+ * password of AUTH travel unencrypted. The lines of values read at once from a connection take a
+ * slot of {@link OpcUaAdmissionControl}, and are answered by {@code ERR <line number>
+ * Bad_ResourceUnavailable} without being written when there is none, to be sent again later.
+ *
+ * <p>At most {@value #MAX_CONNECTIONS} connections are open at once, and a connection that has not
+ * authenticated within {@value #AUTH_TIMEOUT_MILLIS} ms is closed. Its read buffer only grows
+ * beyond the AUTH line once it is authenticated.
+ *
+ * <p>An acceptor thread hands the connections to the selector threads, one per core, which read,
+ * parse and write the lines of their connections, and stop reading from a client that does not read
+ * its answers.
+ */
+class OpcUaIngestListener extends AbstractLifecycle {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaIngestListener.class);
+
+  private static final String AUTH = "AUTH";
+  private static final String SYNC = "SYNC";
+  private static final String OK = "OK";
+  private static final String ERR = "ERR";
+
+  // The longest line, up to which the read buffer of an authenticated connection grows
+  private static final int MAX_LINE_BYTES = 64 * 1024;
+  // The read buffer of a new connection, which holds the AUTH line
+  private static final int INITIAL_LINE_BYTES = 1024;
+
+  // Beyond which the new connections are closed at once
+  private static final int MAX_CONNECTIONS = 1024;
+  // The time a connection has to authenticate, checked every second
+  private static final long AUTH_TIMEOUT_MILLIS = 10_000;
+  private static final long AUTH_CHECK_INTERVAL_MILLIS = 1_000;
+
+  // The time that the shutdown waits for the lines being written
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+
+  private static final DateTime[] SERVER_TIME = new DateTime[0];
+
+  private final OpcUaServer server;
+  private final OpcUaIngestMethod ingestMethod;
+  private final OpcUaAdmissionControl admissionControl;
+  private final String address;
+  private final int port;
+  private final byte[] user;
+  private final byte[] password;
+  private final boolean enableAnonymousAccess;
+
+  private ServerSocketChannel serverChannel;
+  private Thread acceptThread;
+  private Worker[] workers;
+  private final AtomicInteger connections = new AtomicInteger();
+
+  OpcUaIngestListener(
+      final OpcUaServer server,
+      final OpcUaServerBuilder builder,
+      final OpcUaIngestMethod ingestMethod,
+      final OpcUaAdmissionControl admissionControl) {
+    this.server = server;
+    this.ingestMethod = ingestMethod;
+    this.admissionControl = admissionControl;
+    this.address = builder.getIngestAddress();
+    this.port = builder.getIngestPort();
+    this.user = builder.getUser().getBytes(StandardCharsets.UTF_8);
+    this.password = builder.getPassword().getBytes(StandardCharsets.UTF_8);
+    this.enableAnonymousAccess = builder.isEnableAnonymousAccess();
+  }
+
+  @Override
+  protected void onStartup() {
+    try {
+      serverChannel = ServerSocketChannel.open();
+      serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      serverChannel.bind(new InetSocketAddress(address, port));
+      workers = new Worker[Runtime.getRuntime().availableProcessors()];
+      for (int i = 0; i < workers.length; ++i) {
+        workers[i] = new Worker("opc-ua-ingest-" + i);
+      }
+    } catch (final IOException e) {
+      LOGGER.warn(
+          "Failed to listen for ingestion on {}:{}, because {}.", address, port, e.getMessage());
+      closeQuietly(serverChannel);
+      serverChannel = null;
+      return;
+    }
+    for (final Worker worker : workers) {
+      worker.thread.start();
+    }
+    acceptThread = new Thread(this::accept, "opc-ua-ingest-acceptor");
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+    LOGGER.info("Listening for ingestion on {}:{}", address, port);
+  }
+
+  @Override
+  protected void onShutdown() {
+    if (Objects.isNull(serverChannel)) {
+      return;
+    }
+    closeQuietly(serverChannel);
+    serverChannel = null;
+    final long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MILLIS;
+    // Before the workers stop, so that no connection is handed to a stopped one
+    join(acceptThread, deadline);
+    acceptThread = null;
+    for (final Worker worker : workers) {
+      worker.stop();
+    }
+    // So that no line is written after the namespace is saved by the following lifecycles
+    for (final Worker worker : workers) {
+      join(worker.thread, deadline);
+    }
+    workers = null;
+  }
+
+  private static void join(final Thread thread, final long deadline) {
+    try {
+      thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      LOGGER.warn(
+          "Failed to stop {} in time, because it is still busy after {} ms.",
+          thread.getName(),
+          SHUTDOWN_TIMEOUT_MILLIS);
+    }
+  }
+
+  private void accept() {
+    final ServerSocketChannel channel = serverChannel;
+    final Worker[] acceptWorkers = workers;
+    int next = 0;
+    while (true) {
+      final SocketChannel connection;
+      try {
+        connection = channel.accept();
+      } catch (final ClosedChannelException e) {
+        return;
+      } catch (final IOException e) {
+        LOGGER.warn("Failed to accept an ingest connection, because {}.", e.getMessage());
+        continue;
+      }
+      if (connections.incrementAndGet() > MAX_CONNECTIONS) {
+        LOGGER.debug(
+            "Refused an ingest connection, because {} connections are open.", MAX_CONNECTIONS);
+        closeConnection(connection);
+        continue;
+      }
+      acceptWorkers[next].register(connection);
+      next = (next + 1) % acceptWorkers.length;
+    }
+  }
+
+  /** Runs the connections registered to its selector. */
+  private class Worker implements Runnable {
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    private Worker(final String name) throws IOException {
+      selector = Selector.open();
+      thread = new Thread(this, name);
+      thread.setDaemon(true);
+    }
+
+    private void register(final SocketChannel channel) {
+      newChannels.add(channel);
+      selector.wakeup();
+      // Closed here if the worker stopped meanwhile, since it no longer polls them
+      if (!running) {
+        closeNewChannels();
+      }
+    }
+
+    private void closeNewChannels() {
+      for (SocketChannel channel; Objects.nonNull(channel = newChannels.poll()); ) {
+        closeConnection(channel);
+      }
+    }
+
+    private void stop() {
+      running = false;
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      long nextAuthCheck = System.currentTimeMillis() + AUTH_CHECK_INTERVAL_MILLIS;
+      try {
+        while (running) {
+          selector.select(AUTH_CHECK_INTERVAL_MILLIS);
+          if (System.currentTimeMillis() >= nextAuthCheck) {
+            closeUnauthenticatedConnections();
+            nextAuthCheck = System.currentTimeMillis() + AUTH_CHECK_INTERVAL_MILLIS;
+          }
+          registerNewChannels();
+          final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            final SelectionKey key = keys.next();
+            keys.remove();
+            final Connection connection = (Connection) key.attachment();
+            try {
+              if (key.isValid() && key.isWritable()) {
+                connection.flush(key);
+              }
+              if (key.isValid() && key.isReadable()) {
+                connection.read(key);
+              }
+            } catch (final IOException | CancelledKeyException e) {
+              LOGGER.debug(
+                  "Closed the ingest connection {}, because {}.", connection, e.getMessage());
+              connection.close(key);
+            }
+          }
+        }
+      } catch (final IOException e) {
+        LOGGER.warn("Failed to select the ingest connections, because {}.", e.getMessage());
+      } finally {
+        for (final SelectionKey key : selector.keys()) {
+          ((Connection) key.attachment()).close(key);
+        }
+        closeNewChannels();
+        closeQuietly(selector);
+      }
+    }
+
+    private void registerNewChannels() {
+      for (SocketChannel channel; Objects.nonNull(channel = newChannels.poll()); ) {
+        try {
+          channel.configureBlocking(false);
+          channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+          channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+        } catch (final IOException e) {
+          LOGGER.debug("Failed to register an ingest connection, because {}.", e.getMessage());
+          closeConnection(channel);
+        }
+      }
+    }
+
+    private void closeUnauthenticatedConnections() {
+      final long now = System.currentTimeMillis();
+      for (final SelectionKey key : selector.keys()) {
+        final Connection connection = (Connection) key.attachment();
+        if (key.isValid() && !connection.authenticated && now > connection.authDeadline) {
+          LOGGER.debug(
+              "Closed the ingest connection {}, because it did not authenticate in time.",
+              connection);
+          connection.close(key);
+        }
+      }
+    }
+  }
+
+  /** The state of a connection, only accessed by the thread of its worker. */
+  private class Connection {
+    private final SocketChannel channel;
+    private final long authDeadline = System.currentTimeMillis() + AUTH_TIMEOUT_MILLIS;
+    private ByteBuffer input = ByteBuffer.allocate(INITIAL_LINE_BYTES);
+    // The answers that the client has not read yet, null if none
+    private ByteBuffer output;
+    private boolean authenticated = enableAnonymousAccess;
+    private boolean closing;
+    private boolean closed;
+    // Whether the lines being processed asked for a slot of the admission control, and got it
+    private boolean admissionAsked;
+    private boolean admitted;
+
+    private long lineNumber;
+    private long valueLines;
+    private long failedLines;
+
+    private Connection(final SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    private void read(final SelectionKey key) throws IOException {
+      if (channel.read(input) < 0) {
+        close(key);
+        return;
+      }
+
+      final StringBuilder answers = new StringBuilder();
+      final byte[] bytes = input.array();
+      final int end = input.position();
+      int start = 0;
+      // Asked by the first line of values, so that AUTH and partial lines take no slot
+      admissionAsked = false;
+      admitted = false;
+      try {
+        for (int i = 0; i < end && !closing; ++i) {
+          if (bytes[i] != '\n') {
+            continue;
+          }
+          final int lineEnd = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+          process(new String(bytes, start, lineEnd - start, StandardCharsets.UTF_8), answers);
+          start = i + 1;
+        }
+      } finally {
+        if (admitted) {
+          admissionControl.releaseIngest();
+        }
+      }
+      input.position(start);
+      input.limit(end);
+      input.compact();
+      if (!closing && !input.hasRemaining()) {
+        if (authenticated && input.capacity() < MAX_LINE_BYTES) {
+          final ByteBuffer grown =
+              ByteBuffer.allocate(Math.min(MAX_LINE_BYTES, input.capacity() * 2));
+          input.flip();
+          input = grown.put(input);
+        } else {
+          answerError(answers, lineNumber + 1, StatusCodes.Bad_EncodingLimitsExceeded, null);
+          closing = true;
+        }
+      }
+
+      if (answers.length() > 0) {
+        send(key, answers);
+      } else if (closing) {
+        close(key);
+      }
+    }
+
+    private void process(final String line, final StringBuilder answers) {
+      ++lineNumber;
+      if (line.isEmpty()) {
+        return;
+      }
+      if (line.startsWith(AUTH + ' ')) {
+        authenticate(line, answers);
+        return;
+      }
+      if (!authenticated) {
+        answerError(answers, lineNumber, StatusCodes.Bad_UserAccessDenied, null);
+        closing = true;
+        return;
+      }
+      if (line.equals(SYNC)) {
+        answers.append(OK).append(' ').append(valueLines).append(' ').append(failedLines);
+        answers.append('\n');
+        return;
+      }
+
+      ++valueLines;
+      if (!admissionAsked) {
+        admissionAsked = true;
+        admitted = admissionControl.tryAdmitIngest();
+      }
+      if (!admitted) {
+        ++failedLines;
+        answerError(answers, lineNumber, StatusCodes.Bad_ResourceUnavailable, null);
+        return;
+      }
+      try {
+        final Line parsed = Line.parse(line);
+        final StatusCode[] results =
+            ingestMethod.ingest(
+                new AttributeContext(server),
+                parsed.path,
+                parsed.measurements.toArray(new String[0]),
+                parsed.timestamps,
+                parsed.values.toArray(new Variant[0]));
+        for (int i = 0; i < results.length; ++i) {
+          if (!results[i].isGood()) {
+            ++failedLines;
+            answerError(answers, lineNumber, results[i].getValue(), parsed.measurements.get(i));
+            return;
+          }
+        }
+      } catch (final UaException e) {
+        ++failedLines;
+        answerError(answers, lineNumber, e.getStatusCode().getValue(), null);
+      }
+    }
+
+    private void authenticate(final String line, final StringBuilder answers) {
+      final String[] parts = line.split(" ", 3);
+      if (parts.length == 3
+          && MessageDigest.isEqual(user, parts[1].getBytes(StandardCharsets.UTF_8))
+          && MessageDigest.isEqual(password, parts[2].getBytes(StandardCharsets.UTF_8))) {
+        authenticated = true;
+        answers.append(OK).append('\n');
+        return;
+      }
+      LOGGER.warn(
+          "Rejected the ingest connection {}, because its user or password is wrong.", this);
+      answerError(answers, lineNumber, StatusCodes.Bad_UserAccessDenied, null);
+      closing = true;
+    }
+
+    private void send(final SelectionKey key, final CharSequence answers) throws IOException {
+      final ByteBuffer bytes = StandardCharsets.UTF_8.encode(answers.toString());
+      if (Objects.isNull(output)) {
+        output = bytes;
+      } else {
+        final ByteBuffer merged = ByteBuffer.allocate(output.remaining() + bytes.remaining());
+        output = merged.put(output).put(bytes);
+        output.flip();
+      }
+      flush(key);
+    }
+
+    private void flush(final SelectionKey key) throws IOException {
+      channel.write(output);
+      if (output.hasRemaining()) {
+        // Stops reading until the client reads its answers
+        key.interestOps(SelectionKey.OP_WRITE);
+        return;
+      }
+      output = null;
+      if (closing) {
+        close(key);
+      } else {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    private void close(final SelectionKey key) {
+      key.cancel();
+      if (!closed) {
+        closed = true;
+        closeConnection(channel);
+      }
+    }
+
+    @Override
+    public String toString() {
+      try {
+        return String.valueOf(channel.getRemoteAddress());
+      } catch (final IOException e) {
+        return String.valueOf(channel);
+      }
+    }
+  }
+
+  private static void answerError(
+      final StringBuilder answers,
+      final long lineNumber,
+      final long statusCode,
+      final String measurement) {
+    answers.append(ERR).append(' ').append(lineNumber).append(' ');
+    answers.append(
+        StatusCodes.lookup(statusCode)
+            .map(nameAndDescription -> nameAndDescription[0])
+            .orElseGet(() -> String.format("0x%08X", statusCode)));
+    if (Objects.nonNull(measurement)) {
+      answers.append(' ').append(measurement);
+    }
+    answers.append('\n');
+  }
+
+  /** A parsed line of values. */
+  private static class Line {
+    private final String path;
+    private final List<String> measurements = new ArrayList<>();
+    private final List<Variant> values = new ArrayList<>();
+    private DateTime[] timestamps = SERVER_TIME;
+
+    private Line(final String path) {
+      this.path = path;
+    }
+
+    private static Line parse(final String line) throws UaException {
+      final int pathEnd = line.indexOf(' ');
+      if (pathEnd <= 0) {
+        throw new UaException(StatusCodes.Bad_DecodingError, "Missing the measurements");
+      }
+      final Line parsed = new Line(line.substring(0, pathEnd));
+
+      int i = pathEnd + 1;
+      while (true) {
+        final int nameEnd = line.indexOf('=', i);
+        if (nameEnd <= i) {
+          throw new UaException(StatusCodes.Bad_DecodingError, "Missing a measurement name");
+        }
+        parsed.measurements.add(line.substring(i, nameEnd));
+        i = nameEnd + 1;
+        if (i < line.length() && line.charAt(i) == '"') {
+          final StringBuilder text = new StringBuilder();
+          for (++i; ; ++i) {
+            if (i >= line.length()) {
+              throw new UaException(StatusCodes.Bad_DecodingError, "Unterminated string");
+            }
+            final char c = line.charAt(i);
+            if (c == '"') {
+              ++i;
+              break;
+            }
+            text.append(c == '\\' && i + 1 < line.length() ? line.charAt(++i) : c);
+          }
+          parsed.values.add(new Variant(text.toString()));
+        } else {
+          int valueEnd = i;
+          while (valueEnd < line.length()
+              && line.charAt(valueEnd) != ','
+              && line.charAt(valueEnd) != ' ') {
+            ++valueEnd;
+          }
+          parsed.values.add(parseValue(line.substring(i, valueEnd)));
+          i = valueEnd;
+        }
+        if (i >= line.length()) {
+          return parsed;
+        }
+        if (line.charAt(i) == ' ') {
+          break;
+        }
+        if (line.charAt(i) != ',') {
+          throw new UaException(StatusCodes.Bad_DecodingError, "Expected ',' after a value");
+        }
+        ++i;
+      }
+
+      final String timestamp = line.substring(i + 1).trim();
+      if (!timestamp.isEmpty()) {
+        try {
+          parsed.timestamps = new DateTime[parsed.measurements.size()];
+          final DateTime sourceTime = new DateTime(Instant.ofEpochMilli(Long.parseLong(timestamp)));
+          Arrays.fill(parsed.timestamps, sourceTime);
+        } catch (final NumberFormatException e) {
+          throw new UaException(StatusCodes.Bad_DecodingError, "Invalid timestamp " + timestamp);
+        }
+      }
+      return parsed;
+    }
+
+    private static Variant parseValue(final String literal) throws UaException {
+      try {
+        if (literal.equals("true") || literal.equals("false")) {
+          return new Variant(Boolean.parseBoolean(literal));
+        }
+        final char last = literal.isEmpty() ? 0 : literal.charAt(literal.length() - 1);
+        if (last == 'L' || last == 'l') {
+          return new Variant(Long.parseLong(literal.substring(0, literal.length() - 1)));
+        }
+        if (last == 'F' || last == 'f') {
+          return new Variant(Float.parseFloat(literal));
+        }
+        for (int i = 0; i < literal.length(); ++i) {
+          final char c = literal.charAt(i);
+          if (!Character.isDigit(c) && !(i == 0 && (c == '-' || c == '+'))) {
+            return new Variant(Double.parseDouble(literal));
+          }
+        }
+        // Int64 beyond the range of Int32, e.g. for the INT64 series of IoTDB written without L
+        final long value = Long.parseLong(literal);
+        return value == (int) value ? new Variant((int) value) : new Variant(value);
+      } catch (final NumberFormatException e) {
+        throw new UaException(StatusCodes.Bad_DecodingError, "Invalid value " + literal);
+      }
+    }
+  }
+
+  private void closeConnection(final SocketChannel channel) {
+    closeQuietly(channel);
+    connections.decrementAndGet();
+  }
+
+  private static void closeQuietly(final Closeable closeable) {
+    if (Objects.isNull(closeable)) {
+      return;
+    }
+    try {
+      closeable.close();
+    } catch (final IOException e) {
+      LOGGER.debug("Failed to close {}, because {}.", closeable, e.getMessage());
+    }
+  }
+}
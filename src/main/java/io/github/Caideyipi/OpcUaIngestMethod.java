@@ -0,0 +1,433 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
+import org.eclipse.milo.opcua.sdk.core.nodes.Node;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.methods.AbstractMethodInvocationHandler;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaMethodNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNodeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaObjectNode;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.structured.AddNodesItem;
+import org.eclipse.milo.opcua.stack.core.types.structured.AddNodesResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+import org.eclipse.milo.opcua.stack.core.types.structured.ObjectAttributes;
+import org.eclipse.milo.opcua.stack.core.types.structured.VariableAttributes;
+import org.eclipse.milo.opcua.stack.core.types.structured.WriteValue;
+import org.eclipse.milo.opcua.stack.core.util.TypeUtil;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * The Ingest Method of {@link OpcUaNameSpace}, the tablet-style counterpart of AddNodes and Write
+ * for the sinks and custom clients: one call takes the path of a device and parallel arrays of
+ * measurement names, source timestamps and values, creates the missing folders and variables, and
+ * writes the values, without encoding a NodeId, an attribute id and a DataValue per measurement.
+ *
+ * <p>The values go through the same fast path as the Write service, and the nodes are created by
+ * AddNodes items like the sink's, so Read, subscriptions and the history see no difference. The
+ * values are a Variant array, as Milo only accepts the declared BaseDataType for them, and the
+ * timestamps may be empty to use the server time. The result has the status of each measurement.
+ * The method is the component {@value #METHOD_NAME} of the object {@value #OBJECT_NAME} in the
+ * Objects folder.
+ */
+class OpcUaIngestMethod extends AbstractMethodInvocationHandler {
+  static final String OBJECT_NAME = "IoTDB";
+  static final String METHOD_NAME = "Ingest";
+
+  // Numeric, so that they never collide with the string nodeIds of the IoTDB paths
+  static final long OBJECT_ID = 1;
+  static final long METHOD_ID = 2;
+
+  private static final StatusCode NODE_ID_UNKNOWN = new StatusCode(StatusCodes.Bad_NodeIdUnknown);
+  private static final StatusCode BROWSE_NAME_INVALID =
+      new StatusCode(StatusCodes.Bad_BrowseNameInvalid);
+  private static final StatusCode TYPE_MISMATCH = new StatusCode(StatusCodes.Bad_TypeMismatch);
+
+  private static final Argument[] INPUT_ARGUMENTS = {
+    new Argument(
+        "ParentPath",
+        Identifiers.String,
+        ValueRanks.Scalar,
+        null,
+        LocalizedText.english("The path of the device, e.g. root.sg.d1.")),
+    new Argument(
+        "Measurements",
+        Identifiers.String,
+        ValueRanks.OneDimension,
+        null,
+        LocalizedText.english("The names of the measurements under the device, e.g. s1.")),
+    new Argument(
+        "Timestamps",
+        Identifiers.DateTime,
+        ValueRanks.OneDimension,
+        null,
+        LocalizedText.english("The source timestamps of the values, empty for the server time.")),
+    new Argument(
+        "Values",
+        Identifiers.BaseDataType,
+        ValueRanks.OneDimension,
+        null,
+        LocalizedText.english("The values of the measurements, each of a built-in data type."))
+  };
+
+  private static final Argument[] OUTPUT_ARGUMENTS = {
+    new Argument(
+        "Results",
+        Identifiers.StatusCode,
+        ValueRanks.OneDimension,
+        null,
+        LocalizedText.english("The result of each measurement."))
+  };
+
+  private final OpcUaServer server;
+  private final OpcUaNameSpace nameSpace;
+  private final Set<NodeId> nodeIds = new HashSet<>();
+
+  private OpcUaIngestMethod(
+      final OpcUaServer server, final OpcUaNameSpace nameSpace, final UaMethodNode methodNode) {
+    super(methodNode);
+    this.server = server;
+    this.nameSpace = nameSpace;
+  }
+
+  /** Creates the object and the method nodes in the namespace, and links them to Objects. */
+  static OpcUaIngestMethod create(
+      final OpcUaServer server, final OpcUaNameSpace nameSpace, final UaNodeContext nodeContext) {
+    final UShort namespaceIndex = nameSpace.getNamespaceIndex();
+    final UaObjectNode objectNode =
+        new UaObjectNode.UaObjectNodeBuilder(nodeContext)
+            .setNodeId(new NodeId(namespaceIndex, uint(OBJECT_ID)))
+            .setBrowseName(new QualifiedName(namespaceIndex, OBJECT_NAME))
+            .setDisplayName(LocalizedText.english(OBJECT_NAME))
+            .setTypeDefinition(Identifiers.BaseObjectType)
+            .build();
+    final UaMethodNode methodNode =
+        UaMethodNode.builder(nodeContext)
+            .setNodeId(new NodeId(namespaceIndex, uint(METHOD_ID)))
+            .setBrowseName(new QualifiedName(namespaceIndex, METHOD_NAME))
+            .setDisplayName(LocalizedText.english(METHOD_NAME))
+            .setDescription(
+                LocalizedText.english(
+                    "Creates the missing variables of a device and writes their values."))
+            .build();
+
+    final OpcUaIngestMethod method = new OpcUaIngestMethod(server, nameSpace, methodNode);
+    nameSpace.getNodeManager().addNode(objectNode);
+    nameSpace.getNodeManager().addNode(methodNode);
+    // Creates the property nodes of the arguments
+    methodNode.setInputArguments(INPUT_ARGUMENTS);
+    methodNode.setOutputArguments(OUTPUT_ARGUMENTS);
+    methodNode.setInvocationHandler(method);
+    methodNode.addReference(
+        new Reference(
+            methodNode.getNodeId(),
+            Identifiers.HasComponent,
+            objectNode.getNodeId().expanded(),
+            false));
+    server
+        .getAddressSpaceManager()
+        .getManagedNode(Identifiers.ObjectsFolder)
+        .ifPresent(
+            objectsFolder ->
+                objectsFolder.addReference(
+                    new Reference(
+                        objectsFolder.getNodeId(),
+                        Identifiers.Organizes,
+                        objectNode.getNodeId().expanded(),
+                        true)));
+
+    method.nodeIds.add(objectNode.getNodeId());
+    method.nodeIds.add(methodNode.getNodeId());
+    for (final Node propertyNode : methodNode.getPropertyNodes()) {
+      method.nodeIds.add(propertyNode.getNodeId());
+    }
+    return method;
+  }
+
+  /** Whether the node is one of those of the method, which are created on every startup. */
+  boolean isMethodNode(final NodeId nodeId) {
+    return nodeIds.contains(nodeId);
+  }
+
+  @Override
+  public Argument[] getInputArguments() {
+    return INPUT_ARGUMENTS;
+  }
+
+  @Override
+  public Argument[] getOutputArguments() {
+    return OUTPUT_ARGUMENTS;
+  }
+
+  @Override
+  protected Variant[] invoke(final InvocationContext context, final Variant[] inputValues)
+      throws UaException {
+    final String parentPath = (String) inputValues[0].getValue();
+    final String[] measurements = getArray(inputValues[1], String[].class);
+    final DateTime[] timestamps = getArray(inputValues[2], DateTime[].class);
+    final Variant[] values = getArray(inputValues[3], Variant[].class);
+    return new Variant[] {
+      new Variant(
+          ingest(
+              new AttributeContext(context.getServer(), context.getSession().orElse(null)),
+              parentPath,
+              measurements,
+              timestamps,
+              values))
+    };
+  }
+
+  /**
+   * Creates the missing nodes of the measurements of a device and writes their values, also for the
+   * values ingested by {@link OpcUaIngestListener}.
+   *
+   * @return the status of each measurement
+   * @throws UaException if the arrays do not match
+   */
+  StatusCode[] ingest(
+      final AttributeContext attributeContext,
+      final String parentPath,
+      final String[] measurements,
+      final DateTime[] timestamps,
+      final Variant[] values)
+      throws UaException {
+    if (Objects.isNull(parentPath)
+        || parentPath.isEmpty()
+        || values.length != measurements.length
+        || timestamps.length != 0 && timestamps.length != measurements.length) {
+      throw new UaException(StatusCodes.Bad_InvalidArgument);
+    }
+
+    final UShort namespaceIndex = nameSpace.getNamespaceIndex();
+    final StatusCode[] results = new StatusCode[measurements.length];
+    final List<WriteValue> writeValues = new ArrayList<>(measurements.length);
+    final List<Integer> writeIndexes = new ArrayList<>(measurements.length);
+    for (int i = 0; i < measurements.length; ++i) {
+      final String measurement = measurements[i];
+      if (Objects.isNull(measurement)
+          || measurement.isEmpty()
+          || measurement.indexOf(OpcUaNodeTrie.SEPARATOR) >= 0) {
+        results[i] = BROWSE_NAME_INVALID;
+        continue;
+      }
+      writeValues.add(
+          new WriteValue(
+              new NodeId(namespaceIndex, parentPath + OpcUaNodeTrie.SEPARATOR + measurement),
+              AttributeId.Value.uid(),
+              null,
+              new DataValue(
+                  values[i],
+                  StatusCode.GOOD,
+                  timestamps.length != 0 ? timestamps[i] : null,
+                  null)));
+      writeIndexes.add(i);
+    }
+
+    final List<StatusCode> writeResults = nameSpace.write(attributeContext, writeValues);
+    final List<WriteValue> missingValues = new ArrayList<>();
+    final List<Integer> missingIndexes = new ArrayList<>();
+    for (int i = 0; i < writeResults.size(); ++i) {
+      results[writeIndexes.get(i)] = writeResults.get(i);
+      if (NODE_ID_UNKNOWN.equals(writeResults.get(i))) {
+        missingValues.add(writeValues.get(i));
+        missingIndexes.add(writeIndexes.get(i));
+      }
+    }
+
+    // The first call for a device creates its nodes, then writes their values like the others
+    if (!missingValues.isEmpty()) {
+      final List<WriteValue> createdValues = new ArrayList<>(missingValues.size());
+      final List<Integer> createdIndexes = new ArrayList<>(missingIndexes.size());
+      final List<AddNodesItem> items = createFolderItems(parentPath);
+      final int folderCount = items.size();
+      for (int i = 0; i < missingValues.size(); ++i) {
+        final AddNodesItem item =
+            createVariableItem(
+                parentPath, measurements[missingIndexes.get(i)], values[missingIndexes.get(i)]);
+        if (Objects.isNull(item)) {
+          results[missingIndexes.get(i)] = TYPE_MISMATCH;
+          continue;
+        }
+        items.add(item);
+        createdValues.add(missingValues.get(i));
+        createdIndexes.add(missingIndexes.get(i));
+      }
+      final List<AddNodesResult> addResults = nameSpace.addNodes(items);
+      for (int i = 0; i < createdIndexes.size(); ++i) {
+        // Taken by a concurrent call is as good as created
+        final StatusCode addResult = addResults.get(folderCount + i).getStatusCode();
+        if (!addResult.isGood() && addResult.getValue() != StatusCodes.Bad_NodeIdExists) {
+          results[createdIndexes.get(i)] = addResult;
+          createdValues.set(i, null);
+        }
+      }
+      final List<StatusCode> createdResults =
+          nameSpace.write(attributeContext, withoutNulls(createdValues));
+      for (int i = 0, j = 0; i < createdIndexes.size(); ++i) {
+        if (Objects.nonNull(createdValues.get(i))) {
+          results[createdIndexes.get(i)] = createdResults.get(j++);
+        }
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Returns the AddNodes items of the folders of the path that do not exist, the top one linked to
+   * the Objects folder like the sink's.
+   */
+  private List<AddNodesItem> createFolderItems(final String path) {
+    final UShort namespaceIndex = nameSpace.getNamespaceIndex();
+    final List<String> missingPaths = new ArrayList<>();
+    for (String current = path; ; ) {
+      if (nameSpace.containsNode(new NodeId(namespaceIndex, current))) {
+        break;
+      }
+      missingPaths.add(current);
+      final int last = current.lastIndexOf(OpcUaNodeTrie.SEPARATOR);
+      if (last <= 0) {
+        break;
+      }
+      current = current.substring(0, last);
+    }
+
+    final List<AddNodesItem> items = new ArrayList<>(missingPaths.size());
+    for (int i = missingPaths.size() - 1; i >= 0; --i) {
+      final String folderPath = missingPaths.get(i);
+      final int last = folderPath.lastIndexOf(OpcUaNodeTrie.SEPARATOR);
+      final String name = last > 0 ? folderPath.substring(last + 1) : folderPath;
+      final ExpandedNodeId parentId =
+          last > 0
+              ? new NodeId(namespaceIndex, folderPath.substring(0, last)).expanded()
+              : Identifiers.ObjectsFolder.expanded();
+      items.add(
+          new AddNodesItem(
+              parentId,
+              Identifiers.Organizes,
+              new NodeId(namespaceIndex, folderPath).expanded(),
+              new QualifiedName(namespaceIndex, name),
+              NodeClass.Object,
+              ExtensionObject.encode(
+                  server.getSerializationContext(),
+                  new ObjectAttributes(
+                      uint(0xFFFF),
+                      LocalizedText.english(name),
+                      LocalizedText.NULL_VALUE,
+                      uint(0),
+                      uint(0),
+                      null)),
+              Identifiers.FolderType.expanded()));
+    }
+    return items;
+  }
+
+  /**
+   * Returns the AddNodes item of a variable with the data type of its value, or {@code null} if the
+   * value is not a scalar of a built-in data type.
+   */
+  private AddNodesItem createVariableItem(
+      final String parentPath, final String measurement, final Variant value) {
+    final Object object = value.getValue();
+    final Optional<NodeId> dataType =
+        value.getDataType().flatMap(id -> id.toNodeId(server.getNamespaceTable()));
+    if (Objects.isNull(object)
+        || object.getClass().isArray()
+        || !dataType.isPresent()
+        || !TypeUtil.isBuiltin(dataType.get())) {
+      return null;
+    }
+
+    final UShort namespaceIndex = nameSpace.getNamespaceIndex();
+    return new AddNodesItem(
+        new NodeId(namespaceIndex, parentPath).expanded(),
+        Identifiers.HasComponent,
+        new NodeId(namespaceIndex, parentPath + OpcUaNodeTrie.SEPARATOR + measurement).expanded(),
+        new QualifiedName(namespaceIndex, measurement),
+        NodeClass.Variable,
+        ExtensionObject.encode(
+            server.getSerializationContext(),
+            new VariableAttributes(
+                uint(0xFFFF),
+                LocalizedText.english(measurement),
+                LocalizedText.NULL_VALUE,
+                uint(0),
+                uint(0),
+                value,
+                dataType.get(),
+                ValueRanks.Scalar,
+                null,
+                AccessLevel.toValue(AccessLevel.READ_WRITE),
+                AccessLevel.toValue(AccessLevel.READ_WRITE),
+                0.0,
+                false)),
+        Identifiers.BaseDataVariableType.expanded());
+  }
+
+  private static <T> T getArray(final Variant variant, final Class<T> arrayType)
+      throws UaException {
+    final Object value = variant.getValue();
+    if (Objects.isNull(value)) {
+      return arrayType.cast(Array.newInstance(arrayType.getComponentType(), 0));
+    }
+    if (!arrayType.isInstance(value)) {
+      throw new UaException(StatusCodes.Bad_TypeMismatch);
+    }
+    return arrayType.cast(value);
+  }
+
+  private static <T> List<T> withoutNulls(final List<T> list) {
+    final List<T> result = new ArrayList<>(list.size());
+    for (final T element : list) {
+      if (Objects.nonNull(element)) {
+        result.add(element);
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.IdType;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares the NodeIds, names and texts that the nodes of {@link OpcUaNameSpace} and their references
+ * repeat, instead of keeping the copies decoded from every AddNodes item, e.g. the browse and
+ * display names "s1" of the measurement s1 of every device, the path segments of the {@link
+ * OpcUaNodeTrie}, or the NodeIds of the data type, type definition and reference type of every
+ * node.
+ *
+ * <p>The NodeIds of the other namespaces, i.e. of the types, are few and kept for good, while the
+ * names and texts are held weakly, so that those of the deleted and evicted nodes are collected
+ * along with them. The NodeIds of the paths are unique, they only share the namespace index.
+ */
+final class OpcUaInterner {
+
+  private final UShort namespaceIndex;
+
+  private final ConcurrentMap<NodeId, NodeId> typeIds = new ConcurrentHashMap<>();
+  private final ConcurrentMap<ExpandedNodeId, ExpandedNodeId> expandedTypeIds =
+      new ConcurrentHashMap<>();
+
+  private final Interner<String> names = Interners.newWeakInterner();
+  private final Interner<QualifiedName> qualifiedNames = Interners.newWeakInterner();
+  private final Interner<LocalizedText> localizedTexts = Interners.newWeakInterner();
+
+  OpcUaInterner(final UShort namespaceIndex) {
+    this.namespaceIndex = namespaceIndex;
+  }
+
+  /** Returns the shared instance of a name, e.g. of a path segment. */
+  String intern(final String name) {
+    return Objects.nonNull(name) ? names.intern(name) : null;
+  }
+
+  /**
+   * Returns the shared instance of a NodeId of another namespace, or the NodeId of a path with the
+   * shared namespace index.
+   */
+  NodeId intern(final NodeId nodeId) {
+    if (Objects.isNull(nodeId)) {
+      return null;
+    }
+    if (!namespaceIndex.equals(nodeId.getNamespaceIndex())) {
+      // Looked up first, since they are almost always there already
+      final NodeId interned = typeIds.get(nodeId);
+      if (Objects.nonNull(interned)) {
+        return interned;
+      }
+      final NodeId previous = typeIds.putIfAbsent(nodeId, nodeId);
+      return Objects.nonNull(previous) ? previous : nodeId;
+    }
+    return nodeId.getNamespaceIndex() != namespaceIndex && nodeId.getType() == IdType.String
+        ? new NodeId(namespaceIndex, (String) nodeId.getIdentifier())
+        : nodeId;
+  }
+
+  /** Returns the shared instance of a local ExpandedNodeId of another namespace. */
+  ExpandedNodeId intern(final ExpandedNodeId nodeId) {
+    if (Objects.isNull(nodeId) || !isTypeId(nodeId)) {
+      return nodeId;
+    }
+    final ExpandedNodeId interned = expandedTypeIds.get(nodeId);
+    if (Objects.nonNull(interned)) {
+      return interned;
+    }
+    final ExpandedNodeId previous = expandedTypeIds.putIfAbsent(nodeId, nodeId);
+    return Objects.nonNull(previous) ? previous : nodeId;
+  }
+
+  QualifiedName intern(final QualifiedName name) {
+    if (Objects.isNull(name)) {
+      return null;
+    }
+    return qualifiedNames.intern(
+        new QualifiedName(intern(name.getNamespaceIndex()), intern(name.getName())));
+  }
+
+  LocalizedText intern(final LocalizedText text) {
+    return Objects.nonNull(text)
+        ? localizedTexts.intern(new LocalizedText(intern(text.getLocale()), intern(text.getText())))
+        : null;
+  }
+
+  /**
+   * Returns the reference with the shared instances of its reference type and of the NodeIds of
+   * other namespaces, itself if it has them already.
+   */
+  Reference intern(final Reference reference) {
+    final NodeId sourceNodeId = intern(reference.getSourceNodeId());
+    final NodeId referenceTypeId = intern(reference.getReferenceTypeId());
+    final ExpandedNodeId targetNodeId = intern(reference.getTargetNodeId());
+    return sourceNodeId == reference.getSourceNodeId()
+            && referenceTypeId == reference.getReferenceTypeId()
+            && targetNodeId == reference.getTargetNodeId()
+        ? reference
+        : new Reference(sourceNodeId, referenceTypeId, targetNodeId, reference.isForward());
+  }
+
+  /** Returns whether the ExpandedNodeId is a local one of this namespace with a path identifier. */
+  boolean isPath(final ExpandedNodeId nodeId) {
+    return nodeId.isLocal()
+        && Objects.isNull(nodeId.getNamespaceUri())
+        && namespaceIndex.equals(nodeId.getNamespaceIndex())
+        && nodeId.getType() == IdType.String;
+  }
+
+  /** Returns the NodeId of a path given by {@link #isPath(ExpandedNodeId)}. */
+  NodeId toNodeId(final ExpandedNodeId nodeId) {
+    return new NodeId(namespaceIndex, (String) nodeId.getIdentifier());
+  }
+
+  private boolean isTypeId(final ExpandedNodeId nodeId) {
+    return nodeId.isLocal()
+        && Objects.isNull(nodeId.getNamespaceUri())
+        && !namespaceIndex.equals(nodeId.getNamespaceIndex());
+  }
+
+  private UShort intern(final UShort index) {
+    if (namespaceIndex.equals(index)) {
+      return namespaceIndex;
+    }
+    return UShort.MIN.equals(index) ? UShort.MIN : index;
+  }
+}
@@ -19,15 +19,17 @@
 
 package io.github.Caideyipi;
 
-import com.google.common.collect.Sets;
-import org.eclipse.milo.opcua.sdk.server.util.HostnameUtil;
+import org.eclipse.milo.opcua.stack.core.Stack;
 import org.eclipse.milo.opcua.stack.core.util.SelfSignedCertificateBuilder;
 import org.eclipse.milo.opcua.stack.core.util.SelfSignedCertificateGenerator;
+import org.eclipse.milo.opcua.stack.core.util.SelfSignedHttpsCertificateBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.Key;
@@ -36,10 +38,20 @@ import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
-import java.util.Set;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.regex.Pattern;
 
+/**
+ * Loads the key pairs and certificates of the server from the PKCS12 store {@code
+ * iotdb-server.pfx}: the one of the OPC UA application and the one of the HTTPS endpoints. Both are
+ * generated on the first start only and then reused, the missing ones in parallel since a 2048-bit
+ * RSA key pair takes a few hundred milliseconds. Delete the store to regenerate them, e.g. after
+ * the hostnames of the server changed.
+ */
 class OpcUaKeyStoreLoader {
   private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaKeyStoreLoader.class);
 
@@ -47,11 +59,15 @@ class OpcUaKeyStoreLoader {
       Pattern.compile("^(([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.){3}([01]?\\d\\d?|2[0-4]\\d|25[0-5])$");
 
   private static final String SERVER_ALIAS = "server-ai";
+  private static final String HTTPS_ALIAS = "https";
 
   private X509Certificate serverCertificate;
   private KeyPair serverKeyPair;
+  private X509Certificate httpsCertificate;
+  private KeyPair httpsKeyPair;
 
-  OpcUaKeyStoreLoader load(final Path baseDir, final char[] password) throws Exception {
+  OpcUaKeyStoreLoader load(
+      final Path baseDir, final char[] password, final OpcUaHostnames hostnames) throws Exception {
     final KeyStore keyStore = KeyStore.getInstance("PKCS12");
 
     final File serverKeyStore = baseDir.resolve("iotdb-server.pfx").toFile();
@@ -59,8 +75,8 @@ class OpcUaKeyStoreLoader {
     LOGGER.info("Loading KeyStore at {}", serverKeyStore);
 
     if (serverKeyStore.exists()) {
-      try {
-        keyStore.load(Files.newInputStream(serverKeyStore.toPath()), password);
+      try (final InputStream inputStream = Files.newInputStream(serverKeyStore.toPath())) {
+        keyStore.load(inputStream, password);
       } catch (final IOException e) {
         LOGGER.warn("Load keyStore failed, the existing keyStore may be stale, re-constructing...");
         if (!serverKeyStore.delete()) {
@@ -71,41 +87,28 @@ class OpcUaKeyStoreLoader {
 
     if (!serverKeyStore.exists()) {
       keyStore.load(null, password);
+    }
 
-      final KeyPair keyPair = SelfSignedCertificateGenerator.generateRsaKeyPair(2048);
-
-      final String applicationUri = "urn:apache:iotdb:opc-ua-server:" + UUID.randomUUID();
-
-      final SelfSignedCertificateBuilder builder =
-          new SelfSignedCertificateBuilder(keyPair)
-              .setCommonName("Apache IoTDB OPC UA server")
-              .setOrganization("Apache")
-              .setOrganizationalUnit("dev")
-              .setLocalityName("Beijing")
-              .setStateName("China")
-              .setCountryCode("CN")
-              .setApplicationUri(applicationUri);
-
-      // Get as many hostnames and IP addresses as we can list in the certificate.
-      final Set<String> hostnames =
-          Sets.union(
-              Sets.newHashSet(HostnameUtil.getHostname()),
-              HostnameUtil.getHostnames("0.0.0.0", false));
-
-      hostnames.forEach(
-          hostname -> {
-            if (IP_ADDR_PATTERN.matcher(hostname).matches()) {
-              builder.addIpAddress(hostname);
-            } else {
-              builder.addDnsName(hostname);
-            }
-          });
-
-      final X509Certificate certificate = builder.build();
+    final CompletableFuture<Entry> serverEntry =
+        keyStore.isKeyEntry(SERVER_ALIAS) ? null : generate(() -> generateServerEntry(hostnames));
+    final CompletableFuture<Entry> httpsEntry =
+        keyStore.isKeyEntry(HTTPS_ALIAS) ? null : generate(() -> generateHttpsEntry(hostnames));
 
-      keyStore.setKeyEntry(
-          SERVER_ALIAS, keyPair.getPrivate(), password, new X509Certificate[] {certificate});
-      keyStore.store(Files.newOutputStream(serverKeyStore.toPath()), password);
+    if (Objects.nonNull(serverEntry) || Objects.nonNull(httpsEntry)) {
+      final long startTime = System.currentTimeMillis();
+      if (Objects.nonNull(serverEntry)) {
+        join(serverEntry).store(keyStore, SERVER_ALIAS, password);
+      }
+      if (Objects.nonNull(httpsEntry)) {
+        join(httpsEntry).store(keyStore, HTTPS_ALIAS, password);
+      }
+      try (final OutputStream outputStream = Files.newOutputStream(serverKeyStore.toPath())) {
+        keyStore.store(outputStream, password);
+      }
+      LOGGER.info(
+          "Generated the missing keys of KeyStore {} in {}ms",
+          serverKeyStore,
+          System.currentTimeMillis() - startTime);
     }
 
     final Key serverPrivateKey = keyStore.getKey(SERVER_ALIAS, password);
@@ -116,9 +119,76 @@ class OpcUaKeyStoreLoader {
       serverKeyPair = new KeyPair(serverPublicKey, (PrivateKey) serverPrivateKey);
     }
 
+    final Key httpsPrivateKey = keyStore.getKey(HTTPS_ALIAS, password);
+    if (httpsPrivateKey instanceof PrivateKey) {
+      httpsCertificate = (X509Certificate) keyStore.getCertificate(HTTPS_ALIAS);
+      httpsKeyPair = new KeyPair(httpsCertificate.getPublicKey(), (PrivateKey) httpsPrivateKey);
+    }
+
     return this;
   }
 
+  private static Entry generateServerEntry(final OpcUaHostnames hostnames) throws Exception {
+    final KeyPair keyPair = SelfSignedCertificateGenerator.generateRsaKeyPair(2048);
+
+    final String applicationUri = "urn:apache:iotdb:opc-ua-server:" + UUID.randomUUID();
+
+    final SelfSignedCertificateBuilder builder =
+        new SelfSignedCertificateBuilder(keyPair)
+            .setCommonName("Apache IoTDB OPC UA server")
+            .setOrganization("Apache")
+            .setOrganizationalUnit("dev")
+            .setLocalityName("Beijing")
+            .setStateName("China")
+            .setCountryCode("CN")
+            .setApplicationUri(applicationUri);
+
+    // Get as many hostnames and IP addresses as we can list in the certificate.
+    hostnames
+        .getHostnames(false)
+        .forEach(
+            hostname -> {
+              if (IP_ADDR_PATTERN.matcher(hostname).matches()) {
+                builder.addIpAddress(hostname);
+              } else {
+                builder.addDnsName(hostname);
+              }
+            });
+
+    return new Entry(keyPair, builder.build());
+  }
+
+  private static Entry generateHttpsEntry(final OpcUaHostnames hostnames) throws Exception {
+    final KeyPair keyPair = SelfSignedCertificateGenerator.generateRsaKeyPair(2048);
+
+    final SelfSignedHttpsCertificateBuilder builder =
+        new SelfSignedHttpsCertificateBuilder(keyPair);
+    builder.setCommonName(hostnames.getHostname());
+    hostnames.getHostnames(true).forEach(builder::addDnsName);
+
+    return new Entry(keyPair, builder.build());
+  }
+
+  private static CompletableFuture<Entry> generate(final Callable<Entry> generator) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return generator.call();
+          } catch (final Exception e) {
+            throw new CompletionException(e);
+          }
+        },
+        Stack.sharedExecutor());
+  }
+
+  private static Entry join(final CompletableFuture<Entry> entry) throws Exception {
+    try {
+      return entry.join();
+    } catch (final CompletionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+  }
+
   X509Certificate getServerCertificate() {
     return serverCertificate;
   }
@@ -126,4 +196,29 @@ class OpcUaKeyStoreLoader {
   KeyPair getServerKeyPair() {
     return serverKeyPair;
   }
+
+  X509Certificate getHttpsCertificate() {
+    return httpsCertificate;
+  }
+
+  KeyPair getHttpsKeyPair() {
+    return httpsKeyPair;
+  }
+
+  /** A generated key pair and its self-signed certificate. */
+  private static final class Entry {
+    private final KeyPair keyPair;
+    private final X509Certificate certificate;
+
+    private Entry(final KeyPair keyPair, final X509Certificate certificate) {
+      this.keyPair = keyPair;
+      this.certificate = certificate;
+    }
+
+    private void store(final KeyStore keyStore, final String alias, final char[] password)
+        throws Exception {
+      keyStore.setKeyEntry(
+          alias, keyPair.getPrivate(), password, new X509Certificate[] {certificate});
+    }
+  }
 }
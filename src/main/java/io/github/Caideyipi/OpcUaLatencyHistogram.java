@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in fixed buckets of {@link LongAdder}s, so that the recording threads
+ * never contend on a shared counter. The buckets are those of a Prometheus histogram, the
+ * percentiles are estimated as the upper bound of the bucket they fall in.
+ */
+class OpcUaLatencyHistogram {
+
+  // Upper bounds of the buckets in microseconds, from 10 us to 10 s, the last bucket is unbounded
+  private static final long[] BOUNDS_MICROS = {
+    10,
+    25,
+    50,
+    100,
+    250,
+    500,
+    1_000,
+    2_500,
+    5_000,
+    10_000,
+    25_000,
+    50_000,
+    100_000,
+    250_000,
+    500_000,
+    1_000_000,
+    2_500_000,
+    5_000_000,
+    10_000_000
+  };
+
+  private final LongAdder[] buckets = new LongAdder[BOUNDS_MICROS.length + 1];
+  private final LongAdder sumNanos = new LongAdder();
+
+  OpcUaLatencyHistogram() {
+    for (int i = 0; i < buckets.length; ++i) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  void record(final long nanos) {
+    final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+    int bucket = 0;
+    while (bucket < BOUNDS_MICROS.length && micros > BOUNDS_MICROS[bucket]) {
+      ++bucket;
+    }
+    buckets[bucket].increment();
+    sumNanos.add(nanos);
+  }
+
+  /** Returns the counts of the buckets, the last one being the count above the last bound. */
+  long[] getBucketCounts() {
+    final long[] counts = new long[buckets.length];
+    for (int i = 0; i < counts.length; ++i) {
+      counts[i] = buckets[i].sum();
+    }
+    return counts;
+  }
+
+  static int getBoundCount() {
+    return BOUNDS_MICROS.length;
+  }
+
+  static double getBoundSeconds(final int bucket) {
+    return BOUNDS_MICROS[bucket] / 1e6;
+  }
+
+  long getCount() {
+    long count = 0;
+    for (final LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  double getSumSeconds() {
+    return sumNanos.sum() / 1e9;
+  }
+
+  double getMeanMillis() {
+    final long count = getCount();
+    return count > 0 ? sumNanos.sum() / 1e6 / count : 0;
+  }
+
+  /**
+   * Returns the upper bound of the bucket holding the given percentile, or the last bound if it
+   * falls above all of them.
+   */
+  double getPercentileMillis(final double percentile) {
+    final long[] counts = getBucketCounts();
+    long count = 0;
+    for (final long bucketCount : counts) {
+      count += bucketCount;
+    }
+    if (count == 0) {
+      return 0;
+    }
+    final double rank = percentile / 100 * count;
+    long cumulative = 0;
+    for (int i = 0; i < BOUNDS_MICROS.length; ++i) {
+      cumulative += counts[i];
+      if (cumulative >= rank) {
+        return BOUNDS_MICROS[i] / 1e3;
+      }
+    }
+    return BOUNDS_MICROS[BOUNDS_MICROS.length - 1] / 1e3;
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+
+import java.util.Objects;
+
+/**
+ * Compact record of an object or variable of {@link OpcUaNameSpace}, bound to the {@link
+ * OpcUaNodeTrie} entry of its path in place of a {@link UaNode}. The value of a variable lives in a
+ * slot of the {@link OpcUaValueStore}, the NodeIds are shared with the other records, and the
+ * attributes that IoTDB sinks leave to their defaults are not stored at all: the browse and display
+ * names are then the last segment of the path. {@link OpcUaLazyNodeManager} creates the node from
+ * the record whenever one is needed.
+ *
+ * <p>The record also stands for the references from the parent of its trie entry and to its type
+ * definition, see {@link OpcUaLazyNodeManager#getReferences}.
+ */
+final class OpcUaLazyNode {
+
+  private static final UInteger NO_WRITE_MASK = UInteger.valueOf(0);
+  private static final UByte NO_EVENT_NOTIFIER = UByte.valueOf(0);
+  private static final Double NO_MINIMUM_SAMPLING_INTERVAL = 0.0;
+
+  // -1 for objects
+  private final int slot;
+  private final NodeId typeDefinition;
+  // Null for objects
+  private final NodeId dataType;
+  private final int valueRank;
+  private final byte accessLevel;
+  private final byte userAccessLevel;
+  // Null if all of them have their defaults
+  private final Attributes attributes;
+
+  // The type of the reference from the parent entry's node, null if there is none or if it is
+  // stored
+  // by the node manager like any other reference
+  private volatile NodeId parentReferenceType;
+  // The node shared by all accesses while the record is monitored, so that it notifies the writes
+  private volatile UaNode pinnedNode;
+  // Guarded by this, set once the record is removed, its slot may then belong to another record
+  private boolean released;
+
+  private OpcUaLazyNode(
+      final int slot,
+      final NodeId typeDefinition,
+      final NodeId dataType,
+      final int valueRank,
+      final byte accessLevel,
+      final byte userAccessLevel,
+      final Attributes attributes) {
+    this.slot = slot;
+    this.typeDefinition = typeDefinition;
+    this.dataType = dataType;
+    this.valueRank = valueRank;
+    this.accessLevel = accessLevel;
+    this.userAccessLevel = userAccessLevel;
+    this.attributes = attributes;
+  }
+
+  static OpcUaLazyNode newObject(final NodeId typeDefinition, final Attributes attributes) {
+    return new OpcUaLazyNode(-1, typeDefinition, null, 0, (byte) 0, (byte) 0, attributes);
+  }
+
+  static OpcUaLazyNode newVariable(
+      final int slot,
+      final NodeId typeDefinition,
+      final NodeId dataType,
+      final Integer valueRank,
+      final UByte accessLevel,
+      final UByte userAccessLevel,
+      final Attributes attributes) {
+    return new OpcUaLazyNode(
+        slot,
+        typeDefinition,
+        dataType,
+        Objects.nonNull(valueRank) ? valueRank : 0,
+        Objects.nonNull(accessLevel) ? accessLevel.byteValue() : 0,
+        Objects.nonNull(userAccessLevel) ? userAccessLevel.byteValue() : 0,
+        attributes);
+  }
+
+  boolean isVariable() {
+    return slot >= 0;
+  }
+
+  int getSlot() {
+    return slot;
+  }
+
+  NodeId getTypeDefinition() {
+    return typeDefinition;
+  }
+
+  NodeId getDataType() {
+    return dataType;
+  }
+
+  int getValueRank() {
+    return valueRank;
+  }
+
+  UByte getAccessLevel() {
+    return UByte.valueOf(accessLevel);
+  }
+
+  UByte getUserAccessLevel() {
+    return UByte.valueOf(userAccessLevel);
+  }
+
+  QualifiedName getBrowseName(final UShort namespaceIndex, final String segment) {
+    return Objects.nonNull(attributes) && Objects.nonNull(attributes.browseName)
+        ? attributes.browseName
+        : new QualifiedName(namespaceIndex, segment);
+  }
+
+  LocalizedText getDisplayName(final String segment) {
+    return Objects.nonNull(attributes) && Objects.nonNull(attributes.displayName)
+        ? attributes.displayName
+        : LocalizedText.english(segment);
+  }
+
+  LocalizedText getDescription() {
+    return Objects.nonNull(attributes) && Objects.nonNull(attributes.description)
+        ? attributes.description
+        : LocalizedText.NULL_VALUE;
+  }
+
+  UInteger getWriteMask() {
+    return Objects.nonNull(attributes) ? attributes.writeMask : NO_WRITE_MASK;
+  }
+
+  UInteger getUserWriteMask() {
+    return Objects.nonNull(attributes) ? attributes.userWriteMask : NO_WRITE_MASK;
+  }
+
+  Double getMinimumSamplingInterval() {
+    return Objects.nonNull(attributes)
+        ? attributes.minimumSamplingInterval
+        : NO_MINIMUM_SAMPLING_INTERVAL;
+  }
+
+  UByte getEventNotifier() {
+    return Objects.nonNull(attributes) ? attributes.eventNotifier : NO_EVENT_NOTIFIER;
+  }
+
+  NodeId getParentReferenceType() {
+    return parentReferenceType;
+  }
+
+  void setParentReferenceType(final NodeId parentReferenceType) {
+    this.parentReferenceType = parentReferenceType;
+  }
+
+  UaNode getPinnedNode() {
+    return pinnedNode;
+  }
+
+  void setPinnedNode(final UaNode pinnedNode) {
+    this.pinnedNode = pinnedNode;
+  }
+
+  boolean isReleased() {
+    return released;
+  }
+
+  void setReleased() {
+    released = true;
+  }
+
+  /** The attributes of a record that differ from their defaults, only allocated when some do. */
+  static final class Attributes {
+    // Null for the last segment of the path
+    private final QualifiedName browseName;
+    private final LocalizedText displayName;
+    private final LocalizedText description;
+    private final UInteger writeMask;
+    private final UInteger userWriteMask;
+    private final Double minimumSamplingInterval;
+    private final UByte eventNotifier;
+
+    private Attributes(
+        final QualifiedName browseName,
+        final LocalizedText displayName,
+        final LocalizedText description,
+        final UInteger writeMask,
+        final UInteger userWriteMask,
+        final Double minimumSamplingInterval,
+        final UByte eventNotifier) {
+      this.browseName = browseName;
+      this.displayName = displayName;
+      this.description = description;
+      this.writeMask = writeMask;
+      this.userWriteMask = userWriteMask;
+      this.minimumSamplingInterval = minimumSamplingInterval;
+      this.eventNotifier = eventNotifier;
+    }
+
+    /** Returns the attributes to store, or {@code null} if they all have their defaults. */
+    static Attributes of(
+        final UShort namespaceIndex,
+        final String segment,
+        final QualifiedName browseName,
+        final LocalizedText displayName,
+        final LocalizedText description,
+        final UInteger writeMask,
+        final UInteger userWriteMask,
+        final Double minimumSamplingInterval,
+        final UByte eventNotifier) {
+      final QualifiedName storedBrowseName =
+          new QualifiedName(namespaceIndex, segment).equals(browseName) ? null : browseName;
+      final LocalizedText storedDisplayName =
+          LocalizedText.english(segment).equals(displayName) ? null : displayName;
+      final LocalizedText storedDescription =
+          LocalizedText.NULL_VALUE.equals(description) ? null : description;
+      final UInteger storedWriteMask = Objects.nonNull(writeMask) ? writeMask : NO_WRITE_MASK;
+      final UInteger storedUserWriteMask =
+          Objects.nonNull(userWriteMask) ? userWriteMask : NO_WRITE_MASK;
+      final Double storedMinimumSamplingInterval =
+          Objects.nonNull(minimumSamplingInterval)
+              ? minimumSamplingInterval
+              : NO_MINIMUM_SAMPLING_INTERVAL;
+      final UByte storedEventNotifier =
+          Objects.nonNull(eventNotifier) ? eventNotifier : NO_EVENT_NOTIFIER;
+      if (Objects.isNull(storedBrowseName)
+          && Objects.isNull(storedDisplayName)
+          && Objects.isNull(storedDescription)
+          && storedWriteMask.equals(NO_WRITE_MASK)
+          && storedUserWriteMask.equals(NO_WRITE_MASK)
+          && storedMinimumSamplingInterval.equals(NO_MINIMUM_SAMPLING_INTERVAL)
+          && storedEventNotifier.equals(NO_EVENT_NOTIFIER)) {
+        return null;
+      }
+      return new Attributes(
+          storedBrowseName,
+          storedDisplayName,
+          storedDescription,
+          storedWriteMask,
+          storedUserWriteMask,
+          storedMinimumSamplingInterval,
+          storedEventNotifier);
+    }
+  }
+}
@@ -0,0 +1,435 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.NodeManager;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNodeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaObjectNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.IdType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Node manager of the {@link OpcUaLazyNode} records of {@link OpcUaNameSpace}, registered next to
+ * the namespace's own one so that the address space finds the lazy nodes like any other.
+ *
+ * <p>The nodes are created from the records on demand, e.g. for Browse or Read, and kept in a cache
+ * bounded in size from which they are discarded once cold. The nodes of the monitored variables are
+ * pinned to their records instead, so that every write notifies the same node. The values are
+ * written to the slots of the records directly otherwise, without creating any node.
+ *
+ * <p>The records stand for the references of their nodes to the type definition and from the parent
+ * of their trie entry, which are derived rather than stored, and dropped when added through the
+ * nodes. The other references of the lazy nodes are stored like those of a {@link
+ * OpcUaNodeManager}.
+ */
+class OpcUaLazyNodeManager extends OpcUaNodeManager {
+
+  // The cached nodes not accessed for this long are discarded, only their records stay
+  private static final long CACHE_IDLE_SECONDS = 60;
+
+  private final OpcUaServer server;
+  private final OpcUaNodeTrie nodeTrie;
+  private final UShort namespaceIndex;
+  private final OpcUaValueStore valueStore;
+  private final boolean historizing;
+  private final UaNodeContext nodeContext;
+
+  // Keyed by the identity of the records, the node of a removed record is never returned again
+  private final Cache<OpcUaLazyNode, UaNode> cachedNodes;
+  // Shares the data types, type definitions and reference types of the records
+  private final OpcUaInterner interner;
+
+  OpcUaLazyNodeManager(
+      final OpcUaServer server,
+      final OpcUaNodeTrie nodeTrie,
+      final OpcUaInterner interner,
+      final UShort namespaceIndex,
+      final OpcUaValueStore valueStore,
+      final boolean historizing,
+      final int cacheSize) {
+    super(interner);
+    this.server = server;
+    this.interner = interner;
+    this.nodeTrie = nodeTrie;
+    this.namespaceIndex = namespaceIndex;
+    this.valueStore = valueStore;
+    this.historizing = historizing;
+    this.nodeContext =
+        new UaNodeContext() {
+          @Override
+          public OpcUaServer getServer() {
+            return server;
+          }
+
+          @Override
+          public NodeManager<UaNode> getNodeManager() {
+            return OpcUaLazyNodeManager.this;
+          }
+        };
+    this.cachedNodes =
+        CacheBuilder.newBuilder()
+            .maximumSize(cacheSize)
+            .expireAfterAccess(CACHE_IDLE_SECONDS, TimeUnit.SECONDS)
+            .build();
+  }
+
+  /**
+   * The context of the nodes created from the records, and of the nodes to turn into records, whose
+   * type definitions are then kept by the records only.
+   */
+  UaNodeContext getNodeContext() {
+    return nodeContext;
+  }
+
+  /** Returns the record of the nodeId, or {@code null} if it is not a lazy node. */
+  OpcUaLazyNode getLazyNode(final NodeId nodeId) {
+    final String path = getPath(nodeId);
+    return Objects.nonNull(path) ? getLazyNode(path) : null;
+  }
+
+  /**
+   * Makes the record of a node created with {@link #getNodeContext()}, which is dropped afterwards.
+   * The record of a variable takes over the slot of the node.
+   */
+  OpcUaLazyNode newRecord(final UaNode node, final NodeId typeDefinition) {
+    final String path = (String) node.getNodeId().getIdentifier();
+    final String segment = path.substring(path.lastIndexOf(OpcUaNodeTrie.SEPARATOR) + 1);
+    if (!(node instanceof UaVariableNode)) {
+      return OpcUaLazyNode.newObject(
+          interner.intern(typeDefinition),
+          OpcUaLazyNode.Attributes.of(
+              namespaceIndex,
+              segment,
+              node.getBrowseName(),
+              node.getDisplayName(),
+              node.getDescription(),
+              node.getWriteMask(),
+              node.getUserWriteMask(),
+              null,
+              node instanceof UaObjectNode ? ((UaObjectNode) node).getEventNotifier() : null));
+    }
+
+    final UaVariableNode variableNode = (UaVariableNode) node;
+    final int slot;
+    if (node instanceof OpcUaVariableNode) {
+      slot = ((OpcUaVariableNode) node).getSlot();
+    } else {
+      slot = valueStore.allocate();
+      valueStore.set(slot, variableNode.getValue());
+    }
+    return OpcUaLazyNode.newVariable(
+        slot,
+        interner.intern(typeDefinition),
+        interner.intern(variableNode.getDataType()),
+        variableNode.getValueRank(),
+        variableNode.getAccessLevel(),
+        variableNode.getUserAccessLevel(),
+        OpcUaLazyNode.Attributes.of(
+            namespaceIndex,
+            segment,
+            node.getBrowseName(),
+            node.getDisplayName(),
+            node.getDescription(),
+            node.getWriteMask(),
+            node.getUserWriteMask(),
+            variableNode.getMinimumSamplingInterval(),
+            null));
+  }
+
+  /** Frees the slot of a record that has not been registered. */
+  void discard(final OpcUaLazyNode lazyNode) {
+    if (lazyNode.isVariable()) {
+      valueStore.free(lazyNode.getSlot());
+    }
+  }
+
+  /** Returns the node of the record, the pinned one if monitored or else a cached one. */
+  UaNode getNode(final NodeId nodeId, final OpcUaLazyNode lazyNode) {
+    final UaNode pinnedNode = lazyNode.getPinnedNode();
+    if (Objects.nonNull(pinnedNode)) {
+      return pinnedNode;
+    }
+    return cachedNodes.asMap().computeIfAbsent(lazyNode, record -> createNode(nodeId, record));
+  }
+
+  /** Pins the node of a variable about to be monitored, under the record's monitor. */
+  void pin(final NodeId nodeId, final OpcUaLazyNode lazyNode) {
+    if (Objects.isNull(lazyNode.getPinnedNode())) {
+      lazyNode.setPinnedNode(getNode(nodeId, lazyNode));
+    }
+  }
+
+  /** Unpins the node of a variable no longer monitored, under the record's monitor. */
+  void unpin(final OpcUaLazyNode lazyNode) {
+    lazyNode.setPinnedNode(null);
+  }
+
+  /**
+   * Writes the value of a variable to its slot, unless its node is pinned.
+   *
+   * @return the pinned node, which the value must be written through instead, or {@code null}
+   */
+  UaNode setValue(final OpcUaLazyNode lazyNode, final DataValue value) {
+    synchronized (lazyNode) {
+      final UaNode pinnedNode = lazyNode.getPinnedNode();
+      // A write that resolved the record before it was removed is dropped, like for the nodes
+      if (Objects.isNull(pinnedNode) && !lazyNode.isReleased()) {
+        valueStore.set(lazyNode.getSlot(), value);
+      }
+      return pinnedNode;
+    }
+  }
+
+  /**
+   * Unbinds the record of the nodeId from the trie, and returns its node to be released.
+   *
+   * @return the node, or {@code null} if the nodeId has no record or it is being removed
+   */
+  UaNode detach(final NodeId nodeId) {
+    final String path = getPath(nodeId);
+    final OpcUaNodeTrie.Entry entry = Objects.nonNull(path) ? nodeTrie.getEntry(path) : null;
+    final OpcUaLazyNode lazyNode = Objects.nonNull(entry) ? entry.getLazyNode() : null;
+    if (Objects.isNull(lazyNode)) {
+      return null;
+    }
+    final UaNode node = getNode(nodeId, lazyNode);
+    if (!nodeTrie.remove(entry, lazyNode)) {
+      return null;
+    }
+    cachedNodes.invalidate(lazyNode);
+    return node;
+  }
+
+  /** Returns the nodes of all records, created one by one without being cached. */
+  Iterable<UaNode> getLazyNodes() {
+    return Iterables.filter(
+        Iterables.transform(
+            nodeTrie.getEntries(),
+            entry -> {
+              final OpcUaLazyNode lazyNode = entry.getLazyNode();
+              if (Objects.isNull(lazyNode)) {
+                return null;
+              }
+              final UaNode pinnedNode = lazyNode.getPinnedNode();
+              return Objects.nonNull(pinnedNode)
+                  ? pinnedNode
+                  : createNode(new NodeId(namespaceIndex, entry.getPath()), lazyNode);
+            }),
+        Objects::nonNull);
+  }
+
+  @Override
+  public boolean containsNode(final NodeId nodeId) {
+    return Objects.nonNull(getLazyNode(nodeId));
+  }
+
+  @Override
+  public Optional<UaNode> getNode(final NodeId nodeId) {
+    final OpcUaLazyNode lazyNode = getLazyNode(nodeId);
+    return Objects.nonNull(lazyNode) ? Optional.of(getNode(nodeId, lazyNode)) : Optional.empty();
+  }
+
+  /** Returns the stored references of the node, plus the ones that the records stand for. */
+  @Override
+  public List<Reference> getReferences(final NodeId nodeId) {
+    final List<Reference> storedReferences = super.getReferences(nodeId);
+    final String path = getPath(nodeId);
+    final OpcUaNodeTrie.Entry entry = Objects.nonNull(path) ? nodeTrie.getEntry(path) : null;
+    if (Objects.isNull(entry)) {
+      return storedReferences;
+    }
+
+    final List<Reference> references = new ArrayList<>(storedReferences);
+    final OpcUaLazyNode lazyNode = entry.getLazyNode();
+    if (Objects.nonNull(lazyNode)) {
+      references.add(
+          new Reference(
+              nodeId,
+              Identifiers.HasTypeDefinition,
+              lazyNode.getTypeDefinition().expanded(),
+              true));
+      final NodeId parentReferenceType = lazyNode.getParentReferenceType();
+      if (Objects.nonNull(parentReferenceType) && entry.getParent().hasNode()) {
+        references.add(
+            new Reference(
+                nodeId,
+                parentReferenceType,
+                new NodeId(
+                        namespaceIndex,
+                        path.substring(0, path.length() - entry.getSegment().length() - 1))
+                    .expanded(),
+                false));
+      }
+    }
+    // Also without a record, so that the children of a removed node can still be found
+    for (final OpcUaNodeTrie.Entry child : entry.getChildren()) {
+      final OpcUaLazyNode childNode = child.getLazyNode();
+      final NodeId childReferenceType =
+          Objects.nonNull(childNode) ? childNode.getParentReferenceType() : null;
+      if (Objects.nonNull(childReferenceType)) {
+        references.add(
+            new Reference(
+                nodeId,
+                childReferenceType,
+                new NodeId(namespaceIndex, path + OpcUaNodeTrie.SEPARATOR + child.getSegment())
+                    .expanded(),
+                true));
+      }
+    }
+    return references;
+  }
+
+  @Override
+  public List<Reference> getReferences(final NodeId nodeId, final Predicate<Reference> filter) {
+    return getReferences(nodeId).stream().filter(filter).collect(Collectors.toList());
+  }
+
+  @Override
+  public void addReference(final Reference reference) {
+    if (isDerivedTypeDefinition(reference)) {
+      return;
+    }
+    final OpcUaLazyNode child = getTrieChild(reference);
+    if (Objects.nonNull(child)) {
+      synchronized (child) {
+        final NodeId parentReferenceType = child.getParentReferenceType();
+        if (Objects.isNull(parentReferenceType)) {
+          child.setParentReferenceType(interner.intern(reference.getReferenceTypeId()));
+          return;
+        }
+        // The other direction of the derived reference
+        if (parentReferenceType.equals(reference.getReferenceTypeId())) {
+          return;
+        }
+      }
+    }
+    super.addReference(reference);
+  }
+
+  @Override
+  public void removeReference(final Reference reference) {
+    if (isDerivedTypeDefinition(reference)) {
+      return;
+    }
+    final OpcUaLazyNode child = getTrieChild(reference);
+    if (Objects.nonNull(child)) {
+      synchronized (child) {
+        if (reference.getReferenceTypeId().equals(child.getParentReferenceType())) {
+          child.setParentReferenceType(null);
+          return;
+        }
+      }
+    }
+    super.removeReference(reference);
+  }
+
+  private UaNode createNode(final NodeId nodeId, final OpcUaLazyNode lazyNode) {
+    final String path = (String) nodeId.getIdentifier();
+    final String segment = path.substring(path.lastIndexOf(OpcUaNodeTrie.SEPARATOR) + 1);
+    if (!lazyNode.isVariable()) {
+      return new UaObjectNode(
+          nodeContext,
+          nodeId,
+          lazyNode.getBrowseName(namespaceIndex, segment),
+          lazyNode.getDisplayName(segment),
+          lazyNode.getDescription(),
+          lazyNode.getWriteMask(),
+          lazyNode.getUserWriteMask(),
+          lazyNode.getEventNotifier());
+    }
+    return new OpcUaVariableNode.OpcUaVariableNodeBuilder(nodeContext, valueStore)
+        .setLazyNode(lazyNode)
+        .setNodeId(nodeId)
+        .setAccessLevel(lazyNode.getAccessLevel())
+        .setUserAccessLevel(lazyNode.getUserAccessLevel())
+        .setHistorizing(historizing)
+        .setBrowseName(lazyNode.getBrowseName(namespaceIndex, segment))
+        .setDisplayName(lazyNode.getDisplayName(segment))
+        .setDescription(lazyNode.getDescription())
+        .setDataType(lazyNode.getDataType())
+        .setValueRank(lazyNode.getValueRank())
+        .setWriteMask(lazyNode.getWriteMask())
+        .setUserWriteMask(lazyNode.getUserWriteMask())
+        .setMinimumSamplingInterval(lazyNode.getMinimumSamplingInterval())
+        .build();
+  }
+
+  private boolean isDerivedTypeDefinition(final Reference reference) {
+    return Identifiers.HasTypeDefinition.equals(reference.getReferenceTypeId())
+        && (Objects.nonNull(getPath(reference.getSourceNodeId()))
+            || reference
+                .getTargetNodeId()
+                .toNodeId(server.getNamespaceTable())
+                .map(this::getPath)
+                .isPresent());
+  }
+
+  /**
+   * Returns the record of the child if the reference links it with the node of its trie entry's
+   * parent, or {@code null} otherwise.
+   */
+  private OpcUaLazyNode getTrieChild(final Reference reference) {
+    final NodeId targetId =
+        reference.getTargetNodeId().toNodeId(server.getNamespaceTable()).orElse(null);
+    if (Objects.isNull(targetId)) {
+      return null;
+    }
+    final String parentPath =
+        getPath(reference.isForward() ? reference.getSourceNodeId() : targetId);
+    final String childPath =
+        getPath(reference.isForward() ? targetId : reference.getSourceNodeId());
+    if (Objects.isNull(parentPath) || Objects.isNull(childPath)) {
+      return null;
+    }
+    final int offset = OpcUaNodeTrie.childOffset(parentPath, childPath);
+    return offset > 0 && childPath.indexOf(OpcUaNodeTrie.SEPARATOR, offset) < 0
+        ? getLazyNode(childPath)
+        : null;
+  }
+
+  private OpcUaLazyNode getLazyNode(final String path) {
+    final OpcUaNodeTrie.Entry entry = nodeTrie.getEntry(path);
+    return Objects.nonNull(entry) ? entry.getLazyNode() : null;
+  }
+
+  private String getPath(final NodeId nodeId) {
+    return nodeId.getType() == IdType.String && nodeId.getNamespaceIndex().equals(namespaceIndex)
+        ? (String) nodeId.getIdentifier()
+        : null;
+  }
+}
@@ -0,0 +1,647 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.eclipse.milo.opcua.sdk.server.AbstractLifecycle;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.Session;
+import org.eclipse.milo.opcua.sdk.server.items.BaseMonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.subscriptions.Subscription;
+import org.eclipse.milo.opcua.sdk.server.subscriptions.SubscriptionManager;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.structured.AddNodesResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the namespace, the subscriptions and the secure channels, registered as the JMX
+ * bean {@link #OBJECT_NAME} and optionally served in the Prometheus text format at {@code /metrics}
+ * of the metrics port. The endpoint has no authentication, so it binds to {@code -metrics_address},
+ * the loopback one by default.
+ *
+ * <p>The hot paths only add to {@link LongAdder}s, the gauges of the sessions and subscriptions are
+ * computed when they are read.
+ */
+class OpcUaMetrics extends AbstractLifecycle implements OpcUaMetricsMBean {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaMetrics.class);
+
+  static final String OBJECT_NAME = "io.github.Caideyipi:type=OpcUaServer,name=Metrics";
+
+  private static final String METRICS_PATH = "/metrics";
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  private static final long RATE_INTERVAL_SECONDS = 10;
+
+  private final OpcUaServer server;
+  private final int port;
+  private final String address;
+
+  private final LongAdder goodAddNodesItems = new LongAdder();
+  // Keyed by the status code value, only bad results are counted here
+  private final ConcurrentMap<Long, LongAdder> badAddNodesItems = new ConcurrentHashMap<>();
+
+  private final LongAdder writeRequests = new LongAdder();
+  private final LongAdder writtenValues = new LongAdder();
+  private final LongAdder failedWriteValues = new LongAdder();
+  private final OpcUaLatencyHistogram writeLatencies = new OpcUaLatencyHistogram();
+
+  private final LongAdder nodeCount = new LongAdder();
+  private final LongAdder evictedNodes = new LongAdder();
+
+  private final OpcUaLatencyHistogram handshakeTimes;
+  private final LongAdder rejectedHandshakes;
+  private final LongAdder cachedHandshakes;
+
+  private final OpcUaAdmissionControl admissionControl;
+
+  private long startupHeapUsage;
+  private HttpServer httpServer;
+  private ObjectName objectName;
+
+  private ScheduledFuture<?> scheduledRates;
+  private boolean ratesCancelled;
+  private long lastRateTime;
+  private long lastAddNodesItems;
+  private long lastWrittenValues;
+  private volatile double addNodesItemsPerSecond;
+  private volatile double writtenValuesPerSecond;
+
+  OpcUaMetrics(
+      final OpcUaServer server,
+      final OpcUaServerBuilder builder,
+      final OpcUaAdmissionControl admissionControl) {
+    this.server = server;
+    this.port = builder.getMetricsPort();
+    this.address = builder.getMetricsAddress();
+    this.handshakeTimes = builder.getHandshakeTimes();
+    this.rejectedHandshakes = builder.getRejectedHandshakes();
+    this.cachedHandshakes = builder.getCachedHandshakes();
+    this.admissionControl = admissionControl;
+  }
+
+  @Override
+  protected void onStartup() {
+    startupHeapUsage = getHeapUsageAfterGc();
+
+    try {
+      final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      objectName = new ObjectName(OBJECT_NAME);
+      if (mBeanServer.isRegistered(objectName)) {
+        // Left by another server of the same JVM
+        mBeanServer.unregisterMBean(objectName);
+      }
+      mBeanServer.registerMBean(new StandardMBean(this, OpcUaMetricsMBean.class, true), objectName);
+    } catch (final JMException e) {
+      objectName = null;
+      LOGGER.warn("Failed to register the metrics to JMX, because {}.", e.getMessage());
+    }
+
+    if (port > 0) {
+      try {
+        httpServer = HttpServer.create(new InetSocketAddress(address, port), 0);
+        httpServer.createContext(METRICS_PATH, this::handleScrape);
+        httpServer.start();
+        LOGGER.info("Serving the metrics at http://{}:{}{}", address, port, METRICS_PATH);
+      } catch (final IOException e) {
+        httpServer = null;
+        LOGGER.warn(
+            "Failed to serve the metrics on {}:{}, because {}.", address, port, e.getMessage());
+      }
+    }
+
+    synchronized (this) {
+      lastRateTime = System.nanoTime();
+      ratesCancelled = false;
+    }
+    scheduleRates();
+  }
+
+  @Override
+  protected void onShutdown() {
+    synchronized (this) {
+      ratesCancelled = true;
+      if (Objects.nonNull(scheduledRates)) {
+        scheduledRates.cancel(false);
+      }
+    }
+    if (Objects.nonNull(httpServer)) {
+      httpServer.stop(0);
+      httpServer = null;
+    }
+    if (Objects.nonNull(objectName)) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      } catch (final JMException e) {
+        LOGGER.warn("Failed to unregister the metrics from JMX, because {}.", e.getMessage());
+      }
+      objectName = null;
+    }
+  }
+
+  void onAddNodes(final List<AddNodesResult> results) {
+    for (final AddNodesResult result : results) {
+      final StatusCode statusCode = result.getStatusCode();
+      if (statusCode.isGood()) {
+        goodAddNodesItems.increment();
+      } else {
+        badAddNodesItems
+            .computeIfAbsent(statusCode.getValue(), value -> new LongAdder())
+            .increment();
+      }
+    }
+  }
+
+  void onWrite(final List<StatusCode> results, final long nanos) {
+    writeRequests.increment();
+    long good = 0;
+    for (final StatusCode result : results) {
+      if (result.isGood()) {
+        ++good;
+      }
+    }
+    writtenValues.add(good);
+    failedWriteValues.add(results.size() - good);
+    writeLatencies.record(nanos);
+  }
+
+  void onNodeAdded() {
+    nodeCount.increment();
+  }
+
+  void onNodeRemoved() {
+    nodeCount.decrement();
+  }
+
+  void onNodesEvicted(final int count) {
+    evictedNodes.add(count);
+  }
+
+  @Override
+  public long getAddNodesItems() {
+    long items = goodAddNodesItems.sum();
+    for (final LongAdder bad : badAddNodesItems.values()) {
+      items += bad.sum();
+    }
+    return items;
+  }
+
+  @Override
+  public double getAddNodesItemsPerSecond() {
+    return addNodesItemsPerSecond;
+  }
+
+  @Override
+  public Map<String, Long> getAddNodesStatusCounts() {
+    final Map<String, Long> counts = new TreeMap<>();
+    counts.put(getStatusName(StatusCode.GOOD.getValue()), goodAddNodesItems.sum());
+    badAddNodesItems.forEach((value, count) -> counts.put(getStatusName(value), count.sum()));
+    return counts;
+  }
+
+  @Override
+  public long getWriteRequests() {
+    return writeRequests.sum();
+  }
+
+  @Override
+  public long getWrittenValues() {
+    return writtenValues.sum();
+  }
+
+  @Override
+  public long getFailedWriteValues() {
+    return failedWriteValues.sum();
+  }
+
+  @Override
+  public double getWrittenValuesPerSecond() {
+    return writtenValuesPerSecond;
+  }
+
+  @Override
+  public double getWriteLatencyMeanMillis() {
+    return writeLatencies.getMeanMillis();
+  }
+
+  @Override
+  public double getWriteLatencyP50Millis() {
+    return writeLatencies.getPercentileMillis(50);
+  }
+
+  @Override
+  public double getWriteLatencyP99Millis() {
+    return writeLatencies.getPercentileMillis(99);
+  }
+
+  @Override
+  public double getWriteLatencyP999Millis() {
+    return writeLatencies.getPercentileMillis(99.9);
+  }
+
+  @Override
+  public long getNodeCount() {
+    return nodeCount.sum();
+  }
+
+  @Override
+  public long getEvictedNodeCount() {
+    return evictedNodes.sum();
+  }
+
+  @Override
+  public long getEstimatedHeapBytesPerNode() {
+    final long nodes = nodeCount.sum();
+    return nodes > 0 ? Math.max(0, getHeapUsageAfterGc() - startupHeapUsage) / nodes : 0;
+  }
+
+  @Override
+  public int getSessionCount() {
+    return server.getSessionManager().getCurrentSessionCount().intValue();
+  }
+
+  @Override
+  public long getMonitoredItemCount() {
+    return new SubscriptionGauges().monitoredItems;
+  }
+
+  @Override
+  public long getQueuedNotificationItemCount() {
+    return new SubscriptionGauges().queuedNotificationItems;
+  }
+
+  @Override
+  public long getUnacknowledgedMessageCount() {
+    return new SubscriptionGauges().unacknowledgedMessages;
+  }
+
+  @Override
+  public long getWaitingPublishRequestCount() {
+    return new SubscriptionGauges().waitingPublishRequests;
+  }
+
+  @Override
+  public long getHandshakeCount() {
+    return handshakeTimes.getCount();
+  }
+
+  @Override
+  public long getRejectedHandshakeCount() {
+    return rejectedHandshakes.sum();
+  }
+
+  @Override
+  public long getCachedHandshakeCount() {
+    return cachedHandshakes.sum();
+  }
+
+  @Override
+  public double getHandshakeMeanMillis() {
+    return handshakeTimes.getMeanMillis();
+  }
+
+  @Override
+  public double getHandshakeP99Millis() {
+    return handshakeTimes.getPercentileMillis(99);
+  }
+
+  @Override
+  public int getInFlightRequestCount() {
+    return admissionControl.getInFlightRequestCount();
+  }
+
+  @Override
+  public int getQueuedRequestCount() {
+    return admissionControl.getQueuedRequestCount();
+  }
+
+  @Override
+  public long getTotalQueuedRequestCount() {
+    return admissionControl.getTotalQueuedRequestCount();
+  }
+
+  @Override
+  public Map<String, Long> getRejectedRequestCounts() {
+    return admissionControl.getRejectedRequestCounts();
+  }
+
+  @Override
+  public double getRequestLimitFactor() {
+    return admissionControl.getLimitFactor();
+  }
+
+  private void handleScrape(final HttpExchange exchange) throws IOException {
+    try {
+      final byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      try (final OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  String scrape() {
+    final StringBuilder builder = new StringBuilder(4096);
+
+    appendHeader(
+        builder, "opcua_add_nodes_items_total", "counter", "AddNodes items by result status.");
+    getAddNodesStatusCounts()
+        .forEach(
+            (status, count) ->
+                builder
+                    .append("opcua_add_nodes_items_total{status=\"")
+                    .append(status)
+                    .append("\"} ")
+                    .append(count)
+                    .append('\n'));
+
+    appendSample(
+        builder,
+        "opcua_write_requests_total",
+        "counter",
+        "Write requests served by the namespace.",
+        getWriteRequests());
+    appendSample(
+        builder,
+        "opcua_written_values_total",
+        "counter",
+        "Values written with a good status.",
+        getWrittenValues());
+    appendSample(
+        builder,
+        "opcua_failed_write_values_total",
+        "counter",
+        "Values whose write failed.",
+        getFailedWriteValues());
+    appendHistogram(
+        builder,
+        "opcua_write_request_duration_seconds",
+        "Time to serve the values of a Write request in the namespace.",
+        writeLatencies);
+
+    appendSample(builder, "opcua_nodes", "gauge", "Nodes of the namespace.", getNodeCount());
+    appendSample(
+        builder,
+        "opcua_evicted_nodes_total",
+        "counter",
+        "Idle variables and their emptied folders evicted to keep within the node budget.",
+        getEvictedNodeCount());
+    appendSample(
+        builder,
+        "opcua_estimated_heap_bytes_per_node",
+        "gauge",
+        "Heap used after GC beyond the one at startup, per node.",
+        getEstimatedHeapBytesPerNode());
+
+    final SubscriptionGauges gauges = new SubscriptionGauges();
+    appendSample(builder, "opcua_sessions", "gauge", "Current sessions.", getSessionCount());
+    appendSample(
+        builder,
+        "opcua_monitored_items",
+        "gauge",
+        "Monitored items of all subscriptions.",
+        gauges.monitoredItems);
+    appendSample(
+        builder,
+        "opcua_monitored_items_with_queued_notifications",
+        "gauge",
+        "Monitored items holding notifications not yet published.",
+        gauges.queuedNotificationItems);
+    appendSample(
+        builder,
+        "opcua_unacknowledged_notification_messages",
+        "gauge",
+        "Notification messages kept for republishing until acknowledged.",
+        gauges.unacknowledgedMessages);
+    appendSample(
+        builder,
+        "opcua_waiting_publish_requests",
+        "gauge",
+        "Publish requests waiting for notifications.",
+        gauges.waitingPublishRequests);
+
+    appendHistogram(
+        builder,
+        "opcua_secure_channel_handshake_duration_seconds",
+        "Time to validate the client certificate chain of a secure channel handshake.",
+        handshakeTimes);
+    appendSample(
+        builder,
+        "opcua_rejected_secure_channel_handshakes_total",
+        "counter",
+        "Secure channel handshakes whose client certificate chain was rejected.",
+        getRejectedHandshakeCount());
+    appendSample(
+        builder,
+        "opcua_cached_secure_channel_handshakes_total",
+        "counter",
+        "Secure channel handshakes whose client certificate chain was validated from the cache.",
+        getCachedHandshakeCount());
+
+    appendSample(
+        builder,
+        "opcua_inflight_requests",
+        "gauge",
+        "AddNodes, Write and Call requests served under the in-flight limit.",
+        getInFlightRequestCount());
+    appendSample(
+        builder,
+        "opcua_queued_requests",
+        "gauge",
+        "Requests waiting for the in-flight limit.",
+        getQueuedRequestCount());
+    appendSample(
+        builder,
+        "opcua_queued_requests_total",
+        "counter",
+        "Requests that have waited for the in-flight limit.",
+        getTotalQueuedRequestCount());
+    appendHeader(
+        builder,
+        "opcua_rejected_requests_total",
+        "counter",
+        "Requests rejected by the admission control, by status.");
+    getRejectedRequestCounts()
+        .forEach(
+            (status, count) ->
+                builder
+                    .append("opcua_rejected_requests_total{status=\"")
+                    .append(status)
+                    .append("\"} ")
+                    .append(count)
+                    .append('\n'));
+    appendHeader(
+        builder,
+        "opcua_request_limit_factor",
+        "gauge",
+        "Share of the configured request limits applied under the current heap pressure.");
+    builder.append("opcua_request_limit_factor ").append(getRequestLimitFactor()).append('\n');
+    return builder.toString();
+  }
+
+  private static void appendHeader(
+      final StringBuilder builder, final String name, final String type, final String help) {
+    builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void appendSample(
+      final StringBuilder builder,
+      final String name,
+      final String type,
+      final String help,
+      final long value) {
+    appendHeader(builder, name, type, help);
+    builder.append(name).append(' ').append(value).append('\n');
+  }
+
+  private static void appendHistogram(
+      final StringBuilder builder,
+      final String name,
+      final String help,
+      final OpcUaLatencyHistogram histogram) {
+    appendHeader(builder, name, "histogram", help);
+    final long[] counts = histogram.getBucketCounts();
+    long cumulative = 0;
+    for (int i = 0; i < OpcUaLatencyHistogram.getBoundCount(); ++i) {
+      cumulative += counts[i];
+      builder
+          .append(name)
+          .append("_bucket{le=\"")
+          .append(
+              BigDecimal.valueOf(OpcUaLatencyHistogram.getBoundSeconds(i))
+                  .stripTrailingZeros()
+                  .toPlainString())
+          .append("\"} ")
+          .append(cumulative)
+          .append('\n');
+    }
+    cumulative += counts[counts.length - 1];
+    builder.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+    builder.append(name).append("_sum ").append(histogram.getSumSeconds()).append('\n');
+    builder.append(name).append("_count ").append(cumulative).append('\n');
+  }
+
+  // Reschedules itself instead of a fixed rate, like the snapshots of the namespace
+  private synchronized void scheduleRates() {
+    if (ratesCancelled) {
+      return;
+    }
+    scheduledRates =
+        server
+            .getScheduledExecutorService()
+            .schedule(
+                () -> {
+                  updateRates();
+                  scheduleRates();
+                },
+                RATE_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+  }
+
+  private synchronized void updateRates() {
+    final long now = System.nanoTime();
+    final double seconds = (now - lastRateTime) / 1e9;
+    final long addNodesItems = getAddNodesItems();
+    final long values = writtenValues.sum();
+    addNodesItemsPerSecond = (addNodesItems - lastAddNodesItems) / seconds;
+    writtenValuesPerSecond = (values - lastWrittenValues) / seconds;
+    lastRateTime = now;
+    lastAddNodesItems = addNodesItems;
+    lastWrittenValues = values;
+  }
+
+  /**
+   * Returns the heap used after the last GC of each heap pool, or the current usage of the pools
+   * not collected yet, so that the garbage does not count as the memory of the nodes.
+   */
+  static long getHeapUsageAfterGc() {
+    long used = 0;
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() != MemoryType.HEAP) {
+        continue;
+      }
+      final MemoryUsage collectionUsage = pool.getCollectionUsage();
+      used +=
+          Objects.nonNull(collectionUsage) && collectionUsage.getUsed() > 0
+              ? collectionUsage.getUsed()
+              : pool.getUsage().getUsed();
+    }
+    return used;
+  }
+
+  static String getStatusName(final long value) {
+    return StatusCodes.lookup(value)
+        .map(nameAndDescription -> nameAndDescription[0])
+        .orElseGet(() -> String.format("0x%08X", value));
+  }
+
+  /** The gauges of all subscriptions, computed in one pass over the sessions. */
+  private class SubscriptionGauges {
+    private long monitoredItems;
+    private long queuedNotificationItems;
+    private long unacknowledgedMessages;
+    private long waitingPublishRequests;
+
+    private SubscriptionGauges() {
+      for (final Session session : server.getSessionManager().getAllSessions()) {
+        final SubscriptionManager subscriptionManager = session.getSubscriptionManager();
+        waitingPublishRequests += subscriptionManager.getPublishQueue().size();
+        for (final Subscription subscription : subscriptionManager.getSubscriptions()) {
+          unacknowledgedMessages += subscription.getUnacknowledgeMessageCount().longValue();
+          for (final BaseMonitoredItem<?> item : subscription.getMonitoredItems().values()) {
+            ++monitoredItems;
+            if (item.hasNotifications()) {
+              ++queuedNotificationItems;
+            }
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import javax.management.MXBean;
+
+import java.util.Map;
+
+/**
+ * The metrics of the server exposed through JMX as {@link OpcUaMetrics#OBJECT_NAME}. The rates are
+ * those of the last sampling interval, the latencies are estimated from the buckets of {@link
+ * OpcUaLatencyHistogram}.
+ */
+@MXBean
+public interface OpcUaMetricsMBean {
+
+  long getAddNodesItems();
+
+  double getAddNodesItemsPerSecond();
+
+  /** The number of AddNodes items per result status, e.g. "Good" or "Bad_NodeIdExists". */
+  Map<String, Long> getAddNodesStatusCounts();
+
+  long getWriteRequests();
+
+  long getWrittenValues();
+
+  long getFailedWriteValues();
+
+  double getWrittenValuesPerSecond();
+
+  double getWriteLatencyMeanMillis();
+
+  double getWriteLatencyP50Millis();
+
+  double getWriteLatencyP99Millis();
+
+  double getWriteLatencyP999Millis();
+
+  long getNodeCount();
+
+  /** The number of idle variables and emptied folders evicted to keep within the node budget. */
+  long getEvictedNodeCount();
+
+  /** The heap used after the last GC beyond the one at startup, divided by the node count. */
+  long getEstimatedHeapBytesPerNode();
+
+  int getSessionCount();
+
+  long getMonitoredItemCount();
+
+  /** The number of monitored items holding notifications not yet published. */
+  long getQueuedNotificationItemCount();
+
+  /** The number of notification messages kept for republishing until acknowledged. */
+  long getUnacknowledgedMessageCount();
+
+  /** The number of Publish requests waiting for notifications. */
+  long getWaitingPublishRequestCount();
+
+  long getHandshakeCount();
+
+  long getRejectedHandshakeCount();
+
+  long getCachedHandshakeCount();
+
+  double getHandshakeMeanMillis();
+
+  double getHandshakeP99Millis();
+
+  /** The AddNodes, Write and Call requests being served under the in-flight limit. */
+  int getInFlightRequestCount();
+
+  /** The requests waiting for the in-flight limit. */
+  int getQueuedRequestCount();
+
+  long getTotalQueuedRequestCount();
+
+  /** The number of requests rejected by the admission control per status. */
+  Map<String, Long> getRejectedRequestCounts();
+
+  /** The share of the configured request limits applied under the current heap pressure. */
+  double getRequestLimitFactor();
+}
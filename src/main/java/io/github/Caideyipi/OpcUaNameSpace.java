@@ -19,43 +19,221 @@
 
 package io.github.Caideyipi;
 
+import com.google.common.util.concurrent.Striped;
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
 import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
 import org.eclipse.milo.opcua.sdk.server.Lifecycle;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
 import org.eclipse.milo.opcua.sdk.server.api.DataItem;
 import org.eclipse.milo.opcua.sdk.server.api.ManagedNamespaceWithLifecycle;
 import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.api.NodeManager;
+import org.eclipse.milo.opcua.sdk.server.api.methods.MethodInvocationHandler;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaMethodNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNodeContext;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaObjectNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaObjectTypeNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
-import org.eclipse.milo.opcua.sdk.server.util.SubscriptionModel;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.NamespaceTable;
 import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
 import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.IdType;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
 import org.eclipse.milo.opcua.stack.core.types.structured.AddNodesItem;
 import org.eclipse.milo.opcua.stack.core.types.structured.AddNodesResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.DeleteNodesItem;
+import org.eclipse.milo.opcua.stack.core.types.structured.DeleteReferencesItem;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadValueId;
 import org.eclipse.milo.opcua.stack.core.types.structured.ObjectAttributes;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
 import org.eclipse.milo.opcua.stack.core.types.structured.VariableAttributes;
+import org.eclipse.milo.opcua.stack.core.types.structured.ViewDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.WriteValue;
+import org.eclipse.milo.opcua.stack.core.util.TypeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 public class OpcUaNameSpace extends ManagedNamespaceWithLifecycle {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaNameSpace.class);
+
+  private static final StatusCode NODE_ID_UNKNOWN = new StatusCode(StatusCodes.Bad_NodeIdUnknown);
+  private static final StatusCode NOT_WRITABLE = new StatusCode(StatusCodes.Bad_NotWritable);
+  private static final StatusCode USER_ACCESS_DENIED =
+      new StatusCode(StatusCodes.Bad_UserAccessDenied);
+  private static final StatusCode SOURCE_NODE_ID_INVALID =
+      new StatusCode(StatusCodes.Bad_SourceNodeIdInvalid);
+  private static final StatusCode REFERENCE_NOT_FOUND = new StatusCode(StatusCodes.Bad_NotFound);
+
   public static final String NAMESPACE_URI = "urn:apache:iotdb:opc-server";
-  private final SubscriptionModel subscriptionModel;
+  private final OpcUaSubscriptionModel subscriptionModel;
+  private final OpcUaDeadbandFilters deadbandFilters;
+
+  // Shares the NodeIds, names and texts that the nodes and references repeat
+  private final OpcUaInterner interner = new OpcUaInterner(getNamespaceIndex());
+
+  private final OpcUaNodeTrie nodeTrie = new OpcUaNodeTrie(interner);
+
+  // Replaces the node manager of Milo, which lists all the references of a node on every Browse
+  private final OpcUaNodeManager nodeManager = new OpcUaNodeManager(interner);
+
+  // Guards the "check-then-add" of the nodeIds not indexed by the trie, so that concurrent
+  // AddNodes from different pipes only contend when they hash to the same stripe
+  private final Striped<Lock> nodeIdLocks =
+      Striped.lock(Runtime.getRuntime().availableProcessors() * 4);
+
+  // Null if the history is disabled
+  private final OpcUaHistory history;
+
+  // Null if the values are kept by the nodes themselves
+  private final OpcUaValueStore valueStore;
+
+  // Null unless the nodes of the IoTDB paths are created lazily from their records
+  private final OpcUaLazyNodeManager lazyNodes;
+
+  private final OpcUaMetrics metrics;
+
+  // False only to measure the writes of Milo's attribute writer
+  private final boolean enableWriteFastPath;
+
+  // Null if the node count is unbounded
+  private final OpcUaNodeEviction nodeEviction;
+
+  private final OpcUaIngestMethod ingestMethod;
+
+  private final OpcUaNameSpaceSnapshot snapshot;
+  private final long snapshotIntervalSeconds;
+  private ScheduledFuture<?> scheduledSnapshot;
+  private boolean snapshotCancelled;
 
   OpcUaNameSpace(final OpcUaServer server, final OpcUaServerBuilder builder) {
     super(server, NAMESPACE_URI);
 
-    subscriptionModel = new SubscriptionModel(server, this);
+    enableWriteFastPath = builder.isEnableWriteFastPath();
+    // The records of the lazy variables keep their values in the slots of the store
+    valueStore =
+        builder.isEnableColumnarValueStore() || builder.isEnableLazyNodes()
+            ? new OpcUaValueStore()
+            : null;
+    history =
+        builder.getHistoryDepth() > 0
+            ? new OpcUaHistory(
+                server,
+                builder.getHistoryDepth(),
+                builder.getHistoryMemoryBudget(),
+                builder.getHistoryRetentionHours() > 0
+                    ? new OpcUaHistorySegments(
+                        server.getSerializationContext(),
+                        builder.getDataDir(),
+                        TimeUnit.HOURS.toMillis(builder.getHistoryRetentionHours()))
+                    : null)
+            : null;
+    lazyNodes =
+        builder.isEnableLazyNodes()
+            ? new OpcUaLazyNodeManager(
+                server,
+                nodeTrie,
+                interner,
+                getNamespaceIndex(),
+                valueStore,
+                Objects.nonNull(history),
+                builder.getLazyNodeCacheSize())
+            : null;
+    if (Objects.nonNull(lazyNodes)) {
+      registerNodeManager(lazyNodes);
+    }
+
+    subscriptionModel = new OpcUaSubscriptionModel(server, this, this::getNode);
     getLifecycleManager().addLifecycle(subscriptionModel);
+    deadbandFilters = new OpcUaDeadbandFilters(server, this::getNode);
+    getLifecycleManager().addLifecycle(deadbandFilters);
+    getLifecycleManager().addLifecycle(new OpcUaBrowsePaging(server, this));
+    final OpcUaAdmissionControl admissionControl = new OpcUaAdmissionControl(server, builder);
+    getLifecycleManager().addLifecycle(admissionControl);
+    // Before the snapshot is loaded, so that the heap of the restored nodes counts for them
+    metrics = new OpcUaMetrics(server, builder, admissionControl);
+    getLifecycleManager().addLifecycle(metrics);
+    if (builder.getNodeBudget() > 0 && Objects.nonNull(lazyNodes)) {
+      LOGGER.warn(
+          "The node budget of {} is ignored, because the lazy nodes do not support eviction.",
+          builder.getNodeBudget());
+    }
+    nodeEviction =
+        builder.getNodeBudget() > 0 && Objects.isNull(lazyNodes)
+            ? new OpcUaNodeEviction(
+                server,
+                builder,
+                metrics::getNodeCount,
+                subscriptionModel::isMonitored,
+                this::evictNode)
+            : null;
+    if (Objects.nonNull(nodeEviction)) {
+      getLifecycleManager().addLifecycle(nodeEviction);
+    }
+    if (Objects.nonNull(history)) {
+      getLifecycleManager().addLifecycle(history);
+    }
+
+    ingestMethod = OpcUaIngestMethod.create(server, this, getNodeContext());
+
+    snapshot =
+        new OpcUaNameSpaceSnapshot(
+            server,
+            Objects.nonNull(lazyNodes) ? lazyNodes.getNodeContext() : getNodeContext(),
+            getNodeManager(),
+            interner,
+            lazyNodes,
+            () ->
+                newVariableNodeBuilder(
+                    Objects.nonNull(lazyNodes) ? lazyNodes.getNodeContext() : getNodeContext()),
+            ingestMethod::isMethodNode,
+            builder.getDataDir());
+    snapshotIntervalSeconds = builder.getSnapshotIntervalSeconds();
+    getLifecycleManager()
+        .addLifecycle(
+            new Lifecycle() {
+              @Override
+              public void startup() {
+                loadSnapshot();
+                scheduleSnapshot();
+              }
+
+              @Override
+              public void shutdown() {
+                cancelSnapshot();
+                saveSnapshot();
+              }
+            });
+    // After the snapshot, so that the ingested values do not race with the restored nodes
+    if (builder.getIngestPort() > 0) {
+      getLifecycleManager()
+          .addLifecycle(new OpcUaIngestListener(server, builder, ingestMethod, admissionControl));
+    }
     getLifecycleManager()
         .addLifecycle(
             new Lifecycle() {
@@ -73,9 +251,44 @@ public class OpcUaNameSpace extends ManagedNamespaceWithLifecycle {
   }
 
   @Override
-  public synchronized void addNodes(
-      final AddNodesContext context, final List<AddNodesItem> nodesToAdd) {
+  protected OpcUaNodeManager getNodeManager() {
+    return nodeManager;
+  }
+
+  @Override
+  protected MethodInvocationHandler getInvocationHandler(
+      final NodeId objectId, final NodeId methodId) throws UaException {
+    final UaNode node = getNode(objectId);
+    if (Objects.isNull(node)) {
+      throw new UaException(StatusCodes.Bad_NodeIdUnknown);
+    }
+    UaMethodNode methodNode = null;
+    if (node instanceof UaObjectNode) {
+      methodNode = ((UaObjectNode) node).findMethodNode(methodId);
+    } else if (node instanceof UaObjectTypeNode) {
+      methodNode = ((UaObjectTypeNode) node).findMethodNode(methodId);
+    }
+    if (Objects.isNull(methodNode)) {
+      throw new UaException(StatusCodes.Bad_MethodInvalid);
+    }
+    return methodNode.getInvocationHandler();
+  }
+
+  @Override
+  public void addNodes(final AddNodesContext context, final List<AddNodesItem> nodesToAdd) {
+    context.success(addNodes(nodesToAdd));
+  }
+
+  /** Adds the nodes like the AddNodes service, also for the nodes created by the server itself. */
+  List<AddNodesResult> addNodes(final List<AddNodesItem> nodesToAdd) {
     final List<AddNodesResult> results = new ArrayList<>(nodesToAdd.size());
+
+    // The items of one request usually share the same parent, resolve it only once
+    ExpandedNodeId lastParentId = null;
+    UaNode parentNode = null;
+    String parentPath = null;
+    OpcUaNodeTrie.Entry parentEntry = null;
+
     for (final AddNodesItem item : nodesToAdd) {
       // Check attributes
       final ExtensionObject attributes = item.getNodeAttributes();
@@ -88,39 +301,70 @@ public class OpcUaNameSpace extends ManagedNamespaceWithLifecycle {
 
       // Check nodeId
       final Optional<NodeId> nodeId =
-          item.getRequestedNewNodeId().toNodeId(getServer().getNamespaceTable());
+          item.getRequestedNewNodeId()
+              .toNodeId(getServer().getNamespaceTable())
+              .map(interner::intern);
       if (!nodeId.isPresent()) {
         results.add(
             new AddNodesResult(new StatusCode(StatusCodes.Bad_NodeIdRejected), NodeId.NULL_VALUE));
         continue;
       }
-      if (getNodeManager().containsNode(nodeId.get())) {
-        results.add(
-            new AddNodesResult(new StatusCode(StatusCodes.Bad_NodeIdExists), NodeId.NULL_VALUE));
-        continue;
-      }
 
       // Check parent
-      final Optional<NodeId> parentId =
-          item.getParentNodeId().toNodeId(getServer().getNamespaceTable());
-      if (!parentId.isPresent()) {
+      if (!item.getParentNodeId().equals(lastParentId)) {
+        lastParentId = item.getParentNodeId();
+        parentNode = null;
+        parentPath = null;
+        parentEntry = null;
+
+        final Optional<NodeId> parentId = lastParentId.toNodeId(getServer().getNamespaceTable());
+        if (parentId.isPresent()) {
+          parentPath = getTriePath(parentId.get());
+          if (Objects.nonNull(parentPath)) {
+            parentEntry = nodeTrie.getEntry(parentPath);
+            parentNode = Objects.nonNull(parentEntry) ? parentEntry.getNode() : null;
+          }
+          if (Objects.isNull(parentNode)) {
+            parentNode =
+                getServer().getAddressSpaceManager().getManagedNode(parentId.get()).orElse(null);
+          }
+        }
+      }
+      if (Objects.isNull(parentNode)) {
+        // Do not cache the miss, the parent may be added concurrently
+        lastParentId = null;
         results.add(
             new AddNodesResult(
                 new StatusCode(StatusCodes.Bad_ParentNodeIdInvalid), NodeId.NULL_VALUE));
         continue;
       }
-      final Optional<UaNode> parentNode =
-          getServer().getAddressSpaceManager().getManagedNode(parentId.get());
-      if (!parentNode.isPresent()) {
+
+      // Check existence, children of a known parent continue the walk from the parent's entry. The
+      // entry is only looked up here, and created once the node is registered, so that the items
+      // rejected meanwhile leave no empty entries behind
+      final String path = getTriePath(nodeId.get());
+      final int offset =
+          Objects.nonNull(path) && Objects.nonNull(parentEntry)
+              ? OpcUaNodeTrie.childOffset(parentPath, path)
+              : -1;
+      final boolean exists;
+      if (Objects.nonNull(path)) {
+        final OpcUaNodeTrie.Entry entry =
+            offset > 0 ? parentEntry.find(path, offset) : nodeTrie.getEntry(path);
+        // A miss of a node added concurrently is caught by the registration
+        exists = Objects.nonNull(entry) && entry.hasNode();
+      } else {
+        exists = getNodeManager().containsNode(nodeId.get());
+      }
+      if (exists) {
         results.add(
-            new AddNodesResult(
-                new StatusCode(StatusCodes.Bad_ParentNodeIdInvalid), NodeId.NULL_VALUE));
+            new AddNodesResult(new StatusCode(StatusCodes.Bad_NodeIdExists), NodeId.NULL_VALUE));
         continue;
       }
 
       // Check typeDefinition
       final Optional<NodeId> typeDefinition =
-          item.getTypeDefinition().toNodeId(getServer().getNamespaceTable());
+          item.getTypeDefinition().toNodeId(getServer().getNamespaceTable()).map(interner::intern);
       if (!typeDefinition.isPresent()) {
         results.add(
             new AddNodesResult(
@@ -128,7 +372,11 @@ public class OpcUaNameSpace extends ManagedNamespaceWithLifecycle {
         continue;
       }
 
-      // Construct node
+      // Construct node, the nodes turned into records are built in the context of their manager
+      final boolean isRecord = Objects.nonNull(lazyNodes) && Objects.nonNull(path);
+      final UaNodeContext nodeContext = isRecord ? lazyNodes.getNodeContext() : getNodeContext();
+      final QualifiedName browseName =
+          isRecord ? item.getBrowseName() : interner.intern(item.getBrowseName());
       final UaNode newNode;
       switch (item.getNodeClass()) {
         case Variable:
@@ -136,13 +384,14 @@ public class OpcUaNameSpace extends ManagedNamespaceWithLifecycle {
               (VariableAttributes)
                   item.getNodeAttributes().decode(getServer().getSerializationContext());
           newNode =
-              new UaVariableNode.UaVariableNodeBuilder(getNodeContext())
+              newVariableNodeBuilder(nodeContext)
                   .setNodeId(nodeId.get())
-                  .setAccessLevel(variableAttributes.getAccessLevel())
-                  .setUserAccessLevel(variableAttributes.getUserAccessLevel())
-                  .setBrowseName(item.getBrowseName())
-                  .setDisplayName(variableAttributes.getDisplayName())
-                  .setDataType(variableAttributes.getDataType())
+                  .setAccessLevel(withHistoryRead(variableAttributes.getAccessLevel()))
+                  .setUserAccessLevel(withHistoryRead(variableAttributes.getUserAccessLevel()))
+                  .setHistorizing(Objects.nonNull(history))
+                  .setBrowseName(browseName)
+                  .setDisplayName(internDisplayName(variableAttributes.getDisplayName(), isRecord))
+                  .setDataType(interner.intern(variableAttributes.getDataType()))
                   .setTypeDefinition(typeDefinition.get())
                   .setValueRank(variableAttributes.getValueRank())
                   .setWriteMask(variableAttributes.getWriteMask())
@@ -164,17 +413,17 @@ public class OpcUaNameSpace extends ManagedNamespaceWithLifecycle {
           if (typeDefinition.get().equals(Identifiers.FolderType)) {
             newNode =
                 new UaFolderNode(
-                    getNodeContext(),
+                    nodeContext,
                     nodeId.get(),
-                    item.getBrowseName(),
-                    objectAttributes.getDisplayName());
+                    browseName,
+                    internDisplayName(objectAttributes.getDisplayName(), isRecord));
             break;
           }
           newNode =
-              new UaObjectNode.UaObjectNodeBuilder(getNodeContext())
+              new UaObjectNode.UaObjectNodeBuilder(nodeContext)
                   .setNodeId(nodeId.get())
-                  .setBrowseName(item.getBrowseName())
-                  .setDisplayName(objectAttributes.getDisplayName())
+                  .setBrowseName(browseName)
+                  .setDisplayName(internDisplayName(objectAttributes.getDisplayName(), isRecord))
                   .setTypeDefinition(typeDefinition.get())
                   .setWriteMask(objectAttributes.getWriteMask())
                   .setUserWriteMask(objectAttributes.getUserWriteMask())
@@ -187,25 +436,816 @@ public class OpcUaNameSpace extends ManagedNamespaceWithLifecycle {
           continue;
       }
 
-      // Link reference
-      getNodeManager().addNode(newNode);
-      parentNode
-          .get()
-          .addReference(
-              new Reference(
-                  parentNode.get().getNodeId(),
-                  item.getReferenceTypeId(),
-                  newNode.getNodeId().expanded(),
-                  true));
+      // Register node, the nodeId may have been taken by a concurrent request after the check
+      final OpcUaNodeTrie.Entry entry =
+          Objects.nonNull(path) ? getOrCreateTrieEntry(path, parentEntry, offset) : null;
+      if (!registerNode(newNode, typeDefinition.get(), entry)) {
+        results.add(
+            new AddNodesResult(new StatusCode(StatusCodes.Bad_NodeIdExists), NodeId.NULL_VALUE));
+        continue;
+      }
+
+      // Link reference, the parent's reference list is guarded by the node manager itself
+      parentNode.addReference(
+          new Reference(
+              parentNode.getNodeId(),
+              interner.intern(item.getReferenceTypeId()),
+              newNode.getNodeId().expanded(),
+              true));
+      // The parent may have been evicted as an empty folder meanwhile, see evictIfEmpty
+      final NodeManager<UaNode> parentNodeManager = parentNode.getNodeManager();
+      if ((parentNodeManager == getNodeManager() || parentNodeManager == lazyNodes)
+          && !containsNode(parentNode.getNodeId())) {
+        removeNode(newNode.getNodeId());
+        lastParentId = null;
+        results.add(
+            new AddNodesResult(
+                new StatusCode(StatusCodes.Bad_ParentNodeIdInvalid), NodeId.NULL_VALUE));
+        continue;
+      }
       results.add(new AddNodesResult(StatusCode.GOOD, newNode.getNodeId()));
     }
 
+    metrics.onAddNodes(results);
+    return results;
+  }
+
+  /**
+   * Deletes the nodes along with their subtrees, i.e. the nodes of this namespace reachable through
+   * their forward references other than HasTypeDefinition. Without deleteTargetReferences, the
+   * references of the parents to a deleted node are kept, as the specification asks.
+   */
+  @Override
+  public void deleteNodes(
+      final DeleteNodesContext context, final List<DeleteNodesItem> nodesToDelete) {
+    final List<StatusCode> results = new ArrayList<>(nodesToDelete.size());
+    for (final DeleteNodesItem item : nodesToDelete) {
+      results.add(
+          deleteSubtree(item.getNodeId(), Boolean.TRUE.equals(item.getDeleteTargetReferences()))
+              ? StatusCode.GOOD
+              : NODE_ID_UNKNOWN);
+    }
     context.success(results);
   }
 
+  @Override
+  public void deleteReferences(
+      final DeleteReferencesContext context, final List<DeleteReferencesItem> referencesToDelete) {
+    final List<StatusCode> results = new ArrayList<>(referencesToDelete.size());
+    for (final DeleteReferencesItem item : referencesToDelete) {
+      final NodeId sourceId = item.getSourceNodeId();
+      if (!containsNode(sourceId)) {
+        results.add(SOURCE_NODE_ID_INVALID);
+        continue;
+      }
+      // Compare with the namespace index form that the references are stored with
+      final ExpandedNodeId targetId =
+          item.getTargetNodeId()
+              .toNodeId(getServer().getNamespaceTable())
+              .map(NodeId::expanded)
+              .orElse(item.getTargetNodeId());
+      final Reference reference =
+          new Reference(
+              sourceId,
+              item.getReferenceTypeId(),
+              targetId,
+              !Boolean.FALSE.equals(item.getIsForward()));
+      if (!getServer()
+          .getAddressSpaceManager()
+          .getManagedReferences(sourceId)
+          .contains(reference)) {
+        results.add(REFERENCE_NOT_FOUND);
+        continue;
+      }
+      unlinkReference(reference, Boolean.TRUE.equals(item.getDeleteBidirectional()));
+      results.add(StatusCode.GOOD);
+    }
+    context.success(results);
+  }
+
+  /**
+   * Writes the values of the {@link UaVariableNode}s of this namespace directly, which is what the
+   * IoTDB sink does for every event, and those of the lazy variables to their slots without
+   * creating their nodes. The other writes, and the values that the fast path cannot validate
+   * cheaply, go through Milo's generic attribute writer.
+   */
+  @Override
+  public void write(final WriteContext context, final List<WriteValue> writeValues) {
+    context.success(write(new AttributeContext(context), writeValues));
+  }
+
+  /** Writes the values like the Write service, also for the values ingested by the server. */
+  List<StatusCode> write(final AttributeContext context, final List<WriteValue> writeValues) {
+    final long startTime = System.nanoTime();
+    final List<StatusCode> results = new ArrayList<>(writeValues.size());
+
+    // Resolve all nodes before writing, and share one server timestamp for the whole request
+    final UaNode[] nodes = new UaNode[writeValues.size()];
+    final OpcUaLazyNode[] records = new OpcUaLazyNode[writeValues.size()];
+    // The items of one request usually share the same device, resolve its entry only once
+    String parentPath = null;
+    OpcUaNodeTrie.Entry parentEntry = null;
+    for (int i = 0; i < nodes.length; ++i) {
+      final NodeId nodeId = writeValues.get(i).getNodeId();
+      final String path = Objects.nonNull(lazyNodes) ? getTriePath(nodeId) : null;
+      if (Objects.isNull(path)) {
+        nodes[i] = getNodeManager().get(nodeId);
+        continue;
+      }
+      final int last = path.lastIndexOf(OpcUaNodeTrie.SEPARATOR);
+      if (last > 0
+          && !(Objects.nonNull(parentPath)
+              && parentPath.length() == last
+              && path.startsWith(parentPath))) {
+        parentPath = path.substring(0, last);
+        parentEntry = nodeTrie.getEntry(parentPath);
+      }
+      OpcUaNodeTrie.Entry entry =
+          last > 0 && Objects.nonNull(parentEntry) ? parentEntry.find(path, last + 1) : null;
+      // Also when the parent's entry has been removed and created again meanwhile
+      if (Objects.isNull(entry) || Objects.isNull(entry.getLazyNode())) {
+        entry = nodeTrie.getEntry(path);
+      }
+      records[i] = Objects.nonNull(entry) ? entry.getLazyNode() : null;
+      if (Objects.isNull(records[i])) {
+        nodes[i] = getNodeManager().get(nodeId);
+      }
+    }
+    final DateTime now = DateTime.now();
+
+    for (int i = 0; i < nodes.length; ++i) {
+      final WriteValue writeValue = writeValues.get(i);
+      final OpcUaLazyNode record = records[i];
+      if (Objects.nonNull(record)) {
+        final StatusCode lazyFastPathResult =
+            enableWriteFastPath
+                    && record.isVariable()
+                    && AttributeId.Value.isEqual(writeValue.getAttributeId())
+                    && Objects.isNull(writeValue.getIndexRange())
+                ? writeLazyValueFast(writeValue.getNodeId(), record, writeValue.getValue(), now)
+                : null;
+        if (Objects.nonNull(lazyFastPathResult)) {
+          results.add(lazyFastPathResult);
+          continue;
+        }
+        nodes[i] = lazyNodes.getNode(writeValue.getNodeId(), record);
+      }
+      final UaNode node = nodes[i];
+      if (Objects.isNull(node)) {
+        results.add(NODE_ID_UNKNOWN);
+        continue;
+      }
+      if (Objects.nonNull(nodeEviction)) {
+        nodeEviction.touch(node.getNodeId());
+      }
+
+      final StatusCode fastPathResult =
+          enableWriteFastPath
+                  && node instanceof UaVariableNode
+                  && AttributeId.Value.isEqual(writeValue.getAttributeId())
+                  && Objects.isNull(writeValue.getIndexRange())
+              ? writeValueFast((UaVariableNode) node, writeValue.getValue(), now)
+              : null;
+      if (Objects.nonNull(fastPathResult)) {
+        results.add(fastPathResult);
+        continue;
+      }
+
+      try {
+        node.writeAttribute(
+            context,
+            writeValue.getAttributeId(),
+            writeValue.getValue(),
+            writeValue.getIndexRange());
+        if (Objects.nonNull(history)
+            && node instanceof UaVariableNode
+            && AttributeId.Value.isEqual(writeValue.getAttributeId())) {
+          history.record(node.getNodeId(), ((UaVariableNode) node).getValue());
+        }
+        results.add(StatusCode.GOOD);
+      } catch (final UaException e) {
+        LOGGER.warn("Unable to write value {} to {}", writeValue.getValue(), node.getNodeId(), e);
+        results.add(e.getStatusCode());
+      }
+    }
+
+    metrics.onWrite(results, System.nanoTime() - startTime);
+    return results;
+  }
+
+  /**
+   * Performs the checks of Milo's attribute writer for a scalar value of a built-in data type,
+   * without allocating the access level sets and contexts.
+   *
+   * @return the result of the write, or {@code null} if the generic writer must handle it
+   */
+  private StatusCode writeValueFast(
+      final UaVariableNode node, final DataValue value, final DateTime now) {
+    final StatusCode checkResult =
+        checkValueFast(
+            node.getAccessLevel(),
+            node.getUserAccessLevel(),
+            node.getDataType(),
+            node.getValueRank(),
+            value);
+    if (Objects.isNull(checkResult) || !checkResult.isGood()) {
+      return checkResult;
+    }
+
+    final DataValue newValue = withTimestamps(value, now);
+    node.setValue(newValue);
+    if (Objects.nonNull(history)) {
+      history.record(node.getNodeId(), newValue);
+    }
+    return StatusCode.GOOD;
+  }
+
+  /**
+   * Same as {@link #writeValueFast(UaVariableNode, DataValue, DateTime)} for a lazy variable, whose
+   * value is written to its slot, or through its node if it is pinned for monitoring.
+   */
+  private StatusCode writeLazyValueFast(
+      final NodeId nodeId, final OpcUaLazyNode record, final DataValue value, final DateTime now) {
+    final StatusCode checkResult =
+        checkValueFast(
+            record.getAccessLevel(),
+            record.getUserAccessLevel(),
+            record.getDataType(),
+            record.getValueRank(),
+            value);
+    if (Objects.isNull(checkResult) || !checkResult.isGood()) {
+      return checkResult;
+    }
+
+    final DataValue newValue = withTimestamps(value, now);
+    final UaNode pinnedNode = lazyNodes.setValue(record, newValue);
+    if (Objects.nonNull(pinnedNode)) {
+      ((UaVariableNode) pinnedNode).setValue(newValue);
+    }
+    if (Objects.nonNull(history)) {
+      history.record(nodeId, newValue);
+    }
+    return StatusCode.GOOD;
+  }
+
+  /**
+   * Checks the access levels, and that the value is a scalar of the built-in data type.
+   *
+   * @return {@link StatusCode#GOOD} if the value can be written, the result of the write if it
+   *     cannot, or {@code null} if the generic writer must handle it
+   */
+  private static StatusCode checkValueFast(
+      final UByte accessLevel,
+      final UByte userAccessLevel,
+      final NodeId dataType,
+      final Integer valueRank,
+      final DataValue value) {
+    if (Objects.isNull(accessLevel)
+        || (accessLevel.intValue() & AccessLevel.CurrentWrite.getValue()) == 0) {
+      return NOT_WRITABLE;
+    }
+    if (Objects.isNull(userAccessLevel)
+        || (userAccessLevel.intValue() & AccessLevel.CurrentWrite.getValue()) == 0) {
+      return USER_ACCESS_DENIED;
+    }
+
+    final Object object = value.getValue().getValue();
+    if (Objects.isNull(dataType)
+        || !TypeUtil.isBuiltin(dataType)
+        || Objects.isNull(object)
+        || object.getClass().isArray()
+        || Objects.isNull(valueRank)
+        || valueRank != ValueRanks.Scalar && valueRank != ValueRanks.Any
+        || !TypeUtil.getBackingClass(dataType).isAssignableFrom(object.getClass())) {
+      return null;
+    }
+    return StatusCode.GOOD;
+  }
+
+  /** Fills the missing timestamps of a written value with the time of the request. */
+  private static DataValue withTimestamps(final DataValue value, final DateTime now) {
+    final DateTime sourceTime = value.getSourceTime();
+    final DateTime serverTime = value.getServerTime();
+    final boolean sourceTimeMissing = Objects.isNull(sourceTime) || sourceTime.isNull();
+    final boolean serverTimeMissing = Objects.isNull(serverTime) || serverTime.isNull();
+    return sourceTimeMissing || serverTimeMissing
+        ? new DataValue(
+            value.getValue(),
+            value.getStatusCode(),
+            sourceTimeMissing ? now : sourceTime,
+            serverTimeMissing ? now : serverTime)
+        : value;
+  }
+
+  /**
+   * Keeps the variables read by the clients from being evicted, and reads the nodes of both node
+   * managers.
+   */
+  @Override
+  public void read(
+      final ReadContext context,
+      final Double maxAge,
+      final TimestampsToReturn timestamps,
+      final List<ReadValueId> readValueIds) {
+    if (Objects.nonNull(nodeEviction)) {
+      readValueIds.forEach(readValueId -> nodeEviction.touch(readValueId.getNodeId()));
+    }
+    final List<DataValue> results = new ArrayList<>(readValueIds.size());
+    for (final ReadValueId readValueId : readValueIds) {
+      final UaNode node = getNode(readValueId.getNodeId());
+      results.add(
+          Objects.nonNull(node)
+              ? node.readAttribute(
+                  new AttributeContext(context),
+                  readValueId.getAttributeId(),
+                  timestamps,
+                  readValueId.getIndexRange(),
+                  readValueId.getDataEncoding())
+              : new DataValue(NODE_ID_UNKNOWN));
+    }
+    context.success(results);
+  }
+
+  @Override
+  public void browse(final BrowseContext context, final ViewDescription view, final NodeId nodeId) {
+    if (containsNode(nodeId)) {
+      context.success(getNodeReferences(nodeId));
+    } else {
+      context.failure(NODE_ID_UNKNOWN);
+    }
+  }
+
+  @Override
+  public void getReferences(
+      final BrowseContext context, final ViewDescription view, final NodeId nodeId) {
+    context.success(getNodeReferences(nodeId));
+  }
+
+  /**
+   * Serves the raw history of the variables from {@link OpcUaHistory}, see {@link
+   * #write(WriteContext, List)} for where it is recorded.
+   */
+  @Override
+  public void historyRead(
+      final HistoryReadContext context,
+      final HistoryReadDetails readDetails,
+      final TimestampsToReturn timestamps,
+      final List<HistoryReadValueId> readValueIds) {
+    if (Objects.isNull(history)) {
+      super.historyRead(context, readDetails, timestamps, readValueIds);
+      return;
+    }
+    if (Objects.nonNull(nodeEviction)) {
+      readValueIds.forEach(readValueId -> nodeEviction.touch(readValueId.getNodeId()));
+    }
+    final List<HistoryReadResult> results = new ArrayList<>(readValueIds.size());
+    history.read(context.getSession().orElse(null), readDetails, timestamps, readValueIds, results);
+    context.success(results);
+  }
+
+  /**
+   * Shares the display name of a node, but not of a record, which only keeps the names that differ
+   * from its path.
+   */
+  private LocalizedText internDisplayName(final LocalizedText displayName, final boolean isRecord) {
+    return isRecord ? displayName : interner.intern(displayName);
+  }
+
+  /** Lets the clients know that the variables can be history-read when the history is enabled. */
+  private UByte withHistoryRead(final UByte accessLevel) {
+    return Objects.nonNull(history) && Objects.nonNull(accessLevel)
+        ? UByte.valueOf(accessLevel.intValue() | AccessLevel.HistoryRead.getValue())
+        : accessLevel;
+  }
+
+  private UaVariableNode.UaVariableNodeBuilder newVariableNodeBuilder(
+      final UaNodeContext nodeContext) {
+    return Objects.nonNull(valueStore)
+        ? new OpcUaVariableNode.OpcUaVariableNodeBuilder(nodeContext, valueStore)
+        : new UaVariableNode.UaVariableNodeBuilder(nodeContext);
+  }
+
+  private void loadSnapshot() {
+    final long startTime = System.currentTimeMillis();
+    try {
+      final int nodeCount =
+          snapshot.load(
+              (node, typeDefinition) -> registerNode(node, typeDefinition, getTrieEntry(node)));
+      if (nodeCount > 0) {
+        LOGGER.info(
+            "Restored {} nodes from snapshot {} in {}ms",
+            nodeCount,
+            snapshot.getFile(),
+            System.currentTimeMillis() - startTime);
+      }
+    } catch (final Exception e) {
+      // Starting empty is still better than not starting, the pipes will re-create the nodes
+      LOGGER.warn(
+          "Failed to load snapshot {}, starting with an empty namespace, because {}.",
+          snapshot.getFile(),
+          e.getMessage());
+    }
+  }
+
+  private void saveSnapshot() {
+    final long startTime = System.currentTimeMillis();
+    try {
+      final int nodeCount = snapshot.save();
+      LOGGER.info(
+          "Saved {} nodes to snapshot {} in {}ms",
+          nodeCount,
+          snapshot.getFile(),
+          System.currentTimeMillis() - startTime);
+    } catch (final Exception e) {
+      LOGGER.warn("Failed to save snapshot {}, because {}.", snapshot.getFile(), e.getMessage());
+    }
+  }
+
+  // Reschedules itself instead of a fixed rate, so that a slow snapshot never piles up
+  private synchronized void scheduleSnapshot() {
+    if (snapshotIntervalSeconds <= 0 || snapshotCancelled) {
+      return;
+    }
+    scheduledSnapshot =
+        getServer()
+            .getScheduledExecutorService()
+            .schedule(
+                () -> {
+                  saveSnapshot();
+                  scheduleSnapshot();
+                },
+                snapshotIntervalSeconds,
+                TimeUnit.SECONDS);
+  }
+
+  private synchronized void cancelSnapshot() {
+    snapshotCancelled = true;
+    if (Objects.nonNull(scheduledSnapshot)) {
+      scheduledSnapshot.cancel(false);
+    }
+  }
+
+  private OpcUaNodeTrie.Entry getTrieEntry(final UaNode node) {
+    final String path = getTriePath(node.getNodeId());
+    return Objects.nonNull(path) ? nodeTrie.getOrCreateEntry(path) : null;
+  }
+
+  /** Returns the entry of a path, walked from the parent's entry if it is a child of the parent. */
+  private OpcUaNodeTrie.Entry getOrCreateTrieEntry(
+      final String path, final OpcUaNodeTrie.Entry parentEntry, final int offset) {
+    final OpcUaNodeTrie.Entry childEntry =
+        offset > 0 ? nodeTrie.findOrCreate(parentEntry, path, offset) : null;
+    // Also when the parent's entry has been removed along with an evicted parent
+    return Objects.nonNull(childEntry) ? childEntry : nodeTrie.getOrCreateEntry(path);
+  }
+
+  /**
+   * Registers a new node, or its record in place of it for the lazy nodes, and returns {@code
+   * false} if its nodeId is taken.
+   */
+  private boolean registerNode(
+      final UaNode newNode, final NodeId typeDefinition, final OpcUaNodeTrie.Entry entry) {
+    if (Objects.nonNull(entry)) {
+      final OpcUaLazyNode record =
+          Objects.nonNull(lazyNodes) ? lazyNodes.newRecord(newNode, typeDefinition) : null;
+      final Object registered = Objects.nonNull(record) ? record : newNode;
+      OpcUaNodeTrie.Entry current = entry;
+      while (!current.claim(registered)) {
+        if (current.hasNode()) {
+          discardNode(newNode, record);
+          return false;
+        }
+        // The entry has been removed along with an evicted node, resolve it again
+        current = nodeTrie.getOrCreateEntry(getTriePath(newNode.getNodeId()));
+      }
+      if (Objects.isNull(record)) {
+        getNodeManager().addNode(newNode);
+      }
+      onNodeRegistered(newNode);
+      return true;
+    }
+
+    final Lock nodeIdLock = nodeIdLocks.get(newNode.getNodeId());
+    nodeIdLock.lock();
+    try {
+      if (getNodeManager().containsNode(newNode.getNodeId())) {
+        discardNode(newNode, null);
+        return false;
+      }
+      getNodeManager().addNode(newNode);
+      onNodeRegistered(newNode);
+      return true;
+    } finally {
+      nodeIdLock.unlock();
+    }
+  }
+
+  /** Frees the slot of a node, or of its record, that has not been registered. */
+  private void discardNode(final UaNode newNode, final OpcUaLazyNode record) {
+    if (Objects.nonNull(record)) {
+      lazyNodes.discard(record);
+    } else if (newNode instanceof OpcUaVariableNode) {
+      ((OpcUaVariableNode) newNode).release();
+    }
+  }
+
+  private void onNodeRegistered(final UaNode newNode) {
+    metrics.onNodeAdded();
+    if (Objects.nonNull(nodeEviction) && newNode instanceof UaVariableNode) {
+      nodeEviction.track(newNode.getNodeId());
+    }
+  }
+
+  /**
+   * Evicts an idle variable, then its parents left empty, and returns the number of nodes evicted.
+   * A write racing with the eviction is dropped, the next ones fail with Bad_NodeIdUnknown.
+   */
+  private int evictNode(final NodeId nodeId) {
+    final UaNode node = getNodeManager().get(nodeId);
+    if (!(node instanceof UaVariableNode)) {
+      return 0;
+    }
+    final List<NodeId> parentIds = getParentIds(nodeId);
+    if (!removeNode(nodeId)) {
+      return 0;
+    }
+    int evicted = 1;
+    for (final NodeId parentId : parentIds) {
+      evicted += evictIfEmpty(parentId);
+    }
+    metrics.onNodesEvicted(evicted);
+    return evicted;
+  }
+
+  /** Evicts a folder or object of this namespace without children, then its parents likewise. */
+  private int evictIfEmpty(final NodeId nodeId) {
+    final UaNode node = getNodeManager().get(nodeId);
+    if (!(node instanceof UaObjectNode)
+        || hasChildren(nodeId)
+        || subscriptionModel.isMonitored(nodeId)) {
+      return 0;
+    }
+    final List<NodeId> parentIds = getParentIds(nodeId);
+    if (!getNodeManager().removeNode(nodeId).isPresent()) {
+      return 0;
+    }
+    // A child linked before the removal keeps the node, the ones linked after it are undone by
+    // their AddNodes
+    if (hasChildren(nodeId)) {
+      getNodeManager().addNode(node);
+      return 0;
+    }
+    releaseNode(node, true);
+    int evicted = 1;
+    for (final NodeId parentId : parentIds) {
+      evicted += evictIfEmpty(parentId);
+    }
+    return evicted;
+  }
+
+  /**
+   * Removes the node and its subtree, returns {@code false} if it does not exist or has already
+   * been removed. Each node leaves its node manager before its children are listed, so that the
+   * AddNodes linking a child to it concurrently either shows up in the list or is undone, see
+   * {@link #addNodes(AddNodesContext, List)}.
+   */
+  private boolean deleteSubtree(final NodeId rootId, final boolean deleteTargetReferences) {
+    final UaNode root = detachNode(rootId);
+    if (Objects.isNull(root)) {
+      return false;
+    }
+    // Each node is removed from the node manager once, even if reachable through several parents
+    final List<UaNode> removed = new ArrayList<>();
+    removed.add(root);
+    for (int i = 0; i < removed.size(); ++i) {
+      for (final Reference reference : getNodeReferences(removed.get(i).getNodeId())) {
+        if (isChildReference(reference)) {
+          reference
+              .getTargetNodeId()
+              .toNodeId(getServer().getNamespaceTable())
+              .map(this::detachNode)
+              .ifPresent(removed::add);
+        }
+      }
+    }
+    // Children first, so that a parent only has its remaining references left to unlink
+    for (int i = removed.size() - 1; i > 0; --i) {
+      releaseNode(removed.get(i), true);
+    }
+    releaseNode(root, deleteTargetReferences);
+    return true;
+  }
+
+  private boolean hasChildren(final NodeId nodeId) {
+    for (final Reference reference : getNodeReferences(nodeId)) {
+      if (isChildReference(reference)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isChildReference(final Reference reference) {
+    return reference.isForward()
+        && !Identifiers.HasTypeDefinition.equals(reference.getReferenceTypeId());
+  }
+
+  /** Returns the parents of the node that belong to this namespace. */
+  private List<NodeId> getParentIds(final NodeId nodeId) {
+    final List<NodeId> parentIds = new ArrayList<>(1);
+    for (final Reference reference : getNodeReferences(nodeId)) {
+      if (reference.isInverse()
+          && !Identifiers.HasTypeDefinition.equals(reference.getReferenceTypeId())) {
+        reference
+            .getTargetNodeId()
+            .toNodeId(getServer().getNamespaceTable())
+            .filter(this::containsNode)
+            .ifPresent(parentIds::add);
+      }
+    }
+    return parentIds;
+  }
+
+  /** Removes a node of this namespace, returns {@code false} if it has already been removed. */
+  private boolean removeNode(final NodeId nodeId) {
+    final UaNode node = detachNode(nodeId);
+    if (Objects.isNull(node)) {
+      return false;
+    }
+    releaseNode(node, true);
+    return true;
+  }
+
+  /**
+   * Removes a node, or its record, from its node manager and returns it to be released, or {@code
+   * null} if it does not exist or has already been removed.
+   */
+  private UaNode detachNode(final NodeId nodeId) {
+    final UaNode node = getNodeManager().removeNode(nodeId).orElse(null);
+    return Objects.nonNull(node) || Objects.isNull(lazyNodes) ? node : lazyNodes.detach(nodeId);
+  }
+
+  /** Returns the node of this namespace, created from its record for a lazy node. */
+  UaNode getNode(final NodeId nodeId) {
+    final UaNode node = getNodeManager().get(nodeId);
+    return Objects.nonNull(node) || Objects.isNull(lazyNodes)
+        ? node
+        : lazyNodes.getNode(nodeId).orElse(null);
+  }
+
+  boolean containsNode(final NodeId nodeId) {
+    return getNodeManager().containsNode(nodeId)
+        || Objects.nonNull(lazyNodes) && lazyNodes.containsNode(nodeId);
+  }
+
+  /**
+   * Returns the references of a node kept by this namespace, i.e. those of both node managers for
+   * the lazy nodes.
+   */
+  List<Reference> getNodeReferences(final NodeId nodeId) {
+    final List<Reference> references = getNodeManager().getReferences(nodeId);
+    if (Objects.isNull(lazyNodes)) {
+      return references;
+    }
+    final List<Reference> lazyReferences = lazyNodes.getReferences(nodeId);
+    if (references.isEmpty()) {
+      return lazyReferences;
+    }
+    final List<Reference> allReferences =
+        new ArrayList<>(references.size() + lazyReferences.size());
+    allReferences.addAll(references);
+    allReferences.addAll(lazyReferences);
+    return allReferences;
+  }
+
+  /**
+   * Whether the references of all the nodes of this namespace are indexed by {@link
+   * #getNodeManager()}, i.e. unless some are derived from the records of the lazy nodes.
+   */
+  boolean isReferenceIndexed() {
+    return Objects.isNull(lazyNodes);
+  }
+
+  /** Returns the type definition of a node of this namespace, or {@code null} if it has none. */
+  ExpandedNodeId getTypeDefinition(final NodeId nodeId) {
+    final OpcUaLazyNode lazyNode =
+        Objects.nonNull(lazyNodes) ? lazyNodes.getLazyNode(nodeId) : null;
+    if (Objects.nonNull(lazyNode)) {
+      return lazyNode.getTypeDefinition().expanded();
+    }
+    final List<Reference> references = new ArrayList<>(1);
+    nodeManager.getReferences(
+        nodeId,
+        OpcUaNodeManager.Position.START,
+        (referenceTypeId, forward) ->
+            forward && Identifiers.HasTypeDefinition.equals(referenceTypeId),
+        1,
+        references);
+    return references.isEmpty() ? null : references.get(0).getTargetNodeId();
+  }
+
+  /**
+   * Unlinks the references of a node removed from the node manager, and frees what the namespace
+   * keeps for it. The references of the parents to the node are only unlinked with {@code
+   * unlinkParents}.
+   */
+  private void releaseNode(final UaNode node, final boolean unlinkParents) {
+    final NodeId nodeId = node.getNodeId();
+    for (final Reference reference :
+        getServer().getAddressSpaceManager().getManagedReferences(nodeId)) {
+      unlinkReference(
+          reference,
+          unlinkParents
+              || reference.isForward()
+              || Identifiers.HasTypeDefinition.equals(reference.getReferenceTypeId()));
+    }
+
+    final String path = getTriePath(nodeId);
+    final OpcUaNodeTrie.Entry entry = Objects.nonNull(path) ? nodeTrie.getEntry(path) : null;
+    if (Objects.nonNull(entry)) {
+      nodeTrie.remove(entry, node);
+    }
+    if (node instanceof OpcUaVariableNode) {
+      ((OpcUaVariableNode) node).release();
+    }
+    if (Objects.nonNull(history)) {
+      history.release(nodeId);
+    }
+    if (Objects.nonNull(nodeEviction)) {
+      nodeEviction.untrack(nodeId);
+    }
+    subscriptionModel.onNodeRemoved(node);
+    metrics.onNodeRemoved();
+  }
+
+  /** Removes a reference of a node of this namespace, and its inverse if {@code bidirectional}. */
+  private void unlinkReference(final Reference reference, final boolean bidirectional) {
+    final NamespaceTable namespaceTable = getServer().getNamespaceTable();
+    // The references with the nodes of other namespaces, e.g. the Objects folder, are also kept by
+    // their node managers
+    final NodeManager<UaNode> targetNodeManager =
+        getServer()
+            .getAddressSpaceManager()
+            .getManagedNode(reference.getTargetNodeId())
+            .map(UaNode::getNodeManager)
+            .filter(nodeManager -> nodeManager != getNodeManager() && nodeManager != lazyNodes)
+            .orElse(null);
+    if (bidirectional) {
+      getNodeManager().removeReferences(reference, namespaceTable);
+      if (Objects.nonNull(lazyNodes)) {
+        lazyNodes.removeReferences(reference, namespaceTable);
+      }
+      if (Objects.nonNull(targetNodeManager)) {
+        targetNodeManager.removeReferences(reference, namespaceTable);
+      }
+    } else {
+      getNodeManager().removeReference(reference);
+      if (Objects.nonNull(lazyNodes)) {
+        lazyNodes.removeReference(reference);
+      }
+      if (Objects.nonNull(targetNodeManager)) {
+        targetNodeManager.removeReference(reference);
+      }
+    }
+  }
+
+  /**
+   * Returns the IoTDB path indexed by the {@link OpcUaNodeTrie} for string nodeIds of this
+   * namespace, or {@code null} for the nodeIds that are not indexed.
+   */
+  private String getTriePath(final NodeId nodeId) {
+    return nodeId.getType() == IdType.String
+            && nodeId.getNamespaceIndex().equals(getNamespaceIndex())
+        ? (String) nodeId.getIdentifier()
+        : null;
+  }
+
+  /**
+   * Pins the nodes of the lazy variables whose values get monitored, so that their writes notify
+   * the same node as long as they are monitored.
+   */
   @Override
   public void onDataItemsCreated(final List<DataItem> dataItems) {
-    subscriptionModel.onDataItemsCreated(dataItems);
+    if (Objects.isNull(lazyNodes)) {
+      subscriptionModel.onDataItemsCreated(dataItems);
+      return;
+    }
+    final List<DataItem> otherItems = new ArrayList<>(dataItems.size());
+    for (final DataItem item : dataItems) {
+      final OpcUaLazyNode record = getMonitoredRecord(item);
+      if (Objects.isNull(record)) {
+        otherItems.add(item);
+        continue;
+      }
+      // Before a concurrent write can skip the node
+      synchronized (record) {
+        lazyNodes.pin(item.getReadValueId().getNodeId(), record);
+        subscriptionModel.onDataItemsCreated(Collections.singletonList(item));
+      }
+    }
+    if (!otherItems.isEmpty()) {
+      subscriptionModel.onDataItemsCreated(otherItems);
+    }
   }
 
   @Override
@@ -216,6 +1256,29 @@ public class OpcUaNameSpace extends ManagedNamespaceWithLifecycle {
   @Override
   public void onDataItemsDeleted(final List<DataItem> dataItems) {
     subscriptionModel.onDataItemsDeleted(dataItems);
+    deadbandFilters.onDataItemsDeleted(dataItems);
+    if (Objects.isNull(lazyNodes)) {
+      return;
+    }
+    for (final DataItem item : dataItems) {
+      final OpcUaLazyNode record = getMonitoredRecord(item);
+      if (Objects.nonNull(record)) {
+        synchronized (record) {
+          if (!subscriptionModel.isMonitored(item.getReadValueId().getNodeId())) {
+            lazyNodes.unpin(record);
+          }
+        }
+      }
+    }
+  }
+
+  /** Returns the record of the lazy variable whose value the item monitors, if any. */
+  private OpcUaLazyNode getMonitoredRecord(final DataItem item) {
+    if (!AttributeId.Value.isEqual(item.getReadValueId().getAttributeId())) {
+      return null;
+    }
+    final OpcUaLazyNode record = lazyNodes.getLazyNode(item.getReadValueId().getNodeId());
+    return Objects.nonNull(record) && record.isVariable() ? record : null;
   }
 
   @Override
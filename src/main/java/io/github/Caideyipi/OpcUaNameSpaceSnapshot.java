@@ -0,0 +1,445 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import com.google.common.collect.Iterables;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.UaNodeManager;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNodeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaObjectNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.serialization.OpcUaBinaryStreamDecoder;
+import org.eclipse.milo.opcua.stack.core.serialization.OpcUaBinaryStreamEncoder;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Binary snapshot of the nodes created by {@link OpcUaNameSpace}, so that a restarted server can
+ * serve the previous address space before the IoTDB pipes re-create it.
+ *
+ * <p>The file starts with a magic number and a version, followed by length-prefixed records in OPC
+ * UA binary encoding: one record per node with its attributes and last value, then one record per
+ * non-type-definition reference. The snapshot is written to a temporary file which replaces the
+ * previous one atomically, and is read back through memory-mapped windows so that its size is not
+ * bounded by the heap. The reference records are staged in a second temporary file while the nodes
+ * are written, so that neither the saving nor the loading keeps them in memory.
+ */
+class OpcUaNameSpaceSnapshot {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaNameSpaceSnapshot.class);
+
+  static final String FILE_NAME = "namespace.snapshot";
+
+  private static final int MAGIC = 0x494f5043;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+
+  private static final byte NODE_RECORD = 1;
+  private static final byte REFERENCE_RECORD = 2;
+
+  private static final int FLUSH_THRESHOLD = 1 << 20;
+  private static final int MAP_WINDOW_SIZE = 64 << 20;
+
+  private final OpcUaServer server;
+  private final UaNodeContext nodeContext;
+  private final UaNodeManager nodeManager;
+  private final OpcUaInterner interner;
+  // Null unless the nodes of the IoTDB paths are lazy
+  private final OpcUaLazyNodeManager lazyNodes;
+  private final Supplier<UaVariableNode.UaVariableNodeBuilder> variableNodeBuilder;
+  // The nodes that the server creates itself on every startup, which are not saved
+  private final Predicate<NodeId> serverNodes;
+  private final Path file;
+
+  OpcUaNameSpaceSnapshot(
+      final OpcUaServer server,
+      final UaNodeContext nodeContext,
+      final UaNodeManager nodeManager,
+      final OpcUaInterner interner,
+      final OpcUaLazyNodeManager lazyNodes,
+      final Supplier<UaVariableNode.UaVariableNodeBuilder> variableNodeBuilder,
+      final Predicate<NodeId> serverNodes,
+      final Path dataDir) {
+    this.server = server;
+    this.nodeContext = nodeContext;
+    this.nodeManager = nodeManager;
+    this.interner = interner;
+    this.lazyNodes = lazyNodes;
+    this.variableNodeBuilder = variableNodeBuilder;
+    this.serverNodes = serverNodes;
+    this.file = dataDir.resolve(FILE_NAME);
+  }
+
+  Path getFile() {
+    return file;
+  }
+
+  /**
+   * Writes all nodes of the node manager, and of the lazy records if any, their links to the
+   * parents and last values.
+   *
+   * @return the number of written nodes
+   */
+  synchronized int save() throws IOException {
+    final Path tmpFile = file.resolveSibling(FILE_NAME + ".tmp");
+    final Path referencesFile = file.resolveSibling(FILE_NAME + ".references.tmp");
+    final ByteBuf buffer = PooledByteBufAllocator.DEFAULT.buffer(FLUSH_THRESHOLD * 2);
+    final ByteBuf referencesBuffer = PooledByteBufAllocator.DEFAULT.buffer(FLUSH_THRESHOLD * 2);
+    final OpcUaBinaryStreamEncoder encoder =
+        new OpcUaBinaryStreamEncoder(server.getSerializationContext()).setBuffer(buffer);
+    final OpcUaBinaryStreamEncoder referencesEncoder =
+        new OpcUaBinaryStreamEncoder(server.getSerializationContext()).setBuffer(referencesBuffer);
+
+    int nodeCount = 0;
+    try (final FileChannel channel =
+            FileChannel.open(
+                tmpFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        final FileChannel referencesChannel =
+            FileChannel.open(
+                referencesFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+      buffer.writeInt(MAGIC).writeInt(VERSION);
+
+      final Iterable<UaNode> nodes =
+          Objects.nonNull(lazyNodes)
+              ? Iterables.concat(nodeManager.getNodes(), lazyNodes.getLazyNodes())
+              : nodeManager.getNodes();
+      for (final UaNode node : nodes) {
+        if (!(node instanceof UaVariableNode || node instanceof UaObjectNode)
+            || serverNodes.test(node.getNodeId())) {
+          continue;
+        }
+        final int start = startRecord(buffer, NODE_RECORD);
+        encodeNode(encoder, node);
+        endRecord(buffer, start);
+        ++nodeCount;
+        if (buffer.readableBytes() >= FLUSH_THRESHOLD) {
+          flush(buffer, channel);
+        }
+
+        for (final Reference reference : getLinks(node)) {
+          final int referenceStart = startRecord(referencesBuffer, REFERENCE_RECORD);
+          referencesEncoder.writeNodeId(reference.getSourceNodeId());
+          referencesEncoder.writeNodeId(reference.getReferenceTypeId());
+          referencesEncoder.writeExpandedNodeId(reference.getTargetNodeId());
+          endRecord(referencesBuffer, referenceStart);
+        }
+        if (referencesBuffer.readableBytes() >= FLUSH_THRESHOLD) {
+          flush(referencesBuffer, referencesChannel);
+        }
+      }
+
+      // The reference records follow all node records
+      flush(buffer, channel);
+      flush(referencesBuffer, referencesChannel);
+      final long referencesSize = referencesChannel.size();
+      long transferred = 0;
+      while (transferred < referencesSize) {
+        transferred +=
+            referencesChannel.transferTo(transferred, referencesSize - transferred, channel);
+      }
+      channel.force(false);
+    } finally {
+      buffer.release();
+      referencesBuffer.release();
+    }
+
+    Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return nodeCount;
+  }
+
+  /**
+   * Restores the nodes of the snapshot through {@code registrar}, which is given their type
+   * definitions and returns {@code false} for the nodes that already exist, then links the restored
+   * nodes to their parents.
+   *
+   * @return the number of restored nodes
+   */
+  int load(final BiPredicate<UaNode, NodeId> registrar) throws IOException {
+    if (!Files.exists(file)) {
+      return 0;
+    }
+
+    final OpcUaBinaryStreamDecoder decoder =
+        new OpcUaBinaryStreamDecoder(server.getSerializationContext());
+    int nodeCount = 0;
+
+    try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size < HEADER_SIZE) {
+        throw new IOException("Truncated snapshot file: " + file);
+      }
+
+      long position = 0;
+      int windowSize = MAP_WINDOW_SIZE;
+      boolean header = true;
+      while (position < size) {
+        final ByteBuf window =
+            Unpooled.wrappedBuffer(
+                channel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    position,
+                    Math.min(windowSize, size - position)));
+        if (header) {
+          if (window.readInt() != MAGIC || window.readInt() != VERSION) {
+            throw new IOException("Unrecognized snapshot file: " + file);
+          }
+          header = false;
+        }
+
+        // Decode the complete records of this window, the rest is mapped again with the next one
+        while (window.readableBytes() >= Integer.BYTES) {
+          final int length = window.getInt(window.readerIndex());
+          if (window.readableBytes() < Integer.BYTES + length) {
+            break;
+          }
+          final ByteBuf record = window.skipBytes(Integer.BYTES).readSlice(length);
+          decoder.setBuffer(record);
+          if (record.readByte() == NODE_RECORD) {
+            if (restoreNode(decoder, registrar)) {
+              ++nodeCount;
+            }
+          } else {
+            // All nodes are restored by now, since the references follow them
+            link(
+                new Reference(
+                    decoder.readNodeId(),
+                    decoder.readNodeId(),
+                    decoder.readExpandedNodeId(),
+                    true));
+          }
+        }
+
+        if (window.readerIndex() == 0) {
+          // A single record is larger than the window
+          if (window.readableBytes() < Integer.BYTES || windowSize == Integer.MAX_VALUE) {
+            throw new IOException("Truncated snapshot file: " + file);
+          }
+          windowSize = (int) Math.min(Integer.MAX_VALUE, Integer.BYTES + (long) window.getInt(0));
+          continue;
+        }
+        position += window.readerIndex();
+        windowSize = MAP_WINDOW_SIZE;
+      }
+    }
+    return nodeCount;
+  }
+
+  private void link(final Reference reference) {
+    final Optional<UaNode> source =
+        server.getAddressSpaceManager().getManagedNode(reference.getSourceNodeId());
+    if (source.isPresent()) {
+      source.get().addReference(reference);
+    } else {
+      LOGGER.warn("Unable to restore reference {}, because its source does not exist.", reference);
+    }
+  }
+
+  private void encodeNode(final OpcUaBinaryStreamEncoder encoder, final UaNode node) {
+    encoder.writeInt32(node.getNodeClass().getValue());
+    encoder.writeNodeId(node.getNodeId());
+    encoder.writeQualifiedName(node.getBrowseName());
+    encoder.writeLocalizedText(node.getDisplayName());
+    encoder.writeLocalizedText(node.getDescription());
+    encoder.writeUInt32(node.getWriteMask());
+    encoder.writeUInt32(node.getUserWriteMask());
+    encoder.writeNodeId(getTypeDefinition(node));
+
+    if (node instanceof UaVariableNode) {
+      final UaVariableNode variableNode = (UaVariableNode) node;
+      encoder.writeNodeId(variableNode.getDataType());
+      encoder.writeInt32(variableNode.getValueRank());
+      encoder.writeByte(variableNode.getAccessLevel());
+      encoder.writeByte(variableNode.getUserAccessLevel());
+      encoder.writeDouble(variableNode.getMinimumSamplingInterval());
+      encoder.writeDataValue(variableNode.getValue());
+    } else {
+      encoder.writeByte(((UaObjectNode) node).getEventNotifier());
+    }
+  }
+
+  private boolean restoreNode(
+      final OpcUaBinaryStreamDecoder decoder, final BiPredicate<UaNode, NodeId> registrar)
+      throws IOException {
+    final NodeClass nodeClass = NodeClass.from(decoder.readInt32());
+    final NodeId nodeId = interner.intern(decoder.readNodeId());
+    final QualifiedName browseName = interner.intern(decoder.readQualifiedName());
+    final LocalizedText displayName = interner.intern(decoder.readLocalizedText());
+    final LocalizedText description = interner.intern(decoder.readLocalizedText());
+    final UInteger writeMask = decoder.readUInt32();
+    final UInteger userWriteMask = decoder.readUInt32();
+    final NodeId typeDefinition = interner.intern(decoder.readNodeId());
+
+    if (nodeClass == NodeClass.Variable) {
+      final NodeId dataType = interner.intern(decoder.readNodeId());
+      final int valueRank = decoder.readInt32();
+      final UByte accessLevel = decoder.readByte();
+      final UByte userAccessLevel = decoder.readByte();
+      final Double minimumSamplingInterval = decoder.readDouble();
+      final UaVariableNode node =
+          variableNodeBuilder
+              .get()
+              .setNodeId(nodeId)
+              .setAccessLevel(accessLevel)
+              .setUserAccessLevel(userAccessLevel)
+              .setBrowseName(browseName)
+              .setDisplayName(displayName)
+              .setDescription(description)
+              .setDataType(dataType)
+              .setTypeDefinition(typeDefinition)
+              .setValueRank(valueRank)
+              .setWriteMask(writeMask)
+              .setUserWriteMask(userWriteMask)
+              .setMinimumSamplingInterval(minimumSamplingInterval)
+              .build();
+      node.setValue(decoder.readDataValue());
+      return registrar.test(node, typeDefinition);
+    }
+    if (nodeClass != NodeClass.Object) {
+      throw new IOException("Unexpected node class " + nodeClass + " in snapshot file: " + file);
+    }
+
+    // Same construction as AddNodes, so that the restored nodes are indistinguishable
+    final UByte eventNotifier = decoder.readByte();
+    if (typeDefinition.equals(Identifiers.FolderType)) {
+      final UaFolderNode node = new UaFolderNode(nodeContext, nodeId, browseName, displayName);
+      node.setDescription(description);
+      node.setWriteMask(writeMask);
+      node.setUserWriteMask(userWriteMask);
+      node.setEventNotifier(eventNotifier);
+      return registrar.test(node, typeDefinition);
+    }
+    return registrar.test(
+        new UaObjectNode.UaObjectNodeBuilder(nodeContext)
+            .setNodeId(nodeId)
+            .setBrowseName(browseName)
+            .setDisplayName(displayName)
+            .setDescription(description)
+            .setTypeDefinition(typeDefinition)
+            .setWriteMask(writeMask)
+            .setUserWriteMask(userWriteMask)
+            .setEventNotifier(eventNotifier)
+            .build(),
+        typeDefinition);
+  }
+
+  private NodeId getTypeDefinition(final UaNode node) {
+    for (final Reference reference : getOwnReferences(node)) {
+      if (reference.isForward()
+          && reference.getReferenceTypeId().equals(Identifiers.HasTypeDefinition)) {
+        final Optional<NodeId> typeDefinition =
+            reference.getTargetNodeId().toNodeId(server.getNamespaceTable());
+        if (typeDefinition.isPresent()) {
+          return typeDefinition.get();
+        }
+      }
+    }
+    return NodeId.NULL_VALUE;
+  }
+
+  /**
+   * Returns the links of the node as forward references, i.e. its own forward references except the
+   * type definition, plus the inverse references to parents outside of this namespace, e.g. the
+   * Objects folder, which are kept by the node managers of these parents.
+   */
+  private List<Reference> getLinks(final UaNode node) {
+    final List<Reference> links = new ArrayList<>();
+    for (final Reference reference : getOwnReferences(node)) {
+      if (reference.isForward()
+          && !reference.getReferenceTypeId().equals(Identifiers.HasTypeDefinition)) {
+        links.add(reference);
+      }
+    }
+    for (final Reference reference :
+        server.getAddressSpaceManager().getManagedReferences(node.getNodeId())) {
+      if (reference.isInverse() && !isOwnNode(reference)) {
+        reference.invert(server.getNamespaceTable()).ifPresent(links::add);
+      }
+    }
+    return links;
+  }
+
+  /**
+   * Returns the references kept by the node managers of the namespace, which are no longer
+   * registered with the address space when the last snapshot is saved on shutdown.
+   */
+  private Iterable<Reference> getOwnReferences(final UaNode node) {
+    return Objects.nonNull(lazyNodes)
+        ? Iterables.concat(
+            nodeManager.getReferences(node.getNodeId()), lazyNodes.getReferences(node.getNodeId()))
+        : nodeManager.getReferences(node.getNodeId());
+  }
+
+  private boolean isOwnNode(final Reference reference) {
+    return nodeManager.containsNode(reference.getTargetNodeId(), server.getNamespaceTable())
+        || Objects.nonNull(lazyNodes)
+            && lazyNodes.containsNode(reference.getTargetNodeId(), server.getNamespaceTable());
+  }
+
+  private static int startRecord(final ByteBuf buffer, final byte recordType) {
+    final int start = buffer.writerIndex();
+    buffer.writeInt(0).writeByte(recordType);
+    return start;
+  }
+
+  private static void endRecord(final ByteBuf buffer, final int start) {
+    buffer.setInt(start, buffer.writerIndex() - start - Integer.BYTES);
+  }
+
+  private static void flush(final ByteBuf buffer, final FileChannel channel) throws IOException {
+    while (buffer.isReadable()) {
+      buffer.readBytes(channel, buffer.readableBytes());
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.server.AbstractLifecycle;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Keeps the node count of {@link OpcUaNameSpace} within a budget by evicting the least recently
+ * accessed variables, e.g. those of the devices decommissioned upstream which the sinks will never
+ * write again.
+ *
+ * <p>The namespace touches the variables on every Write, Read and HistoryRead. A background round
+ * checks the node count every few seconds: above the budget, it picks the variables neither
+ * accessed within the idle time nor monitored, the oldest first, and has the namespace evict them
+ * along with their emptied folders, until the count is back under {@link #LOW_WATERMARK} of the
+ * budget. A round evicts at most {@link #MAX_EVICTIONS_PER_ROUND} variables and the next one
+ * follows immediately, so that the eviction never stalls the other tasks of the scheduler.
+ */
+class OpcUaNodeEviction extends AbstractLifecycle {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpcUaNodeEviction.class);
+
+  private static final long CHECK_INTERVAL_SECONDS = 10;
+  // The access time is only written again after this delay, so that the variables written
+  // continuously do not store it on every value
+  private static final long TOUCH_GRANULARITY_MILLIS = 1000;
+  // Evicts below the budget, so that a namespace at its budget does not evict on every round
+  private static final double LOW_WATERMARK = 0.9;
+  private static final int MAX_EVICTIONS_PER_ROUND = 10_000;
+
+  private final OpcUaServer server;
+  private final long budget;
+  private final long idleMillis;
+  private final LongSupplier nodeCount;
+  private final Predicate<NodeId> monitored;
+  // Returns the number of nodes evicted along with the variable, 0 if it was not evicted
+  private final ToIntFunction<NodeId> evictor;
+
+  private final ConcurrentMap<NodeId, Access> accesses = new ConcurrentHashMap<>();
+  private boolean budgetExceededLogged;
+
+  private ScheduledFuture<?> scheduledRound;
+  private boolean roundsCancelled;
+
+  OpcUaNodeEviction(
+      final OpcUaServer server,
+      final OpcUaServerBuilder builder,
+      final LongSupplier nodeCount,
+      final Predicate<NodeId> monitored,
+      final ToIntFunction<NodeId> evictor) {
+    this.server = server;
+    this.budget = builder.getNodeBudget();
+    this.idleMillis = TimeUnit.SECONDS.toMillis(builder.getNodeIdleSeconds());
+    this.nodeCount = nodeCount;
+    this.monitored = monitored;
+    this.evictor = evictor;
+  }
+
+  @Override
+  protected void onStartup() {
+    synchronized (this) {
+      roundsCancelled = false;
+    }
+    scheduleRound(CHECK_INTERVAL_SECONDS);
+  }
+
+  @Override
+  protected void onShutdown() {
+    synchronized (this) {
+      roundsCancelled = true;
+      if (Objects.nonNull(scheduledRound)) {
+        scheduledRound.cancel(false);
+      }
+    }
+  }
+
+  /** Makes a new variable a candidate for eviction, as if it had just been accessed. */
+  void track(final NodeId nodeId) {
+    accesses.put(nodeId, new Access(System.currentTimeMillis()));
+  }
+
+  void untrack(final NodeId nodeId) {
+    accesses.remove(nodeId);
+  }
+
+  void touch(final NodeId nodeId) {
+    final Access access = accesses.get(nodeId);
+    if (Objects.nonNull(access)) {
+      final long now = System.currentTimeMillis();
+      if (now - access.time >= TOUCH_GRANULARITY_MILLIS) {
+        access.time = now;
+      }
+    }
+  }
+
+  // Reschedules itself instead of a fixed rate, like the snapshots of the namespace
+  private synchronized void scheduleRound(final long delaySeconds) {
+    if (roundsCancelled) {
+      return;
+    }
+    scheduledRound =
+        server
+            .getScheduledExecutorService()
+            .schedule(
+                () -> {
+                  boolean again = false;
+                  try {
+                    again = evictRound();
+                  } catch (final RuntimeException e) {
+                    LOGGER.warn("Failed to evict the idle nodes, because {}.", e.getMessage());
+                  }
+                  scheduleRound(again ? 0 : CHECK_INTERVAL_SECONDS);
+                },
+                delaySeconds,
+                TimeUnit.SECONDS);
+  }
+
+  /** Returns {@code true} if the count is still above the budget after evicting some variables. */
+  private boolean evictRound() {
+    final long count = nodeCount.getAsLong();
+    if (count <= budget) {
+      budgetExceededLogged = false;
+      return false;
+    }
+
+    final List<Candidate> candidates =
+        getIdleCandidates(
+            (int) Math.min(count - (long) (budget * LOW_WATERMARK), MAX_EVICTIONS_PER_ROUND),
+            System.currentTimeMillis() - idleMillis);
+    int evicted = 0;
+    for (final Candidate candidate : candidates) {
+      // Skip the variables accessed or monitored since the scan
+      if (candidate.access.time == candidate.time && !monitored.test(candidate.nodeId)) {
+        evicted += evictor.applyAsInt(candidate.nodeId);
+      }
+    }
+
+    if (evicted > 0) {
+      LOGGER.info(
+          "Evicted {} idle nodes to keep within the node budget of {}, {} nodes left",
+          evicted,
+          budget,
+          nodeCount.getAsLong());
+    }
+    if (nodeCount.getAsLong() <= budget) {
+      return false;
+    }
+    if (evicted == 0 && !budgetExceededLogged) {
+      budgetExceededLogged = true;
+      LOGGER.warn(
+          "The node budget of {} is exceeded with {} nodes, but no variable has been idle for {}s without being monitored.",
+          budget,
+          count,
+          TimeUnit.MILLISECONDS.toSeconds(idleMillis));
+    }
+    return evicted > 0;
+  }
+
+  /** Returns at most {@code limit} unmonitored variables accessed before {@code idleBefore}. */
+  private List<Candidate> getIdleCandidates(final int limit, final long idleBefore) {
+    // The newest candidate on top, replaced whenever an older one is found
+    final PriorityQueue<Candidate> oldest =
+        new PriorityQueue<>(
+            Math.min(limit, 1024), Comparator.comparingLong((Candidate c) -> c.time).reversed());
+    for (final Map.Entry<NodeId, Access> entry : accesses.entrySet()) {
+      final long time = entry.getValue().time;
+      if (time > idleBefore
+          || oldest.size() == limit && time >= oldest.peek().time
+          || monitored.test(entry.getKey())) {
+        continue;
+      }
+      if (oldest.size() == limit) {
+        oldest.poll();
+      }
+      oldest.add(new Candidate(entry.getKey(), entry.getValue(), time));
+    }
+    final List<Candidate> candidates = new ArrayList<>(oldest);
+    candidates.sort(Comparator.comparingLong(c -> c.time));
+    return candidates;
+  }
+
+  private static final class Access {
+    // Written without synchronization, a lost update only delays the eviction
+    private volatile long time;
+
+    private Access(final long time) {
+      this.time = time;
+    }
+  }
+
+  private static final class Candidate {
+    private final NodeId nodeId;
+    private final Access access;
+    private final long time;
+
+    private Candidate(final NodeId nodeId, final Access access, final long time) {
+      this.nodeId = nodeId;
+      this.access = access;
+      this.time = time;
+    }
+  }
+}
@@ -0,0 +1,430 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.server.UaNodeManager;
+import org.eclipse.milo.opcua.stack.core.NamespaceTable;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Node manager of {@link OpcUaNameSpace} whose references are indexed for paging, see {@link
+ * OpcUaBrowsePaging}.
+ *
+ * <p>The references of a node are grouped by reference type and direction, the groups in the order
+ * of their first reference and the references of a group in the order they were added. Every
+ * reference gets a sequence number in its group that never changes, so a {@link Position} stays
+ * valid while the references around it come and go, and the next page is found by a binary search
+ * instead of copying all the references of the node. A reference added more than once is counted
+ * like by Milo's node managers, but listed once. The references of different nodes are guarded
+ * separately, not by the whole node manager.
+ *
+ * <p>The references are stored with shared NodeIds rather than the copies that Milo makes for each
+ * of them, e.g. when inverting a reference: those of the types come from the {@link OpcUaInterner},
+ * and those of the nodes of the paths from the references of the nodes themselves.
+ */
+class OpcUaNodeManager extends UaNodeManager {
+
+  private final OpcUaInterner interner;
+  private final ConcurrentMap<NodeId, ReferenceGroups> referenceIndex = new ConcurrentHashMap<>();
+
+  OpcUaNodeManager(final OpcUaInterner interner) {
+    this.interner = interner;
+  }
+
+  @Override
+  public void addReference(final Reference reference) {
+    final Reference interned = intern(reference);
+    referenceIndex.compute(
+        interned.getSourceNodeId(),
+        (nodeId, groups) -> {
+          final ReferenceGroups result =
+              Objects.nonNull(groups) ? groups : new ReferenceGroups(nodeId);
+          synchronized (result) {
+            result.add(result.withSource(interned));
+          }
+          return result;
+        });
+  }
+
+  /**
+   * Returns the reference with the shared instance of its target, if it is a node with references.
+   */
+  private Reference intern(final Reference reference) {
+    final Reference interned = interner.intern(reference);
+    final ExpandedNodeId targetNodeId = interned.getTargetNodeId();
+    if (!interner.isPath(targetNodeId)) {
+      return interned;
+    }
+    final ReferenceGroups target = referenceIndex.get(interner.toNodeId(targetNodeId));
+    final ExpandedNodeId sharedTargetNodeId =
+        Objects.nonNull(target) ? target.getExpandedNodeId() : targetNodeId;
+    return sharedTargetNodeId == targetNodeId
+        ? interned
+        : new Reference(
+            interned.getSourceNodeId(),
+            interned.getReferenceTypeId(),
+            sharedTargetNodeId,
+            interned.isForward());
+  }
+
+  @Override
+  public void addReferences(final Reference reference, final NamespaceTable namespaceTable) {
+    addReference(reference);
+    reference.invert(namespaceTable).ifPresent(this::addReference);
+  }
+
+  @Override
+  public void removeReference(final Reference reference) {
+    referenceIndex.computeIfPresent(
+        reference.getSourceNodeId(),
+        (nodeId, groups) -> {
+          synchronized (groups) {
+            groups.remove(reference);
+            return groups.isEmpty() ? null : groups;
+          }
+        });
+  }
+
+  @Override
+  public void removeReferences(final Reference reference, final NamespaceTable namespaceTable) {
+    removeReference(reference);
+    reference.invert(namespaceTable).ifPresent(this::removeReference);
+  }
+
+  @Override
+  public List<Reference> getReferences(final NodeId nodeId) {
+    return collectReferences(nodeId, reference -> true);
+  }
+
+  @Override
+  public List<Reference> getReferences(final NodeId nodeId, final Predicate<Reference> filter) {
+    return collectReferences(nodeId, filter);
+  }
+
+  /**
+   * Collects up to {@code maxReferences} references of the node that come after the position, only
+   * from the groups whose reference type and direction are accepted by the filter.
+   *
+   * @param maxReferences the page size, 0 for no limit
+   * @return the position of the last reference collected if more may follow, {@code null} if the
+   *     node has no references left
+   */
+  Position getReferences(
+      final NodeId nodeId,
+      final Position after,
+      final BiPredicate<NodeId, Boolean> groupFilter,
+      final int maxReferences,
+      final List<Reference> references) {
+    final ReferenceGroups groups = referenceIndex.get(nodeId);
+    if (Objects.isNull(groups)) {
+      return null;
+    }
+    final int limit = maxReferences > 0 ? maxReferences : Integer.MAX_VALUE;
+    int collected = 0;
+    long lastGroup = after.group;
+    long lastSequence = after.sequence;
+    synchronized (groups) {
+      for (int i = 0; i < groups.count; ++i) {
+        final ReferenceGroup group = groups.groups[i];
+        if (group.ordinal < after.group
+            || !groupFilter.test(group.referenceTypeId, group.forward)) {
+          continue;
+        }
+        for (int j = group.ordinal == after.group ? group.seek(after.sequence) : 0;
+            j < group.length;
+            ++j) {
+          final Reference reference = group.references[j];
+          if (Objects.isNull(reference)) {
+            continue;
+          }
+          if (collected == limit) {
+            return new Position(lastGroup, lastSequence);
+          }
+          references.add(reference);
+          ++collected;
+          lastGroup = group.ordinal;
+          lastSequence = group.sequences[j];
+        }
+      }
+    }
+    return null;
+  }
+
+  private List<Reference> collectReferences(
+      final NodeId nodeId, final Predicate<Reference> filter) {
+    final ReferenceGroups groups = referenceIndex.get(nodeId);
+    if (Objects.isNull(groups)) {
+      return Collections.emptyList();
+    }
+    final List<Reference> references = new ArrayList<>();
+    synchronized (groups) {
+      for (int i = 0; i < groups.count; ++i) {
+        final ReferenceGroup group = groups.groups[i];
+        for (int j = 0; j < group.length; ++j) {
+          final Reference reference = group.references[j];
+          if (Objects.nonNull(reference) && filter.test(reference)) {
+            references.add(reference);
+          }
+        }
+      }
+    }
+    return references;
+  }
+
+  /** Where a page of the references of a node ends, and where the next one starts. */
+  static final class Position {
+
+    /** The position before the first reference. */
+    static final Position START = new Position(-1, -1);
+
+    private final long group;
+    private final long sequence;
+
+    private Position(final long group, final long sequence) {
+      this.group = group;
+      this.sequence = sequence;
+    }
+  }
+
+  /** The reference groups of a node, guarded by itself. */
+  private static final class ReferenceGroups {
+
+    // The NodeId of the first reference, shared by the next ones
+    private final NodeId nodeId;
+    // Created once a reference targets the node, a race only creates a spare one
+    private ExpandedNodeId expandedNodeId;
+
+    private ReferenceGroup[] groups = new ReferenceGroup[2];
+    private int count;
+    private long nextOrdinal;
+
+    private ReferenceGroups(final NodeId nodeId) {
+      this.nodeId = nodeId;
+    }
+
+    private ExpandedNodeId getExpandedNodeId() {
+      ExpandedNodeId result = expandedNodeId;
+      if (Objects.isNull(result)) {
+        result = nodeId.expanded();
+        expandedNodeId = result;
+      }
+      return result;
+    }
+
+    private Reference withSource(final Reference reference) {
+      return reference.getSourceNodeId() == nodeId
+          ? reference
+          : new Reference(
+              nodeId,
+              reference.getReferenceTypeId(),
+              reference.getTargetNodeId(),
+              reference.isForward());
+    }
+
+    private void add(final Reference reference) {
+      for (int i = 0; i < count; ++i) {
+        final ReferenceGroup group = groups[i];
+        if (group.forward == reference.isForward()
+            && group.referenceTypeId.equals(reference.getReferenceTypeId())) {
+          group.add(reference);
+          return;
+        }
+      }
+      if (count == groups.length) {
+        groups = Arrays.copyOf(groups, count * 2);
+      }
+      final ReferenceGroup group =
+          new ReferenceGroup(reference.getReferenceTypeId(), reference.isForward(), nextOrdinal++);
+      group.add(reference);
+      groups[count++] = group;
+    }
+
+    private void remove(final Reference reference) {
+      for (int i = 0; i < count; ++i) {
+        final ReferenceGroup group = groups[i];
+        if (group.forward == reference.isForward()
+            && group.referenceTypeId.equals(reference.getReferenceTypeId())) {
+          group.remove(reference);
+          if (group.size == 0) {
+            System.arraycopy(groups, i + 1, groups, i, count - i - 1);
+            groups[--count] = null;
+          }
+          return;
+        }
+      }
+    }
+
+    private boolean isEmpty() {
+      return count == 0;
+    }
+  }
+
+  /**
+   * The references of a node with the same type and direction, in the order of their sequence
+   * numbers. A removed reference leaves a hole until half of the slots are holes, the positions of
+   * the references are then only looked up by a hash map once the group is large.
+   */
+  private static final class ReferenceGroup {
+
+    private static final int HASHED_LENGTH = 8;
+
+    private final NodeId referenceTypeId;
+    private final boolean forward;
+    private final long ordinal;
+
+    private Reference[] references = new Reference[1];
+    private long[] sequences = new long[1];
+    // Null as long as every reference was added once
+    private int[] counts;
+    // Null while the group is small enough to be scanned
+    private Map<Reference, Integer> positions;
+    // The slots in use, including the holes
+    private int length;
+    private int size;
+    private long nextSequence;
+
+    private ReferenceGroup(
+        final NodeId referenceTypeId, final boolean forward, final long ordinal) {
+      this.referenceTypeId = referenceTypeId;
+      this.forward = forward;
+      this.ordinal = ordinal;
+    }
+
+    private void add(final Reference reference) {
+      final int position = indexOf(reference);
+      if (position >= 0) {
+        if (Objects.isNull(counts)) {
+          counts = new int[references.length];
+          Arrays.fill(counts, 1);
+        }
+        ++counts[position];
+        return;
+      }
+      if (length == references.length) {
+        final int capacity = length + Math.max(1, length >> 1);
+        references = Arrays.copyOf(references, capacity);
+        sequences = Arrays.copyOf(sequences, capacity);
+        if (Objects.nonNull(counts)) {
+          counts = Arrays.copyOf(counts, capacity);
+        }
+      }
+      references[length] = reference;
+      sequences[length] = nextSequence++;
+      if (Objects.nonNull(counts)) {
+        counts[length] = 1;
+      }
+      if (Objects.nonNull(positions)) {
+        positions.put(reference, length);
+      }
+      ++length;
+      ++size;
+      if (Objects.isNull(positions) && length > HASHED_LENGTH) {
+        indexPositions();
+      }
+    }
+
+    private void remove(final Reference reference) {
+      final int position = indexOf(reference);
+      if (position < 0) {
+        return;
+      }
+      if (Objects.nonNull(counts) && counts[position] > 1) {
+        --counts[position];
+        return;
+      }
+      references[position] = null;
+      if (Objects.nonNull(positions)) {
+        positions.remove(reference);
+      }
+      --size;
+      if (size <= length >> 1) {
+        compact();
+      }
+    }
+
+    /** Returns the slot of the first reference whose sequence number follows the given one. */
+    private int seek(final long afterSequence) {
+      final int slot = Arrays.binarySearch(sequences, 0, length, afterSequence);
+      return slot >= 0 ? slot + 1 : -slot - 1;
+    }
+
+    private int indexOf(final Reference reference) {
+      if (Objects.nonNull(positions)) {
+        final Integer position = positions.get(reference);
+        return Objects.nonNull(position) ? position : -1;
+      }
+      for (int i = 0; i < length; ++i) {
+        if (reference.equals(references[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private void compact() {
+      final int capacity = Math.max(1, size);
+      final Reference[] compactReferences = new Reference[capacity];
+      final long[] compactSequences = new long[capacity];
+      final int[] compactCounts = Objects.nonNull(counts) ? new int[capacity] : null;
+      int slot = 0;
+      for (int i = 0; i < length; ++i) {
+        if (Objects.nonNull(references[i])) {
+          compactReferences[slot] = references[i];
+          compactSequences[slot] = sequences[i];
+          if (Objects.nonNull(compactCounts)) {
+            compactCounts[slot] = counts[i];
+          }
+          ++slot;
+        }
+      }
+      references = compactReferences;
+      sequences = compactSequences;
+      counts = compactCounts;
+      length = slot;
+      positions = null;
+      if (length > HASHED_LENGTH) {
+        indexPositions();
+      }
+    }
+
+    private void indexPositions() {
+      positions = new HashMap<>(length * 2);
+      for (int i = 0; i < length; ++i) {
+        if (Objects.nonNull(references[i])) {
+          positions.put(references[i], i);
+        }
+      }
+    }
+  }
+}
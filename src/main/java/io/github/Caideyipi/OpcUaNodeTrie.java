@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Namespace-local index of the nodes created by {@link OpcUaNameSpace}, keyed on the IoTDB path
+ * segments of their string identifiers, e.g. "root.sg.d1.s1" is stored under "root" -> "sg" -> "d1"
+ * -> "s1". A lookup can continue from an already resolved entry, so that the children of a parent
+ * only need to walk their last segments.
+ *
+ * <p>An entry holds either the {@link UaNode} or, with lazy nodes, the {@link OpcUaLazyNode} record
+ * of its path. The segments are interned, so that the "s1" of every device is stored once.
+ */
+class OpcUaNodeTrie {
+
+  static final char SEPARATOR = '.';
+
+  private final OpcUaInterner interner;
+  private final Entry root = new Entry(null, null);
+
+  OpcUaNodeTrie(final OpcUaInterner interner) {
+    this.interner = interner;
+  }
+
+  /** Returns the entry of the path, or {@code null} if the path is not indexed. */
+  Entry getEntry(final String path) {
+    return root.find(path, 0);
+  }
+
+  /** Returns the entry of the path, creating the missing entries along the way. */
+  Entry getOrCreateEntry(final String path) {
+    Entry entry;
+    do {
+      entry = root.findOrCreate(path, 0, interner);
+    } while (Objects.isNull(entry));
+    return entry;
+  }
+
+  /**
+   * Same as {@link Entry#find(String, int)} from the entry, but creates the missing entries along
+   * the way. Returns {@code null} if it walked through an entry removed concurrently.
+   */
+  Entry findOrCreate(final Entry entry, final String path, final int from) {
+    return entry.findOrCreate(path, from, interner);
+  }
+
+  /** Returns all entries, each parent before its children, without copying them upfront. */
+  Iterable<Entry> getEntries() {
+    return () ->
+        new Iterator<Entry>() {
+          private final Deque<Entry> pending = new ArrayDeque<>(root.getChildren());
+
+          @Override
+          public boolean hasNext() {
+            return !pending.isEmpty();
+          }
+
+          @Override
+          public Entry next() {
+            if (pending.isEmpty()) {
+              throw new NoSuchElementException();
+            }
+            final Entry entry = pending.pop();
+            entry.getChildren().forEach(pending::push);
+            return entry;
+          }
+        };
+  }
+
+  /**
+   * Unbinds the node or record from its entry, then removes the entry and its ancestors as long as
+   * they hold neither a node nor children. The removals are serialized, the concurrent creations
+   * notice that they walked through a removed entry and start over.
+   *
+   * @return {@code false} if the entry did not hold the node
+   */
+  synchronized boolean remove(final Entry entry, final Object node) {
+    if (!Entry.NODE_UPDATER.compareAndSet(entry, node, null)) {
+      return false;
+    }
+    Entry current = entry;
+    while (Objects.nonNull(current.parent)) {
+      if (!current.isEmpty()) {
+        return true;
+      }
+      // Published before checking again, pairs with the check of the creations after they publish
+      current.removed = true;
+      if (!current.isEmpty()) {
+        current.removed = false;
+        return true;
+      }
+      current.parent.children.remove(current.segment, current);
+      current = current.parent;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the offset in {@code path} right after the {@code prefix} and its separator if the
+   * prefix is a parent path of the path, otherwise returns -1.
+   */
+  static int childOffset(final String prefix, final String path) {
+    final int length = prefix.length();
+    return path.length() > length + 1 && path.charAt(length) == SEPARATOR && path.startsWith(prefix)
+        ? length + 1
+        : -1;
+  }
+
+  static final class Entry {
+
+    private static final AtomicReferenceFieldUpdater<Entry, Object> NODE_UPDATER =
+        AtomicReferenceFieldUpdater.newUpdater(Entry.class, Object.class, "node");
+
+    // Null for the root
+    private final Entry parent;
+    private final String segment;
+
+    // Either a UaNode or an OpcUaLazyNode
+    private volatile Object node;
+    // Allocated on first child, most entries are leaves (measurements)
+    private volatile ConcurrentMap<String, Entry> children;
+    // Set once the entry is unlinked from its parent, or about to be
+    private volatile boolean removed;
+
+    private Entry(final Entry parent, final String segment) {
+      this.parent = parent;
+      this.segment = segment;
+    }
+
+    /** Returns the node of the entry, {@code null} if free or holding a lazy record. */
+    UaNode getNode() {
+      final Object current = node;
+      return current instanceof UaNode ? (UaNode) current : null;
+    }
+
+    /** Returns the lazy record of the entry, {@code null} if free or holding a node. */
+    OpcUaLazyNode getLazyNode() {
+      final Object current = node;
+      return current instanceof OpcUaLazyNode ? (OpcUaLazyNode) current : null;
+    }
+
+    boolean hasNode() {
+      return Objects.nonNull(node);
+    }
+
+    /** Returns the parent entry, the root's one for the first segments. */
+    Entry getParent() {
+      return parent;
+    }
+
+    String getSegment() {
+      return segment;
+    }
+
+    Collection<Entry> getChildren() {
+      final ConcurrentMap<String, Entry> currentChildren = children;
+      return Objects.nonNull(currentChildren)
+          ? currentChildren.values()
+          : Collections.<Entry>emptyList();
+    }
+
+    /** Rebuilds the path of the entry from its segments. */
+    String getPath() {
+      if (Objects.isNull(parent.parent)) {
+        return segment;
+      }
+      final Deque<String> segments = new ArrayDeque<>();
+      int length = -1;
+      for (Entry current = this; Objects.nonNull(current.parent); current = current.parent) {
+        segments.push(current.segment);
+        length += current.segment.length() + 1;
+      }
+      final StringBuilder path = new StringBuilder(length).append(segments.pop());
+      for (final String pathSegment : segments) {
+        path.append(SEPARATOR).append(pathSegment);
+      }
+      return path.toString();
+    }
+
+    /**
+     * Binds the node or record to this entry if it is free, returns {@code false} if already taken
+     * or if the entry has been removed meanwhile, in which case {@link #hasNode()} is {@code false}
+     * and the entry must be resolved again.
+     */
+    boolean claim(final Object newNode) {
+      if (!NODE_UPDATER.compareAndSet(this, null, newNode)) {
+        return false;
+      }
+      if (removed) {
+        node = null;
+        return false;
+      }
+      return true;
+    }
+
+    /** Walks the segments of {@code path} starting at {@code from}, relative to this entry. */
+    Entry find(final String path, final int from) {
+      Entry current = this;
+      int start = from;
+      while (Objects.nonNull(current)) {
+        final int end = segmentEnd(path, start);
+        final ConcurrentMap<String, Entry> currentChildren = current.children;
+        current =
+            Objects.nonNull(currentChildren)
+                ? currentChildren.get(path.substring(start, end))
+                : null;
+        if (end == path.length()) {
+          return current;
+        }
+        start = end + 1;
+      }
+      return null;
+    }
+
+    private Entry findOrCreate(final String path, final int from, final OpcUaInterner interner) {
+      Entry current = this;
+      int start = from;
+      while (true) {
+        final int end = segmentEnd(path, start);
+        final Entry parentEntry = current;
+        final ConcurrentMap<String, Entry> parentChildren = parentEntry.getOrCreateChildren();
+        final String segment = path.substring(start, end);
+        current = parentChildren.get(segment);
+        if (Objects.isNull(current)) {
+          // Only the new entries intern their segments, which are also the keys of their parents
+          current =
+              parentChildren.computeIfAbsent(
+                  interner.intern(segment), k -> new Entry(parentEntry, k));
+        }
+        if (parentEntry.removed) {
+          return null;
+        }
+        if (end == path.length()) {
+          return current;
+        }
+        start = end + 1;
+      }
+    }
+
+    private boolean isEmpty() {
+      final ConcurrentMap<String, Entry> currentChildren = children;
+      return Objects.isNull(node) && (Objects.isNull(currentChildren) || currentChildren.isEmpty());
+    }
+
+    private ConcurrentMap<String, Entry> getOrCreateChildren() {
+      ConcurrentMap<String, Entry> result = children;
+      if (Objects.isNull(result)) {
+        synchronized (this) {
+          result = children;
+          if (Objects.isNull(result)) {
+            result = new ConcurrentHashMap<>(4);
+            children = result;
+          }
+        }
+      }
+      return result;
+    }
+
+    private static int segmentEnd(final String path, final int start) {
+      final int end = path.indexOf(SEPARATOR, start);
+      return end < 0 ? path.length() : end;
+    }
+  }
+}
@@ -26,9 +26,10 @@ import org.eclipse.milo.opcua.sdk.server.identity.UsernameIdentityValidator;
 import org.eclipse.milo.opcua.sdk.server.identity.X509IdentityValidator;
 import org.eclipse.milo.opcua.sdk.server.model.nodes.objects.ServerTypeNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
-import org.eclipse.milo.opcua.sdk.server.util.HostnameUtil;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.Stack;
 import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.UaRuntimeException;
 import org.eclipse.milo.opcua.stack.core.security.DefaultCertificateManager;
 import org.eclipse.milo.opcua.stack.core.security.DefaultTrustListManager;
@@ -39,10 +40,9 @@ import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
 import org.eclipse.milo.opcua.stack.core.types.structured.BuildInfo;
 import org.eclipse.milo.opcua.stack.core.util.CertificateUtil;
-import org.eclipse.milo.opcua.stack.core.util.SelfSignedCertificateGenerator;
-import org.eclipse.milo.opcua.stack.core.util.SelfSignedHttpsCertificateBuilder;
 import org.eclipse.milo.opcua.stack.server.EndpointConfiguration;
 import org.eclipse.milo.opcua.stack.server.security.DefaultServerCertificateValidator;
+import org.eclipse.milo.opcua.stack.server.security.ServerCertificateValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,12 +52,21 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.KeyPair;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.google.common.collect.Lists.newArrayList;
 import static org.eclipse.milo.opcua.sdk.server.api.config.OpcUaServerConfig.USER_TOKEN_POLICY_ANONYMOUS;
@@ -74,14 +83,53 @@ public class OpcUaServerBuilder implements Closeable {
 
   private static final String WILD_CARD_ADDRESS = "0.0.0.0";
 
+  // Read by Netty when the first event loop group is created, restored right after
+  private static final String EVENT_LOOP_THREADS_PROPERTY = "io.netty.eventLoopThreads";
+
+  // The tasks queued per thread of the bounded service executor beyond which the limited requests
+  // are rejected, see OpcUaAdmissionControl
+  private static final int SERVICE_QUEUE_CAPACITY_PER_THREAD = 1024;
+
   private int tcpBindPort;
   private int httpsBindPort;
   private String user;
   private String password;
   private Path securityDir;
+  private Path dataDir;
+  private long snapshotIntervalSeconds;
   private boolean enableAnonymousAccess;
+  private boolean enableColumnarValueStore;
+  private boolean enableLazyNodes;
+  private int lazyNodeCacheSize;
+  private int historyDepth;
+  private long historyMemoryBudget;
+  private int historyRetentionHours;
+  private int metricsPort;
+  private String metricsAddress = "127.0.0.1";
+  private int ingestPort;
+  private String ingestAddress = "127.0.0.1";
+  private long nodeBudget;
+  private long nodeIdleSeconds;
   private Set<SecurityPolicy> securityPolicies;
+  private List<String> advertisedHostnames = Collections.emptyList();
+  private int ioThreads;
+  private ServiceExecutorType serviceExecutorType = ServiceExecutorType.SHARED;
+  private int serviceThreads;
+  private long certificateCacheSeconds;
+  private int maxInFlightRequests;
+  private int maxSessionInFlightRequests;
+  private int requestQueueSize;
+  // Only disabled to compare with Milo's attribute writer, see OpcUaWriteBenchmark
+  private boolean enableWriteFastPath = true;
+  private ExecutorService serviceExecutor;
+  private int serviceQueueCapacity;
   private DefaultTrustListManager trustListManager;
+  // Closed by the namespace on shutdown, then again by the runner
+  private final AtomicBoolean isClosed = new AtomicBoolean();
+
+  private final OpcUaLatencyHistogram handshakeTimes = new OpcUaLatencyHistogram();
+  private final LongAdder rejectedHandshakes = new LongAdder();
+  private final LongAdder cachedHandshakes = new LongAdder();
 
   OpcUaServerBuilder setTcpBindPort(final int tcpBindPort) {
     this.tcpBindPort = tcpBindPort;
@@ -108,11 +156,126 @@ public class OpcUaServerBuilder implements Closeable {
     return this;
   }
 
+  OpcUaServerBuilder setDataDir(final String dataDir) {
+    this.dataDir = Paths.get(dataDir);
+    return this;
+  }
+
+  OpcUaServerBuilder setSnapshotIntervalSeconds(final long snapshotIntervalSeconds) {
+    this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+    return this;
+  }
+
   OpcUaServerBuilder setEnableAnonymousAccess(final boolean enableAnonymousAccess) {
     this.enableAnonymousAccess = enableAnonymousAccess;
     return this;
   }
 
+  OpcUaServerBuilder setEnableColumnarValueStore(final boolean enableColumnarValueStore) {
+    this.enableColumnarValueStore = enableColumnarValueStore;
+    return this;
+  }
+
+  OpcUaServerBuilder setEnableWriteFastPath(final boolean enableWriteFastPath) {
+    this.enableWriteFastPath = enableWriteFastPath;
+    return this;
+  }
+
+  OpcUaServerBuilder setEnableLazyNodes(final boolean enableLazyNodes) {
+    this.enableLazyNodes = enableLazyNodes;
+    return this;
+  }
+
+  OpcUaServerBuilder setLazyNodeCacheSize(final int lazyNodeCacheSize) {
+    this.lazyNodeCacheSize = lazyNodeCacheSize;
+    return this;
+  }
+
+  OpcUaServerBuilder setHistoryDepth(final int historyDepth) {
+    this.historyDepth = historyDepth;
+    return this;
+  }
+
+  OpcUaServerBuilder setHistoryMemoryBudget(final long historyMemoryBudget) {
+    this.historyMemoryBudget = historyMemoryBudget;
+    return this;
+  }
+
+  OpcUaServerBuilder setHistoryRetentionHours(final int historyRetentionHours) {
+    this.historyRetentionHours = historyRetentionHours;
+    return this;
+  }
+
+  OpcUaServerBuilder setMetricsPort(final int metricsPort) {
+    this.metricsPort = metricsPort;
+    return this;
+  }
+
+  OpcUaServerBuilder setMetricsAddress(final String metricsAddress) {
+    this.metricsAddress = metricsAddress;
+    return this;
+  }
+
+  OpcUaServerBuilder setIngestPort(final int ingestPort) {
+    this.ingestPort = ingestPort;
+    return this;
+  }
+
+  OpcUaServerBuilder setIngestAddress(final String ingestAddress) {
+    this.ingestAddress = ingestAddress;
+    return this;
+  }
+
+  OpcUaServerBuilder setNodeBudget(final long nodeBudget) {
+    this.nodeBudget = nodeBudget;
+    return this;
+  }
+
+  OpcUaServerBuilder setNodeIdleSeconds(final long nodeIdleSeconds) {
+    this.nodeIdleSeconds = nodeIdleSeconds;
+    return this;
+  }
+
+  OpcUaServerBuilder setAdvertisedHostnames(final List<String> advertisedHostnames) {
+    this.advertisedHostnames = advertisedHostnames;
+    return this;
+  }
+
+  OpcUaServerBuilder setIoThreads(final int ioThreads) {
+    this.ioThreads = ioThreads;
+    return this;
+  }
+
+  OpcUaServerBuilder setServiceExecutorType(final ServiceExecutorType serviceExecutorType) {
+    this.serviceExecutorType = serviceExecutorType;
+    return this;
+  }
+
+  OpcUaServerBuilder setServiceThreads(final int serviceThreads) {
+    this.serviceThreads = serviceThreads;
+    return this;
+  }
+
+  OpcUaServerBuilder setCertificateCacheSeconds(final long certificateCacheSeconds) {
+    this.certificateCacheSeconds = certificateCacheSeconds;
+    return this;
+  }
+
+  OpcUaServerBuilder setMaxInFlightRequests(final int maxInFlightRequests) {
+    this.maxInFlightRequests = maxInFlightRequests;
+    return this;
+  }
+
+  OpcUaServerBuilder setMaxSessionInFlightRequests(final int maxSessionInFlightRequests) {
+    this.maxSessionInFlightRequests = maxSessionInFlightRequests;
+    return this;
+  }
+
+  OpcUaServerBuilder setRequestQueueSize(final int requestQueueSize) {
+    this.requestQueueSize = requestQueueSize;
+    return this;
+  }
+
   public OpcUaServerBuilder setSecurityPolicies(final Set<SecurityPolicy> securityPolicies) {
     this.securityPolicies = securityPolicies;
     return this;
@@ -124,6 +287,9 @@ public class OpcUaServerBuilder implements Closeable {
       throw new RuntimeException("Unable to create security dir: " + securityDir);
     }
 
+    Files.createDirectories(dataDir);
+    LOGGER.info("Data dir: {}", dataDir.toAbsolutePath());
+
     final File pkiDir = securityDir.resolve("pki").toFile();
 
     LoggerFactory.getLogger(OpcUaServerBuilder.class)
@@ -131,8 +297,10 @@ public class OpcUaServerBuilder implements Closeable {
     LoggerFactory.getLogger(OpcUaServerBuilder.class)
         .info("Security pki dir: {}", pkiDir.getAbsolutePath());
 
+    final OpcUaHostnames hostnames = new OpcUaHostnames(advertisedHostnames);
+
     final OpcUaKeyStoreLoader loader =
-        new OpcUaKeyStoreLoader().load(securityDir, password.toCharArray());
+        new OpcUaKeyStoreLoader().load(securityDir, password.toCharArray(), hostnames);
 
     final DefaultCertificateManager certificateManager =
         new DefaultCertificateManager(loader.getServerKeyPair(), loader.getServerCertificate());
@@ -140,21 +308,25 @@ public class OpcUaServerBuilder implements Closeable {
     final OpcUaServerConfig serverConfig;
 
     trustListManager = new DefaultTrustListManager(pkiDir);
+    OpcUaCertificateCache certificateCache = null;
+    if (certificateCacheSeconds > 0) {
+      certificateCache =
+          new OpcUaCertificateCache(
+              new DefaultServerCertificateValidator(trustListManager),
+              trustListManager,
+              certificateCacheSeconds,
+              cachedHandshakes);
+    }
 
     LOGGER.info(
         "Certificate directory is: {}, Please move certificates from the reject dir to the trusted directory to allow encrypted access",
         pkiDir.getAbsolutePath());
 
-    final KeyPair httpsKeyPair = SelfSignedCertificateGenerator.generateRsaKeyPair(2048);
-
-    final SelfSignedHttpsCertificateBuilder httpsCertificateBuilder =
-        new SelfSignedHttpsCertificateBuilder(httpsKeyPair);
-    httpsCertificateBuilder.setCommonName(HostnameUtil.getHostname());
-    HostnameUtil.getHostnames(WILD_CARD_ADDRESS).forEach(httpsCertificateBuilder::addDnsName);
-    final X509Certificate httpsCertificate = httpsCertificateBuilder.build();
-
-    final DefaultServerCertificateValidator certificateValidator =
-        new DefaultServerCertificateValidator(trustListManager);
+    final ServerCertificateValidator certificateValidator =
+        new TimedCertificateValidator(
+            Objects.nonNull(certificateCache)
+                ? certificateCache
+                : new DefaultServerCertificateValidator(trustListManager));
 
     final UsernameIdentityValidator identityValidator =
         new UsernameIdentityValidator(
@@ -182,7 +354,11 @@ public class OpcUaServerBuilder implements Closeable {
                         "Certificate is missing the application URI"));
 
     final Set<EndpointConfiguration> endpointConfigurations =
-        createEndpointConfigurations(certificate, tcpBindPort, httpsBindPort);
+        createEndpointConfigurations(certificate, hostnames, tcpBindPort, httpsBindPort);
+
+    // Once the certificates are ready, so that a failed start creates no event loop
+    configureEventLoop();
+    serviceExecutor = createServiceExecutor();
 
     serverConfig =
         OpcUaServerConfig.builder()
@@ -200,10 +376,12 @@ public class OpcUaServerBuilder implements Closeable {
             .setCertificateManager(certificateManager)
             .setTrustListManager(trustListManager)
             .setCertificateValidator(certificateValidator)
-            .setHttpsKeyPair(httpsKeyPair)
-            .setHttpsCertificateChain(new X509Certificate[] {httpsCertificate})
+            .setHttpsKeyPair(loader.getHttpsKeyPair())
+            .setHttpsCertificateChain(new X509Certificate[] {loader.getHttpsCertificate()})
             .setIdentityValidator(new CompositeValidator(identityValidator, x509IdentityValidator))
             .setProductUri("urn:apache:iotdb:opc-ua-server")
+            .setExecutor(
+                Objects.nonNull(serviceExecutor) ? serviceExecutor : Stack.sharedExecutor())
             .build();
 
     // Setup server to enable event posting
@@ -216,19 +394,227 @@ public class OpcUaServerBuilder implements Closeable {
     return server;
   }
 
+  Path getDataDir() {
+    return dataDir;
+  }
+
+  long getSnapshotIntervalSeconds() {
+    return snapshotIntervalSeconds;
+  }
+
+  boolean isEnableColumnarValueStore() {
+    return enableColumnarValueStore;
+  }
+
+  boolean isEnableWriteFastPath() {
+    return enableWriteFastPath;
+  }
+
+  boolean isEnableLazyNodes() {
+    return enableLazyNodes;
+  }
+
+  int getLazyNodeCacheSize() {
+    return lazyNodeCacheSize;
+  }
+
+  int getHistoryDepth() {
+    return historyDepth;
+  }
+
+  long getHistoryMemoryBudget() {
+    return historyMemoryBudget;
+  }
+
+  int getHistoryRetentionHours() {
+    return historyRetentionHours;
+  }
+
+  int getMetricsPort() {
+    return metricsPort;
+  }
+
+  String getMetricsAddress() {
+    return metricsAddress;
+  }
+
+  int getIngestPort() {
+    return ingestPort;
+  }
+
+  String getIngestAddress() {
+    return ingestAddress;
+  }
+
+  String getUser() {
+    return user;
+  }
+
+  String getPassword() {
+    return password;
+  }
+
+  boolean isEnableAnonymousAccess() {
+    return enableAnonymousAccess;
+  }
+
+  long getNodeBudget() {
+    return nodeBudget;
+  }
+
+  long getNodeIdleSeconds() {
+    return nodeIdleSeconds;
+  }
+
+  int getMaxInFlightRequests() {
+    return maxInFlightRequests;
+  }
+
+  int getMaxSessionInFlightRequests() {
+    return maxSessionInFlightRequests;
+  }
+
+  int getRequestQueueSize() {
+    return requestQueueSize;
+  }
+
+  OpcUaLatencyHistogram getHandshakeTimes() {
+    return handshakeTimes;
+  }
+
+  LongAdder getRejectedHandshakes() {
+    return rejectedHandshakes;
+  }
+
+  LongAdder getCachedHandshakes() {
+    return cachedHandshakes;
+  }
+
+  /** The tasks the bounded service executor queues before it is busy, or 0 for the others. */
+  int getServiceQueueCapacity() {
+    return serviceQueueCapacity;
+  }
+
+  /** The tasks queued by the bounded service executor, or 0 for the others. */
+  int getServiceQueueSize() {
+    return serviceExecutor instanceof ThreadPoolExecutor
+        ? ((ThreadPoolExecutor) serviceExecutor).getQueue().size()
+        : 0;
+  }
+
+  /**
+   * Sizes the Netty event loop shared by all the servers and clients of Milo in the JVM, which does
+   * the socket I/O of the secure channels. Milo creates it once, with Netty's default of twice the
+   * cores unless told otherwise.
+   *
+   * <p>Netty only takes the count from a system property, which is set while the event loop is
+   * created and then restored. Netty reads it once per JVM though, when its first event loop group
+   * is created, so the other event loop groups of the JVM left to Netty's default size, e.g. those
+   * of an embedding application, get the same count.
+   */
+  private void configureEventLoop() {
+    if (ioThreads <= 0) {
+      return;
+    }
+    final String previousValue = System.getProperty(EVENT_LOOP_THREADS_PROPERTY);
+    System.setProperty(EVENT_LOOP_THREADS_PROPERTY, String.valueOf(ioThreads));
+    final int eventLoopThreads;
+    try {
+      eventLoopThreads = Stack.sharedEventLoop().executorCount();
+    } finally {
+      if (Objects.nonNull(previousValue)) {
+        System.setProperty(EVENT_LOOP_THREADS_PROPERTY, previousValue);
+      } else {
+        System.clearProperty(EVENT_LOOP_THREADS_PROPERTY);
+      }
+    }
+    if (eventLoopThreads != ioThreads) {
+      LOGGER.warn(
+          "The event loop has {} I/O threads instead of {}, because it was created before the server.",
+          eventLoopThreads,
+          ioThreads);
+    } else {
+      LOGGER.info("The event loop has {} I/O threads", eventLoopThreads);
+    }
+  }
+
+  /**
+   * Creates the executor that decodes the requests of the secure channels and runs the services, or
+   * returns {@code null} to keep Milo's shared one, which creates a thread for every task that
+   * finds none idle.
+   *
+   * <p>The queue of the bounded executor takes every task, since the tasks are submitted by the I/O
+   * threads, which must neither run nor lose them: a task rejected by Milo's serialization queue is
+   * dropped along with its chunks. Its capacity is enforced by {@link OpcUaAdmissionControl}
+   * instead, which rejects the limited requests with {@code Bad_TooManyOperations} beyond it.
+   */
+  private ExecutorService createServiceExecutor() {
+    final int threads =
+        serviceThreads > 0 ? serviceThreads : Runtime.getRuntime().availableProcessors();
+    final AtomicInteger threadIndex = new AtomicInteger();
+    switch (serviceExecutorType) {
+      case BOUNDED:
+        LOGGER.info("The services run on a bounded executor of {} threads", threads);
+        serviceQueueCapacity = threads * SERVICE_QUEUE_CAPACITY_PER_THREAD;
+        return new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              final Thread thread =
+                  new Thread(runnable, "opc-ua-service-" + threadIndex.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+      case WORK_STEALING:
+        LOGGER.info("The services run on a work-stealing executor of {} threads", threads);
+        return new ForkJoinPool(
+            threads,
+            pool -> {
+              final ForkJoinWorkerThread thread =
+                  ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+              thread.setName("opc-ua-service-" + threadIndex.getAndIncrement());
+              return thread;
+            },
+            null,
+            true);
+      case VIRTUAL:
+        if (OpcUaVirtualThreads.isSupported()) {
+          LOGGER.info("The services run on virtual threads");
+          return OpcUaVirtualThreads.newExecutor("opc-ua-service-");
+        }
+        LOGGER.warn(
+            "The services run on the shared executor, because virtual threads need Java 21 and a jar built by it.");
+        return null;
+      case SHARED:
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Creates the endpoints for every advertised hostname: one per transport and security policy, and
+   * the discovery endpoints without security. The set is ordered and free of duplicates, Milo then
+   * answers GetEndpoints with the ones of the hostname in the requested URL.
+   */
   private Set<EndpointConfiguration> createEndpointConfigurations(
-      final X509Certificate certificate, final int tcpBindPort, final int httpsBindPort) {
+      final X509Certificate certificate,
+      final OpcUaHostnames hostnames,
+      final int tcpBindPort,
+      final int httpsBindPort) {
     final Set<EndpointConfiguration> endpointConfigurations = new LinkedHashSet<>();
 
     final List<String> bindAddresses = newArrayList();
     bindAddresses.add(WILD_CARD_ADDRESS);
 
-    final Set<String> hostnames = new LinkedHashSet<>();
-    hostnames.add(HostnameUtil.getHostname());
-    hostnames.addAll(HostnameUtil.getHostnames(WILD_CARD_ADDRESS));
+    final boolean noSecurity = securityPolicies.contains(SecurityPolicy.None);
+    final Set<SecurityPolicy> secureSecurityPolicies = new LinkedHashSet<>(securityPolicies);
+    secureSecurityPolicies.remove(SecurityPolicy.None);
 
     for (final String bindAddress : bindAddresses) {
-      for (final String hostname : hostnames) {
+      for (final String hostname : hostnames.getHostnames(true)) {
         final EndpointConfiguration.Builder builder =
             EndpointConfiguration.newBuilder()
                 .setBindAddress(bindAddress)
@@ -240,7 +626,7 @@ public class OpcUaServerBuilder implements Closeable {
                     USER_TOKEN_POLICY_USERNAME,
                     USER_TOKEN_POLICY_X509);
 
-        if (securityPolicies.contains(SecurityPolicy.None)) {
+        if (noSecurity) {
           final EndpointConfiguration.Builder noSecurityBuilder =
               builder
                   .copy()
@@ -249,10 +635,9 @@ public class OpcUaServerBuilder implements Closeable {
 
           endpointConfigurations.add(buildTcpEndpoint(noSecurityBuilder, tcpBindPort));
           endpointConfigurations.add(buildHttpsEndpoint(noSecurityBuilder, httpsBindPort));
-          securityPolicies.remove(SecurityPolicy.None);
         }
 
-        for (final SecurityPolicy securityPolicy : securityPolicies) {
+        for (final SecurityPolicy securityPolicy : secureSecurityPolicies) {
           endpointConfigurations.add(
               buildTcpEndpoint(
                   builder
@@ -282,6 +667,11 @@ public class OpcUaServerBuilder implements Closeable {
       }
     }
 
+    LOGGER.info(
+        "Created {} endpoints for hostnames {}",
+        endpointConfigurations.size(),
+        hostnames.getHostnames(true));
+
     return endpointConfigurations;
   }
 
@@ -301,8 +691,55 @@ public class OpcUaServerBuilder implements Closeable {
         .build();
   }
 
+  /**
+   * Times the validation of the client certificate chains, the part of the secure channel
+   * handshakes that Milo lets the server hook, and counts the rejected chains.
+   */
+  private class TimedCertificateValidator implements ServerCertificateValidator {
+    private final ServerCertificateValidator delegate;
+
+    private TimedCertificateValidator(final ServerCertificateValidator delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void validateCertificateChain(final List<X509Certificate> certificateChain)
+        throws UaException {
+      final long startTime = System.nanoTime();
+      try {
+        delegate.validateCertificateChain(certificateChain);
+      } catch (final UaException e) {
+        rejectedHandshakes.increment();
+        throw e;
+      } finally {
+        handshakeTimes.record(System.nanoTime() - startTime);
+      }
+    }
+
+    @Override
+    public void validateCertificateChain(
+        final List<X509Certificate> certificateChain, final String applicationUri)
+        throws UaException {
+      final long startTime = System.nanoTime();
+      try {
+        delegate.validateCertificateChain(certificateChain, applicationUri);
+      } catch (final UaException e) {
+        rejectedHandshakes.increment();
+        throw e;
+      } finally {
+        handshakeTimes.record(System.nanoTime() - startTime);
+      }
+    }
+  }
+
   @Override
   public void close() {
+    if (!isClosed.compareAndSet(false, true)) {
+      return;
+    }
+    if (Objects.nonNull(serviceExecutor)) {
+      serviceExecutor.shutdown();
+    }
     if (Objects.nonNull(trustListManager)) {
       try {
         trustListManager.close();
@@ -311,4 +748,16 @@ public class OpcUaServerBuilder implements Closeable {
       }
     }
   }
+
+  /** The executors that can run the services, see {@link #createServiceExecutor()}. */
+  enum ServiceExecutorType {
+    /** Milo's executor shared by the JVM, unbounded. */
+    SHARED,
+    /** A fixed number of threads, rejecting the limited requests once its queue is full. */
+    BOUNDED,
+    /** A work-stealing pool, for many short requests from many sessions. */
+    WORK_STEALING,
+    /** A virtual thread per task on Java 21 and above, for requests that block. */
+    VIRTUAL
+  }
 }
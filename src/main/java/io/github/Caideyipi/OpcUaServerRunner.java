@@ -22,23 +22,37 @@ package io.github.Caideyipi;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
 
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class OpcUaServerRunner {
 
   public static void main(final String[] args) throws Exception {
     OpcUaNameSpace nameSpace = null;
+    // Guards the shutdown of the namespace, which Milo does not, so that the hook of a termination
+    // signal and the main thread do not save the snapshot and stop the server twice
+    final AtomicBoolean isShutdown = new AtomicBoolean();
     try (final OpcUaServerBuilder builder = OpcUaArgumentsChecker.parseArgs(args)) {
       final OpcUaServer server = builder.build();
       nameSpace = new OpcUaNameSpace(server, builder);
       nameSpace.startup();
+      // Take the final snapshot on termination signals as well
+      final OpcUaNameSpace startedNameSpace = nameSpace;
+      Runtime.getRuntime()
+          .addShutdownHook(new Thread(() -> shutdown(startedNameSpace, isShutdown)));
       server.startup().get();
       Thread.sleep(Long.MAX_VALUE);
     } catch (final InterruptedException e) {
       Thread.currentThread().interrupt();
     } finally {
       if (Objects.nonNull(nameSpace)) {
-        nameSpace.shutdown();
+        shutdown(nameSpace, isShutdown);
       }
     }
   }
+
+  private static void shutdown(final OpcUaNameSpace nameSpace, final AtomicBoolean isShutdown) {
+    if (isShutdown.compareAndSet(false, true)) {
+      nameSpace.shutdown();
+    }
+  }
 }
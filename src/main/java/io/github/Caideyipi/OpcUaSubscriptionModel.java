@@ -0,0 +1,345 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.server.AbstractLifecycle;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.DataItem;
+import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.api.services.AttributeServices;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeObserver;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.sdk.server.util.SubscriptionModel;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Subscription model of {@link OpcUaNameSpace}. The Value items of the variables created by the
+ * namespace are notified by the writes themselves through an {@link AttributeObserver}, so that
+ * unchanged nodes cost nothing. Like a sampling, a pushed item reports at most one value per its
+ * revised sampling interval: the first write of an interval at once, and the last one of the writes
+ * that followed it at the end of the interval, so a slow-sampling client does not receive the full
+ * write rate. The other items, e.g. on non-Value attributes, fall back to the sampling of Milo's
+ * {@link SubscriptionModel}.
+ */
+class OpcUaSubscriptionModel extends AbstractLifecycle implements AttributeObserver {
+
+  private static final DataValue NODE_ID_UNKNOWN =
+      new DataValue(new StatusCode(StatusCodes.Bad_NodeIdUnknown));
+
+  // Resolves the nodes of the namespace, created from their records for the lazy nodes
+  private final Function<NodeId, UaNode> nodeResolver;
+  private final SubscriptionModel samplingModel;
+  // Reports the values held back until the end of the sampling intervals
+  private final ScheduledExecutorService scheduler;
+
+  private final ConcurrentMap<NodeId, List<PushedItem>> pushedItems = new ConcurrentHashMap<>();
+  private final Set<DataItem> sampledItems = ConcurrentHashMap.newKeySet();
+  // The number of sampled items per node, so that the eviction can tell the monitored nodes
+  private final ConcurrentMap<NodeId, Integer> sampledNodes = new ConcurrentHashMap<>();
+
+  OpcUaSubscriptionModel(
+      final OpcUaServer server,
+      final AttributeServices attributeServices,
+      final Function<NodeId, UaNode> nodeResolver) {
+    this.nodeResolver = nodeResolver;
+    this.samplingModel = new SubscriptionModel(server, attributeServices);
+    this.scheduler = server.getScheduledExecutorService();
+  }
+
+  @Override
+  protected void onStartup() {
+    samplingModel.startup();
+  }
+
+  @Override
+  protected void onShutdown() {
+    pushedItems.forEach(
+        (nodeId, items) -> {
+          detach(nodeResolver.apply(nodeId));
+          items.forEach(PushedItem::remove);
+        });
+    pushedItems.clear();
+    sampledItems.clear();
+    sampledNodes.clear();
+    samplingModel.shutdown();
+  }
+
+  void onDataItemsCreated(final List<DataItem> dataItems) {
+    final List<DataItem> toSample = new ArrayList<>();
+    for (final DataItem item : dataItems) {
+      final UaNode node = getPushableNode(item);
+      if (Objects.isNull(node)) {
+        toSample.add(item);
+        continue;
+      }
+      final PushedItem pushedItem = new PushedItem(item);
+      // Writes notify under the same monitor, so the current value can not overtake them
+      synchronized (OpcUaVariableNode.getLock(node)) {
+        pushedItems.compute(
+            node.getNodeId(),
+            (nodeId, items) -> {
+              if (Objects.isNull(items)) {
+                items = new CopyOnWriteArrayList<>();
+                node.addAttributeObserver(this);
+              }
+              items.add(pushedItem);
+              return items;
+            });
+        // Report the current value, as the first sampling would have done
+        if (item.isSamplingEnabled()) {
+          pushedItem.offer(((UaVariableNode) node).getValue());
+        }
+      }
+    }
+
+    if (!toSample.isEmpty()) {
+      for (final DataItem item : toSample) {
+        sampledNodes.merge(item.getReadValueId().getNodeId(), 1, Integer::sum);
+      }
+      sampledItems.addAll(toSample);
+      samplingModel.onDataItemsCreated(toSample);
+    }
+  }
+
+  void onDataItemsModified(final List<DataItem> dataItems) {
+    // The pushed items read their revised sampling interval on every write
+    final List<DataItem> sampled = filterSampled(dataItems);
+    if (!sampled.isEmpty()) {
+      samplingModel.onDataItemsModified(sampled);
+    }
+  }
+
+  void onDataItemsDeleted(final List<DataItem> dataItems) {
+    final List<DataItem> sampled = new ArrayList<>();
+    for (final DataItem item : dataItems) {
+      if (sampledItems.remove(item)) {
+        sampledNodes.computeIfPresent(
+            item.getReadValueId().getNodeId(), (nodeId, count) -> count > 1 ? count - 1 : null);
+        sampled.add(item);
+        continue;
+      }
+      final NodeId nodeId = item.getReadValueId().getNodeId();
+      final boolean[] lastItem = new boolean[1];
+      pushedItems.computeIfPresent(
+          nodeId,
+          (id, items) -> {
+            for (final PushedItem pushedItem : items) {
+              if (pushedItem.item == item) {
+                pushedItem.remove();
+                items.remove(pushedItem);
+              }
+            }
+            lastItem[0] = items.isEmpty();
+            return lastItem[0] ? null : items;
+          });
+      // Detach outside of the map's lock, since the creation locks the node before the map
+      if (lastItem[0]) {
+        detach(nodeResolver.apply(nodeId));
+      }
+    }
+
+    if (!sampled.isEmpty()) {
+      samplingModel.onDataItemsDeleted(sampled);
+    }
+  }
+
+  void onMonitoringModeChanged(final List<MonitoredItem> monitoredItems) {
+    final List<MonitoredItem> sampled = new ArrayList<>();
+    for (final MonitoredItem item : monitoredItems) {
+      if (item instanceof DataItem && sampledItems.contains(item)) {
+        sampled.add(item);
+        continue;
+      }
+      // Re-enabled items report the current value like a resumed sampling
+      if (item instanceof DataItem && item.isSamplingEnabled()) {
+        final UaNode node = nodeResolver.apply(item.getReadValueId().getNodeId());
+        final List<PushedItem> items = pushedItems.get(item.getReadValueId().getNodeId());
+        if (node instanceof UaVariableNode && Objects.nonNull(items)) {
+          synchronized (OpcUaVariableNode.getLock(node)) {
+            for (final PushedItem pushedItem : items) {
+              if (pushedItem.item == item) {
+                pushedItem.offer(((UaVariableNode) node).getValue());
+              }
+            }
+          }
+        }
+      }
+    }
+
+    if (!sampled.isEmpty()) {
+      samplingModel.onMonitoringModeChanged(sampled);
+    }
+  }
+
+  /**
+   * Detaches the pushed items of a deleted node, which report Bad_NodeIdUnknown like the sampled
+   * items do on their next sampling.
+   */
+  void onNodeRemoved(final UaNode node) {
+    synchronized (OpcUaVariableNode.getLock(node)) {
+      final List<PushedItem> items = pushedItems.remove(node.getNodeId());
+      if (Objects.isNull(items)) {
+        return;
+      }
+      detach(node);
+      for (final PushedItem pushedItem : items) {
+        pushedItem.remove();
+        if (pushedItem.item.isSamplingEnabled()) {
+          pushedItem.item.setValue(NODE_ID_UNKNOWN);
+        }
+      }
+    }
+  }
+
+  /** Returns whether the node has monitored items, which keep it from being evicted. */
+  boolean isMonitored(final NodeId nodeId) {
+    return pushedItems.containsKey(nodeId) || sampledNodes.containsKey(nodeId);
+  }
+
+  @Override
+  public void attributeChanged(
+      final UaNode node, final AttributeId attributeId, final Object attributeValue) {
+    if (attributeId != AttributeId.Value) {
+      return;
+    }
+    final List<PushedItem> items = pushedItems.get(node.getNodeId());
+    if (Objects.isNull(items)) {
+      return;
+    }
+    final DataValue value = (DataValue) attributeValue;
+    for (final PushedItem pushedItem : items) {
+      if (pushedItem.item.isSamplingEnabled()) {
+        pushedItem.offer(value);
+      }
+    }
+  }
+
+  private UaNode getPushableNode(final DataItem item) {
+    if (!AttributeId.Value.isEqual(item.getReadValueId().getAttributeId())) {
+      return null;
+    }
+    final UaNode node = nodeResolver.apply(item.getReadValueId().getNodeId());
+    return node instanceof UaVariableNode ? node : null;
+  }
+
+  private List<DataItem> filterSampled(final List<DataItem> dataItems) {
+    final List<DataItem> sampled = new ArrayList<>();
+    for (final DataItem item : dataItems) {
+      if (sampledItems.contains(item)) {
+        sampled.add(item);
+      }
+    }
+    return sampled;
+  }
+
+  private void detach(final UaNode node) {
+    if (Objects.nonNull(node)) {
+      node.removeAttributeObserver(this);
+    }
+  }
+
+  /** A pushed item, which holds the values written within its sampling interval back. */
+  private class PushedItem {
+    private final DataItem item;
+    // The time from which the next value is reported at once
+    private long nextNotifyNanos;
+    // The last value written since the last report, if a report is scheduled
+    private DataValue pendingValue;
+    private boolean isFlushScheduled;
+    private boolean isRemoved;
+
+    private PushedItem(final DataItem item) {
+      this.item = item;
+      this.nextNotifyNanos = System.nanoTime();
+    }
+
+    private synchronized void offer(final DataValue value) {
+      if (isRemoved) {
+        return;
+      }
+      if (isFlushScheduled) {
+        pendingValue = value;
+        return;
+      }
+      final long now = System.nanoTime();
+      if (now - nextNotifyNanos >= 0) {
+        OpcUaSubscriptionModel.notify(item, value);
+        nextNotifyNanos = now + getIntervalNanos();
+        return;
+      }
+      pendingValue = value;
+      isFlushScheduled = true;
+      scheduler.schedule(this::flush, nextNotifyNanos - now, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void flush() {
+      isFlushScheduled = false;
+      if (isRemoved || Objects.isNull(pendingValue)) {
+        return;
+      }
+      if (item.isSamplingEnabled()) {
+        OpcUaSubscriptionModel.notify(item, pendingValue);
+      }
+      pendingValue = null;
+      nextNotifyNanos = System.nanoTime() + getIntervalNanos();
+    }
+
+    private synchronized void remove() {
+      isRemoved = true;
+      pendingValue = null;
+    }
+
+    private long getIntervalNanos() {
+      return (long) (item.getSamplingInterval() * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+  }
+
+  private static void notify(final DataItem item, final DataValue value) {
+    final TimestampsToReturn timestamps = item.getTimestampsToReturn();
+    if (Objects.isNull(timestamps) || timestamps == TimestampsToReturn.Both) {
+      item.setValue(value);
+      return;
+    }
+    // Unlike sampling, keep the server timestamp of the write
+    item.setValue(
+        new DataValue(
+            value.getValue(),
+            value.getStatusCode(),
+            timestamps == TimestampsToReturn.Source ? value.getSourceTime() : null,
+            timestamps == TimestampsToReturn.Server ? value.getServerTime() : null));
+  }
+}
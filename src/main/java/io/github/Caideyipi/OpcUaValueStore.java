@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.ULong;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Columnar storage of the current values of {@link OpcUaVariableNode}s, so that a variable does not
+ * keep a {@link DataValue}, a boxed {@link Variant} value, a {@link StatusCode} and {@link
+ * DateTime}s on the heap between two writes.
+ *
+ * <p>Each node owns a dense slot. The scalar values of the numeric and boolean built-in types are
+ * stored as raw 64 bits along with a type tag, the other values (strings, byte strings, arrays...)
+ * are kept as references. The slots are grouped in fixed-size pages, so that growing the store
+ * never copies the existing columns. A slot is only accessed under the monitor of its node.
+ */
+class OpcUaValueStore {
+
+  private static final int PAGE_BITS = 12;
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  // Milo's variable nodes report the current time as server time on every read, so it is not stored
+  static final long NULL_TIME = Long.MIN_VALUE;
+
+  static final byte TYPE_NULL = 0;
+  static final byte TYPE_OBJECT = 1;
+  private static final byte TYPE_BOOLEAN = 2;
+  private static final byte TYPE_SBYTE = 3;
+  private static final byte TYPE_BYTE = 4;
+  private static final byte TYPE_INT16 = 5;
+  private static final byte TYPE_UINT16 = 6;
+  private static final byte TYPE_INT32 = 7;
+  private static final byte TYPE_UINT32 = 8;
+  private static final byte TYPE_INT64 = 9;
+  private static final byte TYPE_UINT64 = 10;
+  private static final byte TYPE_FLOAT = 11;
+  private static final byte TYPE_DOUBLE = 12;
+
+  private volatile Page[] pages = new Page[16];
+  private int slotCount;
+  // The slots of the removed nodes, reused before growing the store
+  private int[] freeSlots = new int[16];
+  private int freeSlotCount;
+
+  /** Allocates the slot of a new node. */
+  synchronized int allocate() {
+    if (freeSlotCount > 0) {
+      return freeSlots[--freeSlotCount];
+    }
+    final int slot = slotCount++;
+    final int pageIndex = slot >>> PAGE_BITS;
+    Page[] currentPages = pages;
+    if (pageIndex == currentPages.length) {
+      currentPages = Arrays.copyOf(currentPages, currentPages.length * 2);
+    }
+    if (Objects.isNull(currentPages[pageIndex])) {
+      currentPages[pageIndex] = new Page();
+    }
+    pages = currentPages;
+    return slot;
+  }
+
+  /** Releases the slot of a removed node, which must no longer access it. */
+  synchronized void free(final int slot) {
+    // Do not retain the last value of the node until the slot is reused
+    pages[slot >>> PAGE_BITS].objects[slot & PAGE_MASK] = null;
+    if (freeSlotCount == freeSlots.length) {
+      freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+    }
+    freeSlots[freeSlotCount++] = slot;
+  }
+
+  void set(final int slot, final DataValue value) {
+    final Page page = pages[slot >>> PAGE_BITS];
+    final int index = slot & PAGE_MASK;
+
+    final Variant variant = value.getValue();
+    final Object object = Objects.nonNull(variant) ? variant.getValue() : null;
+    final byte type = encodeType(object);
+    page.types[index] = type;
+    page.values[index] = encodeBits(type, object);
+    page.objects[index] = type == TYPE_OBJECT ? object : null;
+
+    final StatusCode statusCode = value.getStatusCode();
+    page.statusCodes[index] = Objects.nonNull(statusCode) ? (int) statusCode.getValue() : 0;
+    final DateTime sourceTime = value.getSourceTime();
+    page.sourceTimes[index] = Objects.nonNull(sourceTime) ? sourceTime.getUtcTime() : NULL_TIME;
+  }
+
+  /** Materializes the value of the slot, e.g. when a Read or a notification is encoded. */
+  DataValue get(final int slot) {
+    final Page page = pages[slot >>> PAGE_BITS];
+    final int index = slot & PAGE_MASK;
+
+    final Object object = decode(page.types[index], page.values[index], page.objects[index]);
+    final int statusCode = page.statusCodes[index];
+    final long sourceTime = page.sourceTimes[index];
+    return new DataValue(
+        Objects.nonNull(object) ? new Variant(object) : Variant.NULL_VALUE,
+        decodeStatusCode(statusCode),
+        sourceTime != NULL_TIME ? new DateTime(sourceTime) : null,
+        DateTime.now());
+  }
+
+  /** Returns the type tag of a value, {@link #TYPE_OBJECT} if it can not be stored as bits. */
+  static byte encodeType(final Object object) {
+    if (Objects.isNull(object)) {
+      return TYPE_NULL;
+    } else if (object instanceof Double) {
+      return TYPE_DOUBLE;
+    } else if (object instanceof Float) {
+      return TYPE_FLOAT;
+    } else if (object instanceof Long) {
+      return TYPE_INT64;
+    } else if (object instanceof Integer) {
+      return TYPE_INT32;
+    } else if (object instanceof Boolean) {
+      return TYPE_BOOLEAN;
+    } else if (object instanceof Short) {
+      return TYPE_INT16;
+    } else if (object instanceof Byte) {
+      return TYPE_SBYTE;
+    } else if (object instanceof UByte) {
+      return TYPE_BYTE;
+    } else if (object instanceof UShort) {
+      return TYPE_UINT16;
+    } else if (object instanceof UInteger) {
+      return TYPE_UINT32;
+    } else if (object instanceof ULong) {
+      return TYPE_UINT64;
+    }
+    return TYPE_OBJECT;
+  }
+
+  /** Returns the raw bits of a value of the given type tag, 0 for the null and object values. */
+  static long encodeBits(final byte type, final Object object) {
+    switch (type) {
+      case TYPE_DOUBLE:
+        return Double.doubleToRawLongBits((Double) object);
+      case TYPE_FLOAT:
+        return Float.floatToRawIntBits((Float) object);
+      case TYPE_INT64:
+        return (Long) object;
+      case TYPE_INT32:
+        return (Integer) object;
+      case TYPE_BOOLEAN:
+        return (Boolean) object ? 1 : 0;
+      case TYPE_INT16:
+        return (Short) object;
+      case TYPE_SBYTE:
+        return (Byte) object;
+      case TYPE_BYTE:
+      case TYPE_UINT16:
+      case TYPE_UINT32:
+      case TYPE_UINT64:
+        return ((Number) object).longValue();
+      default:
+        return 0;
+    }
+  }
+
+  /** Boxes the value back, {@code object} is only used for the {@link #TYPE_OBJECT} values. */
+  static Object decode(final byte type, final long bits, final Object object) {
+    switch (type) {
+      case TYPE_NULL:
+        return null;
+      case TYPE_DOUBLE:
+        return Double.longBitsToDouble(bits);
+      case TYPE_FLOAT:
+        return Float.intBitsToFloat((int) bits);
+      case TYPE_INT64:
+        return bits;
+      case TYPE_INT32:
+        return (int) bits;
+      case TYPE_BOOLEAN:
+        return bits != 0;
+      case TYPE_INT16:
+        return (short) bits;
+      case TYPE_SBYTE:
+        return (byte) bits;
+      case TYPE_BYTE:
+        return UByte.valueOf(bits);
+      case TYPE_UINT16:
+        return UShort.valueOf((int) bits);
+      case TYPE_UINT32:
+        return UInteger.valueOf(bits);
+      case TYPE_UINT64:
+        return ULong.valueOf(bits);
+      default:
+        return object;
+    }
+  }
+
+  static StatusCode decodeStatusCode(final int statusCode) {
+    return statusCode == 0 ? StatusCode.GOOD : new StatusCode(statusCode & 0xFFFFFFFFL);
+  }
+
+  private static final class Page {
+    private final byte[] types = new byte[PAGE_SIZE];
+    private final long[] values = new long[PAGE_SIZE];
+    private final Object[] objects = new Object[PAGE_SIZE];
+    private final long[] sourceTimes = new long[PAGE_SIZE];
+    private final int[] statusCodes = new int[PAGE_SIZE];
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNodeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+
+import java.util.Objects;
+
+/**
+ * {@link UaVariableNode} whose Value attribute lives in an {@link OpcUaValueStore} instead of a
+ * {@link DataValue} of its own. The value is only materialized when it is read.
+ *
+ * <p>The nodes created from an {@link OpcUaLazyNode} record use its slot and synchronize on the
+ * record, so that all nodes of the same record see the same value.
+ */
+class OpcUaVariableNode extends UaVariableNode {
+
+  // Shared by all nodes of the store as the value field of Milo's node, which is never used
+  private static final DataValue STORED_VALUE =
+      new DataValue(new StatusCode(StatusCodes.Bad_WaitingForInitialData));
+
+  private final OpcUaValueStore valueStore;
+  private final int slot;
+  // Null unless created from a lazy record, which then also holds the released flag
+  private final OpcUaLazyNode lazyNode;
+  // Set once the node is removed, its slot may then belong to another node
+  private boolean released;
+
+  private OpcUaVariableNode(
+      final UaNodeContext context,
+      final OpcUaValueStore valueStore,
+      final OpcUaVariableNodeBuilder builder) {
+    super(
+        context,
+        builder.getNodeId(),
+        builder.getBrowseName(),
+        builder.getDisplayName(),
+        builder.getDescription(),
+        builder.getWriteMask(),
+        builder.getUserWriteMask(),
+        STORED_VALUE,
+        builder.getDataType(),
+        builder.getValueRank(),
+        builder.getArrayDimensions(),
+        builder.getAccessLevel(),
+        builder.getUserAccessLevel(),
+        builder.getMinimumSamplingInterval(),
+        builder.getHistorizing());
+    this.valueStore = valueStore;
+    this.lazyNode = builder.lazyNode;
+    if (Objects.nonNull(lazyNode)) {
+      this.slot = lazyNode.getSlot();
+    } else {
+      this.slot = valueStore.allocate();
+      valueStore.set(slot, builder.getValue());
+    }
+  }
+
+  /**
+   * Returns the monitor that the writes of the node's value notify under, i.e. its record for a
+   * node created from a lazy record.
+   */
+  static Object getLock(final UaNode node) {
+    return node instanceof OpcUaVariableNode && Objects.nonNull(((OpcUaVariableNode) node).lazyNode)
+        ? ((OpcUaVariableNode) node).lazyNode
+        : node;
+  }
+
+  @Override
+  public Object getAttribute(final AttributeId attributeId) {
+    if (attributeId != AttributeId.Value) {
+      synchronized (this) {
+        return super.getAttribute(attributeId);
+      }
+    }
+    synchronized (getLock(this)) {
+      return isReleased() ? STORED_VALUE : valueStore.get(slot);
+    }
+  }
+
+  @Override
+  public void setAttribute(final AttributeId attributeId, final Object value) {
+    if (attributeId != AttributeId.Value) {
+      synchronized (this) {
+        super.setAttribute(attributeId, value);
+      }
+      return;
+    }
+    synchronized (getLock(this)) {
+      if (isReleased()) {
+        // A write that resolved the node before it was removed
+        return;
+      }
+      valueStore.set(slot, (DataValue) value);
+      fireAttributeChanged(attributeId, value);
+    }
+  }
+
+  /** Returns the slot to the store once the node has been removed from the namespace. */
+  void release() {
+    synchronized (getLock(this)) {
+      if (!isReleased()) {
+        if (Objects.nonNull(lazyNode)) {
+          lazyNode.setReleased();
+        } else {
+          released = true;
+        }
+        valueStore.free(slot);
+      }
+    }
+  }
+
+  int getSlot() {
+    return slot;
+  }
+
+  private boolean isReleased() {
+    return Objects.nonNull(lazyNode) ? lazyNode.isReleased() : released;
+  }
+
+  /**
+   * Builds {@link OpcUaVariableNode}s with the attributes of Milo's builder. Only the type
+   * definition is supported as reference, which is all that the namespace sets. The nodes of a lazy
+   * record get neither a slot nor references of their own.
+   */
+  static class OpcUaVariableNodeBuilder extends UaVariableNode.UaVariableNodeBuilder {
+
+    private final UaNodeContext context;
+    private final OpcUaValueStore valueStore;
+    private NodeId typeDefinition = Identifiers.BaseDataVariableType;
+    private OpcUaLazyNode lazyNode;
+
+    OpcUaVariableNodeBuilder(final UaNodeContext context, final OpcUaValueStore valueStore) {
+      super(context);
+      this.context = context;
+      this.valueStore = valueStore;
+    }
+
+    @Override
+    public UaVariableNode.UaVariableNodeBuilder setTypeDefinition(final NodeId typeDefinition) {
+      this.typeDefinition = Objects.requireNonNull(typeDefinition);
+      return this;
+    }
+
+    OpcUaVariableNodeBuilder setLazyNode(final OpcUaLazyNode lazyNode) {
+      this.lazyNode = lazyNode;
+      return this;
+    }
+
+    @Override
+    public UaVariableNode build() {
+      Objects.requireNonNull(getNodeId(), "NodeId cannot be null");
+      Objects.requireNonNull(getBrowseName(), "BrowseName cannot be null");
+      Objects.requireNonNull(getDisplayName(), "DisplayName cannot be null");
+
+      final OpcUaVariableNode node = new OpcUaVariableNode(context, valueStore, this);
+      if (Objects.nonNull(lazyNode)) {
+        return node;
+      }
+      node.addReference(
+          new Reference(
+              node.getNodeId(), Identifiers.HasTypeDefinition, typeDefinition.expanded(), true));
+      return node;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates the executors of virtual threads, which the Java 8 build cannot: this version is used
+ * below Java 21, or when the jar was built by an older JDK, while the one of src/main/java21 takes
+ * its place in the multi-release jar on Java 21 and above.
+ */
+final class OpcUaVirtualThreads {
+
+  private OpcUaVirtualThreads() {
+    // Utility class
+  }
+
+  /** Returns whether {@link #newExecutor(String)} creates virtual threads. */
+  static boolean isSupported() {
+    return false;
+  }
+
+  /**
+   * Returns an executor starting a virtual thread named after the prefix for every task, or {@code
+   * null} if virtual threads are not supported.
+   */
+  static ExecutorService newExecutor(final String namePrefix) {
+    return null;
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors of virtual threads, replacing the Java 8 version of src/main/java in the
+ * multi-release jar on Java 21 and above.
+ */
+final class OpcUaVirtualThreads {
+
+  private OpcUaVirtualThreads() {
+    // Utility class
+  }
+
+  /** Returns whether {@link #newExecutor(String)} creates virtual threads. */
+  static boolean isSupported() {
+    return true;
+  }
+
+  /** Returns an executor starting a virtual thread named after the prefix for every task. */
+  static ExecutorService newExecutor(final String namePrefix) {
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory());
+  }
+}
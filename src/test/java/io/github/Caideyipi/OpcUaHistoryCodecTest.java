@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.serialization.OpcUaBinaryStreamDecoder;
+import org.eclipse.milo.opcua.stack.core.serialization.OpcUaBinaryStreamEncoder;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.ULong;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class OpcUaHistoryCodecTest {
+
+  private static final byte TYPE_DOUBLE = OpcUaValueStore.encodeType(0.0);
+  private static final byte TYPE_INT64 = OpcUaValueStore.encodeType(0L);
+
+  @Test
+  public void testDeltaOfDeltaBuckets() throws IOException {
+    // The delta-of-deltas at the edges of the 7, 15 and 25 bits buckets, then beyond them
+    final long[] deltaOfDeltas = {
+      0,
+      63,
+      -64,
+      64,
+      -65,
+      16383,
+      -16384,
+      16384,
+      -16385,
+      (1 << 24) - 1,
+      -(1 << 24),
+      1 << 24,
+      -(1 << 24) - 1,
+      1L << 40,
+      -(1L << 41),
+      Long.MAX_VALUE / 4,
+      Long.MIN_VALUE / 4,
+      0
+    };
+    final OpcUaHistoryColumns columns = new OpcUaHistoryColumns(deltaOfDeltas.length + 1);
+    long time = -1_000;
+    long delta = 0;
+    columns.add(time, time, TYPE_INT64, 0, null, 0);
+    for (final long deltaOfDelta : deltaOfDeltas) {
+      delta += deltaOfDelta;
+      time += delta;
+      columns.add(time, time, TYPE_INT64, 0, null, 0);
+    }
+
+    assertRoundTrip(columns);
+  }
+
+  @Test
+  public void testExtremeTimesAndServerTimeOffsets() throws IOException {
+    final OpcUaHistoryColumns columns = new OpcUaHistoryColumns(4);
+    columns.add(Long.MIN_VALUE, Long.MAX_VALUE, TYPE_INT64, 1, null, 0);
+    columns.add(Long.MAX_VALUE, Long.MIN_VALUE, TYPE_INT64, 2, null, 0);
+    columns.add(0, 1L << 50, TYPE_INT64, 3, null, 0);
+    columns.add(1, 1L << 50, TYPE_INT64, 4, null, 0);
+
+    assertRoundTrip(columns);
+  }
+
+  @Test
+  public void testXorOfAllBits() throws IOException {
+    // No leading nor trailing zero bits, i.e. the 64 bits length stored as 63 in 6 bits
+    final long[] values = {
+      0x8000_0000_0000_0001L, 0, -1L, 0x7FFF_FFFF_FFFF_FFFEL, Long.MIN_VALUE, 1, Long.MAX_VALUE
+    };
+    assertRoundTrip(columnsOf(TYPE_INT64, values));
+  }
+
+  @Test
+  public void testXorWindowReuse() throws IOException {
+    long value = 0x0000_FFFF_FFFF_0000L;
+    final long[] values = new long[8];
+    values[0] = value;
+    // Within the window of the first value
+    values[1] = value ^= 0x0000_0F00_00F0_0000L;
+    values[2] = value ^= 0x0000_8000_0000_0000L;
+    values[3] = value ^= 0x0000_0000_0001_0000L;
+    // Unchanged
+    values[4] = value;
+    // Beyond the window on the right, then within the new one
+    values[5] = value ^= 0x0000_0000_0000_0001L;
+    values[6] = value ^= 0x0000_0000_0010_0000L;
+    // Over 31 leading zero bits, which are capped to fit in 5 bits
+    values[7] = value ^ 1L;
+    assertRoundTrip(columnsOf(TYPE_INT64, values));
+  }
+
+  @Test
+  public void testSpecialDoubles() throws IOException {
+    final long[] values = {
+      Double.doubleToRawLongBits(0.0),
+      Double.doubleToRawLongBits(-0.0),
+      Double.doubleToRawLongBits(Double.NaN),
+      // A NaN of another payload keeps its bits
+      0x7FF0_0000_0000_0001L,
+      Double.doubleToRawLongBits(-0.0),
+      Double.doubleToRawLongBits(Double.POSITIVE_INFINITY),
+      Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY),
+      Double.doubleToRawLongBits(Double.MIN_VALUE),
+      Double.doubleToRawLongBits(0.0)
+    };
+    final OpcUaHistoryColumns decoded = roundTrip(columnsOf(TYPE_DOUBLE, values));
+
+    assertArrayEquals(values, Arrays.copyOf(decoded.values, decoded.size));
+    assertEquals(-0.0, OpcUaValueStore.decode(TYPE_DOUBLE, decoded.values[1], null));
+    assertFalse(
+        ((Double) OpcUaValueStore.decode(TYPE_DOUBLE, decoded.values[0], null)).equals(-0.0));
+    assertEquals(Double.NaN, OpcUaValueStore.decode(TYPE_DOUBLE, decoded.values[2], null));
+  }
+
+  @Test
+  public void testMixedValues() throws IOException {
+    final Object[] objects = {
+      1.5,
+      "text",
+      null,
+      7,
+      7L,
+      ByteString.of(new byte[] {1, 2, 3}),
+      true,
+      "text",
+      UInteger.valueOf(42),
+      new String[] {"a", "b"},
+      ULong.MAX,
+      -0.0f,
+      null,
+      2.5
+    };
+    final int[] statusCodes = {
+      0,
+      0,
+      (int) StatusCodes.Bad_NoCommunication,
+      0,
+      0,
+      (int) StatusCodes.Uncertain_LastUsableValue,
+      (int) StatusCodes.Uncertain_LastUsableValue,
+      0,
+      0,
+      0,
+      0,
+      0,
+      0,
+      0
+    };
+    final OpcUaHistoryColumns columns = new OpcUaHistoryColumns(1);
+    for (int i = 0; i < objects.length; ++i) {
+      final byte type = OpcUaValueStore.encodeType(objects[i]);
+      columns.add(
+          1_000L * i,
+          1_000L * i + (i % 3 == 0 ? 5 : 0),
+          type,
+          OpcUaValueStore.encodeBits(type, objects[i]),
+          type == OpcUaValueStore.TYPE_OBJECT ? objects[i] : null,
+          statusCodes[i]);
+    }
+
+    final OpcUaHistoryColumns decoded = roundTrip(columns);
+    assertColumnsEquals(columns, decoded);
+    for (int i = 0; i < objects.length; ++i) {
+      final Object value =
+          OpcUaValueStore.decode(decoded.types[i], decoded.values[i], decoded.getObject(i));
+      if (objects[i] instanceof Object[]) {
+        assertArrayEquals((Object[]) objects[i], (Object[]) value);
+      } else {
+        assertEquals(objects[i], value);
+      }
+    }
+  }
+
+  @Test
+  public void testDecodeAppendsToColumns() throws IOException {
+    final OpcUaHistoryColumns first = columnsOf(TYPE_INT64, new long[] {1, 2, 3});
+    final OpcUaHistoryColumns second = new OpcUaHistoryColumns(2);
+    second.add(10, 10, OpcUaValueStore.TYPE_OBJECT, 0, "a", 0);
+    second.add(20, 20, OpcUaValueStore.TYPE_OBJECT, 0, "b", 0);
+
+    final ByteBuf buffer = Unpooled.buffer();
+    encode(first, buffer);
+    encode(second, buffer);
+    final OpcUaHistoryColumns decoded = new OpcUaHistoryColumns(1);
+    final OpcUaBinaryStreamDecoder decoder =
+        new OpcUaBinaryStreamDecoder(OpcUaTestContexts.SERIALIZATION_CONTEXT);
+    OpcUaHistoryCodec.decode(buffer, decoder, decoded);
+    OpcUaHistoryCodec.decode(buffer, decoder, decoded);
+
+    final OpcUaHistoryColumns expected = new OpcUaHistoryColumns(1);
+    expected.addAll(first);
+    expected.addAll(second);
+    assertColumnsEquals(expected, decoded);
+    assertEquals(0, buffer.readableBytes());
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedBlock() throws IOException {
+    final ByteBuf buffer = Unpooled.buffer();
+    encode(columnsOf(TYPE_INT64, new long[] {1, 2, 3}), buffer);
+    OpcUaHistoryCodec.decode(
+        buffer.slice(0, buffer.readableBytes() - 1),
+        new OpcUaBinaryStreamDecoder(OpcUaTestContexts.SERIALIZATION_CONTEXT),
+        new OpcUaHistoryColumns(1));
+  }
+
+  private static OpcUaHistoryColumns columnsOf(final byte type, final long[] values) {
+    final OpcUaHistoryColumns columns = new OpcUaHistoryColumns(values.length);
+    for (int i = 0; i < values.length; ++i) {
+      columns.add(10_000L * i, 10_000L * i, type, values[i], null, 0);
+    }
+    return columns;
+  }
+
+  private static void assertRoundTrip(final OpcUaHistoryColumns columns) throws IOException {
+    assertColumnsEquals(columns, roundTrip(columns));
+  }
+
+  private static OpcUaHistoryColumns roundTrip(final OpcUaHistoryColumns columns)
+      throws IOException {
+    final ByteBuf buffer = Unpooled.buffer();
+    encode(columns, buffer);
+    final OpcUaHistoryColumns decoded = new OpcUaHistoryColumns(1);
+    OpcUaHistoryCodec.decode(
+        buffer, new OpcUaBinaryStreamDecoder(OpcUaTestContexts.SERIALIZATION_CONTEXT), decoded);
+    assertEquals(0, buffer.readableBytes());
+    return decoded;
+  }
+
+  private static void encode(final OpcUaHistoryColumns columns, final ByteBuf buffer) {
+    OpcUaHistoryCodec.encode(
+        columns,
+        buffer,
+        new OpcUaBinaryStreamEncoder(OpcUaTestContexts.SERIALIZATION_CONTEXT).setBuffer(buffer));
+  }
+
+  static void assertColumnsEquals(
+      final OpcUaHistoryColumns expected, final OpcUaHistoryColumns actual) {
+    assertEquals(expected.size, actual.size);
+    for (int i = 0; i < expected.size; ++i) {
+      final String sample = "sample " + i;
+      assertEquals(sample, expected.times[i], actual.times[i]);
+      assertEquals(sample, expected.serverTimes[i], actual.serverTimes[i]);
+      assertEquals(sample, expected.types[i], actual.types[i]);
+      assertEquals(sample, expected.statusCodes[i], actual.statusCodes[i]);
+      if (expected.types[i] == OpcUaValueStore.TYPE_OBJECT) {
+        final Object object = expected.getObject(i);
+        if (object instanceof Object[]) {
+          assertArrayEquals(sample, (Object[]) object, (Object[]) actual.getObject(i));
+        } else {
+          assertEquals(sample, object, actual.getObject(i));
+        }
+      } else if (expected.types[i] != OpcUaValueStore.TYPE_NULL) {
+        assertEquals(sample, expected.values[i], actual.values[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.Caideyipi;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class OpcUaHistorySegmentsTest {
+
+  private static final NodeId NODE_ID = new NodeId(2, "root.sg.d.s");
+  private static final byte TYPE_DOUBLE = OpcUaValueStore.encodeType(0.0);
+
+  private Path dataDir;
+
+  @Before
+  public void setUp() throws IOException {
+    dataDir = Files.createTempDirectory("iotdb_opc_server_history");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (final Stream<Path> files = Files.walk(dataDir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  @Test
+  public void testRecoverBlocks() throws IOException {
+    final List<OpcUaHistoryColumns> blocks = appendBlocks(3);
+
+    final OpcUaHistorySegments segments = open();
+    try {
+      assertBlocks(segments, blocks);
+    } finally {
+      segments.close();
+    }
+  }
+
+  @Test
+  public void testTruncateTornBlock() throws IOException {
+    final List<OpcUaHistoryColumns> blocks = appendBlocks(3);
+    final Path file = getSegmentFile();
+    final long[] ends = getBlockEnds(blocks.size());
+    // Half of the last block written before a crash
+    final long tornSize = ends[1] + (ends[2] - ends[1]) / 2;
+    truncate(file, tornSize);
+
+    OpcUaHistorySegments segments = open();
+    try {
+      assertBlocks(segments, blocks.subList(0, 2));
+      assertEquals(ends[1], Files.size(file));
+    } finally {
+      segments.close();
+    }
+
+    // The segment stays readable along with the blocks appended after the recovery
+    final OpcUaHistoryColumns appended = newBlock(10);
+    segments = open();
+    try {
+      segments.append(NODE_ID, appended);
+    } finally {
+      segments.close();
+    }
+    final List<OpcUaHistoryColumns> expected = new ArrayList<>(blocks.subList(0, 2));
+    expected.add(appended);
+    segments = open();
+    try {
+      assertBlocks(segments, expected);
+    } finally {
+      segments.close();
+    }
+  }
+
+  @Test
+  public void testTruncateTornRecordHeader() throws IOException {
+    final List<OpcUaHistoryColumns> blocks = appendBlocks(2);
+    final Path file = getSegmentFile();
+    final long[] ends = getBlockEnds(blocks.size());
+    truncate(file, ends[0] + 3);
+
+    final OpcUaHistorySegments segments = open();
+    try {
+      assertBlocks(segments, blocks.subList(0, 1));
+      assertEquals(ends[0], Files.size(file));
+    } finally {
+      segments.close();
+    }
+  }
+
+  @Test
+  public void testDiscardCorruptedBlock() throws IOException {
+    final List<OpcUaHistoryColumns> blocks = appendBlocks(3);
+    final Path file = getSegmentFile();
+    final long[] ends = getBlockEnds(blocks.size());
+    // A flipped byte in the payload of the second block fails its CRC
+    try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), ends[1] - 1);
+    }
+
+    final OpcUaHistorySegments segments = open();
+    try {
+      assertBlocks(segments, blocks.subList(0, 1));
+      assertEquals(ends[0], Files.size(file));
+    } finally {
+      segments.close();
+    }
+  }
+
+  /** Appends blocks of a few samples each, in a segment of their own. */
+  private List<OpcUaHistoryColumns> appendBlocks(final int count) throws IOException {
+    final List<OpcUaHistoryColumns> blocks = new ArrayList<>();
+    final OpcUaHistorySegments segments = open();
+    try {
+      for (int i = 0; i < count; ++i) {
+        final OpcUaHistoryColumns block = newBlock(i);
+        segments.append(NODE_ID, block);
+        blocks.add(block);
+      }
+    } finally {
+      segments.close();
+    }
+    return blocks;
+  }
+
+  private static OpcUaHistoryColumns newBlock(final int index) {
+    final OpcUaHistoryColumns block = new OpcUaHistoryColumns(16);
+    for (int i = 0; i < 16; ++i) {
+      final long time = (index * 16L + i) * 10_000;
+      final double value = index * 16 + i * 0.5;
+      block.add(time, time, TYPE_DOUBLE, Double.doubleToRawLongBits(value), null, 0);
+    }
+    return block;
+  }
+
+  private OpcUaHistorySegments open() throws IOException {
+    final OpcUaHistorySegments segments =
+        new OpcUaHistorySegments(
+            OpcUaTestContexts.SERIALIZATION_CONTEXT, dataDir, TimeUnit.HOURS.toMillis(1));
+    segments.open();
+    return segments;
+  }
+
+  /** Returns the end offsets of the blocks in the segment file, read from their record headers. */
+  private long[] getBlockEnds(final int count) throws IOException {
+    final long[] ends = new long[count];
+    try (final FileChannel channel = FileChannel.open(getSegmentFile(), StandardOpenOption.READ)) {
+      final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+      // After the segment header of the magic number and the version
+      long position = 8;
+      for (int i = 0; i < count; ++i) {
+        length.clear();
+        channel.read(length, position);
+        position += length.getInt(0);
+        ends[i] = position;
+      }
+    }
+    return ends;
+  }
+
+  /** Returns the segment of the appended blocks, the later ones being empty. */
+  private Path getSegmentFile() throws IOException {
+    final List<Path> files = new ArrayList<>();
+    try (final DirectoryStream<Path> stream =
+        Files.newDirectoryStream(dataDir.resolve(OpcUaHistorySegments.DIR_NAME))) {
+      stream.forEach(files::add);
+    }
+    return files.stream()
+        .max(Comparator.comparingLong(this::size))
+        .orElseThrow(AssertionError::new);
+  }
+
+  private long size(final Path file) {
+    try {
+      return Files.size(file);
+    } catch (final IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static void truncate(final Path file, final long size) throws IOException {
+    try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(size);
+    }
+  }
+
+  private static void assertBlocks(
+      final OpcUaHistorySegments segments, final List<OpcUaHistoryColumns> expected)
+      throws IOException {
+    final OpcUaHistorySegments.Block[] blocks = segments.getBlocks(NODE_ID);
+    assertEquals(expected.size(), blocks.length);
+    for (int i = 0; i < blocks.length; ++i) {
+      final OpcUaHistoryColumns columns = expected.get(i);
+      assertEquals(columns.size, blocks[i].count);
+      assertEquals(columns.times[0], blocks[i].minTime);
+      assertEquals(columns.times[columns.size - 1], blocks[i].maxTime);
+      final OpcUaHistoryColumns decoded = new OpcUaHistoryColumns(1);
+      segments.decode(blocks[i], decoded);
+      OpcUaHistoryCodecTest.assertColumnsEquals(columns, decoded);
+    }
+  }
+}